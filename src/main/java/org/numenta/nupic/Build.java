@@ -243,6 +243,16 @@ public class Build<T> implements Serializable {
         paramMap.put(KEY.CELLS_PER_COLUMN, cellsPerColumn);
     }
 
+    /**
+     * Stores proximal and distal permanences as floats instead of doubles,
+     * roughly halving the memory used by each synapse's permanence.
+     *
+     * @param singlePrecisionPermanences
+     */
+    public void setSinglePrecisionPermanences(boolean singlePrecisionPermanences) {
+        paramMap.put(KEY.SINGLE_PRECISION_PERMANENCES, singlePrecisionPermanences);
+    }
+
     /**
      * Sets the activation threshold.
      * <p/>
@@ -334,6 +344,66 @@ public class Build<T> implements Serializable {
         paramMap.put(KEY.PERMANENCE_DECREMENT, permanenceDecrement);
     }
 
+    /**
+     * The maximum number of segments a cell may grow. When a cell
+     * exceeds it, its least recently active segment is destroyed.
+     *
+     * @param maxSegmentsPerCell
+     */
+    public void setMaxSegmentsPerCell(int maxSegmentsPerCell) {
+        paramMap.put(KEY.MAX_SEGMENTS_PER_CELL, maxSegmentsPerCell);
+    }
+
+    /**
+     * The maximum number of synapses a segment may hold. When a segment
+     * exceeds it, its weakest synapses are destroyed.
+     *
+     * @param maxSynapsesPerSegment
+     */
+    public void setMaxSynapsesPerSegment(int maxSynapsesPerSegment) {
+        paramMap.put(KEY.MAX_SYNAPSES_PER_SEGMENT, maxSynapsesPerSegment);
+    }
+
+    /**
+     * Number of threads across which the temporal memory partitions its
+     * columns. Values above 1 select the column partitioned algorithm.
+     *
+     * @param tmParallelism
+     */
+    public void setTmParallelism(int tmParallelism) {
+        paramMap.put(KEY.TM_PARALLELISM, tmParallelism);
+    }
+
+    /**
+     * Makes the temporal memory tally each cycle's active synapses in int
+     * counters indexed by segment rather than in a set per segment.
+     *
+     * @param countActiveSynapses
+     */
+    public void setCountActiveSynapses(boolean countActiveSynapses) {
+        paramMap.put(KEY.COUNT_ACTIVE_SYNAPSES, countActiveSynapses);
+    }
+
+    /**
+     * Keeps the distal connections of the temporal memory in a flat
+     * store of primitive arrays addressed by cell, segment and synapse index.
+     *
+     * @param flatConnections
+     */
+    public void setFlatConnections(boolean flatConnections) {
+        paramMap.put(KEY.FLAT_CONNECTIONS, flatConnections);
+    }
+
+    /**
+     * Makes distal learning decrement the permanences of a segment's inactive
+     * synapses through a per segment offset instead of one by one.
+     *
+     * @param lazyPermanenceDecrement
+     */
+    public void setLazyPermanenceDecrement(boolean lazyPermanenceDecrement) {
+        paramMap.put(KEY.LAZY_PERMANENCE_DECREMENT, lazyPermanenceDecrement);
+    }
+
     ////////////////////////////// SPACIAL POOLER PARAMS //////////////////////////////////
 
     /**
@@ -603,6 +673,16 @@ public class Build<T> implements Serializable {
         paramMap.put(KEY.SP_VERBOSITY, spVerbosity);
     }
 
+    /**
+     * Number of threads across which the spatial pooler partitions
+     * its per column work. 1 computes serially.
+     *
+     * @param spParallelism
+     */
+    public void setSpParallelism(int spParallelism) {
+        paramMap.put(KEY.SP_PARALLELISM, spParallelism);
+    }
+
     final static ObjectMapper mapper = new ObjectMapper();
     static {
         mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
@@ -643,6 +723,7 @@ public class Build<T> implements Serializable {
             .append("\t").append("dutyCyclePeriod :  ").append(get(KEY.DUTY_CYCLE_PERIOD)).append("\n")
             .append("\t").append("maxBoost :  ").append(get(KEY.MAX_BOOST)).append("\n")
             .append("\t").append("spVerbosity :  ").append(get(KEY.SP_VERBOSITY)).append("\n")
+            .append("\t").append("spParallelism :  ").append(get(KEY.SP_PARALLELISM)).append("\n")
             .append("}\n\n")
 
             .append("{ Temporal\n")
@@ -655,6 +736,9 @@ public class Build<T> implements Serializable {
             .append("\t").append("minThreshold :  ").append(get(KEY.MIN_THRESHOLD)).append("\n")
             .append("\t").append("permanenceIncrement :  ").append(get(KEY.PERMANENCE_INCREMENT)).append("\n")
             .append("\t").append("permanenceDecrement :  ").append(get(KEY.PERMANENCE_DECREMENT)).append("\n")
+            .append("\t").append("maxSegmentsPerCell :  ").append(get(KEY.MAX_SEGMENTS_PER_CELL)).append("\n")
+            .append("\t").append("maxSynapsesPerSegment :  ").append(get(KEY.MAX_SYNAPSES_PER_SEGMENT)).append("\n")
+            .append("\t").append("tmParallelism :  ").append(get(KEY.TM_PARALLELISM)).append("\n")
             .append("}\n\n");
 
         return sb.toString();
@@ -22,8 +22,13 @@
 
 package org.numenta.nupic;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -34,15 +39,22 @@ import java.util.Set;
 
 import org.numenta.nupic.model.Cell;
 import org.numenta.nupic.model.Column;
+import org.numenta.nupic.model.ConnectionStore;
 import org.numenta.nupic.model.DistalDendrite;
 import org.numenta.nupic.model.Pool;
 import org.numenta.nupic.model.ProximalDendrite;
 import org.numenta.nupic.model.Segment;
+import org.numenta.nupic.model.SegmentPool;
 import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.FlatComputeCycle;
 import org.numenta.nupic.research.SpatialPooler;
 import org.numenta.nupic.research.SpatialPooler.ColumnRadius;
+import org.numenta.nupic.research.SynapseCounts;
 import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.BinaryReader;
+import org.numenta.nupic.util.BinaryWriter;
 import org.numenta.nupic.util.MersenneTwister;
+import org.numenta.nupic.util.NeighborhoodTable;
 import org.numenta.nupic.util.SparseBinaryMatrix;
 import org.numenta.nupic.util.SparseBinaryMatrixTrueCount;
 import org.numenta.nupic.util.SparseMatrix;
@@ -94,6 +106,10 @@ public class CLA {
     private int dutyCyclePeriod = 1000;
     private double maxBoost = 10.0;
     private int spVerbosity = 0;
+    /** Number of threads the spatial pooler partitions columns across; 1 computes serially */
+    private int spParallelism = 1;
+    /** Store proximal and distal permanences as floats rather than doubles */
+    private boolean singlePrecisionPermanences = false;
     
     private int numInputs = 1;  //product of input dimensions
     private int numColumns = 1; //product of column dimensions
@@ -147,6 +163,13 @@ public class CLA {
      * average number of connected synapses per column.
      */
     private int inhibitionRadius = 0;
+    /**
+     * Cached neighborhoods of each column for the current inhibition radius,
+     * used by local inhibition (no wrap around) and by the local minimum duty 
+     * cycle update (wrap around). Rebuilt when the radius changes.
+     */
+    private NeighborhoodTable inhibitionNeighborhoods;
+    private NeighborhoodTable wrappedNeighborhoods;
     
     private final int proximalSynapseCounter = 0;
     
@@ -211,6 +234,14 @@ public class CLA {
      * are decremented during learning.
      */
     private double permanenceDecrement = 0.10;
+    /** The maximum number of segments per cell; unbounded unless set */
+    private int maxSegmentsPerCell = Integer.MAX_VALUE;
+    /** The maximum number of synapses per segment; unbounded unless set */
+    private int maxSynapsesPerSegment = Integer.MAX_VALUE;
+    /** Number of threads the temporal memory partitions columns across; 1 computes serially */
+    private int tmParallelism = 1;
+    /** Number of {@link TemporalMemory} cycles, used to date segment activity */
+    protected int tmIterationNum = 0;
     
     /** The main data structure containing columns, cells, and synapses */
     private SparseObjectMatrix<Column> memory;
@@ -225,6 +256,22 @@ public class CLA {
     
     protected Map<Segment, List<Synapse>> synapses;
     
+    /** Count active synapses per segment instead of collecting them into sets */
+    private boolean countActiveSynapses = false;
+    /** Per segment active synapse counts of the last cycle, when countActiveSynapses is set */
+    protected SynapseCounts synapseCounts;
+    
+    /** Defer the decrements of inactive distal synapses through a per segment offset */
+    private boolean lazyPermanenceDecrement = false;
+    
+    /** Keep distal connections in a flat {@link ConnectionStore} instead of the maps above */
+    private boolean flatConnections = false;
+    /** Primitive array storage of the distal connections, when flatConnections is set */
+    protected ConnectionStore connectionStore;
+    /** Current and spare cycle state of the flat {@link TemporalMemory} */
+    protected FlatComputeCycle flatCycle;
+    protected FlatComputeCycle spareFlatCycle;
+    
     /** Helps index each new Segment */
     protected int segmentSerial = 0;
     
@@ -268,6 +315,89 @@ public class CLA {
         activeSynapsesForSegment.clear();
     }
     
+    /**
+     * Returns a copy of this memory for speculative inference or what-if
+     * experiments, which from then on computes and learns independently of
+     * this one and continues exactly as this one would.
+     * 
+     * Only memories whose temporal memory keeps its connections in a
+     * {@link ConnectionStore} (see {@link KEY#FLAT_CONNECTIONS}) can be forked.
+     * The copy shares this memory's connections rather than copying them:
+     * each column's {@link Pool} is copied by whichever memory first sets that
+     * column's permanences, and the store shares its id lists and pages of
+     * synapses the same way (see {@link org.numenta.nupic.model.FlatConnectionStore#fork()}).
+     * Only the columns and cells, the per column statistics, the connected
+     * matrix and the last cycle are copied at once, so the cost of forking
+     * grows with the number of columns and cells but not of synapses. A
+     * memory with connections held as objects may be copied in full through
+     * a {@link Snapshot} instead.
+     * 
+     * Neither memory may be computed on while forking; afterwards each may be,
+     * concurrently, by its own {@link SpatialPooler} and {@link TemporalMemory}
+     * configured alike.
+     * 
+     * @return  the copy
+     * @throws IllegalStateException    if the memory isn't initialized by a pooler and a
+     *                                  temporal memory, doesn't have flat connections or
+     *                                  its generator isn't a {@link MersenneTwister}
+     */
+    public CLA fork() {
+        if(connectedCounts == null || cells == null) {
+            throw new IllegalStateException("The memory must be initialized by a pooler and a temporal memory");
+        }
+        if(connectionStore == null) {
+            throw new IllegalStateException(
+                "Only memories with flat connections can be forked; copy others through a Snapshot");
+        }
+        if(!(random instanceof MersenneTwister)) {
+            throw new IllegalStateException("Only memories with a MersenneTwister can be forked: " + random);
+        }
+        
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BinaryWriter out = new BinaryWriter(Channels.newChannel(bytes));
+            Snapshot.writeParameters(this, out);
+            Snapshot.writeColumnState(this, out);
+            Snapshot.writeCycle(this, out);
+            Snapshot.writeRandom(this, out);
+            out.flush();
+            BinaryReader in = new BinaryReader(ByteBuffer.wrap(bytes.toByteArray()));
+            
+            CLA copy = new CLA();
+            MersenneTwister copyRandom = new MersenneTwister();
+            copy.setRandom(copyRandom);
+            Snapshot.readParameters(copy, in);
+            
+            new SpatialPooler().initMatrices(copy);
+            Snapshot.readColumnState(copy, in);
+            if(potentialPools == null) {
+                copy.setPotentialPools(null);
+            }else{
+                for(int i = 0;i < numColumns;i++) {
+                    Pool pool = potentialPools.getIndex(i);
+                    copy.getColumn(i).getProximalDendrite().sharePool(pool);
+                    copy.getPotentialPools().setIndex(pool, i);
+                }
+            }
+            for(int i = 0;i < numColumns;i++) {
+                for(int input : connectedCounts.getRowIndexes(i)) {
+                    copy.getConnectedCounts().set(true, i, input);
+                }
+            }
+            
+            copy.setConnectionStore(connectionStore.fork());
+            new TemporalMemory().init(copy);
+            copy.tmIterationNum = tmIterationNum;
+            copy.segmentSerial = segmentSerial;
+            copy.synapseSerial = synapseSerial;
+            Snapshot.readCycle(copy, in);
+            Snapshot.readRandom(copyRandom, in);
+            return copy;
+        }catch(IOException e) {
+            throw new IllegalStateException("Forking failed", e);
+        }
+    }
+    
     /**
      * Returns the segment counter
      * @return
@@ -450,6 +580,30 @@ public class CLA {
         this.inhibitionRadius = radius;
     }
     
+    /**
+     * Returns the cached neighborhood table of the specified wrap setting,
+     * or null if none has been built yet.
+     * 
+     * @param wrapAround	whether the neighborhoods wrap around the borders
+     * @return
+     */
+    public NeighborhoodTable getNeighborhoods(boolean wrapAround) {
+        return wrapAround ? wrappedNeighborhoods : inhibitionNeighborhoods;
+    }
+    
+    /**
+     * Caches the specified neighborhood table under its wrap setting.
+     * 
+     * @param table		the {@link NeighborhoodTable} to cache
+     */
+    public void setNeighborhoods(NeighborhoodTable table) {
+        if(table.isWrapAround()) {
+            wrappedNeighborhoods = table;
+        }else{
+            inhibitionNeighborhoods = table;
+        }
+    }
+    
     /**
      * Returns the product of the input dimensions 
      * @return  the product of the input dimensions 
@@ -946,6 +1100,48 @@ public class CLA {
     public int getSpVerbosity() {
         return spVerbosity;
     }
+    
+    /**
+     * Sets the number of threads across which the {@link SpatialPooler} 
+     * partitions its per column work. A value of 1 (the default) computes
+     * serially; any value produces the same results.
+     * 
+     * @param spParallelism
+     */
+    public void setSpParallelism(int spParallelism) {
+        this.spParallelism = spParallelism;
+    }
+    
+    /**
+     * Returns the number of threads the {@link SpatialPooler} partitions
+     * its per column work across.
+     * @return
+     * @see {@link #setSpParallelism(int)}
+     */
+    public int getSpParallelism() {
+        return spParallelism;
+    }
+    
+    /**
+     * Selects single precision permanence storage for both proximal and distal
+     * {@link Synapse}s. Permanences are rounded to float when stored, which
+     * roughly halves the memory held by each synapse's permanence map. Must
+     * be set before the synapses are created.
+     * 
+     * @param singlePrecisionPermanences
+     */
+    public void setSinglePrecisionPermanences(boolean singlePrecisionPermanences) {
+        this.singlePrecisionPermanences = singlePrecisionPermanences;
+    }
+    
+    /**
+     * Returns true if permanences are stored in single precision
+     * @return
+     * @see {@link #setSinglePrecisionPermanences(boolean)}
+     */
+    public boolean getSinglePrecisionPermanences() {
+        return singlePrecisionPermanences;
+    }
 
     /**
      * Sets the synPermTrimThreshold
@@ -1111,6 +1307,7 @@ public class CLA {
         System.out.println("dutyCyclePeriod            = " + getDutyCyclePeriod());
         System.out.println("maxBoost                   = " + getMaxBoost());
         System.out.println("spVerbosity                = " + getSpVerbosity());
+        System.out.println("spParallelism              = " + getSpParallelism());
         System.out.println("version                    = " + getVersion());
     }
     
@@ -1231,6 +1428,132 @@ public class CLA {
     	this.activeSynapsesForSegment = syns;
     }
     
+    /**
+     * Selects the counting mode of the {@link TemporalMemory}, in which the
+     * synapses activated each cycle are tallied in int counters indexed by
+     * segment instead of being collected into a {@link Set} per segment.
+     * The active synapses map is left empty in this mode. Must be set before
+     * the {@code TemporalMemory} is initialized.
+     * 
+     * @param countActiveSynapses
+     */
+    public void setCountActiveSynapses(boolean countActiveSynapses) {
+        this.countActiveSynapses = countActiveSynapses;
+    }
+    
+    /**
+     * Returns true if active synapses are counted rather than collected
+     * @return
+     */
+    public boolean getCountActiveSynapses() {
+        return countActiveSynapses;
+    }
+    
+    /**
+     * Makes distal learning decrement lazily: adapting a segment raises a
+     * decrement offset kept by its {@link SegmentPool} and rewrites only the
+     * active synapses, so learning costs time in proportion to the active
+     * synapses rather than to the segment size. Permanences read the same as
+     * with eager decrements, up to rounding. The flat connection store
+     * always decrements eagerly.
+     * 
+     * @param lazyPermanenceDecrement
+     */
+    public void setLazyPermanenceDecrement(boolean lazyPermanenceDecrement) {
+        this.lazyPermanenceDecrement = lazyPermanenceDecrement;
+    }
+    
+    /**
+     * Returns true if distal permanence decrements are deferred
+     * @return
+     * @see {@link #setLazyPermanenceDecrement(boolean)}
+     */
+    public boolean getLazyPermanenceDecrement() {
+        return lazyPermanenceDecrement;
+    }
+    
+    /**
+     * Returns the active synapse counts of the last cycle, or null
+     * if the {@link TemporalMemory} is not in counting mode
+     * @return
+     */
+    public SynapseCounts getSynapseCounts() {
+        return synapseCounts;
+    }
+    
+    /**
+     * Sets the active synapse counts
+     * @param counts
+     */
+    public void setSynapseCounts(SynapseCounts counts) {
+        this.synapseCounts = counts;
+    }
+    
+    /**
+     * Selects the flat {@link ConnectionStore} for the distal connections.
+     * When set, the {@link TemporalMemory} addresses cells, segments and
+     * synapses by int index and keeps their attributes in primitive arrays
+     * instead of the {@link Cell} keyed maps. Must be set before the
+     * {@code TemporalMemory} is initialized.
+     * 
+     * @param flatConnections
+     */
+    public void setFlatConnections(boolean flatConnections) {
+        this.flatConnections = flatConnections;
+    }
+    
+    /**
+     * Returns true if the distal connections are kept in a flat {@link ConnectionStore}
+     * @return
+     */
+    public boolean getFlatConnections() {
+        return flatConnections;
+    }
+    
+    /**
+     * Returns the flat {@link ConnectionStore} holding the distal connections,
+     * or null if they are held in the {@link Cell} keyed maps.
+     * @return
+     */
+    public ConnectionStore getConnectionStore() {
+        return connectionStore;
+    }
+    
+    /**
+     * Sets the flat {@link ConnectionStore} holding the distal connections
+     * @param store
+     */
+    public void setConnectionStore(ConnectionStore store) {
+        this.connectionStore = store;
+    }
+    
+    /**
+     * Returns the state of the last flat {@link TemporalMemory} cycle
+     * @return
+     */
+    public FlatComputeCycle getFlatCycle() {
+        return flatCycle;
+    }
+    
+    /**
+     * Returns the cycle buffer the next flat {@link TemporalMemory} step
+     * will write into
+     * @return
+     */
+    public FlatComputeCycle getSpareFlatCycle() {
+        return spareFlatCycle;
+    }
+    
+    /**
+     * Sets the current and spare flat cycle buffers
+     * @param current
+     * @param spare
+     */
+    public void setFlatCycles(FlatComputeCycle current, FlatComputeCycle spare) {
+        this.flatCycle = current;
+        this.spareFlatCycle = spare;
+    }
+    
     /**
      * Returns the mapping of {@link Cell}s to their reverse mapped 
      * {@link Synapse}s.
@@ -1240,16 +1563,32 @@ public class CLA {
      *                  {@link Synapse}s.   
      */
     public Set<Synapse> getReceptorSynapses(Cell cell) {
+        return getReceptorSynapses(cell, true);
+    }
+    
+    /**
+     * Returns the {@link Synapse}s which have the specified {@link Cell} as
+     * their source cell. When the cell has none and createIfNotExist is false,
+     * an empty immutable set is returned and the mapping is left untouched,
+     * so concurrent readers may call this while no thread is growing synapses.
+     * 
+     * @param cell              the {@link Cell} used as a key.
+     * @param createIfNotExist  whether to add an empty set for a cell without one
+     * @return          the cell's receptor {@link Synapse}s
+     */
+    public Set<Synapse> getReceptorSynapses(Cell cell, boolean createIfNotExist) {
         if(cell == null) {
             throw new IllegalArgumentException("Cell was null");
         }
         
-        if(receptorSynapses == null) {
-            receptorSynapses = new LinkedHashMap<>();
-        }
-        
-        Set<Synapse> retVal = null;
-        if((retVal = receptorSynapses.get(cell)) == null) {
+        Set<Synapse> retVal = receptorSynapses == null ? null : receptorSynapses.get(cell);
+        if(retVal == null) {
+            if(!createIfNotExist) {
+                return Collections.emptySet();
+            }
+            if(receptorSynapses == null) {
+                receptorSynapses = new LinkedHashMap<>();
+            }
             receptorSynapses.put(cell, retVal = new LinkedHashSet<>());
         }
         
@@ -1263,16 +1602,31 @@ public class CLA {
      * @return          the mapping of {@link Cell}s to their {@link DistalDendrite}s.
      */
     public List<DistalDendrite> getSegments(Cell cell) {
+        return getSegments(cell, true);
+    }
+    
+    /**
+     * Returns the {@link DistalDendrite}s of the specified {@link Cell}. When
+     * the cell has none and createIfNotExist is false, an empty immutable list
+     * is returned and the mapping is left untouched.
+     * 
+     * @param cell              the {@link Cell} used as a key.
+     * @param createIfNotExist  whether to add an empty list for a cell without one
+     * @return          the cell's {@link DistalDendrite}s
+     */
+    public List<DistalDendrite> getSegments(Cell cell, boolean createIfNotExist) {
         if(cell == null) {
             throw new IllegalArgumentException("Cell was null");
         }
         
-        if(segments == null) {
-            segments = new LinkedHashMap<>();
-        }
-        
-        List<DistalDendrite> retVal = null;
-        if((retVal = segments.get(cell)) == null) {
+        List<DistalDendrite> retVal = segments == null ? null : segments.get(cell);
+        if(retVal == null) {
+            if(!createIfNotExist) {
+                return Collections.emptyList();
+            }
+            if(segments == null) {
+                segments = new LinkedHashMap<>();
+            }
             segments.put(cell, retVal = new ArrayList<>());
         }
         
@@ -1286,22 +1640,48 @@ public class CLA {
      * @return          the mapping of {@link DistalDendrite}s to their {@link Synapse}s.
      */
     public List<Synapse> getSynapses(DistalDendrite segment) {
+        return getSynapses(segment, true);
+    }
+    
+    /**
+     * Returns the {@link Synapse}s of the specified {@link DistalDendrite}.
+     * When the segment has none and createIfNotExist is false, an empty
+     * immutable list is returned and the mapping is left untouched.
+     * 
+     * @param segment           the {@link DistalDendrite} used as a key.
+     * @param createIfNotExist  whether to add an empty list for a segment without one
+     * @return          the segment's {@link Synapse}s
+     */
+    public List<Synapse> getSynapses(DistalDendrite segment, boolean createIfNotExist) {
         if(segment == null) {
             throw new IllegalArgumentException("Segment was null");
         }
         
-        if(synapses == null) {
-            synapses = new LinkedHashMap<>();
-        }
-        
-        List<Synapse> retVal = null;
-        if((retVal = synapses.get(segment)) == null) {
+        List<Synapse> retVal = synapses == null ? null : synapses.get(segment);
+        if(retVal == null) {
+            if(!createIfNotExist) {
+                return Collections.emptyList();
+            }
+            if(synapses == null) {
+                synapses = new LinkedHashMap<>();
+            }
             synapses.put(segment, retVal = new ArrayList<>());
         }
         
         return retVal;
     }
     
+    /**
+     * Drops the {@link Synapse} list of a destroyed {@link DistalDendrite}
+     * 
+     * @param segment   the destroyed segment
+     */
+    public void removeSynapses(DistalDendrite segment) {
+        if(synapses != null) {
+            synapses.remove(segment);
+        }
+    }
+    
     /**
      * Returns the mapping of {@link ProximalDendrite}s to their {@link Synapse}s.
      * 
@@ -1558,6 +1938,82 @@ public class CLA {
         return this.permanenceDecrement;
     }
     
+    /**
+     * The maximum number of segments a cell may grow. When a cell
+     * exceeds it while learning, its least recently active segment is
+     * destroyed. By default cells may grow any number of segments.
+     * 
+     * @param maxSegmentsPerCell
+     */
+    public void setMaxSegmentsPerCell(int maxSegmentsPerCell) {
+        this.maxSegmentsPerCell = maxSegmentsPerCell;
+    }
+    
+    /**
+     * Returns the maximum number of segments per cell
+     * @return
+     */
+    public int getMaxSegmentsPerCell() {
+        return maxSegmentsPerCell;
+    }
+    
+    /**
+     * The maximum number of synapses a segment may hold. When a segment
+     * exceeds it, its weakest synapses are destroyed. By default segments
+     * may hold any number of synapses.
+     * 
+     * @param maxSynapsesPerSegment
+     */
+    public void setMaxSynapsesPerSegment(int maxSynapsesPerSegment) {
+        this.maxSynapsesPerSegment = maxSynapsesPerSegment;
+    }
+    
+    /**
+     * Returns the maximum number of synapses per segment
+     * @return
+     */
+    public int getMaxSynapsesPerSegment() {
+        return maxSynapsesPerSegment;
+    }
+    
+    /**
+     * Sets the number of threads across which the {@link TemporalMemory}
+     * partitions its columns. A value of 1 (the default) runs the serial
+     * algorithm; greater values run the column partitioned algorithm, whose
+     * results are the same for any number of threads.
+     * 
+     * @param tmParallelism
+     */
+    public void setTmParallelism(int tmParallelism) {
+        this.tmParallelism = tmParallelism;
+    }
+    
+    /**
+     * Returns the number of threads the {@link TemporalMemory} partitions
+     * its columns across.
+     * @return
+     * @see {@link #setTmParallelism(int)}
+     */
+    public int getTmParallelism() {
+        return tmParallelism;
+    }
+    
+    /**
+     * Returns the number of {@link TemporalMemory} cycles computed
+     * @return
+     */
+    public int getTMIterationNum() {
+        return tmIterationNum;
+    }
+    
+    /**
+     * Sets the number of {@link TemporalMemory} cycles computed
+     * @param num
+     */
+    public void setTMIterationNum(int num) {
+        this.tmIterationNum = num;
+    }
+    
     /**
      * Converts a {@link Collection} of {@link Cell}s to a list
      * of cell indexes.
@@ -0,0 +1,587 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Pool;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.util.BinaryReader;
+import org.numenta.nupic.util.BinaryWriter;
+import org.numenta.nupic.util.MersenneTwister;
+
+/**
+ * Keeps frequent recovery points of a {@link CLA} in a directory without
+ * writing the whole model each time. The directory holds one full
+ * {@link Snapshot}, the base, and append only logs of deltas, each delta
+ * holding only what changed since the checkpoint before it:
+ * <ul>
+ *  <li>the permanences of the columns whose proximal permanences were set;</li>
+ *  <li>every segment of the cells which gained or lost segments;</li>
+ *  <li>the segments of other cells which gained, lost or adapted synapses
+ *  or were used;</li>
+ *  <li>the pooler's per column statistics, the temporal memory's last cycle,
+ *  the counters and the generator's state, which change on every record.</li>
+ * </ul>
+ * Changes are found through the dirty flags of {@link Cell},
+ * {@link DistalDendrite} and {@link org.numenta.nupic.model.ProximalDendrite},
+ * which a checkpoint clears. Parameters are assumed not to change once the
+ * base is written.
+ *
+ * Each delta is a record of its length, a CRC32 checksum and its sequence
+ * number, forced to disk before {@link #checkpoint()} returns. A record torn
+ * by a crash fails its checksum and is ignored by {@link #recover(Path)},
+ * which restores the last complete checkpoint.
+ *
+ * {@link #compact()} folds the logged deltas into a new base. It only reads
+ * files and works on its own copy of the model, so it may run on a
+ * background thread while the model keeps computing and checkpointing; the
+ * log it folds is closed first and new deltas go to a new log. The base is
+ * replaced atomically, and deltas it already holds are skipped by sequence
+ * number, so a crash at any point leaves a recoverable directory.
+ *
+ * {@link #checkpoint()} must be called from the thread computing on the
+ * model, between records. Like {@link Snapshot}, flat connection stores are
+ * not supported and the generator must be a {@link MersenneTwister}.
+ */
+public class Checkpointer implements Closeable {
+    /** The first four bytes of a base: "HTMC" */
+    public static final int MAGIC = 0x48544D43;
+    /** The version of the format written */
+    public static final int VERSION = 1;
+
+    private static final String BASE = "checkpoint.base";
+    private static final String LOG_PREFIX = "checkpoint-";
+    private static final String LOG_SUFFIX = ".deltas";
+    /** Magic, version and sequence number preceding the base's snapshot */
+    private static final int BASE_HEADER = 16;
+    /** Body length, checksum and sequence number of a delta record */
+    private static final int RECORD_HEADER = 16;
+
+    private final CLA c;
+    private final Path directory;
+    private final boolean floats;
+    /** Guards the log and the sequence number against compaction */
+    private final Object logLock = new Object();
+    /** Serializes compactions */
+    private final Object compactLock = new Object();
+    private FileChannel log;
+    private int logNumber;
+    private long sequence;
+
+    /**
+     * Checkpoints with double precision permanences
+     *
+     * @param c         the memory to checkpoint
+     * @param directory the directory of the checkpoints, created if needed
+     * @throws IOException if the base can't be written
+     * @see #Checkpointer(CLA, Path, boolean)
+     */
+    public Checkpointer(CLA c, Path directory) throws IOException {
+        this(c, directory, false);
+    }
+
+    /**
+     * Starts checkpointing the specified {@link CLA} by writing a new base,
+     * which supersedes any checkpoints already in the directory, for example
+     * those the memory was recovered from.
+     *
+     * @param c                 the memory to checkpoint
+     * @param directory         the directory of the checkpoints, created if needed
+     * @param floatPermanences  if true, permanences are rounded to floats
+     * @throws IOException if the base can't be written
+     * @throws IllegalArgumentException if the memory can't be saved by a {@link Snapshot}
+     */
+    public Checkpointer(CLA c, Path directory, boolean floatPermanences) throws IOException {
+        this.c = c;
+        this.directory = directory;
+        this.floats = floatPermanences || c.getSinglePrecisionPermanences();
+
+        Files.createDirectories(directory);
+        List<Path> logs = listLogs(directory);
+        sequence = readBaseSequence(directory);
+        for(Path path : logs) {
+            for(Delta delta : readLog(path)) {
+                sequence = Math.max(sequence, delta.sequence);
+            }
+        }
+
+        writeBase(c, directory, ++sequence, floats);
+        clearDirty(c);
+        for(Path path : logs) {
+            Files.delete(path);
+        }
+        logNumber = logs.isEmpty() ? 0 : logNumber(logs.get(logs.size() - 1)) + 1;
+        log = openLog(directory, logNumber);
+    }
+
+    /**
+     * Returns the sequence number of the last checkpoint
+     * @return
+     */
+    public long getSequence() {
+        synchronized(logLock) {
+            return sequence;
+        }
+    }
+
+    /**
+     * Appends the changes since the last checkpoint as a delta and forces
+     * it to disk.
+     *
+     * @return  the checkpoint's sequence number
+     * @throws IOException if the delta can't be written, in which case the
+     *                     changes are kept for the next checkpoint
+     * @throws IllegalStateException if closed
+     */
+    public long checkpoint() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryWriter out = new BinaryWriter(Channels.newChannel(bytes));
+        writeDelta(c, out, floats);
+        out.flush();
+
+        synchronized(logLock) {
+            if(log == null) {
+                throw new IllegalStateException("The checkpointer is closed");
+            }
+            long next = sequence + 1;
+            byte[] body = bytes.toByteArray();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + body.length);
+            record.putInt(body.length).putInt(0).putLong(next).put(body);
+            record.putInt(4, checksum(record.array(), 8, 8 + body.length));
+            record.flip();
+            long size = log.size();
+            try {
+                while(record.hasRemaining()) {
+                    log.write(record);
+                }
+                log.force(false);
+            }catch(IOException e) {
+                //Drop a partly written record, which would hide the records after it
+                log.truncate(size);
+                throw e;
+            }
+            sequence = next;
+        }
+        clearDirty(c);
+        return sequence;
+    }
+
+    /**
+     * Folds the deltas logged so far into a new base and deletes their logs.
+     * May be called from any thread, concurrently with {@link #checkpoint()}.
+     *
+     * @throws IOException if the checkpoints can't be read or the base can't be written
+     * @throws IllegalStateException if closed
+     */
+    public void compact() throws IOException {
+        synchronized(compactLock) {
+            List<Path> logs = new ArrayList<>();
+            synchronized(logLock) {
+                if(log == null) {
+                    throw new IllegalStateException("The checkpointer is closed");
+                }
+                log.close();
+                log = openLog(directory, ++logNumber);
+                for(Path path : listLogs(directory)) {
+                    if(logNumber(path) < logNumber) {
+                        logs.add(path);
+                    }
+                }
+            }
+
+            CLA merged = readBase(directory);
+            long last = applyLogs(merged, logs, readBaseSequence(directory));
+            writeBase(merged, directory, last, floats);
+            for(Path path : logs) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Closes the current log. The checkpoints stay recoverable.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized(logLock) {
+            if(log != null) {
+                log.close();
+                log = null;
+            }
+        }
+    }
+
+    /**
+     * Restores the last complete checkpoint in a directory into a new
+     * {@link CLA}, ready for use by a {@link org.numenta.nupic.research.SpatialPooler}
+     * and a {@link org.numenta.nupic.research.TemporalMemory} configured alike.
+     *
+     * @param directory the directory of the checkpoints
+     * @return  the restored memory, whose dirty flags are clear
+     * @throws IOException if there is no base or the checkpoints can't be read
+     */
+    public static CLA recover(Path directory) throws IOException {
+        CLA c = readBase(directory);
+        applyLogs(c, listLogs(directory), readBaseSequence(directory));
+        clearDirty(c);
+        return c;
+    }
+
+    /**
+     * Writes a snapshot with a header holding its sequence number to a
+     * temporary file, then moves it over the base.
+     */
+    private static void writeBase(CLA c, Path directory, long sequence, boolean floats) throws IOException {
+        Path temp = directory.resolve(BASE + ".tmp");
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer header = ByteBuffer.allocate(BASE_HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putLong(sequence).flip();
+            while(header.hasRemaining()) {
+                channel.write(header);
+            }
+            Snapshot.write(c, channel, floats);
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(BASE), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the sequence number of the base, or 0 if there is none
+     */
+    private static long readBaseSequence(Path directory) throws IOException {
+        Path base = directory.resolve(BASE);
+        if(!Files.exists(base)) {
+            return 0;
+        }
+        try(FileChannel channel = FileChannel.open(base, StandardOpenOption.READ)) {
+            return readBaseHeader(channel);
+        }
+    }
+
+    private static CLA readBase(Path directory) throws IOException {
+        try(FileChannel channel = FileChannel.open(directory.resolve(BASE), StandardOpenOption.READ)) {
+            readBaseHeader(channel);
+            return Snapshot.read(channel);
+        }
+    }
+
+    private static long readBaseHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BASE_HEADER);
+        while(header.hasRemaining()) {
+            if(channel.read(header) < 0) {
+                throw new EOFException("Truncated checkpoint base");
+            }
+        }
+        header.flip();
+        int magic = header.getInt();
+        if(magic != MAGIC) {
+            throw new StreamCorruptedException("Not a checkpoint base: bad magic " + Integer.toHexString(magic));
+        }
+        int version = header.getInt();
+        if(version != VERSION) {
+            throw new StreamCorruptedException("Unsupported checkpoint version " + version);
+        }
+        return header.getLong();
+    }
+
+    /**
+     * Applies, in order, the logged deltas following the specified sequence
+     * number and returns the last one applied
+     */
+    private static long applyLogs(CLA c, List<Path> logs, long sequence) throws IOException {
+        for(Path path : logs) {
+            for(Delta delta : readLog(path)) {
+                if(delta.sequence <= sequence) continue;
+                if(delta.sequence != sequence + 1) {
+                    throw new StreamCorruptedException("Missing checkpoint " + (sequence + 1) + " in " + path);
+                }
+                readDelta(c, new BinaryReader(delta.body));
+                sequence = delta.sequence;
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * A delta read from a log
+     */
+    private static class Delta {
+        final long sequence;
+        final ByteBuffer body;
+
+        Delta(long sequence, ByteBuffer body) {
+            this.sequence = sequence;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Reads the intact records of a log, stopping at a torn or corrupt one
+     */
+    private static List<Delta> readLog(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        List<Delta> deltas = new ArrayList<>();
+        while(buffer.remaining() >= RECORD_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if(length < 0 || length > buffer.remaining() - RECORD_HEADER ||
+                checksum(buffer.array(), start + 8, 8 + length) != buffer.getInt(start + 4)) {
+                break;
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.position(start + RECORD_HEADER).limit(start + RECORD_HEADER + length);
+            deltas.add(new Delta(buffer.getLong(start + 8), body));
+            buffer.position(start + RECORD_HEADER + length);
+        }
+        return deltas;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Returns the logs in the directory in the order they were written
+     */
+    private static List<Path> listLogs(Path directory) throws IOException {
+        List<Path> logs = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for(Path path : stream) {
+                logs.add(path);
+            }
+        }
+        Collections.sort(logs, new Comparator<Path>() {
+            @Override public int compare(Path a, Path b) {
+                return Integer.compare(logNumber(a), logNumber(b));
+            }
+        });
+        return logs;
+    }
+
+    private static int logNumber(Path log) {
+        String name = log.getFileName().toString();
+        return Integer.parseInt(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+    }
+
+    private static FileChannel openLog(Path directory, int number) throws IOException {
+        return FileChannel.open(directory.resolve(LOG_PREFIX + number + LOG_SUFFIX),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Writes what changed since the dirty flags were last cleared
+     */
+    static void writeDelta(CLA c, BinaryWriter out, boolean floats) throws IOException {
+        out.writeBoolean(floats);
+        out.writeVarInt(c.getTMIterationNum());
+        out.writeVarInt(c.getSegmentCount());
+        out.writeVarInt(c.getSynapseCount());
+
+        if(c.getPotentialPools() != null) {
+            Snapshot.writeColumnState(c, out);
+
+            int[] columns = new int[c.getNumColumns()];
+            int numColumns = 0;
+            for(int i = 0;i < c.getNumColumns();i++) {
+                if(c.getColumn(i).getProximalDendrite().isDirty()) {
+                    columns[numColumns++] = i;
+                }
+            }
+            out.writeIndexes(columns, numColumns);
+            for(int i = 0;i < numColumns;i++) {
+                Pool pool = c.getPotentialPools().getIndex(columns[i]);
+                double[] perms = pool.getPackedPermanences();
+                for(int j = 0;j < pool.getPackedSize();j++) {
+                    Snapshot.writePermanence(out, perms[j], floats);
+                }
+            }
+        }
+
+        if(c.getCells() != null) {
+            Cell[] cells = c.getCells();
+            int[] dirtyCells = new int[cells.length];
+            int numDirtyCells = 0;
+            List<DistalDendrite> dirtySegments = new ArrayList<>();
+            for(Cell cell : cells) {
+                if(cell.isDirty()) {
+                    dirtyCells[numDirtyCells++] = cell.getIndex();
+                    continue;
+                }
+                for(DistalDendrite dd : c.getSegments(cell, false)) {
+                    if(dd.isDirty()) {
+                        dirtySegments.add(dd);
+                    }
+                }
+            }
+
+            out.writeIndexes(dirtyCells, numDirtyCells);
+            for(int i = 0;i < numDirtyCells;i++) {
+                Snapshot.writeSegments(c, out, cells[dirtyCells[i]], floats);
+            }
+            out.writeVarInt(dirtySegments.size());
+            for(DistalDendrite dd : dirtySegments) {
+                out.writeVarInt(dd.getParentCell().getIndex());
+                out.writeVarInt(dd.getIndex());
+                Snapshot.writeSegment(c, out, dd, floats);
+            }
+
+            Snapshot.writeCycle(c, out);
+        }
+
+        Snapshot.writeRandom(c, out);
+    }
+
+    /**
+     * Applies a delta to a memory restored to the checkpoint before it.
+     * Replaced synapses are recreated by index, then each affected source
+     * cell's receptor synapses are put back in index order, the order they
+     * were created in.
+     */
+    static void readDelta(CLA c, BinaryReader in) throws IOException {
+        boolean floats = in.readBoolean();
+        c.setTMIterationNum(in.readVarInt());
+        c.setSegmentCount(in.readVarInt());
+        c.setSynapseCount(in.readVarInt());
+
+        if(c.getPotentialPools() != null) {
+            Snapshot.readColumnState(c, in);
+
+            for(int column : in.readIndexes()) {
+                if(column >= c.getNumColumns()) {
+                    throw new StreamCorruptedException("No column " + column);
+                }
+                double[] perms = new double[c.getPotentialPools().getIndex(column).getPackedSize()];
+                for(int j = 0;j < perms.length;j++) {
+                    perms[j] = Snapshot.readPermanence(in, floats);
+                }
+                c.getColumn(column).setProximalPermanencesPacked(c, perms);
+            }
+        }
+
+        if(c.getCells() != null) {
+            Cell[] cells = c.getCells();
+            List<Object[]> synapses = new ArrayList<>();
+            for(int index : in.readIndexes()) {
+                Cell cell = cell(cells, index);
+                for(DistalDendrite dd : new ArrayList<>(c.getSegments(cell))) {
+                    cell.destroySegment(c, dd);
+                }
+                Snapshot.readSegments(c, in, cell, synapses, floats);
+            }
+
+            int numSegments = in.readLength();
+            for(int i = 0;i < numSegments;i++) {
+                Cell cell = cell(cells, in.readVarInt());
+                int index = in.readVarInt();
+                DistalDendrite segment = null;
+                for(DistalDendrite dd : c.getSegments(cell)) {
+                    if(dd.getIndex() == index) {
+                        segment = dd;
+                        break;
+                    }
+                }
+                if(segment == null) {
+                    throw new StreamCorruptedException("No segment " + index + " on the cell " + cell.getIndex());
+                }
+                List<Synapse> existing = c.getSynapses(segment);
+                while(!existing.isEmpty()) {
+                    segment.destroySynapse(c, existing.get(existing.size() - 1));
+                }
+                Snapshot.readSegment(c, in, segment, synapses, floats);
+            }
+
+            Snapshot.createSynapses(c, synapses);
+            Set<Cell> sources = new LinkedHashSet<>();
+            for(Object[] s : synapses) {
+                sources.add((Cell)s[2]);
+            }
+            for(Cell source : sources) {
+                Set<Synapse> receptors = c.getReceptorSynapses(source);
+                List<Synapse> sorted = new ArrayList<>(receptors);
+                Collections.sort(sorted, new Comparator<Synapse>() {
+                    @Override public int compare(Synapse a, Synapse b) {
+                        return Integer.compare(a.getIndex(), b.getIndex());
+                    }
+                });
+                receptors.clear();
+                receptors.addAll(sorted);
+            }
+
+            Snapshot.readCycle(c, in);
+        }
+
+        Snapshot.readRandom((MersenneTwister)c.getRandom(), in);
+    }
+
+    private static Cell cell(Cell[] cells, int index) throws StreamCorruptedException {
+        if(index >= cells.length) {
+            throw new StreamCorruptedException("No cell " + index);
+        }
+        return cells[index];
+    }
+
+    /**
+     * Clears the dirty flags of the memory's columns, cells and segments
+     */
+    static void clearDirty(CLA c) {
+        if(c.getPotentialPools() != null) {
+            for(int i = 0;i < c.getNumColumns();i++) {
+                c.getColumn(i).getProximalDendrite().setDirty(false);
+            }
+        }
+        if(c.getCells() != null) {
+            for(Cell cell : c.getCells()) {
+                cell.setDirty(false);
+                for(DistalDendrite dd : c.getSegments(cell, false)) {
+                    dd.setDirty(false);
+                }
+            }
+        }
+    }
+}
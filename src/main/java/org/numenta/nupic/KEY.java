@@ -37,6 +37,10 @@ public enum KEY implements Serializable {
      * Seed for random number generator
      */
     SEED("seed", Integer.class),
+    /**
+     * Store proximal and distal permanences in single precision
+     */
+    SINGLE_PRECISION_PERMANENCES("singlePrecisionPermanences", Boolean.class),
 
     /////////// Temporal Memory Parameters ///////////
     /**
@@ -80,7 +84,33 @@ public enum KEY implements Serializable {
      * are decremented during learning.
      */
     PERMANENCE_DECREMENT("permanenceDecrement", Double.class, 0.0, 1.0),
+    /**
+     * The maximum number of segments a cell may grow; beyond it the
+     * least recently active segment is destroyed.
+     */
+    MAX_SEGMENTS_PER_CELL("maxSegmentsPerCell", Integer.class, 1, null),
+    /**
+     * The maximum number of synapses a segment may hold; beyond it the
+     * weakest synapses are destroyed.
+     */
+    MAX_SYNAPSES_PER_SEGMENT("maxSynapsesPerSegment", Integer.class, 1, null),
     TM_VERBOSITY("tmVerbosity", Integer.class, 0, 10),
+    /**
+     * Number of threads the temporal memory partitions its columns across
+     */
+    TM_PARALLELISM("tmParallelism", Integer.class, 1, null),
+    /**
+     * Count active synapses per segment instead of collecting them into sets
+     */
+    COUNT_ACTIVE_SYNAPSES("countActiveSynapses", Boolean.class),
+    /**
+     * Keep distal connections in a flat, primitive array store
+     */
+    FLAT_CONNECTIONS("flatConnections", Boolean.class),
+    /**
+     * Defer the permanence decrements of inactive distal synapses
+     */
+    LAZY_PERMANENCE_DECREMENT("lazyPermanenceDecrement", Boolean.class),
 
     /////////// Spatial Pooler Parameters ///////////
     INPUT_DIMENSIONS("inputDimensions", int[].class),
@@ -101,7 +131,8 @@ public enum KEY implements Serializable {
     MIN_PCT_ACTIVE_DUTY_CYCLE("minPctActiveDutyCycles", Double.class),//TODO add range here?
     DUTY_CYCLE_PERIOD("dutyCyclePeriod", Integer.class),//TODO add range here?
     MAX_BOOST("maxBoost", Double.class), //TODO add range here?
-    SP_VERBOSITY("spVerbosity", Integer.class, 0, 10);
+    SP_VERBOSITY("spVerbosity", Integer.class, 0, 10),
+    SP_PARALLELISM("spParallelism", Integer.class, 1, null);
     
     public static final Map<String, KEY> fieldMap = new HashMap<>();
 
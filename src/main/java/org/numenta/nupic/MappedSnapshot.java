@@ -0,0 +1,194 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.numenta.nupic.model.MappedConnectionStore;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.BinaryReader;
+import org.numenta.nupic.util.BinaryWriter;
+import org.numenta.nupic.util.MersenneTwister;
+
+/**
+ * Writes a trained {@link CLA} in a form which inference-only processes
+ * open by memory mapping rather than by rebuilding the model's object graph,
+ * so they start at once and, mapping the same file, share its pages.
+ *
+ * The temporal memory's segments and synapses are read in place through a
+ * {@link MappedConnectionStore}. The pooler keeps only what inference
+ * reads: its per column statistics and each column's connected inputs,
+ * which fill its connected matrix without any {@link org.numenta.nupic.model.Pool}
+ * or {@link org.numenta.nupic.model.Synapse} being created. A model opened
+ * this way computes exactly as the saved one does with learning off, except
+ * that bursting columns don't grow the empty segments learning would need;
+ * asking it to learn throws an {@link IllegalStateException}.
+ *
+ * The file starts with three ints, the magic bytes "HTMM", the version and
+ * the length of the state which follows in the format of {@link Snapshot}
+ * (parameters, column statistics, connected inputs, the temporal memory's
+ * last cycle and the generator's state). The connection store follows at
+ * the next multiple of 8 bytes.
+ */
+public class MappedSnapshot {
+    /** The first four bytes of every mapped snapshot: "HTMM" */
+    public static final int MAGIC = 0x48544D4D;
+    /** The version of the format written */
+    public static final int VERSION = 1;
+
+    private MappedSnapshot() {}
+
+    /**
+     * Writes a mapped snapshot of the specified {@link CLA} with double precision permanences
+     *
+     * @param c         the memory to save
+     * @param channel   the channel to write to, from its start, which is left open
+     * @throws IOException if writing fails
+     * @see #write(CLA, WritableByteChannel, boolean)
+     */
+    public static void write(CLA c, WritableByteChannel channel) throws IOException {
+        write(c, channel, false);
+    }
+
+    /**
+     * Writes a mapped snapshot of the specified {@link CLA}, initialized by a
+     * {@link SpatialPooler} and a {@link TemporalMemory}, which must not be
+     * computed on meanwhile. The channel's first byte must be the file's,
+     * for the store's alignment.
+     *
+     * @param c                 the memory to save
+     * @param channel           the channel to write to, which is left open
+     * @param floatPermanences  if true, permanences are rounded to floats
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the memory isn't initialized, uses flat
+     *                                  connections or its generator isn't a {@link MersenneTwister}
+     */
+    public static void write(CLA c, WritableByteChannel channel, boolean floatPermanences) throws IOException {
+        if(c.getConnectedCounts() == null || c.getCells() == null) {
+            throw new IllegalArgumentException("The memory must be initialized by a pooler and a temporal memory");
+        }
+        if(c.getConnectionStore() != null) {
+            throw new IllegalArgumentException("Snapshots of flat connection stores are not supported");
+        }
+        if(!(c.getRandom() instanceof MersenneTwister)) {
+            throw new IllegalArgumentException("Only the state of a MersenneTwister can be saved: " + c.getRandom());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryWriter state = new BinaryWriter(Channels.newChannel(bytes));
+        Snapshot.writeParameters(c, state);
+        Snapshot.writeColumnState(c, state);
+        for(int i = 0;i < c.getNumColumns();i++) {
+            state.writeIndexes(c.getConnectedCounts().getRowIndexes(i));
+        }
+        state.writeVarInt(c.getTMIterationNum());
+        Snapshot.writeCycle(c, state);
+        Snapshot.writeRandom(c, state);
+        state.flush();
+
+        BinaryWriter out = new BinaryWriter(channel);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(bytes.size());
+        out.write(bytes.toByteArray());
+        out.align(8);
+        MappedConnectionStore.write(c, out, floatPermanences || c.getSinglePrecisionPermanences());
+        out.flush();
+    }
+
+    /**
+     * Maps the specified file read-only and opens the snapshot it holds.
+     * The mapping stays valid once the file is closed.
+     *
+     * @param path  the file to map
+     * @return  a memory for inference
+     * @throws IOException if the file can't be mapped or doesn't hold a snapshot
+     * @see #open(ByteBuffer)
+     */
+    public static CLA open(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return open(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Opens the snapshot held by a buffer, typically a file mapping, whose
+     * index 0 is the snapshot's first byte. The buffer is only read and may
+     * be shared by any number of memories.
+     *
+     * @param buffer    the snapshot
+     * @return  a memory for inference by a {@link SpatialPooler} and a {@link TemporalMemory}
+     * @throws IOException if the buffer doesn't hold a snapshot of a version this class reads
+     */
+    public static CLA open(ByteBuffer buffer) throws IOException {
+        if(buffer.limit() < 12 || buffer.getInt(0) != MAGIC) {
+            throw new StreamCorruptedException("Not a mapped snapshot: bad magic");
+        }
+        int version = buffer.getInt(4);
+        if(version != VERSION) {
+            throw new StreamCorruptedException("Unsupported mapped snapshot version " + version);
+        }
+        int length = buffer.getInt(8);
+        if(length < 0 || 12 + length > buffer.limit()) {
+            throw new StreamCorruptedException("Truncated mapped snapshot");
+        }
+
+        ByteBuffer stateBytes = buffer.duplicate();
+        stateBytes.limit(12 + length).position(12);
+        BinaryReader state = new BinaryReader(stateBytes);
+
+        CLA c = new CLA();
+        MersenneTwister random = new MersenneTwister();
+        c.setRandom(random);
+        Snapshot.readParameters(c, state);
+
+        new SpatialPooler().initMatrices(c);
+        c.setPotentialPools(null);
+        Snapshot.readColumnState(c, state);
+        for(int i = 0;i < c.getNumColumns();i++) {
+            for(int input : state.readIndexes()) {
+                c.getConnectedCounts().set(true, i, input);
+            }
+        }
+
+        try {
+            c.setConnectionStore(new MappedConnectionStore(buffer, (12 + length + 7) & ~7));
+        }catch(IllegalArgumentException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+        new TemporalMemory().init(c);
+        c.setTMIterationNum(state.readVarInt());
+        Snapshot.readCycle(c, state);
+        Snapshot.readRandom(random, state);
+        return c;
+    }
+}
@@ -0,0 +1,342 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.numenta.nupic.Network.Inference;
+import org.numenta.nupic.algorithms.Classify;
+import org.numenta.nupic.algorithms.SDRClassifier;
+import org.numenta.nupic.encoders.Encoder;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.MersenneTwister;
+
+/**
+ * Hosts many independent models, each a {@link Network} with its own
+ * {@link CLA}, on a fixed pool of worker threads rather than a thread per
+ * model.
+ *
+ * Records are posted to a model's mailbox, and a model with mail is queued
+ * on the single FIFO queue of ready models which all workers take from. A
+ * model handles at most a quantum of records per turn and then, if it has
+ * more, queues itself behind the models already waiting, so a busy model
+ * cannot starve the others. A model is never queued twice, so its records
+ * are handled one at a time and in the order posted.
+ *
+ * Models of the same kind may share one {@link Build} configuration, which
+ * the host only reads; see {@link #addModel(String, Encoder, Build, SDRClassifier)}.
+ * Since the host's pool is the only parallelism intended, the models' pooler
+ * and temporal memory should compute serially (a parallelism of 1).
+ *
+ * @param <T>   the type of record the models' encoders accept
+ */
+public class ModelHost<T> {
+    /**
+     * Receives the results of each record on the worker thread which handled it
+     */
+    public interface Observer<T> {
+        /**
+         * Called with the results of a record. The {@link Inference} is reused,
+         * so it is only valid during the call. Calls for the same model are
+         * never concurrent.
+         *
+         * @param model         the model the record was posted to
+         * @param inference     the record's results
+         */
+        public void onInference(Model<T> model, Inference inference);
+    }
+
+    /**
+     * A hosted {@link Network} and its mailbox
+     */
+    public static class Model<T> {
+        private final String id;
+        private final Network<T> network;
+        private final Queue<Object[]> mailbox = new ConcurrentLinkedQueue<>();
+        /** Records posted and not yet handled, bounding the mailbox */
+        private final AtomicInteger pending = new AtomicInteger();
+        /** True while the model is queued on or running on the pool */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private Runnable turn;
+        private volatile Throwable failure;
+
+        Model(String id, Network<T> network) {
+            this.id = id;
+            this.network = network;
+        }
+
+        /**
+         * Returns the model's identifier
+         * @return
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Returns the model's network, which must only be used
+         * while the model has no records pending.
+         * @return
+         */
+        public Network<T> getNetwork() {
+            return network;
+        }
+
+        /**
+         * Returns the number of records posted and not yet handled
+         * @return
+         */
+        public int getPendingCount() {
+            return pending.get();
+        }
+
+        /**
+         * Returns what the model failed with, or null. A failed model
+         * discards its mail and accepts no more.
+         * @return
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final int quantum;
+    private final int mailboxCapacity;
+    private final Observer<T> observer;
+    private final Map<String, Model<T>> models = new ConcurrentHashMap<>();
+    /** Records posted to all models and not yet handled */
+    private final AtomicLong pending = new AtomicLong();
+
+    /**
+     * Constructs a new {@code ModelHost} with its own pool of workers
+     *
+     * @param parallelism       the number of worker threads
+     * @param quantum           the most records a model handles per turn
+     * @param mailboxCapacity   the most records which may be pending per model
+     * @param observer          receives the results, or null
+     */
+    public ModelHost(int parallelism, int quantum, int mailboxCapacity, Observer<T> observer) {
+        if(quantum < 1 || mailboxCapacity < 1) {
+            throw new IllegalArgumentException(
+                "The quantum " + quantum + " and mailbox capacity " + mailboxCapacity + " must be at least 1");
+        }
+        //One shared queue: a turn requeued by a worker goes behind every waiting model
+        this.pool = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.NANOSECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ModelHost-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        this.quantum = quantum;
+        this.mailboxCapacity = mailboxCapacity;
+        this.observer = observer;
+    }
+
+    /**
+     * Creates and adds a model whose {@link CLA}, {@link SpatialPooler} and
+     * {@link TemporalMemory} are configured by the specified {@link Build},
+     * which may be shared by any number of models as long as it isn't
+     * modified. Each model gets its own random number generator seeded with
+     * the configured seed, rather than the generator held by the Build, so
+     * models configured alike start alike and draw independently.
+     *
+     * @param id            the model's unique identifier
+     * @param encoder       encodes the model's records
+     * @param param         the model's configuration
+     * @param classifier    the model's classifier, or null
+     * @return  the new model
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Model<T> addModel(String id, Encoder<T> encoder, Build param, SDRClassifier classifier) {
+        CLA cla = new CLA(param);
+        cla.setRandom(new MersenneTwister(cla.getSeed()));
+        SpatialPooler sp = new SpatialPooler(cla, param);
+        TemporalMemory tm = new TemporalMemory(cla, param);
+        return addModel(id, new Network<T>(encoder, cla, sp, tm, classifier));
+    }
+
+    /**
+     * Adds a model around an existing {@link Network}, which the host then
+     * owns: it must not be used elsewhere.
+     *
+     * @param id        the model's unique identifier
+     * @param network   the model's network
+     * @return  the new model
+     * @throws IllegalArgumentException if the identifier is taken
+     */
+    public Model<T> addModel(String id, Network<T> network) {
+        final Model<T> model = new Model<>(id, network);
+        model.turn = new Runnable() {
+            @Override public void run() {
+                runTurn(model);
+            }
+        };
+        if(models.putIfAbsent(id, model) != null) {
+            throw new IllegalArgumentException("A model with the id " + id + " already exists");
+        }
+        return model;
+    }
+
+    /**
+     * Returns the model with the specified identifier, or null
+     * @param id
+     * @return
+     */
+    public Model<T> getModel(String id) {
+        return models.get(id);
+    }
+
+    /**
+     * Returns the number of models hosted
+     * @return
+     */
+    public int getModelCount() {
+        return models.size();
+    }
+
+    /**
+     * Posts an unclassified record to a model
+     *
+     * @param id        the model's identifier
+     * @param input     the record
+     * @return  true if posted, false if the model's mailbox is full
+     * @see #offer(String, Object, Classify)
+     */
+    public boolean offer(String id, T input) {
+        return offer(id, input, null);
+    }
+
+    /**
+     * Posts a record to a model's mailbox, queueing the model on the pool if
+     * it isn't already. May be called from any thread.
+     *
+     * @param id        the model's identifier
+     * @param input     the record
+     * @param classify  the record's bucket and actual value, or null
+     * @return  true if posted, false if the model's mailbox is full
+     * @throws IllegalArgumentException if there is no such model
+     * @throws IllegalStateException if the model failed or the host is shut down
+     */
+    public boolean offer(String id, T input, Classify<?> classify) {
+        Model<T> model = models.get(id);
+        if(model == null) {
+            throw new IllegalArgumentException("No model with the id " + id);
+        }
+        if(model.failure != null) {
+            throw new IllegalStateException("The model " + id + " failed", model.failure);
+        }
+        if(pool.isShutdown()) {
+            throw new IllegalStateException("The host is shut down");
+        }
+        if(model.pending.incrementAndGet() > mailboxCapacity) {
+            model.pending.decrementAndGet();
+            return false;
+        }
+        pending.incrementAndGet();
+        model.mailbox.add(new Object[] { input, classify });
+        schedule(model);
+        return true;
+    }
+
+    /**
+     * Waits until every record posted so far has been handled
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void drain() throws InterruptedException {
+        while(pending.get() > 0) {
+            if(Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(50000);
+        }
+    }
+
+    /**
+     * Drains the host and stops its workers
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown() throws InterruptedException {
+        drain();
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    private void schedule(Model<T> model) {
+        if(model.scheduled.compareAndSet(false, true)) {
+            pool.execute(model.turn);
+        }
+    }
+
+    /**
+     * Handles up to a quantum of the model's records, then requeues the
+     * model if it has more or releases it otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    private void runTurn(Model<T> model) {
+        for(int i = 0;i < quantum;i++) {
+            Object[] message = model.mailbox.poll();
+            if(message == null) break;
+
+            if(model.failure == null) {
+                try {
+                    Inference inference = model.network.push((T)message[0], (Classify<?>)message[1]);
+                    if(observer != null) {
+                        observer.onInference(model, inference);
+                    }
+                }catch(RuntimeException | Error e) {
+                    model.failure = e;
+                }
+            }
+            model.pending.decrementAndGet();
+            pending.decrementAndGet();
+        }
+
+        if(!model.mailbox.isEmpty()) {
+            pool.execute(model.turn);
+            return;
+        }
+        model.scheduled.set(false);
+        //Mail posted after the last poll may have found the model still scheduled
+        if(!model.mailbox.isEmpty()) {
+            schedule(model);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import java.util.Arrays;
+
+import org.numenta.nupic.algorithms.Classification;
+import org.numenta.nupic.algorithms.Classify;
+import org.numenta.nupic.algorithms.SDRClassifier;
+import org.numenta.nupic.encoders.Encoder;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.Condition;
+
+/**
+ * Wires an {@link Encoder}, a {@link SpatialPooler}, a {@link TemporalMemory}
+ * and optionally an {@link SDRClassifier} into one engine which is fed a
+ * record at a time through {@link #push(Object, Classify)}. The pooler and the
+ * temporal memory share the network's {@link CLA}.
+ *
+ * The buffers passed between the stages are allocated once, when the network
+ * is constructed, and the temporal memory's compute cycles are double buffered
+ * (see {@link TemporalMemory#compute(CLA, int[], boolean, ComputeCycle)}). The
+ * {@link Inference} returned by push is likewise reused, so it is only valid
+ * until the next push.
+ *
+ * The time spent in each {@link Stage} is accumulated, see {@link #getStageNanos(Stage)}.
+ * A network is not thread safe.
+ *
+ * @param <T>   the type of record the encoder accepts
+ */
+public class Network<T> {
+    /**
+     * The processing stages of a record, in order
+     */
+    public enum Stage { ENCODER, SPATIAL_POOLER, TEMPORAL_MEMORY, CLASSIFIER }
+
+    /**
+     * The results of pushing one record through a {@link Network}
+     */
+    public static class Inference {
+        int recordNum;
+        int[] encoding;
+        int[] activeArray;
+        int[] activeColumns;
+        ComputeCycle cycle;
+        double anomalyScore;
+        Classification<?> classification;
+
+        /**
+         * Returns the number of the record, counting from 0
+         * @return
+         */
+        public int getRecordNum() {
+            return recordNum;
+        }
+
+        /**
+         * Returns the encoder's output, which is the pooler's input
+         * @return
+         */
+        public int[] getEncoding() {
+            return encoding;
+        }
+
+        /**
+         * Returns the pooler's output with a 1 at each active column
+         * @return
+         */
+        public int[] getActiveArray() {
+            return activeArray;
+        }
+
+        /**
+         * Returns the indexes of the active columns
+         * @return
+         */
+        public int[] getActiveColumns() {
+            return activeColumns;
+        }
+
+        /**
+         * Returns the temporal memory's state after the record
+         * @return
+         */
+        public ComputeCycle getComputeCycle() {
+            return cycle;
+        }
+
+        /**
+         * Returns the fraction of the active columns which were not
+         * predicted by the previous record, from 0 to 1.
+         * @return
+         */
+        public double getAnomalyScore() {
+            return anomalyScore;
+        }
+
+        /**
+         * Returns the classifier's predictions, or null if the record
+         * wasn't classified
+         * @return
+         */
+        @SuppressWarnings("unchecked")
+        public <V> Classification<V> getClassification() {
+            return (Classification<V>)classification;
+        }
+    }
+
+    private final Encoder<T> encoder;
+    private final CLA cla;
+    private final SpatialPooler sp;
+    private final TemporalMemory tm;
+    private final SDRClassifier classifier;
+
+    /** Stage buffers */
+    private final int[] encoding;
+    private final int[] activeArray;
+    private final int[] activeColumnBuffer;
+    /** The last returned and the recyclable compute cycles of the temporal memory */
+    private ComputeCycle previousCycle;
+    private ComputeCycle spareCycle;
+
+    private final Inference inference = new Inference();
+    private final long[] stageNanos = new long[Stage.values().length];
+    private int recordNum;
+    private boolean learn = true;
+
+    /**
+     * Constructs a new {@code Network} from initialized components
+     *
+     * @param encoder       encodes each record into the pooler's input
+     * @param cla           the memory of the pooler and temporal memory
+     * @param sp            the spatial pooler
+     * @param tm            the temporal memory
+     * @param classifier    classifies the temporal memory's active cells, or null
+     * @throws IllegalArgumentException if the encoder's width isn't the pooler's number of inputs
+     */
+    public Network(Encoder<T> encoder, CLA cla, SpatialPooler sp, TemporalMemory tm, SDRClassifier classifier) {
+        if(encoder.getWidth() != cla.getNumInputs()) {
+            throw new IllegalArgumentException(
+                "The encoder width " + encoder.getWidth() + " must equal the number of inputs " + cla.getNumInputs());
+        }
+        this.encoder = encoder;
+        this.cla = cla;
+        this.sp = sp;
+        this.tm = tm;
+        this.classifier = classifier;
+
+        encoding = new int[cla.getNumInputs()];
+        activeArray = new int[cla.getNumColumns()];
+        activeColumnBuffer = new int[cla.getNumColumns()];
+        inference.encoding = encoding;
+        inference.activeArray = activeArray;
+    }
+
+    /**
+     * Sets whether the pooler, temporal memory and classifier learn
+     * from the records pushed; they do by default.
+     * @param learn
+     */
+    public void setLearn(boolean learn) {
+        this.learn = learn;
+    }
+
+    /**
+     * Returns true if the records pushed are learned
+     * @return
+     */
+    public boolean isLearn() {
+        return learn;
+    }
+
+    /**
+     * Returns the {@link CLA} shared by the pooler and the temporal memory
+     * @return
+     */
+    public CLA getCLA() {
+        return cla;
+    }
+
+    /**
+     * Returns the number of records pushed
+     * @return
+     */
+    public int getRecordCount() {
+        return recordNum;
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, spent in the specified stage
+     * @param stage
+     * @return
+     */
+    public long getStageNanos(Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * Zeroes the accumulated stage timings
+     */
+    public void resetTimings() {
+        Arrays.fill(stageNanos, 0);
+    }
+
+    /**
+     * Pushes a record through the network without classifying it.
+     *
+     * @param input the record
+     * @return      the results, valid until the next push
+     */
+    public Inference push(T input) {
+        return push(input, null);
+    }
+
+    /**
+     * Pushes a record through the encoder, pooler and temporal memory, and
+     * through the classifier if there is one and a classification is given.
+     *
+     * @param input     the record
+     * @param classify  the record's bucket and actual value, or null
+     * @return          the results, valid until the next push
+     */
+    public Inference push(T input, Classify<?> classify) {
+        long start = System.nanoTime();
+        encoder.encodeIntoArray(input, encoding);
+        long time = System.nanoTime();
+        stageNanos[Stage.ENCODER.ordinal()] += time - start;
+
+        start = time;
+        sp.compute(cla, encoding, activeArray, learn, false);
+        int numActive = ArrayUtils.where(activeArray, Condition.GreaterThanZero, activeColumnBuffer);
+        int[] activeColumns = copyInto(activeColumnBuffer, numActive, inference.activeColumns);
+        time = System.nanoTime();
+        stageNanos[Stage.SPATIAL_POOLER.ordinal()] += time - start;
+
+        start = time;
+        ComputeCycle cycle = tm.compute(cla, activeColumns, learn, spareCycle);
+        spareCycle = previousCycle;
+        previousCycle = cycle;
+        time = System.nanoTime();
+        stageNanos[Stage.TEMPORAL_MEMORY.ordinal()] += time - start;
+
+        inference.classification = null;
+        if(classifier != null && classify != null) {
+            start = time;
+            inference.classification = classifier.compute(recordNum, classify, cycle.activeCellIndexes(), learn, true);
+            stageNanos[Stage.CLASSIFIER.ordinal()] += System.nanoTime() - start;
+        }
+
+        inference.recordNum = recordNum++;
+        inference.activeColumns = activeColumns;
+        inference.cycle = cycle;
+        inference.anomalyScore = anomalyScore(cycle, numActive);
+        return inference;
+    }
+
+    /**
+     * Copies the first length ints of the buffer into the target if it has
+     * that length, or else into a new array, so that records activating the
+     * same number of columns allocate nothing
+     *
+     * @param buffer    the ints to copy
+     * @param length    the number of ints to copy
+     * @param target    the previous record's copy, or null
+     * @return          the copy
+     */
+    static int[] copyInto(int[] buffer, int length, int[] target) {
+        if(target == null || target.length != length) {
+            target = new int[length];
+        }
+        System.arraycopy(buffer, 0, target, 0, length);
+        return target;
+    }
+
+    /**
+     * Returns the fraction of the active columns which the temporal
+     * memory did not predict
+     *
+     * @param cycle         the temporal memory's state after the record
+     * @param numActive     the number of active columns
+     * @return
+     */
+    static double anomalyScore(ComputeCycle cycle, int numActive) {
+        return numActive == 0 ? 0 : 1.0 - (double)cycle.predictedColumns().size() / numActive;
+    }
+}
@@ -0,0 +1,381 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.numenta.nupic.Network.Inference;
+import org.numenta.nupic.Network.Stage;
+import org.numenta.nupic.algorithms.Classify;
+import org.numenta.nupic.algorithms.SDRClassifier;
+import org.numenta.nupic.encoders.Encoder;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.Condition;
+import org.numenta.nupic.util.RingBuffer;
+
+/**
+ * Runs the stages of a {@link Network} concurrently, each on its own thread,
+ * so that while the temporal memory handles record t the pooler handles
+ * record t+1 and the encoder record t+2. The stages hand records to each
+ * other through single producer, single consumer {@link RingBuffer}s.
+ *
+ * Each stage still sees every record in order, and the pooler and the
+ * temporal memory touch disjoint parts of the shared {@link CLA} (the pooler
+ * draws no random numbers once initialized), so the results are exactly
+ * those of a {@link Network} fed the same records.
+ *
+ * A fixed number of frames, each holding one record's buffers and
+ * {@link Inference}, circulates through the stages and back to
+ * {@link #push(Object, Classify)}, which waits for a free frame when all of
+ * them are in flight. This bounds the memory used and applies backpressure
+ * to the caller when a stage falls behind. The results are handed to an
+ * {@link Observer} on the classifier's thread.
+ *
+ * push, {@link #drain()} and {@link #close()} must be called from a single
+ * thread.
+ *
+ * @param <T>   the type of record the encoder accepts
+ */
+public class PipelinedNetwork<T> {
+    /**
+     * Receives the results of each record, in order, on the classifier's thread
+     */
+    public interface Observer {
+        /**
+         * Called with the results of a record. The {@link Inference} and the
+         * arrays it refers to are reused, so they are only valid during the call.
+         *
+         * @param inference     the record's results
+         */
+        public void onInference(Inference inference);
+    }
+
+    /**
+     * One record and its buffers on its way through the stages
+     */
+    private static class Frame<T> {
+        final Inference inference = new Inference();
+        final int[] activeColumnBuffer;
+        T input;
+        Classify<?> classify;
+        boolean learn;
+        /** Marks the end of the records; each stage passes it on and stops */
+        boolean last;
+
+        Frame(int numInputs, int numColumns) {
+            inference.encoding = new int[numInputs];
+            inference.activeArray = new int[numColumns];
+            activeColumnBuffer = new int[numColumns];
+        }
+    }
+
+    private final Encoder<T> encoder;
+    private final CLA cla;
+    private final SpatialPooler sp;
+    private final TemporalMemory tm;
+    private final SDRClassifier classifier;
+    private final Observer observer;
+
+    private final int capacity;
+    /** The input of each stage; the last stage returns frames to {@link #free} */
+    private final List<RingBuffer<Frame<T>>> queues;
+    private final RingBuffer<Frame<T>> free;
+    private final Thread[] threads;
+
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    private int recordNum;
+    /** Written by the classifier's thread only */
+    private volatile int completed;
+    private volatile Throwable failure;
+    private boolean learn = true;
+    private boolean closed;
+
+    /**
+     * Constructs a new {@code PipelinedNetwork} from initialized components
+     * and starts its stage threads.
+     *
+     * @param encoder       encodes each record into the pooler's input
+     * @param cla           the memory of the pooler and temporal memory
+     * @param sp            the spatial pooler
+     * @param tm            the temporal memory
+     * @param classifier    classifies the temporal memory's active cells, or null
+     * @param observer      receives the results, or null
+     * @param capacity      the number of records which may be in flight, at least 2
+     * @throws IllegalArgumentException if the encoder's width isn't the pooler's number
+     *                                  of inputs, or the capacity is less than 2
+     */
+    public PipelinedNetwork(Encoder<T> encoder, CLA cla, SpatialPooler sp, TemporalMemory tm,
+        SDRClassifier classifier, Observer observer, int capacity) {
+
+        if(encoder.getWidth() != cla.getNumInputs()) {
+            throw new IllegalArgumentException(
+                "The encoder width " + encoder.getWidth() + " must equal the number of inputs " + cla.getNumInputs());
+        }
+        if(capacity < 2) {
+            throw new IllegalArgumentException("The capacity must be at least 2: " + capacity);
+        }
+        this.encoder = encoder;
+        this.cla = cla;
+        this.sp = sp;
+        this.tm = tm;
+        this.classifier = classifier;
+        this.observer = observer;
+        this.capacity = capacity;
+
+        Stage[] stages = Stage.values();
+        queues = new ArrayList<>(stages.length);
+        for(int i = 0;i < stages.length;i++) {
+            queues.add(new RingBuffer<Frame<T>>(capacity));
+        }
+        free = new RingBuffer<>(capacity);
+        for(int i = 0;i < capacity;i++) {
+            free.offer(new Frame<T>(cla.getNumInputs(), cla.getNumColumns()));
+        }
+
+        threads = new Thread[stages.length];
+        for(final Stage stage : stages) {
+            Thread thread = new Thread(new Runnable() {
+                @Override public void run() {
+                    runStage(stage);
+                }
+            }, "PipelinedNetwork-" + stage);
+            thread.setDaemon(true);
+            threads[stage.ordinal()] = thread;
+        }
+        for(Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Sets whether the records pushed from now on are learned; they are by default.
+     * @param learn
+     */
+    public void setLearn(boolean learn) {
+        this.learn = learn;
+    }
+
+    /**
+     * Returns true if the records pushed are learned
+     * @return
+     */
+    public boolean isLearn() {
+        return learn;
+    }
+
+    /**
+     * Returns the {@link CLA} shared by the pooler and the temporal memory
+     * @return
+     */
+    public CLA getCLA() {
+        return cla;
+    }
+
+    /**
+     * Returns the number of records which may be in flight
+     * @return
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of records pushed
+     * @return
+     */
+    public int getRecordCount() {
+        return recordNum;
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, the specified stage spent on
+     * records; complete once the network is drained.
+     * @param stage
+     * @return
+     */
+    public long getStageNanos(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    /**
+     * Zeroes the accumulated stage timings; call while drained.
+     */
+    public void resetTimings() {
+        for(int i = 0;i < stageNanos.length();i++) {
+            stageNanos.set(i, 0);
+        }
+    }
+
+    /**
+     * Pushes a record without classifying it
+     *
+     * @param input     the record
+     * @throws InterruptedException if interrupted while waiting for a free frame
+     * @see #push(Object, Classify)
+     */
+    public void push(T input) throws InterruptedException {
+        push(input, null);
+    }
+
+    /**
+     * Queues a record for the stages, waiting while all frames are in flight.
+     * The record is classified if there is a classifier and a classification
+     * is given.
+     *
+     * @param input     the record
+     * @param classify  the record's bucket and actual value, or null
+     * @throws InterruptedException if interrupted while waiting for a free frame
+     * @throws IllegalStateException if the network is closed or a stage failed
+     */
+    public void push(T input, Classify<?> classify) throws InterruptedException {
+        if(closed) {
+            throw new IllegalStateException("The network is closed");
+        }
+        checkFailure();
+
+        Frame<T> frame = free.take();
+        frame.input = input;
+        frame.classify = classify;
+        frame.learn = learn;
+        frame.inference.recordNum = recordNum++;
+        queues.get(0).put(frame);
+    }
+
+    /**
+     * Waits until every record pushed has been through all the stages
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if a stage failed
+     */
+    public void drain() throws InterruptedException {
+        while(completed != recordNum) {
+            if(Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(50000);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Drains the network and stops its stage threads
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if a stage failed
+     */
+    public void close() throws InterruptedException {
+        if(closed) return;
+        closed = true;
+
+        Frame<T> frame = free.take();
+        frame.last = true;
+        queues.get(0).put(frame);
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if(failure != null) {
+            throw new IllegalStateException("A stage of the network failed", failure);
+        }
+    }
+
+    /**
+     * Processes frames in order until the last one passes. Once any
+     * stage fails, frames are passed on untouched so that they keep
+     * returning to the caller, who then sees the failure.
+     */
+    private void runStage(Stage stage) {
+        RingBuffer<Frame<T>> in = queues.get(stage.ordinal());
+        RingBuffer<Frame<T>> out = stage.ordinal() + 1 < queues.size() ? queues.get(stage.ordinal() + 1) : free;
+        try {
+            while(true) {
+                Frame<T> frame = in.take();
+                if(!frame.last && failure == null) {
+                    long start = System.nanoTime();
+                    try {
+                        process(stage, frame);
+                    }catch(RuntimeException | Error e) {
+                        failure = e;
+                    }
+                    stageNanos.addAndGet(stage.ordinal(), System.nanoTime() - start);
+                }
+                if(stage == Stage.CLASSIFIER && !frame.last) {
+                    if(observer != null && failure == null) {
+                        try {
+                            observer.onInference(frame.inference);
+                        }catch(RuntimeException | Error e) {
+                            failure = e;
+                        }
+                    }
+                    frame.input = null;
+                    frame.classify = null;
+                    completed++;
+                }
+                out.put(frame);
+                if(frame.last) return;
+            }
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void process(Stage stage, Frame<T> frame) {
+        Inference inference = frame.inference;
+        switch(stage) {
+            case ENCODER: {
+                encoder.encodeIntoArray(frame.input, inference.encoding);
+                break;
+            }
+            case SPATIAL_POOLER: {
+                sp.compute(cla, inference.encoding, inference.activeArray, frame.learn, false);
+                int numActive = ArrayUtils.where(inference.activeArray, Condition.GreaterThanZero, frame.activeColumnBuffer);
+                inference.activeColumns = Network.copyInto(frame.activeColumnBuffer, numActive, inference.activeColumns);
+                break;
+            }
+            case TEMPORAL_MEMORY: {
+                //The frame's cycle is from "capacity" records ago, so it may be recycled
+                ComputeCycle cycle = tm.compute(cla, inference.activeColumns, frame.learn, inference.cycle);
+                inference.cycle = cycle;
+                inference.anomalyScore = Network.anomalyScore(cycle, inference.activeColumns.length);
+                break;
+            }
+            case CLASSIFIER: {
+                inference.classification = null;
+                if(classifier != null && frame.classify != null) {
+                    inference.classification = classifier.compute(
+                        inference.recordNum, frame.classify, inference.cycle.activeCellIndexes(), frame.learn, true);
+                }
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,535 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.Column;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Pool;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.BeanUtil;
+import org.numenta.nupic.util.BinaryReader;
+import org.numenta.nupic.util.BinaryWriter;
+import org.numenta.nupic.util.MersenneTwister;
+
+/**
+ * Saves and restores the complete state of a {@link CLA}, as used by a
+ * {@link SpatialPooler} and a {@link TemporalMemory}, in a compact versioned
+ * binary format written to and read from NIO channels. A model restored from
+ * a snapshot continues exactly as the saved one would have.
+ *
+ * A snapshot holds, after a header of the magic bytes "HTMS" and the format
+ * version:
+ * <ul>
+ *  <li>the configured parameters, by {@link KEY} name, so that snapshots stay
+ *  readable as parameters are added;</li>
+ *  <li>the pooler's duty cycles, boost factors, tie breakers and each column's
+ *  potential pool with its permanences;</li>
+ *  <li>the temporal memory's segments and synapses, per cell in creation
+ *  order, and the active and winner cells and predicted columns of the last
+ *  cycle;</li>
+ *  <li>the state of the random number generator.</li>
+ * </ul>
+ * Counts and ids are variable length ints, sorted index lists are delta
+ * encoded (see {@link BinaryWriter}), and permanences are written as doubles,
+ * or as floats when requested or when the model stores them in single
+ * precision anyway.
+ *
+ * Lazily decremented distal permanences are saved at their effective value,
+ * so a restored model with lazy decrements may round differently from the
+ * saved one. The temporal memory's flat {@link org.numenta.nupic.model.ConnectionStore}
+ * is not supported, and the generator must be a {@link MersenneTwister}.
+ */
+public class Snapshot {
+    /** The first four bytes of every snapshot: "HTMS" */
+    public static final int MAGIC = 0x48544D53;
+    /** The version of the format written */
+    public static final int VERSION = 1;
+
+    private static final int TYPE_INT = 0;
+    private static final int TYPE_DOUBLE = 1;
+    private static final int TYPE_BOOLEAN = 2;
+    private static final int TYPE_INT_ARRAY = 3;
+
+    private Snapshot() {}
+
+    /**
+     * Writes a snapshot of the specified {@link CLA} with double precision permanences
+     *
+     * @param c         the memory to save
+     * @param channel   the channel to write to, which is left open
+     * @throws IOException if writing fails
+     * @see #write(CLA, WritableByteChannel, boolean)
+     */
+    public static void write(CLA c, WritableByteChannel channel) throws IOException {
+        write(c, channel, false);
+    }
+
+    /**
+     * Writes a snapshot of the specified {@link CLA}, which must not be
+     * computed on meanwhile.
+     *
+     * @param c                 the memory to save
+     * @param channel           the channel to write to, which is left open
+     * @param floatPermanences  if true, permanences are rounded to floats
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the memory uses flat connections or
+     *                                  its generator isn't a {@link MersenneTwister}
+     */
+    public static void write(CLA c, WritableByteChannel channel, boolean floatPermanences) throws IOException {
+        if(c.getConnectionStore() != null) {
+            throw new IllegalArgumentException("Snapshots of flat connection stores are not supported");
+        }
+        if(!(c.getRandom() instanceof MersenneTwister)) {
+            throw new IllegalArgumentException("Only the state of a MersenneTwister can be saved: " + c.getRandom());
+        }
+
+        BinaryWriter out = new BinaryWriter(channel);
+        writeHeader(out, MAGIC, VERSION);
+
+        boolean floats = floatPermanences || c.getSinglePrecisionPermanences();
+        boolean hasPooler = c.getPotentialPools() != null;
+        boolean hasMemory = c.getCells() != null;
+        out.writeBoolean(floats);
+        out.writeBoolean(hasPooler);
+        out.writeBoolean(hasMemory);
+
+        writeParameters(c, out);
+        if(hasPooler) {
+            writePooler(c, out, floats);
+        }
+        if(hasMemory) {
+            writeTemporalMemory(c, out, floats);
+        }
+
+        writeRandom(c, out);
+        out.flush();
+    }
+
+    /**
+     * Reads a snapshot into a new {@link CLA}, ready for use by a
+     * {@link SpatialPooler} and a {@link TemporalMemory} configured alike.
+     *
+     * @param channel   the channel to read from, which is left open
+     * @return  the restored memory
+     * @throws IOException if reading fails or the channel doesn't hold a snapshot
+     *                     of a version this class reads
+     */
+    public static CLA read(ReadableByteChannel channel) throws IOException {
+        BinaryReader in = new BinaryReader(channel);
+        readHeader(in, MAGIC, VERSION);
+
+        boolean floats = in.readBoolean();
+        boolean hasPooler = in.readBoolean();
+        boolean hasMemory = in.readBoolean();
+
+        CLA c = new CLA();
+        MersenneTwister random = new MersenneTwister();
+        c.setRandom(random);
+        readParameters(c, in);
+        if(hasPooler) {
+            readPooler(c, in, floats);
+        }
+        if(hasMemory) {
+            readTemporalMemory(c, in, floats);
+        }
+
+        readRandom(random, in);
+        return c;
+    }
+
+    /**
+     * Writes the magic bytes and the version of a format
+     */
+    static void writeHeader(BinaryWriter out, int magic, int version) throws IOException {
+        out.writeInt(magic);
+        out.writeVarInt(version);
+    }
+
+    /**
+     * Checks the magic bytes and the version of a format
+     */
+    static void readHeader(BinaryReader in, int magic, int version) throws IOException {
+        int found = in.readInt();
+        if(found != magic) {
+            throw new StreamCorruptedException("Not a snapshot: bad magic " + Integer.toHexString(found));
+        }
+        int foundVersion = in.readVarInt();
+        if(foundVersion != version) {
+            throw new StreamCorruptedException("Unsupported snapshot version " + foundVersion);
+        }
+    }
+
+    /**
+     * Writes the state of the {@link CLA}'s generator
+     */
+    static void writeRandom(CLA c, BinaryWriter out) throws IOException {
+        ByteArrayOutputStream rng = new ByteArrayOutputStream();
+        ((MersenneTwister)c.getRandom()).writeState(new DataOutputStream(rng));
+        out.writeBytes(rng.toByteArray());
+    }
+
+    /**
+     * Restores the state of a generator
+     */
+    static void readRandom(MersenneTwister random, BinaryReader in) throws IOException {
+        random.readState(new DataInputStream(new ByteArrayInputStream(in.readBytes())));
+    }
+
+    /**
+     * Writes every parameter with a getter and a setter as its {@link KEY}
+     * name, a type tag and its value
+     */
+    static void writeParameters(CLA c, BinaryWriter out) throws IOException {
+        BeanUtil beanUtil = BeanUtil.getInstance();
+        List<KEY> keys = new ArrayList<>();
+        for(KEY key : KEY.values()) {
+            BeanUtil.PropertyInfo info = beanUtil.getPropertyInfo(c, key.getFieldName());
+            if(key != KEY.RANDOM && info != null && info.getReadMethod() != null && info.getWriteMethod() != null) {
+                keys.add(key);
+            }
+        }
+
+        out.writeVarInt(keys.size());
+        for(KEY key : keys) {
+            Object value = beanUtil.getSimpleProperty(c, key.getFieldName());
+            out.writeString(key.name());
+            if(value instanceof Integer) {
+                out.writeVarInt(TYPE_INT);
+                out.writeSignedVarInt((Integer)value);
+            }else if(value instanceof Double) {
+                out.writeVarInt(TYPE_DOUBLE);
+                out.writeDouble((Double)value);
+            }else if(value instanceof Boolean) {
+                out.writeVarInt(TYPE_BOOLEAN);
+                out.writeBoolean((Boolean)value);
+            }else if(value instanceof int[]) {
+                out.writeVarInt(TYPE_INT_ARRAY);
+                int[] array = (int[])value;
+                out.writeVarInt(array.length);
+                for(int i : array) {
+                    out.writeSignedVarInt(i);
+                }
+            }else{
+                throw new IllegalArgumentException("Cannot save the parameter " + key + " of type " +
+                    (value == null ? null : value.getClass()));
+            }
+        }
+        out.writeVarInt(c.getUpdatePeriod());
+    }
+
+    /**
+     * Reads the parameters, ignoring those unknown to this version, into
+     * a new {@link CLA}
+     */
+    static void readParameters(CLA c, BinaryReader in) throws IOException {
+        BeanUtil beanUtil = BeanUtil.getInstance();
+        int count = in.readLength();
+        for(int i = 0;i < count;i++) {
+            String name = in.readString();
+            Object value;
+            int type = in.readVarInt();
+            switch(type) {
+                case TYPE_INT: value = in.readSignedVarInt(); break;
+                case TYPE_DOUBLE: value = in.readDouble(); break;
+                case TYPE_BOOLEAN: value = in.readBoolean(); break;
+                case TYPE_INT_ARRAY: {
+                    int[] array = new int[in.readLength()];
+                    for(int j = 0;j < array.length;j++) {
+                        array[j] = in.readSignedVarInt();
+                    }
+                    value = array;
+                    break;
+                }
+                default: throw new StreamCorruptedException("Unknown type " + type + " of the parameter " + name);
+            }
+
+            KEY key;
+            try {
+                key = KEY.valueOf(name);
+            }catch(IllegalArgumentException e) {
+                continue;
+            }
+            if(key == KEY.POTENTIAL_RADIUS) {
+                c.setPotentialRadius((Double)value);
+            }else{
+                beanUtil.setSimpleProperty(c, key.getFieldName(), value);
+            }
+        }
+        c.setUpdatePeriod(in.readVarInt());
+    }
+
+    private static void writePooler(CLA c, BinaryWriter out, boolean floats) throws IOException {
+        writeColumnState(c, out);
+
+        for(int i = 0;i < c.getNumColumns();i++) {
+            Pool pool = c.getPotentialPools().getIndex(i);
+            int size = pool.getPackedSize();
+            double[] perms = pool.getPackedPermanences();
+            out.writeIndexes(pool.getPackedInputs(), size);
+            for(int j = 0;j < size;j++) {
+                writePermanence(out, perms[j], floats);
+            }
+        }
+    }
+
+    /**
+     * Writes the pooler's per column statistics and iteration counts
+     */
+    static void writeColumnState(CLA c, BinaryWriter out) throws IOException {
+        out.writeVarInt(c.iterationNum);
+        out.writeVarInt(c.iterationLearnNum);
+        out.writeVarInt(c.getInhibitionRadius());
+        out.writeDoubles(c.getTieBreaker());
+        out.writeDoubles(c.getOverlapDutyCycles());
+        out.writeDoubles(c.getActiveDutyCycles());
+        out.writeDoubles(c.getMinOverlapDutyCycles());
+        out.writeDoubles(c.getMinActiveDutyCycles());
+        out.writeDoubles(c.getBoostFactors());
+    }
+
+    /**
+     * Rebuilds the pooler's columns and potential pools the way
+     * {@link SpatialPooler#initMatrices(CLA)} and
+     * {@link SpatialPooler#connectAndConfigureInputs(CLA)} build them,
+     * from the saved inputs and permanences
+     */
+    private static void readPooler(CLA c, BinaryReader in, boolean floats) throws IOException {
+        new SpatialPooler().initMatrices(c);
+        readColumnState(c, in);
+
+        for(int i = 0;i < c.getNumColumns();i++) {
+            int[] inputs = in.readIndexes();
+            double[] perms = new double[inputs.length];
+            for(int j = 0;j < perms.length;j++) {
+                perms[j] = readPermanence(in, floats);
+            }
+            Column column = c.getColumn(i);
+            c.getPotentialPools().setIndex(column.createPotentialPool(c, inputs), i);
+            column.setProximalPermanencesPacked(c, perms);
+        }
+    }
+
+    /**
+     * Reads the pooler's per column statistics and iteration counts
+     * into a {@link CLA} whose matrices are initialized
+     */
+    static void readColumnState(CLA c, BinaryReader in) throws IOException {
+        c.iterationNum = in.readVarInt();
+        c.iterationLearnNum = in.readVarInt();
+        c.setInhibitionRadius(in.readVarInt());
+        c.setTieBreaker(readColumnDoubles(c, in));
+        c.setOverlapDutyCycles(readColumnDoubles(c, in));
+        c.setActiveDutyCycles(readColumnDoubles(c, in));
+        c.setMinOverlapDutyCycles(readColumnDoubles(c, in));
+        c.setMinActiveDutyCycles(readColumnDoubles(c, in));
+        c.setBoostFactors(readColumnDoubles(c, in));
+    }
+
+    private static double[] readColumnDoubles(CLA c, BinaryReader in) throws IOException {
+        double[] values = in.readDoubles();
+        if(values.length != c.getNumColumns()) {
+            throw new StreamCorruptedException(
+                "Expected " + c.getNumColumns() + " column values but found " + values.length);
+        }
+        return values;
+    }
+
+    private static void writeTemporalMemory(CLA c, BinaryWriter out, boolean floats) throws IOException {
+        out.writeVarInt(c.getTMIterationNum());
+        out.writeVarInt(c.getSegmentCount());
+        out.writeVarInt(c.getSynapseCount());
+
+        Cell[] cells = c.getCells();
+        for(Cell cell : cells) {
+            writeSegments(c, out, cell, floats);
+        }
+
+        writeCycle(c, out);
+    }
+
+    /**
+     * Writes a cell's segments in creation order
+     */
+    static void writeSegments(CLA c, BinaryWriter out, Cell cell, boolean floats) throws IOException {
+        List<DistalDendrite> segments = c.getSegments(cell, false);
+        out.writeVarInt(segments.size());
+        for(DistalDendrite dd : segments) {
+            out.writeVarInt(dd.getIndex());
+            writeSegment(c, out, dd, floats);
+        }
+    }
+
+    /**
+     * Writes a segment's last used iteration and its synapses' indexes,
+     * source cells and permanences in creation order
+     */
+    static void writeSegment(CLA c, BinaryWriter out, DistalDendrite dd, boolean floats) throws IOException {
+        out.writeVarInt(dd.getLastUsedIteration());
+
+        List<Synapse> synapses = c.getSynapses(dd, false);
+        out.writeVarInt(synapses.size());
+        int previous = 0;
+        for(Synapse s : synapses) {
+            out.writeSignedVarInt(s.getIndex() - previous);
+            previous = s.getIndex();
+            out.writeVarInt(s.getSourceCell().getIndex());
+            writePermanence(out, s.getPermanence(), floats);
+        }
+    }
+
+    /**
+     * Writes the active and winner cells and the predicted columns of the
+     * temporal memory's last cycle
+     */
+    static void writeCycle(CLA c, BinaryWriter out) throws IOException {
+        writeCells(out, c.getActiveCells());
+        writeCells(out, c.getWinnerCells());
+        Set<Column> predictedColumns = c.getPredictedColumns();
+        int[] columns = new int[predictedColumns.size()];
+        int i = 0;
+        for(Column column : predictedColumns) {
+            columns[i++] = column.getIndex();
+        }
+        out.writeIndexes(columns);
+    }
+
+    /**
+     * Restores the temporal memory's last cycle into a {@link CLA} whose
+     * connections are restored
+     */
+    static void readCycle(CLA c, BinaryReader in) throws IOException {
+        int[] activeCells = in.readIndexes();
+        int[] winnerCells = in.readIndexes();
+        int[] predictedColumns = in.readIndexes();
+        new TemporalMemory().restoreCycle(c, activeCells, winnerCells, predictedColumns);
+    }
+
+    private static void writeCells(BinaryWriter out, Set<Cell> cells) throws IOException {
+        int[] indexes = new int[cells.size()];
+        int i = 0;
+        for(Cell cell : cells) {
+            indexes[i++] = cell.getIndex();
+        }
+        out.writeIndexes(indexes);
+    }
+
+    /**
+     * Rebuilds the temporal memory's segments and synapses
+     */
+    private static void readTemporalMemory(CLA c, BinaryReader in, boolean floats) throws IOException {
+        new TemporalMemory().init(c);
+        if(c.getConnectionStore() != null) {
+            throw new StreamCorruptedException("Snapshots of flat connection stores are not supported");
+        }
+        c.setTMIterationNum(in.readVarInt());
+        int segmentCount = in.readVarInt();
+        int synapseCount = in.readVarInt();
+
+        List<Object[]> synapses = new ArrayList<>();
+        for(Cell cell : c.getCells()) {
+            readSegments(c, in, cell, synapses, floats);
+        }
+        createSynapses(c, synapses);
+        c.setSegmentCount(segmentCount);
+        c.setSynapseCount(synapseCount);
+        readCycle(c, in);
+    }
+
+    /**
+     * Creates a cell's saved segments, collecting their synapses for
+     * {@link #createSynapses(CLA, List)}
+     */
+    static void readSegments(CLA c, BinaryReader in, Cell cell, List<Object[]> synapses, boolean floats) throws IOException {
+        int numSegments = in.readLength();
+        for(int i = 0;i < numSegments;i++) {
+            DistalDendrite dd = cell.createSegment(c, in.readVarInt());
+            readSegment(c, in, dd, synapses, floats);
+        }
+    }
+
+    /**
+     * Restores a segment's last used iteration and collects its saved
+     * synapses as {index, segment, source cell, permanence}
+     */
+    static void readSegment(CLA c, BinaryReader in, DistalDendrite dd, List<Object[]> synapses, boolean floats) throws IOException {
+        dd.setLastUsedIteration(in.readVarInt());
+
+        Cell[] cells = c.getCells();
+        int numSynapses = in.readLength();
+        int index = 0;
+        for(int j = 0;j < numSynapses;j++) {
+            index += in.readSignedVarInt();
+            int source = in.readVarInt();
+            if(source >= cells.length) {
+                throw new StreamCorruptedException("No source cell " + source);
+            }
+            synapses.add(new Object[] { index, dd, cells[source], readPermanence(in, floats) });
+        }
+    }
+
+    /**
+     * Creates the collected synapses in the order of their indexes, which
+     * is the order they were first created in, so each source cell's
+     * receptor synapses are visited in the same order as before.
+     */
+    static void createSynapses(CLA c, List<Object[]> synapses) {
+        Collections.sort(synapses, new Comparator<Object[]>() {
+            @Override public int compare(Object[] a, Object[] b) {
+                return Integer.compare((Integer)a[0], (Integer)b[0]);
+            }
+        });
+        for(Object[] s : synapses) {
+            ((DistalDendrite)s[1]).createSynapse(c, (Cell)s[2], (Double)s[3], (Integer)s[0]);
+        }
+    }
+
+    static void writePermanence(BinaryWriter out, double permanence, boolean floats) throws IOException {
+        if(floats) {
+            out.writeFloat((float)permanence);
+        }else{
+            out.writeDouble(permanence);
+        }
+    }
+
+    static double readPermanence(BinaryReader in, boolean floats) throws IOException {
+        return floats ? in.readFloat() : in.readDouble();
+    }
+}
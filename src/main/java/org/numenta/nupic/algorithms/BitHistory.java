@@ -22,7 +22,11 @@
 
 package org.numenta.nupic.algorithms;
 
+import java.io.IOException;
+
 import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.BinaryReader;
+import org.numenta.nupic.util.BinaryWriter;
 
 import gnu.trove.list.TDoubleList;
 import gnu.trove.list.array.TDoubleArrayList;
@@ -179,6 +183,52 @@ public class BitHistory {
 		}
 	}
 	
+	/**
+	 * Writes this history's id, duty cycles and last update. The id is
+	 * omitted when it is the one derived from the bit and the number of steps.
+	 * 
+	 * @param out		the writer
+	 * @param bitNum	the activation pattern bit number this history is for
+	 * @param nSteps	the number of steps of prediction this history is for
+	 * @throws IOException	if writing fails
+	 * @see CLAClassifierBinarySerializer
+	 */
+	void write(BinaryWriter out, int bitNum, int nSteps) throws IOException {
+		boolean derivedId = id.equals(bitNum + "[" + nSteps + "]");
+		out.writeBoolean(derivedId);
+		if(!derivedId) {
+			out.writeString(id);
+		}
+		out.writeVarInt(stats.size());
+		for(int i = 0;i < stats.size();i++) {
+			out.writeDouble(stats.get(i));
+		}
+		out.writeSignedVarInt(lastTotalUpdate);
+	}
+	
+	/**
+	 * Reads a history written by {@link #write(BinaryWriter, int, int)}
+	 * 
+	 * @param in			the reader
+	 * @param classifier	the classifier owning the history
+	 * @param bitNum		the activation pattern bit number this history is for
+	 * @param nSteps		the number of steps of prediction this history is for
+	 * @return	the history
+	 * @throws IOException	if reading fails
+	 */
+	static BitHistory read(BinaryReader in, CLAClassifier classifier, int bitNum, int nSteps) throws IOException {
+		BitHistory history = new BitHistory();
+		history.classifier = classifier;
+		history.id = in.readBoolean() ? bitNum + "[" + nSteps + "]" : in.readString();
+		int size = in.readLength();
+		history.stats = new TDoubleArrayList(size);
+		for(int i = 0;i < size;i++) {
+			history.stats.add(in.readDouble());
+		}
+		history.lastTotalUpdate = in.readSignedVarInt();
+		return history;
+	}
+	
 	/**
 	 * Return a string with pretty-print of an array using the given format
   	 * for each element
@@ -105,7 +105,7 @@ public class CLAClassifier implements Serializable, SDRClassifier {
      * so that we can associate the current iteration's classification with the
      * activationPattern from N steps ago
      */
-    Deque<Tuple> patternNZHistory;
+    Deque<Tuple<Object>> patternNZHistory;
     /**
      * These are the bit histories. Each one is a BitHistory instance, stored in
      * this dict, where the key is (bit, nSteps). The 'bit' is the index of the
@@ -223,7 +223,7 @@ public class CLAClassifier implements Serializable, SDRClassifier {
             System.out.println(" classificationIn: " + classify);
         }
 
-        patternNZHistory.append(new Tuple(learnIteration, patternNZ));
+        patternNZHistory.append(new Tuple<Object>(learnIteration, patternNZ));
         System.out.println("deque size = " + learnIteration + "  " + patternNZHistory);
 
 		//------------------------------------------------------------------------
@@ -334,7 +334,7 @@ public class CLAClassifier implements Serializable, SDRClassifier {
 				// Do we have the pattern that should be assigned to this classification
                 // in our pattern history? If not, skip it
                 boolean found = false;
-                for (Tuple t : patternNZHistory) {
+                for (Tuple<Object> t : patternNZHistory) {
                     iteration = (int) t.the(0);
                     learnPatternNZ = (int[]) t.the(1);
                     if (iteration == learnIteration - nSteps) {
@@ -0,0 +1,198 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.algorithms;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.numenta.nupic.util.BinaryReader;
+import org.numenta.nupic.util.BinaryWriter;
+import org.numenta.nupic.util.Deque;
+import org.numenta.nupic.util.IntTuple;
+import org.numenta.nupic.util.Tuple;
+
+/**
+ * Streams a {@link CLAClassifier} to and from NIO channels in a compact
+ * binary format, an alternative to the JSON of {@link CLAClassifierSerializer}
+ * for classifiers too large to hold as one document. Each {@link BitHistory}
+ * is written as it is visited, with its duty cycles as raw doubles, through
+ * the fixed buffer of a {@link BinaryWriter}, and read back the same way, so
+ * neither direction holds more than one history's worth of bytes.
+ * 
+ * The format is the magic bytes "CLAC", the version, the parameters and
+ * counters, the steps, the recent activation patterns, the bit histories
+ * keyed by bit and number of steps, and the actual value of each bucket,
+ * which must be null, a Double, an Integer or a String. A classifier read
+ * back computes exactly as the one written.
+ */
+public class CLAClassifierBinarySerializer {
+	/** The first four bytes of every serialized classifier: "CLAC" */
+	public static final int MAGIC = 0x434C4143;
+	/** The version of the format written */
+	public static final int VERSION = 1;
+	
+	private static final int VALUE_NULL = 0;
+	private static final int VALUE_DOUBLE = 1;
+	private static final int VALUE_INTEGER = 2;
+	private static final int VALUE_STRING = 3;
+	
+	private CLAClassifierBinarySerializer() {}
+	
+	/**
+	 * Writes the specified classifier, which must not be computed on meanwhile
+	 * 
+	 * @param classifier	the classifier to write
+	 * @param channel		the channel to write to, which is left open
+	 * @throws IOException	if writing fails
+	 * @throws IllegalArgumentException if an actual value is of another type
+	 */
+	public static void write(CLAClassifier classifier, WritableByteChannel channel) throws IOException {
+		BinaryWriter out = new BinaryWriter(channel);
+		out.writeInt(MAGIC);
+		out.writeVarInt(VERSION);
+		
+		out.writeVarInt(classifier.verbosity);
+		out.writeDouble(classifier.alpha);
+		out.writeDouble(classifier.actValueAlpha);
+		out.writeSignedVarInt(classifier.learnIteration);
+		out.writeSignedVarInt(classifier.recordNumMinusLearnIteration);
+		out.writeSignedVarInt(classifier.maxBucketIdx);
+		
+		out.writeVarInt(classifier.steps.size());
+		for(int i = 0;i < classifier.steps.size();i++) {
+			out.writeSignedVarInt(classifier.steps.get(i));
+		}
+		
+		out.writeVarInt(classifier.patternNZHistory.capacity());
+		out.writeVarInt(classifier.patternNZHistory.size());
+		for(Tuple<Object> t : classifier.patternNZHistory) {
+			out.writeSignedVarInt((Integer)t.the(0));
+			out.writeIndexes((int[])t.the(1));
+		}
+		
+		Map<IntTuple, BitHistory> histories = classifier.getActiveBitHistory();
+		out.writeVarInt(histories.size());
+		for(Map.Entry<IntTuple, BitHistory> entry : histories.entrySet()) {
+			int bitNum = entry.getKey().get(0);
+			int nSteps = entry.getKey().get(1);
+			out.writeSignedVarInt(bitNum);
+			out.writeSignedVarInt(nSteps);
+			entry.getValue().write(out, bitNum, nSteps);
+		}
+		
+		out.writeVarInt(classifier.actualValues.size());
+		for(Object value : classifier.actualValues) {
+			if(value == null) {
+				out.writeVarInt(VALUE_NULL);
+			}else if(value instanceof Double) {
+				out.writeVarInt(VALUE_DOUBLE);
+				out.writeDouble((Double)value);
+			}else if(value instanceof Integer) {
+				out.writeVarInt(VALUE_INTEGER);
+				out.writeSignedVarInt((Integer)value);
+			}else if(value instanceof String) {
+				out.writeVarInt(VALUE_STRING);
+				out.writeString((String)value);
+			}else{
+				throw new IllegalArgumentException("Cannot write an actual value of type " + value.getClass());
+			}
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Reads a classifier written by {@link #write(CLAClassifier, WritableByteChannel)}
+	 * 
+	 * @param channel	the channel to read from, which is left open
+	 * @return	the classifier
+	 * @throws IOException	if reading fails or the channel doesn't hold a
+	 * 						classifier of a version this class reads
+	 */
+	public static CLAClassifier read(ReadableByteChannel channel) throws IOException {
+		BinaryReader in = new BinaryReader(channel);
+		int magic = in.readInt();
+		if(magic != MAGIC) {
+			throw new StreamCorruptedException("Not a classifier: bad magic " + Integer.toHexString(magic));
+		}
+		int version = in.readVarInt();
+		if(version != VERSION) {
+			throw new StreamCorruptedException("Unsupported classifier version " + version);
+		}
+		
+		CLAClassifier classifier = new CLAClassifier();
+		classifier.verbosity = in.readVarInt();
+		classifier.alpha = in.readDouble();
+		classifier.actValueAlpha = in.readDouble();
+		classifier.learnIteration = in.readSignedVarInt();
+		classifier.recordNumMinusLearnIteration = in.readSignedVarInt();
+		classifier.maxBucketIdx = in.readSignedVarInt();
+		
+		int numSteps = in.readLength();
+		TIntList steps = new TIntArrayList(numSteps);
+		for(int i = 0;i < numSteps;i++) {
+			steps.add(in.readSignedVarInt());
+		}
+		classifier.steps = steps;
+		
+		Deque<Tuple<Object>> patterns = new Deque<>(in.readLength());
+		int numPatterns = in.readLength();
+		for(int i = 0;i < numPatterns;i++) {
+			int iteration = in.readSignedVarInt();
+			patterns.append(new Tuple<Object>(iteration, in.readIndexes()));
+		}
+		classifier.patternNZHistory = patterns;
+		
+		int numHistories = in.readLength();
+		Map<IntTuple, BitHistory> histories = new HashMap<>();
+		for(int i = 0;i < numHistories;i++) {
+			int bitNum = in.readSignedVarInt();
+			int nSteps = in.readSignedVarInt();
+			histories.put(new IntTuple(bitNum, nSteps), BitHistory.read(in, classifier, bitNum, nSteps));
+		}
+		classifier.setActiveBitHistory(histories);
+		
+		int numValues = in.readLength();
+		List<Object> values = new ArrayList<>(numValues);
+		for(int i = 0;i < numValues;i++) {
+			int type = in.readVarInt();
+			switch(type) {
+				case VALUE_NULL: values.add(null); break;
+				case VALUE_DOUBLE: values.add(in.readDouble()); break;
+				case VALUE_INTEGER: values.add(in.readSignedVarInt()); break;
+				case VALUE_STRING: values.add(in.readString()); break;
+				default: throw new StreamCorruptedException("Unknown type " + type + " of an actual value");
+			}
+		}
+		classifier.actualValues = values;
+		return classifier;
+	}
+}
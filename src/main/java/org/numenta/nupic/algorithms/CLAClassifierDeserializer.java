@@ -68,7 +68,7 @@ public class CLAClassifierDeserializer extends JsonDeserializer<CLAClassifier> {
         retVal.steps = t;
         
         String[] tupleStrs = node.get("patternNZHistory").asText().split(";");
-        Deque<Tuple> patterns = new Deque<>(tupleStrs.length);
+        Deque<Tuple<Object>> patterns = new Deque<>(tupleStrs.length);
         for(String tupleStr : tupleStrs) {
         	String[] tupleParts = tupleStr.split("-");
         	int iteration = Integer.parseInt(tupleParts[0]);
@@ -78,7 +78,7 @@ public class CLAClassifierDeserializer extends JsonDeserializer<CLAClassifier> {
         	for(int i = 0;i < indices.length;i++) {
         		indices[i] = Integer.parseInt(indexes[i].trim());
         	}
-        	Tuple tup = new Tuple(iteration, indices);
+        	Tuple<Object> tup = new Tuple<Object>(iteration, indices);
         	patterns.append(tup);
         }
         retVal.patternNZHistory = patterns;
@@ -54,7 +54,7 @@ public class CLAClassifierSerializer extends JsonSerializer<CLAClassifier> {
 		jgen.writeStringField("steps", sb.toString());
 		
 		sb = new StringBuilder();
-		for(Tuple t : cla.patternNZHistory) {
+		for(Tuple<Object> t : cla.patternNZHistory) {
 			sb.append(t.the(0)).append("-").append(Arrays.toString((int[])t.the(1))).append(";");
 		}
 		sb.setLength(sb.length() - 1);
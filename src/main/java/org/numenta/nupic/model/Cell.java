@@ -38,7 +38,8 @@ public class Cell implements Comparable<Cell> {
     private final int index;
     /** The owning {@link Column} */
     private final Column parentColumn;
-    
+    /** True once a segment is created or destroyed, until cleared by a checkpoint */
+    private boolean dirty;
     
     /**
      * Constructs a new {@code Cell} object
@@ -66,6 +67,26 @@ public class Cell implements Comparable<Cell> {
         return parentColumn;
     }
     
+    /**
+     * Returns true if segments were created on or destroyed from this
+     * {@code Cell} since the flag was last cleared. Changes within its
+     * segments are flagged by the segments themselves.
+     * 
+     * @return
+     * @see org.numenta.nupic.Checkpointer
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    /**
+     * Sets or clears the flag marking this cell's segments as created or destroyed
+     * @param dirty
+     */
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+    
     /**
      * Adds a {@link Synapse} which is the receiver of signals
      * from this {@code Cell}
@@ -99,10 +120,31 @@ public class Cell implements Comparable<Cell> {
     public DistalDendrite createSegment(CLA c, int index) {
         DistalDendrite dd = new DistalDendrite(this, index);
         c.getSegments(this).add(dd);
+        dirty = true;
         
         return dd;
     }
     
+    /**
+     * Destroys the specified {@link DistalDendrite} together with all of
+     * its {@link Synapse}s.
+     * 
+     * @param   c       the connections state of the temporal memory
+     * @param segment   the {@link DistalDendrite} to destroy
+     */
+    public void destroySegment(CLA c, DistalDendrite segment) {
+        List<Synapse> synapses = c.getSynapses(segment);
+        while(!synapses.isEmpty()) {
+            segment.destroySynapse(c, synapses.get(synapses.size() - 1));
+        }
+        c.removeSynapses(segment);
+        c.getSegments(this).remove(segment);
+        if(c.getSynapseCounts() != null) {
+            c.getSynapseCounts().release(segment);
+        }
+        dirty = true;
+    }
+    
     /**
      * Returns a {@link List} of this {@code Cell}'s {@link DistalDendrite}s
      * 
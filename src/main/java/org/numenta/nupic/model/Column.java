@@ -115,7 +115,7 @@ public class Column {
         int minNumSegments = Integer.MAX_VALUE;
         
         for(Cell cell : cells) {
-            int numSegments = cell.getSegments(c).size();
+            int numSegments = c.getSegments(cell, false).size();
             
             if(numSegments < minNumSegments) {
                 minNumSegments = numSegments;
@@ -169,6 +169,17 @@ public class Column {
     	proximalDendrite.setPermanences(c, permanences, indexes);
     }
     
+    /**
+     * Sets the permanences on the {@link ProximalDendrite} {@link Synapse}s
+     * from an array in its {@link Pool}'s packed order
+     * 
+     * @param c				the {@link CLA} memory object
+     * @param permanences	floating point degree of connectedness
+     */
+    public void setProximalPermanencesPacked(CLA c, double[] permanences) {
+    	proximalDendrite.setPermanencesPacked(c, permanences);
+    }
+    
     /**
      * Delegates the call to set synapse connected indexes to this 
      * {@code Column}'s {@link ProximalDendrite}
@@ -0,0 +1,221 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import org.numenta.nupic.research.TemporalMemory;
+
+/**
+ * Storage for the distal connections of the {@link TemporalMemory} in which
+ * cells, segments and synapses are all addressed by int ids rather than by
+ * {@link Cell}, {@link DistalDendrite} and {@link Synapse} objects.
+ *
+ * Cell ids are the cell indexes used throughout the {@link TemporalMemory}.
+ * Segment and synapse ids are handed out by the store and may be reused
+ * once the segment or synapse they referred to has been destroyed.
+ *
+ * The id lists returned by {@link #getSegments(int)}, {@link #getSynapses(int)}
+ * and {@link #getReceptorSynapses(int)} are the store's backing arrays, or
+ * buffers valid until the next call of the same method; only the leading
+ * entries given by the matching count are valid, and they must not be
+ * modified by the caller.
+ *
+ * @see FlatConnectionStore
+ */
+public interface ConnectionStore {
+    /**
+     * Creates a new segment on the specified cell and returns its id.
+     *
+     * @param cell  the owning cell's index
+     * @return      the new segment's id
+     */
+    public int createSegment(int cell);
+
+    /**
+     * Destroys the specified segment together with all of its synapses.
+     *
+     * @param segment   the id of the segment to destroy
+     */
+    public void destroySegment(int segment);
+
+    /**
+     * Creates a new synapse on the specified segment and returns its id.
+     *
+     * @param segment           the owning segment's id
+     * @param presynapticCell   the index of the cell which activates the synapse
+     * @param permanence        the initial permanence
+     * @return                  the new synapse's id
+     */
+    public int createSynapse(int segment, int presynapticCell, double permanence);
+
+    /**
+     * Destroys the specified synapse, removing it from its segment and
+     * from its presynaptic cell's receptor list.
+     *
+     * @param synapse   the id of the synapse to destroy
+     */
+    public void destroySynapse(int synapse);
+
+    /**
+     * Returns the index of the cell owning the specified segment
+     * @param segment
+     * @return
+     */
+    public int getCellForSegment(int segment);
+
+    /**
+     * Returns the id of the segment owning the specified synapse
+     * @param synapse
+     * @return
+     */
+    public int getSegmentForSynapse(int synapse);
+
+    /**
+     * Returns the index of the cell which activates the specified synapse
+     * @param synapse
+     * @return
+     */
+    public int getPresynapticCell(int synapse);
+
+    /**
+     * Returns the permanence of the specified synapse
+     * @param synapse
+     * @return
+     */
+    public double getPermanence(int synapse);
+
+    /**
+     * Sets the permanence of the specified synapse
+     * @param synapse
+     * @param permanence
+     */
+    public void setPermanence(int synapse, double permanence);
+
+    /**
+     * Returns the {@link TemporalMemory} cycle in which the specified segment
+     * was last created, active or learning
+     * @param segment
+     * @return
+     */
+    public int getLastUsedIteration(int segment);
+
+    /**
+     * Records the {@link TemporalMemory} cycle in which the specified segment
+     * was last created, active or learning
+     * @param segment
+     * @param iteration
+     */
+    public void setLastUsedIteration(int segment, int iteration);
+
+    /**
+     * Returns the ids of the segments on the specified cell, in creation order
+     * @param cell
+     * @return
+     * @see #getNumSegments(int)
+     */
+    public int[] getSegments(int cell);
+
+    /**
+     * Returns the number of segments on the specified cell
+     * @param cell
+     * @return
+     */
+    public int getNumSegments(int cell);
+
+    /**
+     * Returns the ids of the synapses on the specified segment, in creation order
+     * @param segment
+     * @return
+     * @see #getNumSynapses(int)
+     */
+    public int[] getSynapses(int segment);
+
+    /**
+     * Returns the number of synapses on the specified segment
+     * @param segment
+     * @return
+     */
+    public int getNumSynapses(int segment);
+
+    /**
+     * Returns the ids of the synapses activated by the specified cell, in
+     * creation order
+     * @param cell
+     * @return
+     * @see #getNumReceptorSynapses(int)
+     */
+    public int[] getReceptorSynapses(int cell);
+
+    /**
+     * Returns the number of synapses activated by the specified cell
+     * @param cell
+     * @return
+     */
+    public int getNumReceptorSynapses(int cell);
+
+    /**
+     * Returns the number of cells this store was created for
+     * @return
+     */
+    public int getNumCells();
+
+    /**
+     * Returns one more than the largest segment id handed out so far,
+     * suitable for sizing arrays indexed by segment id.
+     * @return
+     */
+    public int getSegmentCapacity();
+
+    /**
+     * Returns one more than the largest synapse id handed out so far,
+     * suitable for sizing arrays indexed by synapse id.
+     * @return
+     */
+    public int getSynapseCapacity();
+
+    /**
+     * Returns the number of live segments
+     * @return
+     */
+    public int getSegmentCount();
+
+    /**
+     * Returns the number of live synapses
+     * @return
+     */
+    public int getSynapseCount();
+
+    /**
+     * Returns true if segments and synapses can't be created, destroyed or
+     * adapted, in which case the store can only be used for inference.
+     * @return
+     */
+    public boolean isReadOnly();
+
+    /**
+     * Returns a store holding the same connections which, from then on,
+     * changes independently of this one. Storage is shared rather than
+     * copied wherever the implementation can, so a fork is cheap.
+     * @return
+     */
+    public ConnectionStore fork();
+}
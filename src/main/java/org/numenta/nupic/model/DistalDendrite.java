@@ -22,8 +22,7 @@
 
 package org.numenta.nupic.model;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +31,9 @@ import java.util.Set;
 import org.apache.commons.math3.analysis.UnivariateFunction;
 
 import org.numenta.nupic.CLA;
+import org.numenta.nupic.research.SynapseCounts;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.Condition;
 
 /**
  * Represents a proximal or distal dendritic segment.
@@ -43,8 +45,21 @@ import org.numenta.nupic.CLA;
  * @author David Ray
  */
 public class DistalDendrite extends Segment {
+    private static final int[] EMPTY = new int[0];
+    
     private final Cell cell;
     private final int index;
+    /** Sorted indexes of the source cells of this segment's synapses */
+    private int[] presynapticCells = EMPTY;
+    private int numPresynapticCells;
+    /** The {@link TemporalMemory} cycle in which this segment was last active */
+    private int lastUsedIteration;
+    /** Permanences of this segment's synapses, created with the first synapse */
+    private SegmentPool pool;
+    /** True once this segment changes, until cleared by a checkpoint */
+    private boolean dirty;
+    /** This segment's slot in the {@link SynapseCounts}, or -1 */
+    private int countSlot = -1;
     
     /**
      * Constructs a new {@code Segment} object with the specified
@@ -66,6 +81,81 @@ public class DistalDendrite extends Segment {
         return cell;
     }
     
+    /**
+     * Returns this {@code DistalDendrite}'s index
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+    
+    /**
+     * Returns this segment's slot in the counters of the {@link SynapseCounts},
+     * or -1 if none of its synapses has been counted
+     * @return
+     */
+    public int getCountSlot() {
+        return countSlot;
+    }
+    
+    /**
+     * Sets this segment's slot in the counters of the {@link SynapseCounts}
+     * @param slot
+     */
+    public void setCountSlot(int slot) {
+        this.countSlot = slot;
+    }
+    
+    /**
+     * Returns the {@link TemporalMemory} cycle in which this segment was
+     * last created, active or learning
+     * @return
+     */
+    public int getLastUsedIteration() {
+        return lastUsedIteration;
+    }
+    
+    /**
+     * Records the {@link TemporalMemory} cycle in which this segment was
+     * last created, active or learning
+     * @param iteration
+     */
+    public void setLastUsedIteration(int iteration) {
+        if(iteration != lastUsedIteration) {
+            dirty = true;
+            this.lastUsedIteration = iteration;
+        }
+    }
+    
+    /**
+     * Returns true if this segment's synapses, their permanences or its last
+     * used iteration changed since the flag was last cleared. Distinct
+     * segments may be marked concurrently.
+     * 
+     * @return
+     * @see org.numenta.nupic.Checkpointer
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    /**
+     * Sets or clears the flag marking this segment as changed
+     * @param dirty
+     */
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+    
+    /**
+     * Returns the {@link SegmentPool} holding the permanences of this
+     * segment's synapses, or null if no synapse was ever created on it.
+     * @return
+     */
+    public SegmentPool getPool() {
+        return pool;
+    }
+    
     /**
      * Creates and returns a newly created {@link Synapse} with the specified
      * source cell, permanence, and index.
@@ -78,12 +168,71 @@ public class DistalDendrite extends Segment {
      * @return
      */
     public Synapse createSynapse(CLA c, Cell sourceCell, double permanence, int index) {
-    	Pool pool = new Pool(1);
+    	if(pool == null) {
+    	    pool = new SegmentPool(c.getSinglePrecisionPermanences());
+    	}
+    	dirty = true;
     	Synapse s = super.createSynapse(c, c.getSynapses(this), sourceCell, pool, index, sourceCell.getIndex());
     	pool.setPermanence(c, s, permanence);
+    	addPresynapticCell(sourceCell.getIndex());
         return s;
     }
     
+    /**
+     * Destroys the specified {@link Synapse}, removing it from this segment
+     * and from its source cell's receptor synapses.
+     * 
+     * @param c         the connections state of the temporal memory
+     * @param synapse   the {@link Synapse} to destroy
+     */
+    public void destroySynapse(CLA c, Synapse synapse) {
+        dirty = true;
+        c.getSynapses(this).remove(synapse);
+        c.getReceptorSynapses(synapse.getSourceCell()).remove(synapse);
+        pool.remove(synapse);
+        removePresynapticCell(synapse.getSourceCell().getIndex());
+    }
+    
+    /**
+     * Returns true if one of this segment's {@link Synapse}s has
+     * the specified source cell.
+     * 
+     * @param cellIndex     the index of the source cell
+     * @return
+     */
+    public boolean hasPresynapticCell(int cellIndex) {
+        return Arrays.binarySearch(presynapticCells, 0, numPresynapticCells, cellIndex) >= 0;
+    }
+    
+    /**
+     * Records a source cell in the sorted presynaptic cell index
+     * @param cellIndex
+     */
+    private void addPresynapticCell(int cellIndex) {
+        int pos = Arrays.binarySearch(presynapticCells, 0, numPresynapticCells, cellIndex);
+        if(pos < 0) {
+            pos = -pos - 1;
+        }
+        if(numPresynapticCells == presynapticCells.length) {
+            presynapticCells = Arrays.copyOf(presynapticCells, Math.max(4, numPresynapticCells * 2));
+        }
+        System.arraycopy(presynapticCells, pos, presynapticCells, pos + 1, numPresynapticCells - pos);
+        presynapticCells[pos] = cellIndex;
+        numPresynapticCells++;
+    }
+    
+    /**
+     * Removes one occurrence of a source cell from the presynaptic cell index
+     * @param cellIndex
+     */
+    private void removePresynapticCell(int cellIndex) {
+        int pos = Arrays.binarySearch(presynapticCells, 0, numPresynapticCells, cellIndex);
+        if(pos >= 0) {
+            System.arraycopy(presynapticCells, pos + 1, presynapticCells, pos, numPresynapticCells - pos - 1);
+            numPresynapticCells--;
+        }
+    }
+    
     /**
      * Returns all {@link Synapse}s
      * 
@@ -147,22 +296,39 @@ public class DistalDendrite extends Segment {
      * @param c                     the connections state of the temporal memory
      * @param activeSynapses        a set of active synapses owned by this {@code Segment} which
      *                              will have their permanences increased. All others will have their
-     *                              permanences decreased.
+     *                              permanences decreased, lazily if 
+     *                              {@link CLA#getLazyPermanenceDecrement()} is set.
      * @param permanenceIncrement   the increment by which permanences are increased.
      * @param permanenceDecrement   the increment by which permanences are decreased.
      */
     public void adaptSegment(CLA c, Set<Synapse> activeSynapses, double permanenceIncrement, double permanenceDecrement) {
-        for(Synapse synapse : c.getSynapses(this)) {
-            double permanence = synapse.getPermanence();
-            if(activeSynapses.contains(synapse)) {
-                permanence += permanenceIncrement;
-            }else{
-                permanence -= permanenceDecrement;
-            }
-            
-            permanence = Math.max(0, Math.min(1.0, permanence));
-            
-            synapse.setPermanence(c, permanence);
+        if(pool == null) return;
+        
+        dirty = true;
+        if(c.getLazyPermanenceDecrement()) {
+            pool.adaptLazily(activeSynapses, permanenceIncrement, permanenceDecrement);
+        }else{
+            pool.adapt(activeSynapses, permanenceIncrement, permanenceDecrement);
+        }
+    }
+    
+    /**
+     * Same as {@link #adaptSegment(CLA, Set, double, double)}, with the active
+     * synapses being those for which the specified {@link Condition} holds.
+     * 
+     * @param c                     the connections state of the temporal memory
+     * @param isActive              evaluates to true for the active synapses
+     * @param permanenceIncrement   the increment by which permanences are increased.
+     * @param permanenceDecrement   the increment by which permanences are decreased.
+     */
+    public void adaptSegment(CLA c, Condition<Synapse> isActive, double permanenceIncrement, double permanenceDecrement) {
+        if(pool == null) return;
+        
+        dirty = true;
+        if(c.getLazyPermanenceDecrement()) {
+            pool.adaptLazily(isActive, permanenceIncrement, permanenceDecrement);
+        }else{
+            pool.adapt(isActive, permanenceIncrement, permanenceDecrement);
         }
     }
     
@@ -178,24 +344,24 @@ public class DistalDendrite extends Segment {
      *                          {@link Synapse}s owned by this {@code Segment}
      */
     public Set<Cell> pickCellsToLearnOn(CLA c, int numPickCells, Set<Cell> prevWinners, Random random) {
-        //Create a list of cells that aren't already synapsed to this segment
-        Set<Cell> candidates = new LinkedHashSet<>(prevWinners);
-        for(Synapse synapse : c.getSynapses(this)) {
-            Cell sourceCell = synapse.getSourceCell();
-            if(candidates.contains(sourceCell)) {
-                candidates.remove(sourceCell);
+        //Gather the cells that aren't already synapsed to this segment
+        Cell[] candidates = new Cell[prevWinners.size()];
+        int numCandidates = 0;
+        for(Cell cell : prevWinners) {
+            if(!hasPresynapticCell(cell.getIndex())) {
+                candidates[numCandidates++] = cell;
             }
         }
         
-        numPickCells = Math.min(numPickCells, candidates.size());
-        List<Cell> cands = new ArrayList<>(candidates);
-        Collections.sort(cands);
-        
+        //Partial Fisher-Yates shuffle: the first numPickCells slots receive the picks
+        numPickCells = Math.min(numPickCells, numCandidates);
         Set<Cell> cells = new LinkedHashSet<>();
         for(int x = 0;x < numPickCells;x++) {
-            int i = random.nextInt(cands.size());
-            cells.add(cands.get(i));
-            cands.remove(i);
+            int i = x + random.nextInt(numCandidates - x);
+            Cell picked = candidates[i];
+            candidates[i] = candidates[x];
+            candidates[x] = picked;
+            cells.add(picked);
         }
         
         return cells;
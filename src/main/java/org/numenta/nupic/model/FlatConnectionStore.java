@@ -0,0 +1,561 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+package org.numenta.nupic.model;
+
+import java.util.Arrays;
+
+/**
+ * {@link ConnectionStore} which keeps every segment and synapse attribute in
+ * parallel primitive arrays indexed by id. Destroyed ids are kept on free lists
+ * and handed out again before the arrays are grown, so a model whose size has
+ * levelled off stops allocating.
+ *
+ * A synapse costs one presynaptic cell, one owning segment and one permanence
+ * slot, plus its entries in its segment's and its presynaptic cell's id lists.
+ * In single precision mode permanences are held in a float array. The synapse
+ * attributes are split into pages of {@link #PAGE_SIZE} synapses, which
+ * {@link #fork()} shares between stores along with the id lists.
+ */
+public class FlatConnectionStore implements ConnectionStore {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int[] EMPTY = new int[0];
+
+    private static final int PAGE_SHIFT = 10;
+    /** The number of synapses whose attributes are held in one page */
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final int numCells;
+
+    private int[][] cellSegments;
+    private int[] cellNumSegments;
+    private int[][] cellReceptors;
+    private int[] cellNumReceptors;
+
+    private int[] segmentCell;
+    private int[][] segmentSynapses;
+    private int[] segmentNumSynapses;
+    private int[] segmentLastUsed;
+    private int segmentCapacity;
+    private int segmentCount;
+    private int[] freeSegments = new int[INITIAL_CAPACITY];
+    private int numFreeSegments;
+
+    /** Synapse attributes by page, then by the synapse's position in the page */
+    private int[][] synapsePresynapticCell;
+    private int[][] synapseSegment;
+    private double[][] synapsePermanence;
+    private float[][] synapsePermanenceFloat;
+    private int synapseCapacity;
+    private int synapseCount;
+    private int[] freeSynapses = new int[INITIAL_CAPACITY];
+    private int numFreeSynapses;
+
+    /**
+     * Marks the id lists and pages shared with a fork, which are copied before
+     * they are first written; null until this store is forked or is a fork.
+     */
+    private boolean[] sharedCellSegments;
+    private boolean[] sharedCellReceptors;
+    private boolean[] sharedSegmentSynapses;
+    private boolean[] sharedPages;
+
+    /**
+     * Constructs a new {@code FlatConnectionStore} holding double precision
+     * permanences.
+     *
+     * @param numCells  the total number of cells
+     */
+    public FlatConnectionStore(int numCells) {
+        this(numCells, false);
+    }
+
+    /**
+     * Constructs a new {@code FlatConnectionStore}
+     *
+     * @param numCells          the total number of cells
+     * @param singlePrecision   if true, permanences are rounded to and stored as floats
+     */
+    public FlatConnectionStore(int numCells, boolean singlePrecision) {
+        this.numCells = numCells;
+
+        cellSegments = new int[numCells][];
+        cellNumSegments = new int[numCells];
+        cellReceptors = new int[numCells][];
+        cellNumReceptors = new int[numCells];
+        Arrays.fill(cellSegments, EMPTY);
+        Arrays.fill(cellReceptors, EMPTY);
+
+        segmentCell = new int[INITIAL_CAPACITY];
+        segmentSynapses = new int[INITIAL_CAPACITY][];
+        segmentNumSynapses = new int[INITIAL_CAPACITY];
+        segmentLastUsed = new int[INITIAL_CAPACITY];
+
+        synapsePresynapticCell = new int[0][];
+        synapseSegment = new int[0][];
+        if(singlePrecision) {
+            synapsePermanenceFloat = new float[0][];
+        }else{
+            synapsePermanence = new double[0][];
+        }
+    }
+
+    /**
+     * Constructs a fork of the specified store, which must already mark
+     * all of its id lists and pages shared.
+     *
+     * @param parent    the store forked
+     */
+    private FlatConnectionStore(FlatConnectionStore parent) {
+        numCells = parent.numCells;
+
+        cellSegments = parent.cellSegments.clone();
+        cellNumSegments = parent.cellNumSegments.clone();
+        cellReceptors = parent.cellReceptors.clone();
+        cellNumReceptors = parent.cellNumReceptors.clone();
+
+        segmentCell = parent.segmentCell.clone();
+        segmentSynapses = parent.segmentSynapses.clone();
+        segmentNumSynapses = parent.segmentNumSynapses.clone();
+        segmentLastUsed = parent.segmentLastUsed.clone();
+        segmentCapacity = parent.segmentCapacity;
+        segmentCount = parent.segmentCount;
+        freeSegments = parent.freeSegments.clone();
+        numFreeSegments = parent.numFreeSegments;
+
+        synapsePresynapticCell = parent.synapsePresynapticCell.clone();
+        synapseSegment = parent.synapseSegment.clone();
+        if(parent.synapsePermanenceFloat != null) {
+            synapsePermanenceFloat = parent.synapsePermanenceFloat.clone();
+        }else{
+            synapsePermanence = parent.synapsePermanence.clone();
+        }
+        synapseCapacity = parent.synapseCapacity;
+        synapseCount = parent.synapseCount;
+        freeSynapses = parent.freeSynapses.clone();
+        numFreeSynapses = parent.numFreeSynapses;
+
+        sharedCellSegments = parent.sharedCellSegments.clone();
+        sharedCellReceptors = parent.sharedCellReceptors.clone();
+        sharedSegmentSynapses = parent.sharedSegmentSynapses.clone();
+        sharedPages = parent.sharedPages.clone();
+    }
+
+    /**
+     * Returns true if permanences are stored in single precision
+     * @return
+     */
+    public boolean isSinglePrecision() {
+        return synapsePermanenceFloat != null;
+    }
+
+    /**
+     * Returns a store holding the same connections which shares this one's
+     * id lists and synapse pages. Either store copies a shared list or page
+     * before first writing to it, so a fork costs time in proportion to the
+     * number of cells, segment ids and pages, and each store then pays for
+     * the lists and pages it changes. Neither store may be in use meanwhile,
+     * though afterwards both may be used concurrently.
+     */
+    @Override
+    public FlatConnectionStore fork() {
+        sharedCellSegments = shareAll(sharedCellSegments, numCells);
+        sharedCellReceptors = shareAll(sharedCellReceptors, numCells);
+        sharedSegmentSynapses = shareAll(sharedSegmentSynapses, segmentCell.length);
+        sharedPages = shareAll(sharedPages, synapseSegment.length);
+        return new FlatConnectionStore(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int createSegment(int cell) {
+        int segment;
+        if(numFreeSegments > 0) {
+            segment = freeSegments[--numFreeSegments];
+        }else{
+            segment = segmentCapacity++;
+            if(segment == segmentCell.length) {
+                int length = segment * 2;
+                segmentCell = Arrays.copyOf(segmentCell, length);
+                segmentSynapses = Arrays.copyOf(segmentSynapses, length);
+                segmentNumSynapses = Arrays.copyOf(segmentNumSynapses, length);
+                segmentLastUsed = Arrays.copyOf(segmentLastUsed, length);
+                if(sharedSegmentSynapses != null) {
+                    sharedSegmentSynapses = Arrays.copyOf(sharedSegmentSynapses, length);
+                }
+            }
+            segmentSynapses[segment] = EMPTY;
+        }
+        segmentCell[segment] = cell;
+        segmentNumSynapses[segment] = 0;
+        segmentLastUsed[segment] = 0;
+        segmentCount++;
+
+        cellSegments[cell] = append(ownCellSegments(cell), cellNumSegments[cell]++, segment);
+
+        return segment;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroySegment(int segment) {
+        while(segmentNumSynapses[segment] > 0) {
+            destroySynapse(segmentSynapses[segment][segmentNumSynapses[segment] - 1]);
+        }
+
+        int cell = segmentCell[segment];
+        cellNumSegments[cell] = remove(ownCellSegments(cell), cellNumSegments[cell], segment);
+        segmentCell[segment] = -1;
+        segmentCount--;
+
+        freeSegments = append(freeSegments, numFreeSegments++, segment);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int createSynapse(int segment, int presynapticCell, double permanence) {
+        int synapse;
+        if(numFreeSynapses > 0) {
+            synapse = freeSynapses[--numFreeSynapses];
+        }else{
+            synapse = synapseCapacity++;
+            if((synapse >>> PAGE_SHIFT) == synapseSegment.length) {
+                addPage();
+            }
+        }
+        int page = ownPage(synapse >>> PAGE_SHIFT);
+        synapsePresynapticCell[page][synapse & PAGE_MASK] = presynapticCell;
+        synapseSegment[page][synapse & PAGE_MASK] = segment;
+        setPermanence(synapse, permanence);
+        synapseCount++;
+
+        segmentSynapses[segment] = append(ownSegmentSynapses(segment), segmentNumSynapses[segment]++, synapse);
+        cellReceptors[presynapticCell] = append(
+            ownCellReceptors(presynapticCell), cellNumReceptors[presynapticCell]++, synapse);
+
+        return synapse;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroySynapse(int synapse) {
+        int page = ownPage(synapse >>> PAGE_SHIFT);
+        int segment = synapseSegment[page][synapse & PAGE_MASK];
+        int cell = synapsePresynapticCell[page][synapse & PAGE_MASK];
+        segmentNumSynapses[segment] = remove(ownSegmentSynapses(segment), segmentNumSynapses[segment], synapse);
+        cellNumReceptors[cell] = remove(ownCellReceptors(cell), cellNumReceptors[cell], synapse);
+        synapseSegment[page][synapse & PAGE_MASK] = -1;
+        synapsePresynapticCell[page][synapse & PAGE_MASK] = -1;
+        synapseCount--;
+
+        freeSynapses = append(freeSynapses, numFreeSynapses++, synapse);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCellForSegment(int segment) {
+        return segmentCell[segment];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSegmentForSynapse(int synapse) {
+        return synapseSegment[synapse >>> PAGE_SHIFT][synapse & PAGE_MASK];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPresynapticCell(int synapse) {
+        return synapsePresynapticCell[synapse >>> PAGE_SHIFT][synapse & PAGE_MASK];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPermanence(int synapse) {
+        return synapsePermanenceFloat != null ?
+            synapsePermanenceFloat[synapse >>> PAGE_SHIFT][synapse & PAGE_MASK] :
+            synapsePermanence[synapse >>> PAGE_SHIFT][synapse & PAGE_MASK];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPermanence(int synapse, double permanence) {
+        int page = ownPage(synapse >>> PAGE_SHIFT);
+        if(synapsePermanenceFloat != null) {
+            synapsePermanenceFloat[page][synapse & PAGE_MASK] = (float)permanence;
+        }else{
+            synapsePermanence[page][synapse & PAGE_MASK] = permanence;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLastUsedIteration(int segment) {
+        return segmentLastUsed[segment];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLastUsedIteration(int segment, int iteration) {
+        segmentLastUsed[segment] = iteration;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getSegments(int cell) {
+        return cellSegments[cell];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumSegments(int cell) {
+        return cellNumSegments[cell];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getSynapses(int segment) {
+        return segmentSynapses[segment];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumSynapses(int segment) {
+        return segmentNumSynapses[segment];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getReceptorSynapses(int cell) {
+        return cellReceptors[cell];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumReceptorSynapses(int cell) {
+        return cellNumReceptors[cell];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumCells() {
+        return numCells;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSegmentCapacity() {
+        return segmentCapacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSynapseCapacity() {
+        return synapseCapacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSynapseCount() {
+        return synapseCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Returns a flag array of the specified length with every flag set,
+     * reusing the existing array if it is long enough
+     */
+    private static boolean[] shareAll(boolean[] shared, int length) {
+        if(shared == null || shared.length < length) {
+            shared = new boolean[length];
+        }
+        Arrays.fill(shared, true);
+        return shared;
+    }
+
+    /**
+     * Returns the cell's segment list, first replacing it by a copy if it is shared
+     */
+    private int[] ownCellSegments(int cell) {
+        if(sharedCellSegments != null && sharedCellSegments[cell]) {
+            sharedCellSegments[cell] = false;
+            cellSegments[cell] = cellSegments[cell].clone();
+        }
+        return cellSegments[cell];
+    }
+
+    /**
+     * Returns the cell's receptor synapse list, first replacing it by a copy if it is shared
+     */
+    private int[] ownCellReceptors(int cell) {
+        if(sharedCellReceptors != null && sharedCellReceptors[cell]) {
+            sharedCellReceptors[cell] = false;
+            cellReceptors[cell] = cellReceptors[cell].clone();
+        }
+        return cellReceptors[cell];
+    }
+
+    /**
+     * Returns the segment's synapse list, first replacing it by a copy if it is shared
+     */
+    private int[] ownSegmentSynapses(int segment) {
+        if(sharedSegmentSynapses != null && sharedSegmentSynapses[segment]) {
+            sharedSegmentSynapses[segment] = false;
+            segmentSynapses[segment] = segmentSynapses[segment].clone();
+        }
+        return segmentSynapses[segment];
+    }
+
+    /**
+     * Replaces the specified page of synapse attributes by a copy if it is shared
+     *
+     * @param page  the page's index
+     * @return      the page's index
+     */
+    private int ownPage(int page) {
+        if(sharedPages != null && sharedPages[page]) {
+            sharedPages[page] = false;
+            synapsePresynapticCell[page] = synapsePresynapticCell[page].clone();
+            synapseSegment[page] = synapseSegment[page].clone();
+            if(synapsePermanenceFloat != null) {
+                synapsePermanenceFloat[page] = synapsePermanenceFloat[page].clone();
+            }else{
+                synapsePermanence[page] = synapsePermanence[page].clone();
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Adds a page of synapse attributes
+     */
+    private void addPage() {
+        int page = synapseSegment.length;
+        synapsePresynapticCell = Arrays.copyOf(synapsePresynapticCell, page + 1);
+        synapseSegment = Arrays.copyOf(synapseSegment, page + 1);
+        synapsePresynapticCell[page] = new int[PAGE_SIZE];
+        synapseSegment[page] = new int[PAGE_SIZE];
+        if(synapsePermanenceFloat != null) {
+            synapsePermanenceFloat = Arrays.copyOf(synapsePermanenceFloat, page + 1);
+            synapsePermanenceFloat[page] = new float[PAGE_SIZE];
+        }else{
+            synapsePermanence = Arrays.copyOf(synapsePermanence, page + 1);
+            synapsePermanence[page] = new double[PAGE_SIZE];
+        }
+        if(sharedPages != null && sharedPages.length <= page) {
+            sharedPages = Arrays.copyOf(sharedPages, page + 1);
+        }
+    }
+
+    /**
+     * Stores the value at position {@code size} of the specified list,
+     * growing the list if it is full.
+     *
+     * @param list      the id list
+     * @param size      the number of valid entries in the list
+     * @param value     the id to append
+     * @return          the list, or its grown replacement
+     */
+    private static int[] append(int[] list, int size, int value) {
+        if(size == list.length) {
+            list = Arrays.copyOf(list, Math.max(4, size * 2));
+        }
+        list[size] = value;
+        return list;
+    }
+
+    /**
+     * Removes the first occurrence of the value from the leading {@code size}
+     * entries of the specified list, preserving the order of the others.
+     *
+     * @param list      the id list
+     * @param size      the number of valid entries in the list
+     * @param value     the id to remove
+     * @return          the new number of valid entries
+     */
+    private static int remove(int[] list, int size, int value) {
+        for(int i = 0;i < size;i++) {
+            if(list[i] == value) {
+                System.arraycopy(list, i + 1, list, i, size - i - 1);
+                return size - 1;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,476 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.model;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+import org.numenta.nupic.CLA;
+import org.numenta.nupic.util.BinaryWriter;
+
+/**
+ * Read-only {@link ConnectionStore} which reads cells, segments, synapses
+ * and permanences in place from a {@link ByteBuffer}, typically a memory
+ * mapped file, so that opening it costs no deserialization and processes
+ * mapping the same file share its pages.
+ *
+ * Segment ids are numbered cell by cell and synapse ids segment by segment,
+ * so a cell's segments and a segment's synapses are runs of consecutive ids
+ * found from an offset table. The layout, written by
+ * {@link #write(CLA, BinaryWriter, boolean)}, is a header of four ints (the
+ * numbers of cells, segments and synapses, and 1 if permanences are floats),
+ * then these big endian arrays:
+ * <pre>
+ * int[numCells + 1]        offset of each cell's first segment
+ * int[numSegments]         owning cell of each segment
+ * int[numSegments]         last used iteration of each segment
+ * int[numSegments + 1]     offset of each segment's first synapse
+ * int[numSynapses]         presynaptic cell of each synapse
+ * int[numSynapses]         owning segment of each synapse
+ * int[numCells + 1]        offset of each cell's first receptor synapse
+ * int[numSynapses]         receptor synapses, per cell in creation order
+ * double or float[numSynapses]  permanences, 8 byte aligned
+ * </pre>
+ *
+ * Only the segments' last used iterations, which inference updates, are
+ * copied to the heap. The id lists returned are per store buffers, so a
+ * store must not be used by several threads at once; give each its own
+ * store over the shared buffer instead, for instance by {@link #fork()}.
+ */
+public class MappedConnectionStore implements ConnectionStore {
+    private final int numCells;
+    private final int numSegments;
+    private final int numSynapses;
+
+    private final IntBuffer cellSegmentOffsets;
+    private final IntBuffer segmentCell;
+    private final IntBuffer segmentSynapseOffsets;
+    private final IntBuffer synapsePresynapticCell;
+    private final IntBuffer synapseSegment;
+    private final IntBuffer cellReceptorOffsets;
+    private final IntBuffer cellReceptors;
+    private final DoubleBuffer permanences;
+    private final FloatBuffer permanencesFloat;
+
+    private final int[] segmentLastUsed;
+
+    private int[] segmentBuffer = new int[16];
+    private int[] synapseBuffer = new int[16];
+    private int[] receptorBuffer = new int[16];
+
+    /**
+     * Constructs a new {@code MappedConnectionStore} over the store written
+     * at the specified offset of a buffer. The buffer's indexes must be the
+     * positions of the stream the store was written to, for the alignment of
+     * the permanences to hold.
+     *
+     * @param buffer    the buffer holding the store
+     * @param offset    the index of the store's first byte
+     * @throws IllegalArgumentException if the buffer is too short for the store
+     */
+    public MappedConnectionStore(ByteBuffer buffer, int offset) {
+        ByteBuffer b = buffer.duplicate();
+        numCells = b.getInt(offset);
+        numSegments = b.getInt(offset + 4);
+        numSynapses = b.getInt(offset + 8);
+        boolean floats = b.getInt(offset + 12) != 0;
+
+        int position = offset + 16;
+        cellSegmentOffsets = intView(b, position, numCells + 1);
+        segmentCell = intView(b, position += 4 * (numCells + 1), numSegments);
+        IntBuffer lastUsed = intView(b, position += 4 * numSegments, numSegments);
+        segmentSynapseOffsets = intView(b, position += 4 * numSegments, numSegments + 1);
+        synapsePresynapticCell = intView(b, position += 4 * (numSegments + 1), numSynapses);
+        synapseSegment = intView(b, position += 4 * numSynapses, numSynapses);
+        cellReceptorOffsets = intView(b, position += 4 * numSynapses, numCells + 1);
+        cellReceptors = intView(b, position += 4 * (numCells + 1), numSynapses);
+        position = (position + 4 * numSynapses + 7) & ~7;
+
+        if(floats) {
+            permanences = null;
+            permanencesFloat = slice(b, position, 4 * numSynapses).asFloatBuffer();
+        }else{
+            permanences = slice(b, position, 8 * numSynapses).asDoubleBuffer();
+            permanencesFloat = null;
+        }
+
+        segmentLastUsed = new int[numSegments];
+        lastUsed.get(segmentLastUsed);
+    }
+
+    /**
+     * Constructs a store reading the same buffer as the specified one, with
+     * its own copy of the last used iterations and its own id list buffers
+     */
+    private MappedConnectionStore(MappedConnectionStore store) {
+        numCells = store.numCells;
+        numSegments = store.numSegments;
+        numSynapses = store.numSynapses;
+        cellSegmentOffsets = store.cellSegmentOffsets;
+        segmentCell = store.segmentCell;
+        segmentSynapseOffsets = store.segmentSynapseOffsets;
+        synapsePresynapticCell = store.synapsePresynapticCell;
+        synapseSegment = store.synapseSegment;
+        cellReceptorOffsets = store.cellReceptorOffsets;
+        //Bulk reads move the receptors' position, so each store needs its own
+        cellReceptors = store.cellReceptors.duplicate();
+        permanences = store.permanences;
+        permanencesFloat = store.permanencesFloat;
+        segmentLastUsed = store.segmentLastUsed.clone();
+    }
+
+    private static ByteBuffer slice(ByteBuffer b, int position, int length) {
+        if(position < 0 || length < 0 || position + length > b.limit()) {
+            throw new IllegalArgumentException("The buffer ends before the connection store");
+        }
+        b.limit(position + length).position(position);
+        ByteBuffer slice = b.slice();
+        b.clear();
+        return slice;
+    }
+
+    private static IntBuffer intView(ByteBuffer b, int position, int length) {
+        return slice(b, position, 4 * length).asIntBuffer();
+    }
+
+    /**
+     * Writes the distal connections of a {@link CLA} in the layout this
+     * store reads, numbering its segments and synapses afresh. Each cell's
+     * receptor synapses keep their order, so a temporal memory over the
+     * store visits them as it did over the {@link CLA}.
+     *
+     * @param c         the {@link CLA} memory, initialized by a temporal memory
+     * @param out       the writer to write to
+     * @param floats    if true, permanences are rounded to floats
+     * @throws IOException if writing fails
+     */
+    public static void write(CLA c, BinaryWriter out, boolean floats) throws IOException {
+        Cell[] cells = c.getCells();
+        TIntIntHashMap synapseIds = new TIntIntHashMap();
+        int segmentCount = 0;
+        int synapseCount = 0;
+        for(Cell cell : cells) {
+            for(DistalDendrite dd : c.getSegments(cell, false)) {
+                segmentCount++;
+                for(Synapse s : c.getSynapses(dd, false)) {
+                    synapseIds.put(s.getIndex(), synapseCount++);
+                }
+            }
+        }
+
+        out.writeInt(cells.length);
+        out.writeInt(segmentCount);
+        out.writeInt(synapseCount);
+        out.writeInt(floats ? 1 : 0);
+
+        int offset = 0;
+        out.writeInt(0);
+        for(Cell cell : cells) {
+            out.writeInt(offset += c.getSegments(cell, false).size());
+        }
+        for(Cell cell : cells) {
+            for(int i = c.getSegments(cell, false).size();i > 0;i--) {
+                out.writeInt(cell.getIndex());
+            }
+        }
+        for(Cell cell : cells) {
+            for(DistalDendrite dd : c.getSegments(cell, false)) {
+                out.writeInt(dd.getLastUsedIteration());
+            }
+        }
+        offset = 0;
+        out.writeInt(0);
+        for(Cell cell : cells) {
+            for(DistalDendrite dd : c.getSegments(cell, false)) {
+                out.writeInt(offset += c.getSynapses(dd, false).size());
+            }
+        }
+        for(Cell cell : cells) {
+            for(DistalDendrite dd : c.getSegments(cell, false)) {
+                for(Synapse s : c.getSynapses(dd, false)) {
+                    out.writeInt(s.getSourceCell().getIndex());
+                }
+            }
+        }
+        int segment = 0;
+        for(Cell cell : cells) {
+            for(DistalDendrite dd : c.getSegments(cell, false)) {
+                for(int i = c.getSynapses(dd, false).size();i > 0;i--) {
+                    out.writeInt(segment);
+                }
+                segment++;
+            }
+        }
+        offset = 0;
+        out.writeInt(0);
+        for(Cell cell : cells) {
+            out.writeInt(offset += c.getReceptorSynapses(cell, false).size());
+        }
+        for(Cell cell : cells) {
+            for(Synapse s : c.getReceptorSynapses(cell, false)) {
+                out.writeInt(synapseIds.get(s.getIndex()));
+            }
+        }
+
+        out.align(8);
+        for(Cell cell : cells) {
+            for(DistalDendrite dd : c.getSegments(cell, false)) {
+                List<Synapse> synapses = c.getSynapses(dd, false);
+                for(Synapse s : synapses) {
+                    if(floats) {
+                        out.writeFloat((float)s.getPermanence());
+                    }else{
+                        out.writeDouble(s.getPermanence());
+                    }
+                }
+            }
+        }
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The connection store is read-only");
+    }
+
+    /**
+     * Unsupported: the store is read-only
+     */
+    @Override
+    public int createSegment(int cell) {
+        throw readOnly();
+    }
+
+    /**
+     * Unsupported: the store is read-only
+     */
+    @Override
+    public void destroySegment(int segment) {
+        throw readOnly();
+    }
+
+    /**
+     * Unsupported: the store is read-only
+     */
+    @Override
+    public int createSynapse(int segment, int presynapticCell, double permanence) {
+        throw readOnly();
+    }
+
+    /**
+     * Unsupported: the store is read-only
+     */
+    @Override
+    public void destroySynapse(int synapse) {
+        throw readOnly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCellForSegment(int segment) {
+        return segmentCell.get(segment);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSegmentForSynapse(int synapse) {
+        return synapseSegment.get(synapse);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPresynapticCell(int synapse) {
+        return synapsePresynapticCell.get(synapse);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPermanence(int synapse) {
+        return permanences != null ? permanences.get(synapse) : permanencesFloat.get(synapse);
+    }
+
+    /**
+     * Unsupported: the store is read-only
+     */
+    @Override
+    public void setPermanence(int synapse, double permanence) {
+        throw readOnly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLastUsedIteration(int segment) {
+        return segmentLastUsed[segment];
+    }
+
+    /**
+     * Records the iteration on the heap; the buffer is never written.
+     */
+    @Override
+    public void setLastUsedIteration(int segment, int iteration) {
+        segmentLastUsed[segment] = iteration;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getSegments(int cell) {
+        int first = cellSegmentOffsets.get(cell);
+        int n = cellSegmentOffsets.get(cell + 1) - first;
+        if(segmentBuffer.length < n) {
+            segmentBuffer = new int[Math.max(n, segmentBuffer.length * 2)];
+        }
+        for(int i = 0;i < n;i++) {
+            segmentBuffer[i] = first + i;
+        }
+        return segmentBuffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumSegments(int cell) {
+        return cellSegmentOffsets.get(cell + 1) - cellSegmentOffsets.get(cell);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getSynapses(int segment) {
+        int first = segmentSynapseOffsets.get(segment);
+        int n = segmentSynapseOffsets.get(segment + 1) - first;
+        if(synapseBuffer.length < n) {
+            synapseBuffer = new int[Math.max(n, synapseBuffer.length * 2)];
+        }
+        for(int i = 0;i < n;i++) {
+            synapseBuffer[i] = first + i;
+        }
+        return synapseBuffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumSynapses(int segment) {
+        return segmentSynapseOffsets.get(segment + 1) - segmentSynapseOffsets.get(segment);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getReceptorSynapses(int cell) {
+        int first = cellReceptorOffsets.get(cell);
+        int n = cellReceptorOffsets.get(cell + 1) - first;
+        if(receptorBuffer.length < n) {
+            receptorBuffer = new int[Math.max(n, receptorBuffer.length * 2)];
+        }
+        cellReceptors.position(first);
+        cellReceptors.get(receptorBuffer, 0, n);
+        return receptorBuffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumReceptorSynapses(int cell) {
+        return cellReceptorOffsets.get(cell + 1) - cellReceptorOffsets.get(cell);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumCells() {
+        return numCells;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSegmentCapacity() {
+        return numSegments;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSynapseCapacity() {
+        return numSynapses;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSegmentCount() {
+        return numSegments;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSynapseCount() {
+        return numSynapses;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    /**
+     * Returns a store over the same buffer, which may be used concurrently
+     * with this one. Only the last used iterations are copied.
+     */
+    @Override
+    public ConnectionStore fork() {
+        return new MappedConnectionStore(this);
+    }
+}
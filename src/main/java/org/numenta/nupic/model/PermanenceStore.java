@@ -0,0 +1,49 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import org.numenta.nupic.CLA;
+
+/**
+ * Holds the permanences of {@link Synapse}s: a {@link Pool} those of a
+ * {@link ProximalDendrite}'s potential synapses, a {@link SegmentPool}
+ * those of a {@link DistalDendrite}'s synapses.
+ */
+public interface PermanenceStore {
+    /**
+     * Returns the permanence of the specified {@link Synapse}
+     *
+     * @param s the Synapse
+     * @return  the permanence
+     */
+    public double getPermanence(Synapse s);
+
+    /**
+     * Sets the permanence of the specified {@link Synapse}
+     *
+     * @param c             the connections state
+     * @param s             the Synapse
+     * @param permanence    the new permanence
+     */
+    public void setPermanence(CLA c, Synapse s, double permanence);
+}
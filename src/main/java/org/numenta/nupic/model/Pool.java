@@ -23,6 +23,9 @@ package org.numenta.nupic.model;
 
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntFloatHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -40,7 +43,7 @@ import org.numenta.nupic.util.ArrayUtils;
  * @see Synapse
  * @see CLA
  */
-public class Pool {
+public class Pool implements PermanenceStore {
 
     int size;
 
@@ -63,10 +66,94 @@ public class Pool {
      * above a threshold, it is connected with a weight of ?1?. When it is below
      * the threshold, it is unconnected with a weight of ?0?.
      */
-    final TIntDoubleHashMap connectionPerms = new TIntDoubleHashMap();
+    final TIntDoubleHashMap connectionPerms;
+    /**
+     * Single precision replacement of {@link #connectionPerms}, used instead
+     * of it when {@link CLA#getSinglePrecisionPermanences()} is set. Exactly
+     * one of the two maps is non-null.
+     */
+    final TIntFloatHashMap connectionPermsFloat;
+    
+    /**
+     * Packed copies of the pool's input indexes, {@link Synapse}s and
+     * permanences, in the order the synapses were added to the pool. They let
+     * learning visit exactly the pool's synapses in contiguous arrays instead
+     * of materializing a dense numInputs long array. A disconnected synapse
+     * keeps its slot with a permanence of 0. Like the permanence maps, the
+     * packed permanences are held in exactly one of a double and a float array.
+     */
+    int[] packedInputs;
+    Synapse[] packedSynapses;
+    double[] packedPerms;
+    float[] packedPermsFloat;
+    int packedSize;
+    /** input index -> packed slot; only kept for pools too large to scan */
+    final TIntIntHashMap packedSlots;
+    /** Slots 0..packedSize-1, handed out as the mask when every synapse is present */
+    private int[] allSlots;
+    
+    private static final int MAX_SCANNED_POOL_SIZE = 16;
+    
+    /** True once the pool is shared by a forked {@link CLA}; it is then only read */
+    private boolean shared;
 
     public Pool(int size) {
+        this(size, false, true);
+    }
+    
+    /**
+     * Constructs a new {@code Pool}
+     * 
+     * @param size				the number of synapses the pool holds
+     * @param singlePrecision	if true, permanences are rounded to and stored as 
+     * 							floats in a map sized to the pool
+     * @param packed			if true, the packed arrays used by proximal learning 
+     * 							are maintained
+     */
+    public Pool(int size, boolean singlePrecision, boolean packed) {
         this.size = size;
+        if (singlePrecision) {
+            connectionPerms = null;
+            connectionPermsFloat = new TIntFloatHashMap(Math.max(1, size));
+        } else {
+            connectionPerms = new TIntDoubleHashMap();
+            connectionPermsFloat = null;
+        }
+        if (packed) {
+            packedInputs = new int[size];
+            packedSynapses = new Synapse[size];
+            if (singlePrecision) {
+                packedPermsFloat = new float[size];
+            } else {
+                packedPerms = new double[size];
+            }
+        }
+        packedSlots = packed && size > MAX_SCANNED_POOL_SIZE ? new TIntIntHashMap(size, 0.5f, -1, -1) : null;
+    }
+    
+    /**
+     * Returns true if this pool is shared by memories forked from one
+     * another (see {@link CLA#fork()}), in which case it is never written:
+     * a {@link ProximalDendrite} replaces it by a copy instead.
+     * @return
+     */
+    public boolean isShared() {
+        return shared;
+    }
+    
+    /**
+     * Marks this pool as shared by forked memories
+     */
+    public void setShared() {
+        shared = true;
+    }
+    
+    /**
+     * Returns true if this pool stores its permanences in single precision
+     * @return
+     */
+    public boolean isSinglePrecision() {
+        return connectionPermsFloat != null;
     }
 
     /**
@@ -76,7 +163,7 @@ public class Pool {
      * @return	the permanence
      */
     public double getPermanence(Synapse s) {
-        return connectionPerms.get(s.getInputIndex());
+        return permanenceOf(s.getInputIndex());
     }
 
     /**
@@ -88,13 +175,25 @@ public class Pool {
     public void setPermanence(CLA c, Synapse s, double permanence) {
 
         int index = s.getInputIndex();        
+        int slot = -1;
+        if (packedInputs != null && (slot = packedSlotOf(index)) < 0) {
+            slot = addPackedSlot(s);
+        }
         
         if (permanence < c.getSynPermDisconnected()) {
+            if (slot >= 0) setPackedPermanence(slot, 0);
             disconnectSynapse(index);
             return;
         }
         
-        boolean existed = connectionPerms.put(index, permanence) == connectionPerms.getNoEntryValue();
+        if (connectionPermsFloat != null) {
+            permanence = (float)permanence;
+        }
+        if (slot >= 0) setPackedPermanence(slot, permanence);
+        
+        boolean existed = connectionPermsFloat == null ?
+            connectionPerms.put(index, permanence) == connectionPerms.getNoEntryValue() :
+            connectionPermsFloat.put(index, (float)permanence) == connectionPermsFloat.getNoEntryValue();
                 
         if (!existed) {
             synapseOrdering.put(index, s);
@@ -135,7 +234,7 @@ public class Pool {
         double[] retVal = new double[size];
 
         for (Synapse s : synapseOrdering.values()) {
-            retVal[i++] = connectionPerms.get(s.getInputIndex());
+            retVal[i++] = permanenceOf(s.getInputIndex());
         }
         
         return retVal;
@@ -154,19 +253,151 @@ public class Pool {
         double[] retVal = new double[c.getNumInputs()];
 		//Arrays.fill(retVal, 0); //already zero
 
-        for (int inputIndex : connectionPerms.keys()) {
-            retVal[inputIndex] = connectionPerms.get(inputIndex);
+        for (int inputIndex : permanenceKeys()) {
+            retVal[inputIndex] = permanenceOf(inputIndex);
         }
         return retVal;
     }
 
+    /**
+     * Returns the number of synapses in the packed arrays
+     * @return
+     */
+    public int getPackedSize() {
+        return packedSize;
+    }
+    
+    /**
+     * Returns the input index of each packed synapse. The array is live and
+     * may be longer than {@link #getPackedSize()}.
+     * @return
+     */
+    public int[] getPackedInputs() {
+        return packedInputs;
+    }
+    
+    /**
+     * Returns the packed {@link Synapse}s. The array is live and may be 
+     * longer than {@link #getPackedSize()}.
+     * @return
+     */
+    public Synapse[] getPackedSynapses() {
+        return packedSynapses;
+    }
+    
+    /**
+     * Returns the permanence of each packed synapse. In double precision the
+     * array is live, so learning may update it in place before storing it
+     * back through {@link ProximalDendrite#setPermanencesPacked(CLA, double[])},
+     * and it may be longer than {@link #getPackedSize()}. In single precision
+     * it is a copy of {@link #getPackedSize()} permanences, which learning
+     * updates and stores back the same way.
+     * @return
+     */
+    public double[] getPackedPermanences() {
+        if (packedPermsFloat == null) {
+            return packedPerms;
+        }
+        double[] perms = new double[packedSize];
+        for (int i = 0; i < packedSize; i++) {
+            perms[i] = packedPermsFloat[i];
+        }
+        return perms;
+    }
+    
+    /**
+     * Stores the permanence of a packed slot in whichever array holds them
+     */
+    private void setPackedPermanence(int slot, double permanence) {
+        if (packedPermsFloat == null) {
+            packedPerms[slot] = permanence;
+        } else {
+            packedPermsFloat[slot] = (float)permanence;
+        }
+    }
+    
+    /**
+     * Returns the packed slots of the synapses currently present in the pool,
+     * i.e. the packed equivalent of {@link #getSparseConnections()}.
+     * @return
+     */
+    public int[] getPackedMask() {
+        int present = connectionPermsFloat == null ? connectionPerms.size() : connectionPermsFloat.size();
+        if (present == packedSize) {
+            if (allSlots == null || allSlots.length != packedSize) {
+                allSlots = ArrayUtils.range(0, packedSize);
+            }
+            return allSlots;
+        }
+        
+        TIntArrayList slots = new TIntArrayList(present);
+        for (int i = 0; i < packedSize; i++) {
+            if (connectionPermsFloat == null ? 
+                connectionPerms.containsKey(packedInputs[i]) : connectionPermsFloat.containsKey(packedInputs[i])) {
+                slots.add(i);
+            }
+        }
+        return slots.toArray();
+    }
+    
+    /**
+     * Returns the stored permanence of the specified input index, or 0
+     */
+    private double permanenceOf(int inputIndex) {
+        return connectionPermsFloat == null ? 
+            connectionPerms.get(inputIndex) : connectionPermsFloat.get(inputIndex);
+    }
+    
+    /**
+     * Returns the input indexes which have a stored permanence
+     */
+    private int[] permanenceKeys() {
+        return connectionPermsFloat == null ? connectionPerms.keys() : connectionPermsFloat.keys();
+    }
+    
+    /**
+     * Returns the packed slot of the specified input index, or -1
+     */
+    private int packedSlotOf(int inputIndex) {
+        if (packedSlots != null) {
+            return packedSlots.get(inputIndex);
+        }
+        for (int i = 0; i < packedSize; i++) {
+            if (packedInputs[i] == inputIndex) return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * Appends the specified {@link Synapse} to the packed arrays
+     * @return	its slot
+     */
+    private int addPackedSlot(Synapse s) {
+        if (packedSize == packedInputs.length) {
+            int capacity = Math.max(1, packedSize * 2);
+            packedInputs = Arrays.copyOf(packedInputs, capacity);
+            packedSynapses = Arrays.copyOf(packedSynapses, capacity);
+            if (packedPermsFloat == null) {
+                packedPerms = Arrays.copyOf(packedPerms, capacity);
+            } else {
+                packedPermsFloat = Arrays.copyOf(packedPermsFloat, capacity);
+            }
+        }
+        packedInputs[packedSize] = s.getInputIndex();
+        packedSynapses[packedSize] = s;
+        if (packedSlots != null) {
+            packedSlots.put(s.getInputIndex(), packedSize);
+        }
+        return packedSize++;
+    }
+
     /**
      * Returns an array of input bit indexes.
      *
      * @return
      */
     public int[] getSparseConnections() {
-        int[] c = connectionPerms.keys();
+        int[] c = permanenceKeys();
         ArrayUtils.reverse(c);
         return c;
     }
@@ -195,9 +426,17 @@ public class Pool {
      */
     protected Synapse disconnectSynapse(int index) {
         Synapse existing = synapseOrdering.remove(index);
+        int slot = packedInputs == null ? -1 : packedSlotOf(index);
+        if (slot >= 0) {
+            setPackedPermanence(slot, 0);
+        }
         if (existing!=null) {
             synapseConnections.remove(index);
-            connectionPerms.remove(index);
+            if (connectionPermsFloat == null) {
+                connectionPerms.remove(index);
+            } else {
+                connectionPermsFloat.remove(index);
+            }
         }
         return existing;
     }
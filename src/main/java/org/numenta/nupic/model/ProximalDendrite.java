@@ -25,11 +25,14 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.numenta.nupic.CLA;
+import org.numenta.nupic.util.SparseBinaryMatrixTrueCount;
 
 public class ProximalDendrite extends Segment {
 
     private final int index;
     private Pool pool;
+    /** True once this dendrite's permanences are set, until cleared by a checkpoint */
+    private boolean dirty;
 
     /**
      *
@@ -47,7 +50,7 @@ public class ProximalDendrite extends Segment {
      * @param inputIndexes	indexes specifying the input vector bit
      */
     public Pool createPool(CLA c, int[] inputIndexes) {
-        pool = new Pool(inputIndexes.length);
+        pool = new Pool(inputIndexes.length, c.getSinglePrecisionPermanences(), true);
         for (int i = 0; i < inputIndexes.length; i++) {
             int synCount = c.getSynapseCount();
             pool.setPermanence(c, createSynapse(c, c.getSynapses(this), null, pool, synCount, inputIndexes[i]), 0);
@@ -56,6 +59,50 @@ public class ProximalDendrite extends Segment {
         return pool;
     }
 
+    /**
+     * Makes this dendrite use a pool of the memory it was forked from (see
+     * {@link CLA#fork()}), which is marked shared so that neither memory
+     * writes it. The pool is copied the first time this dendrite's
+     * permanences are set.
+     *
+     * @param pool  the pool to share
+     */
+    public void sharePool(Pool pool) {
+        pool.setShared();
+        this.pool = pool;
+    }
+
+    /**
+     * Returns this dendrite's pool, first replacing it, if it is shared with
+     * a forked memory, by a copy holding the same inputs and permanences in
+     * the same packed order. The dendrite's synapses are replaced too, since
+     * those of the shared pool write into it: the new synapses keep the
+     * indexes of the old ones, so the memory's synapse count is untouched.
+     * The copy also replaces the shared pool in the {@link CLA}'s potential
+     * pools.
+     *
+     * @param c the {@link CLA} memory
+     * @return  a pool which may be written
+     */
+    public Pool getWritablePool(CLA c) {
+        if (pool != null && pool.isShared()) {
+            int size = pool.getPackedSize();
+            int[] inputs = Arrays.copyOf(pool.getPackedInputs(), size);
+            Synapse[] shared = Arrays.copyOf(pool.getPackedSynapses(), size);
+            double[] perms = Arrays.copyOf(pool.getPackedPermanences(), size);
+            
+            clearSynapses(c);
+            List<Synapse> synapses = c.getSynapses(this);
+            pool = new Pool(size, c.getSinglePrecisionPermanences(), true);
+            for (int i = 0; i < size; i++) {
+                pool.setPermanence(c, createSynapse(c, synapses, null, pool, shared[i].getIndex(), inputs[i]), 0);
+            }
+            c.getPotentialPools().setIndex(pool, index);
+            setPermanencesPacked(c, perms);
+        }
+        return pool;
+    }
+
     public void clearSynapses(CLA c) {
         List<Synapse> s = c.getSynapses(this, false);
         if (s != null) {
@@ -72,6 +119,25 @@ public class ProximalDendrite extends Segment {
         return index;
     }
 
+    /**
+     * Returns true if this dendrite's permanences were set since
+     * the flag was last cleared.
+     *
+     * @return
+     * @see org.numenta.nupic.Checkpointer
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Sets or clears the flag marking this dendrite's permanences as changed
+     * @param dirty
+     */
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
     /**
      * Sets the permanences for each {@link Synapse}. The number of synapses is
      * set by the potentialPct variable which determines the number of input
@@ -82,8 +148,9 @@ public class ProximalDendrite extends Segment {
      * @param perms	the floating point degree of connectedness
      */
     public void setPermanences(CLA c, double[] perms) {
+        getWritablePool(c);
+        dirty = true;
         pool.resetConnections();
-        c.getConnectedCounts().clearStatistics(index);
 
         List<Synapse> synapses = c.getSynapses(this, false);
         if (synapses == null) {
@@ -92,9 +159,7 @@ public class ProximalDendrite extends Segment {
 
         for (final Synapse s : synapses) {
             s.setPermanence(c, perms[s.getInputIndex()]);
-            if (perms[s.getInputIndex()] >= c.getSynPermConnected()) {
-                c.getConnectedCounts().set(true, index, s.getInputIndex());
-            }
+            updateConnected(c, s.getInputIndex(), perms[s.getInputIndex()]);
         }
     }
 
@@ -111,8 +176,9 @@ public class ProximalDendrite extends Segment {
      * @param perms	the floating point degree of connectedness
      */
     public void setPermanences(CLA c, double[] perms, int[] inputIndexes) {
+        getWritablePool(c);
+        dirty = true;
         pool.resetConnections();
-        c.getConnectedCounts().clearStatistics(index);
         for (int i = 0; i < inputIndexes.length; i++) {
             Synapse s = pool.getSynapse(inputIndexes[i]);
             
@@ -122,9 +188,50 @@ public class ProximalDendrite extends Segment {
             }
             
             pool.setPermanence(c, s, perms[i]);
-            if (perms[i] >= c.getSynPermConnected()) {
-                c.getConnectedCounts().set(true, index, i);
-            }
+            updateConnected(c, inputIndexes[i], perms[i]);
+        }
+    }
+
+    /**
+     * Sets the permanences of this dendrite's pool from an array in the pool's
+     * packed order (see {@link Pool#getPackedPermanences()}), visiting only
+     * the pool's own synapses rather than looking them up in the {@link CLA}.
+     * The connected matrix is updated in place: only the synapses whose
+     * connected state flips are written, so the cost is that of the pool
+     * rather than of the column's whole row.
+     *
+     * @param c	the {@link CLA} memory
+     * @param perms	the floating point degree of connectedness of each packed synapse
+     */
+    public void setPermanencesPacked(CLA c, double[] perms) {
+        getWritablePool(c);
+        dirty = true;
+        pool.resetConnections();
+        
+        Synapse[] synapses = pool.getPackedSynapses();
+        int[] inputs = pool.getPackedInputs();
+        int size = pool.getPackedSize();
+        for (int i = 0; i < size; i++) {
+            double perm = perms[i];
+            pool.setPermanence(c, synapses[i], perm);
+            updateConnected(c, inputs[i], perm);
+        }
+    }
+    
+    /**
+     * Sets the bit of the specified input in this dendrite's row of the
+     * connected matrix if the permanence is at least synPermConnected and
+     * clears it otherwise, writing the matrix only if the bit changes.
+     * 
+     * @param c             the {@link CLA} memory
+     * @param inputIndex    the input bit of the synapse
+     * @param perm          the synapse's new permanence
+     */
+    private void updateConnected(CLA c, int inputIndex, double perm) {
+        SparseBinaryMatrixTrueCount connectedCounts = c.getConnectedCounts();
+        boolean connected = perm >= c.getSynPermConnected();
+        if ((connectedCounts.getIntValue(index, inputIndex) == 1) != connected) {
+            connectedCounts.set(connected, index, inputIndex);
         }
     }
 
@@ -51,7 +51,7 @@ public abstract class Segment {
      * 
      * @return
      */
-    public Synapse createSynapse(CLA c, List<Synapse> syns, Cell sourceCell, Pool pool, int index, int inputIndex) {
+    public Synapse createSynapse(CLA c, List<Synapse> syns, Cell sourceCell, PermanenceStore pool, int index, int inputIndex) {
         Synapse s = new Synapse(c, sourceCell, this, pool, index, inputIndex);
         syns.add(s);
         return s;
@@ -0,0 +1,326 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.numenta.nupic.CLA;
+import org.numenta.nupic.util.Condition;
+
+/**
+ * {@link PermanenceStore} of a {@link DistalDendrite}, holding the permanences of all
+ * the segment's {@link Synapse}s in one contiguous array in creation order, so
+ * that adapting the segment is a single pass over that array rather than a
+ * lookup in a pool per synapse.
+ *
+ * The pool may also decrement lazily: instead of lowering every inactive
+ * synapse's permanence, {@link #adaptLazily(Set, double, double)} raises a
+ * per segment decrement offset and rewrites only the active synapses. A
+ * synapse's permanence is then its stored value less the offset, clipped at
+ * zero. This matches the eager decrements up to rounding: subtracting one
+ * summed offset rounds differently from subtracting each decrement in turn,
+ * by a few ulps, more so in single precision. The offset is folded back into
+ * the stored values once it reaches 1, when it would clear any permanence on
+ * its own, which keeps the stored values small enough for single precision.
+ */
+public class SegmentPool implements PermanenceStore {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private Synapse[] synapses = new Synapse[INITIAL_CAPACITY];
+    /** Stored permanences; exactly one of the two arrays is non-null */
+    private double[] permanences;
+    private float[] permanencesFloat;
+    private int numSynapses;
+    /** Amount yet to be subtracted from every stored permanence */
+    private double decrementOffset;
+    /** A lower bound of the stored permanences */
+    private double minStored = Double.POSITIVE_INFINITY;
+
+    /**
+     * Constructs a new {@code SegmentPool}
+     *
+     * @param singlePrecision   if true, permanences are rounded to and stored as floats
+     */
+    public SegmentPool(boolean singlePrecision) {
+        if(singlePrecision) {
+            permanencesFloat = new float[INITIAL_CAPACITY];
+        }else{
+            permanences = new double[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Returns the number of {@link Synapse}s in this pool
+     * @return
+     */
+    public int getNumSynapses() {
+        return numSynapses;
+    }
+
+    /**
+     * Returns true if this pool stores its permanences in single precision
+     * @return
+     */
+    public boolean isSinglePrecision() {
+        return permanencesFloat != null;
+    }
+
+    /**
+     * Returns the pending lazy decrement
+     * @return
+     */
+    public double getDecrementOffset() {
+        return decrementOffset;
+    }
+
+    /**
+     * Returns the permanence of the specified {@link Synapse},
+     * or 0 if it isn't a member of this pool.
+     *
+     * @param s the Synapse
+     * @return  the permanence
+     */
+    @Override
+    public double getPermanence(Synapse s) {
+        int slot = slotOf(s);
+        return slot < 0 ? 0 : permanenceAt(slot);
+    }
+
+    /**
+     * Sets the permanence of the specified {@link Synapse}, adding
+     * it to the end of this pool if it isn't a member yet.
+     *
+     * @param c             the connections state of the temporal memory
+     * @param s             the Synapse
+     * @param permanence    the new permanence
+     */
+    @Override
+    public void setPermanence(CLA c, Synapse s, double permanence) {
+        int slot = slotOf(s);
+        if(slot < 0) {
+            slot = add(s);
+        }
+        store(slot, permanence + decrementOffset);
+    }
+
+    /**
+     * Removes the specified {@link Synapse}, keeping the others in creation order.
+     *
+     * @param s     the Synapse to remove
+     */
+    public void remove(Synapse s) {
+        int slot = slotOf(s);
+        if(slot < 0) return;
+
+        int tail = numSynapses - slot - 1;
+        System.arraycopy(synapses, slot + 1, synapses, slot, tail);
+        if(permanences != null) {
+            System.arraycopy(permanences, slot + 1, permanences, slot, tail);
+        }else{
+            System.arraycopy(permanencesFloat, slot + 1, permanencesFloat, slot, tail);
+        }
+        synapses[--numSynapses] = null;
+        for(int i = slot;i < numSynapses;i++) {
+            synapses[i].slot = i;
+        }
+        s.slot = -1;
+    }
+
+    /**
+     * Increments the permanences of the active synapses, decrements all
+     * others and clips them to [0, 1], in one pass over the permanence array.
+     *
+     * @param activeSynapses        the active synapses
+     * @param permanenceIncrement   the increment by which permanences are increased.
+     * @param permanenceDecrement   the increment by which permanences are decreased.
+     */
+    public void adapt(Set<Synapse> activeSynapses, double permanenceIncrement, double permanenceDecrement) {
+        adapt(activeSynapses, null, permanenceIncrement, permanenceDecrement);
+    }
+
+    /**
+     * Same as {@link #adapt(Set, double, double)}, with the active synapses
+     * being those for which the specified {@link Condition} holds.
+     *
+     * @param isActive              evaluates to true for active synapses
+     * @param permanenceIncrement   the increment by which permanences are increased.
+     * @param permanenceDecrement   the increment by which permanences are decreased.
+     */
+    public void adapt(Condition<Synapse> isActive, double permanenceIncrement, double permanenceDecrement) {
+        adapt(null, isActive, permanenceIncrement, permanenceDecrement);
+    }
+
+    /**
+     * Lazy counterpart of {@link #adapt(Set, double, double)}: raises the
+     * decrement offset and rewrites only the active synapses, so its cost is
+     * proportional to the number of active synapses.
+     *
+     * @param activeSynapses        the active synapses; synapses of other pools are ignored
+     * @param permanenceIncrement   the increment by which permanences are increased.
+     * @param permanenceDecrement   the increment by which permanences are decreased.
+     */
+    public void adaptLazily(Set<Synapse> activeSynapses, double permanenceIncrement, double permanenceDecrement) {
+        double offset = decrementOffset + permanenceDecrement;
+        for(Synapse s : activeSynapses) {
+            int slot = slotOf(s);
+            if(slot >= 0) {
+                incrementLazily(slot, permanenceIncrement, offset);
+            }
+        }
+        raiseDecrementOffset(offset);
+    }
+
+    /**
+     * Same as {@link #adaptLazily(Set, double, double)}, with the active
+     * synapses being those for which the specified {@link Condition} holds.
+     * The synapses are scanned, but only the active ones are rewritten.
+     *
+     * @param isActive              evaluates to true for active synapses
+     * @param permanenceIncrement   the increment by which permanences are increased.
+     * @param permanenceDecrement   the increment by which permanences are decreased.
+     */
+    public void adaptLazily(Condition<Synapse> isActive, double permanenceIncrement, double permanenceDecrement) {
+        double offset = decrementOffset + permanenceDecrement;
+        for(int i = 0;i < numSynapses;i++) {
+            if(isActive.eval(synapses[i])) {
+                incrementLazily(i, permanenceIncrement, offset);
+            }
+        }
+        raiseDecrementOffset(offset);
+    }
+
+    /**
+     * Returns true if some synapse may have a permanence of zero or less.
+     * A false answer is exact, so callers may skip looking for decayed
+     * synapses.
+     *
+     * @return
+     */
+    public boolean mayHoldZeroPermanences() {
+        if(decrementOffset < minStored) {
+            return false;
+        }
+        minStored = Double.POSITIVE_INFINITY;
+        for(int i = 0;i < numSynapses;i++) {
+            minStored = Math.min(minStored, stored(i));
+        }
+        return decrementOffset >= minStored;
+    }
+
+    /**
+     * Applies the pending decrement to every stored permanence
+     */
+    public void flush() {
+        if(decrementOffset == 0) return;
+
+        double offset = decrementOffset;
+        decrementOffset = 0;
+        minStored = Double.POSITIVE_INFINITY;
+        for(int i = 0;i < numSynapses;i++) {
+            store(i, Math.max(0, stored(i) - offset));
+        }
+    }
+
+    /**
+     * Returns the specified {@link Synapse}'s slot, or -1 if it
+     * isn't a member of this pool
+     */
+    private int slotOf(Synapse s) {
+        int slot = s.slot;
+        return slot >= 0 && slot < numSynapses && synapses[slot] == s ? slot : -1;
+    }
+
+    /**
+     * Appends the specified {@link Synapse}
+     * @return  its slot
+     */
+    private int add(Synapse s) {
+        if(numSynapses == synapses.length) {
+            int capacity = numSynapses * 2;
+            synapses = Arrays.copyOf(synapses, capacity);
+            if(permanences != null) {
+                permanences = Arrays.copyOf(permanences, capacity);
+            }else{
+                permanencesFloat = Arrays.copyOf(permanencesFloat, capacity);
+            }
+        }
+        synapses[numSynapses] = s;
+        s.slot = numSynapses;
+        return numSynapses++;
+    }
+
+    private void adapt(Set<Synapse> activeSynapses, Condition<Synapse> isActive, double permanenceIncrement, double permanenceDecrement) {
+        flush();
+        minStored = Double.POSITIVE_INFINITY;
+        for(int i = 0;i < numSynapses;i++) {
+            boolean active = activeSynapses != null ? activeSynapses.contains(synapses[i]) : isActive.eval(synapses[i]);
+            double permanence = stored(i);
+            if(active) {
+                permanence += permanenceIncrement;
+            }else{
+                permanence -= permanenceDecrement;
+            }
+            store(i, Math.max(0, Math.min(1.0, permanence)));
+        }
+    }
+
+    /**
+     * Stores the incremented permanence of the specified slot relative to
+     * the new decrement offset
+     */
+    private void incrementLazily(int slot, double permanenceIncrement, double offset) {
+        double permanence = Math.max(0, Math.min(1.0, permanenceAt(slot) + permanenceIncrement));
+        store(slot, permanence + offset);
+    }
+
+    private void raiseDecrementOffset(double offset) {
+        decrementOffset = offset;
+        if(decrementOffset >= 1.0) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns the permanence of the specified slot with the pending decrement applied
+     */
+    private double permanenceAt(int slot) {
+        double permanence = stored(slot);
+        return decrementOffset == 0 ? permanence : Math.max(0, permanence - decrementOffset);
+    }
+
+    private double stored(int slot) {
+        return permanences != null ? permanences[slot] : permanencesFloat[slot];
+    }
+
+    private void store(int slot, double value) {
+        if(permanences != null) {
+            permanences[slot] = value;
+        }else{
+            value = permanencesFloat[slot] = (float)value;
+        }
+        if(value < minStored) {
+            minStored = value;
+        }
+    }
+}
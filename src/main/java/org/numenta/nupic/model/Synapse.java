@@ -29,10 +29,10 @@ import org.numenta.nupic.research.TemporalMemory;
  * Represents a connection with varying strength which when above 
  * a configured threshold represents a valid connection. 
  * 
- * IMPORTANT: 	For DistalDendrites, there is only one synapse per pool, so the
- * 				synapse's index doesn't really matter (in terms of tracking its
- * 				order within the pool. In that case, the index is a global counter
- * 				of all distal dendrite synapses.
+ * IMPORTANT: 	For DistalDendrites, all synapses of a segment share the segment's
+ * 				{@link SegmentPool}, which tracks their order itself, so the
+ * 				synapse's index doesn't really matter. In that case, the index is 
+ * 				a global counter of all distal dendrite synapses.
  * 
  * 				For ProximalDendrites, there are many synapses within a pool, and in
  * 				that case, the index specifies the synapse's sequence order within
@@ -48,9 +48,11 @@ import org.numenta.nupic.research.TemporalMemory;
 public class Synapse {
     private Cell sourceCell;
     private Segment segment;
-    private Pool pool;
+    private PermanenceStore pool;
     private int synapseIndex;
     private int inputIndex;
+    /** Position within a {@link SegmentPool}, or -1 */
+    int slot = -1;
     
     
     /**
@@ -64,11 +66,11 @@ public class Synapse {
      * @param c             the connections state of the temporal memory
      * @param sourceCell    the {@link Cell} which will activate this {@code Synapse}
      * @param segment       the owning dendritic segment
-     * @param pool		    this {@link Pool} of which this synapse is a member
+     * @param pool		    the {@link Pool} or {@link SegmentPool} of which this synapse is a member
      * @param index         this {@code Synapse}'s index
      * @param inputIndex	the index of this {@link Synapse}'s input; be it a Cell or InputVector bit.
      */
-    public Synapse(CLA c, Cell sourceCell, Segment segment, Pool pool, int index, int inputIndex) {
+    public Synapse(CLA c, Cell sourceCell, Segment segment, PermanenceStore pool, int index, int inputIndex) {
         this.sourceCell = sourceCell;
         this.segment = segment;
         this.pool = pool;
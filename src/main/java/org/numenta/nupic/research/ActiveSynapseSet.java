@@ -0,0 +1,66 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import java.util.LinkedHashSet;
+
+import org.numenta.nupic.model.Synapse;
+
+/**
+ * The active synapses of one segment, as collected by
+ * {@link TemporalMemory#computeActiveSynapses(org.numenta.nupic.CLA, java.util.Set, java.util.Map)},
+ * which also counts the synapses having a non-zero permanence when added so
+ * that finding a cell's best matching segment needn't scan the set. The
+ * count reflects the permanences at the time of adding; the set is not
+ * meant to be changed afterwards.
+ */
+class ActiveSynapseSet extends LinkedHashSet<Synapse> {
+    private static final long serialVersionUID = 1L;
+    
+    /** Synapses which had a non-zero permanence when added */
+    private int numMatching;
+
+    /**
+     * Adds the synapse, counting it as matching if its permanence is non-zero
+     * @param synapse
+     * @return  true if the synapse was added
+     */
+    @Override
+    public boolean add(Synapse synapse) {
+        if(!super.add(synapse)) {
+            return false;
+        }
+        if(synapse.getPermanence() > 0) {
+            numMatching++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of synapses which had a non-zero permanence when added
+     * @return
+     */
+    int getNumMatching() {
+        return numMatching;
+    }
+}
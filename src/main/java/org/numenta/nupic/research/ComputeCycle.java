@@ -32,6 +32,7 @@ import org.numenta.nupic.model.Cell;
 import org.numenta.nupic.model.Column;
 import org.numenta.nupic.model.DistalDendrite;
 import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.util.IndexedSet;
 
 /**
  * Contains a snapshot of the state attained during one computational
@@ -40,6 +41,11 @@ import org.numenta.nupic.model.Synapse;
  * through a comparison between states of those different cycles, therefore
  * this state container is necessary.
  * 
+ * Cell and column collections are {@link IndexedSet}s, ordered like a
+ * {@link LinkedHashSet} but tracking membership by cell or column index, so
+ * a {@code ComputeCycle} can be cleared and refilled without allocation.
+ * See {@link TemporalMemory#compute(CLA, int[], boolean, ComputeCycle)}.
+ * 
  * TODO cells and segment collections can be combined using an inner class
  * or array to hold their associated state.  this should improve performance
  * 
@@ -60,10 +66,10 @@ public class ComputeCycle {
      * Constructs a new {@code ComputeCycle}
      */
     public ComputeCycle() {
-        activeCells = new LinkedHashSet<>();
-        winnerCells = new LinkedHashSet<>();
-        predictiveCells = new LinkedHashSet<>();
-        predictedColumns = new LinkedHashSet<>();
+        activeCells = newCellSet();
+        winnerCells = newCellSet();
+        predictiveCells = newCellSet();
+        predictedColumns = newColumnSet();
         activeSegments = new LinkedHashSet<>();
         learningSegments = new LinkedHashSet<>();
         activeSynapsesForSegment = new LinkedHashMap<>();    
@@ -77,15 +83,45 @@ public class ComputeCycle {
      * @param   c       the current connections state of the TemporalMemory
      */
     public ComputeCycle(CLA c) {
-        this.activeCells = new LinkedHashSet<>(c.getActiveCells());
-        this.winnerCells = new LinkedHashSet<>(c.getWinnerCells());
-        this.predictiveCells = new LinkedHashSet<>(c.getPredictiveCells());
-        this.predictedColumns = new LinkedHashSet<>(c.getPredictedColumns());
+        this.activeCells = newCellSet();
+        this.activeCells.addAll(c.getActiveCells());
+        this.winnerCells = newCellSet();
+        this.winnerCells.addAll(c.getWinnerCells());
+        this.predictiveCells = newCellSet();
+        this.predictiveCells.addAll(c.getPredictiveCells());
+        this.predictedColumns = newColumnSet();
+        this.predictedColumns.addAll(c.getPredictedColumns());
         this.activeSegments = new LinkedHashSet<>(c.getActiveSegments());
         this.learningSegments = new LinkedHashSet<>(c.getLearningSegments());
         this.activeSynapsesForSegment = new LinkedHashMap<>(c.getActiveSynapsesForSegment());
     }
     
+    /**
+     * Returns a new, empty {@link IndexedSet} of cells
+     * @return
+     */
+    private static IndexedSet<Cell> newCellSet() {
+        return new IndexedSet<Cell>(Cell.class) {
+            @Override
+            protected int indexOf(Cell cell) {
+                return cell.getIndex();
+            }
+        };
+    }
+    
+    /**
+     * Returns a new, empty {@link IndexedSet} of columns
+     * @return
+     */
+    private static IndexedSet<Column> newColumnSet() {
+        return new IndexedSet<Column>(Column.class) {
+            @Override
+            protected int indexOf(Column column) {
+                return column.getIndex();
+            }
+        };
+    }
+    
     /** resets the compute cycle so it may be re-used */
     void clear() {
         
@@ -137,6 +173,38 @@ public class ComputeCycle {
         return predictedColumns;
     }
     
+    /**
+     * Returns the indexes of the active cells in ascending order
+     * @return
+     */
+    public int[] activeCellIndexes() {
+        return ((IndexedSet<Cell>)activeCells).sortedIndexes();
+    }
+    
+    /**
+     * Returns the indexes of the winner cells in ascending order
+     * @return
+     */
+    public int[] winnerCellIndexes() {
+        return ((IndexedSet<Cell>)winnerCells).sortedIndexes();
+    }
+    
+    /**
+     * Returns the indexes of the predictive cells in ascending order
+     * @return
+     */
+    public int[] predictiveCellIndexes() {
+        return ((IndexedSet<Cell>)predictiveCells).sortedIndexes();
+    }
+    
+    /**
+     * Returns the indexes of the predicted columns in ascending order
+     * @return
+     */
+    public int[] predictedColumnIndexes() {
+        return ((IndexedSet<Column>)predictedColumns).sortedIndexes();
+    }
+    
     /**
      * Returns the Set of learning {@link DistalDendrite}s
      * @return
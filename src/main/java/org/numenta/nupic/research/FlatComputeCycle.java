@@ -0,0 +1,192 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import java.util.Arrays;
+
+import org.numenta.nupic.model.ConnectionStore;
+import org.numenta.nupic.util.OrderedIndexSet;
+
+/**
+ * The {@link ComputeCycle} counterpart used when the {@link TemporalMemory}
+ * runs over a {@link ConnectionStore}: cells, columns and segments are held
+ * as int indexes in {@link OrderedIndexSet}s, and the active synapses of each
+ * segment are grouped into one flat array instead of a map of sets.
+ *
+ * The {@code TemporalMemory} keeps two of these and swaps them every step,
+ * so after warm up a step allocates nothing.
+ */
+public class FlatComputeCycle {
+    final OrderedIndexSet activeCells;
+    final OrderedIndexSet winnerCells;
+    final OrderedIndexSet predictiveCells;
+    final OrderedIndexSet predictedColumns;
+    final OrderedIndexSet activeSegments;
+    final OrderedIndexSet learningSegments;
+    final OrderedIndexSet activeColumns;
+
+    /** Segments with at least one active synapse, in the order first touched */
+    int[] touchedSegments = new int[16];
+    int numTouchedSegments;
+    /** Active synapses of touchedSegments[i] are activeSynapses[offsets[i]..offsets[i + 1]) */
+    int[] touchedOffsets = new int[17];
+    int[] activeSynapses = new int[16];
+    /** Position of each segment within touchedSegments, or -1 */
+    int[] segmentSlots = new int[0];
+
+    /** Scratch marks indexed by synapse id and by cell, compared against a stamp */
+    int[] synapseMarks = new int[0];
+    int[] cellMarks;
+    int markStamp;
+    /** Scratch list of candidate presynaptic cells */
+    int[] candidates = new int[16];
+
+    /**
+     * Constructs a new {@code FlatComputeCycle}
+     *
+     * @param numCells      the total number of cells
+     * @param numColumns    the total number of columns
+     */
+    public FlatComputeCycle(int numCells, int numColumns) {
+        activeCells = new OrderedIndexSet(numCells);
+        winnerCells = new OrderedIndexSet(numCells);
+        predictiveCells = new OrderedIndexSet(numCells);
+        predictedColumns = new OrderedIndexSet(numColumns);
+        activeSegments = new OrderedIndexSet(numCells);
+        learningSegments = new OrderedIndexSet(numCells);
+        activeColumns = new OrderedIndexSet(numColumns);
+        cellMarks = new int[numCells];
+    }
+
+    /** resets the compute cycle so it may be re-used */
+    void clear() {
+        activeCells.clear();
+        winnerCells.clear();
+        predictiveCells.clear();
+        predictedColumns.clear();
+        activeSegments.clear();
+        learningSegments.clear();
+        activeColumns.clear();
+        clearActiveSynapses();
+    }
+
+    /**
+     * Forgets the active synapses of the touched segments
+     */
+    void clearActiveSynapses() {
+        for(int i = 0;i < numTouchedSegments;i++) {
+            segmentSlots[touchedSegments[i]] = -1;
+        }
+        numTouchedSegments = 0;
+    }
+
+    /**
+     * Makes room for segment ids below the specified capacity
+     * @param segmentCapacity
+     */
+    void ensureSegmentCapacity(int segmentCapacity) {
+        if(segmentSlots.length < segmentCapacity) {
+            int length = segmentSlots.length;
+            segmentSlots = Arrays.copyOf(segmentSlots, Math.max(segmentCapacity, length * 2));
+            Arrays.fill(segmentSlots, length, segmentSlots.length, -1);
+        }
+    }
+
+    /**
+     * Makes room for synapse ids below the specified capacity and returns
+     * a fresh stamp for marking synapses and cells.
+     * @param synapseCapacity
+     * @return
+     */
+    int nextMarkStamp(int synapseCapacity) {
+        if(synapseMarks.length < synapseCapacity) {
+            synapseMarks = Arrays.copyOf(synapseMarks, Math.max(synapseCapacity, synapseMarks.length * 2));
+        }
+        if(++markStamp == Integer.MAX_VALUE) {
+            Arrays.fill(synapseMarks, 0);
+            Arrays.fill(cellMarks, 0);
+            markStamp = 1;
+        }
+        return markStamp;
+    }
+
+    /**
+     * Returns the number of synapses on the specified segment which
+     * were activated during this cycle.
+     *
+     * @param segment   the segment id
+     * @return
+     */
+    public int getNumActiveSynapses(int segment) {
+        int slot = segment < segmentSlots.length ? segmentSlots[segment] : -1;
+        return slot < 0 ? 0 : touchedOffsets[slot + 1] - touchedOffsets[slot];
+    }
+
+    /**
+     * Returns the active cell indexes in activation order
+     * @return
+     */
+    public int[] activeCells() {
+        return activeCells.toArray();
+    }
+
+    /**
+     * Returns the winner cell indexes
+     * @return
+     */
+    public int[] winnerCells() {
+        return winnerCells.toArray();
+    }
+
+    /**
+     * Returns the predictive cell indexes
+     * @return
+     */
+    public int[] predictiveCells() {
+        return predictiveCells.toArray();
+    }
+
+    /**
+     * Returns the predicted column indexes
+     * @return
+     */
+    public int[] predictedColumns() {
+        return predictedColumns.toArray();
+    }
+
+    /**
+     * Returns the active segment ids
+     * @return
+     */
+    public int[] activeSegments() {
+        return activeSegments.toArray();
+    }
+
+    /**
+     * Returns the learning segment ids
+     * @return
+     */
+    public int[] learningSegments() {
+        return learningSegments.toArray();
+    }
+}
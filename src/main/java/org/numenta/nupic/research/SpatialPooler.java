@@ -32,6 +32,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import org.numenta.nupic.Build;
 
 import org.numenta.nupic.CLA;
@@ -43,6 +45,8 @@ import org.numenta.nupic.util.Condition;
 import static org.numenta.nupic.util.Condition.GreaterThanEqualToZero;
 import org.numenta.nupic.util.Condition.LessThan;
 import org.numenta.nupic.util.IndexedMatrix;
+import org.numenta.nupic.util.NeighborhoodTable;
+import org.numenta.nupic.util.ParallelRange;
 import org.numenta.nupic.util.SparseBinaryMatrix;
 import org.numenta.nupic.util.SparseBinaryMatrixTrueCount;
 import org.numenta.nupic.util.SparseMatrix;
@@ -90,6 +94,7 @@ public class SpatialPooler {
             put(KEY.DUTY_CYCLE_PERIOD, 1000);
             put(KEY.MAX_BOOST, 10.0);
             put(KEY.SP_VERBOSITY, 0);
+            put(KEY.SP_PARALLELISM, 1);
         }});
     }
 
@@ -118,6 +123,64 @@ public class SpatialPooler {
         }
     }
     
+    /**
+     * Scratch buffers owned by a {@link SpatialPooler} and reused by every
+     * call to compute, so that the steady state learning path does not
+     * allocate numColumns or numInputs sized arrays per record. A workspace
+     * is sized for the {@link CLA} it was created for; using a pooler with
+     * a {@link CLA} of different dimensions replaces it. Because of this
+     * shared scratch space a pooler must not compute on several threads at once.
+     */
+    public static class Workspace {
+        final int numColumns;
+        final int numInputs;
+        /** Indexes of the input bits which are on */
+        final int[] onBits;
+        /** Overlap of each column */
+        final double[] overlaps;
+        /** Overlaps plus tie breaker, as scored by inhibition */
+        final double[] inhibitionScores;
+        /** Winners of local inhibition */
+        final int[] winners;
+        /** New input to the overlap and active duty cycles */
+        final double[] overlapArray;
+        final double[] activeArray;
+        /** Permanence change for each input bit */
+        final double[] permChanges;
+        
+        Workspace(int numColumns, int numInputs) {
+            this.numColumns = numColumns;
+            this.numInputs = numInputs;
+            onBits = new int[numInputs];
+            overlaps = new double[numColumns];
+            inhibitionScores = new double[numColumns];
+            winners = new int[numColumns];
+            overlapArray = new double[numColumns];
+            activeArray = new double[numColumns];
+            permChanges = new double[numInputs];
+        }
+        
+        /**
+         * Returns true if this workspace is sized for the specified {@link CLA}
+         * @param c
+         * @return
+         */
+        public boolean fits(CLA c) {
+            return numColumns == c.getNumColumns() && numInputs == c.getNumInputs();
+        }
+    }
+    
+    /** Smallest number of columns worth handing to a worker for cheap per column arithmetic */
+    private static final int MIN_COLUMNS_PER_TASK = 1024;
+    /** Smallest number of columns worth handing to a worker for overlap summation */
+    private static final int MIN_OVERLAP_COLUMNS_PER_TASK = 64;
+    
+    /** Pool across which per column work is partitioned, or null to compute serially */
+    private ForkJoinPool forkJoinPool;
+    
+    /** Scratch buffers reused across computes */
+    private Workspace workspace;
+    
     /**
      * Constructs a new {@code SpatialPooler}
      */
@@ -129,6 +192,49 @@ public class SpatialPooler {
         init(c);
     }
     
+    /**
+     * Sets the {@link ForkJoinPool} across which this pooler partitions its
+     * per column work (overlaps, synapse adaptation, duty cycles and weak 
+     * column bumping), allowing several poolers to share one pool. Setting
+     * null reverts to the pool implied by {@link CLA#getSpParallelism()}.
+     * 
+     * @param pool	the pool to compute on
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.forkJoinPool = pool;
+    }
+    
+    /**
+     * Returns the {@link ForkJoinPool} per column work is partitioned across:
+     * the pool set, if any, or else the pool of {@link CLA#getSpParallelism()}
+     * threads shared by all poolers (see {@link ParallelRange#getSharedPool(int)})
+     * if the parallelism is greater than 1. Returns null when computing
+     * serially.
+     * 
+     * @param c		the {@link CLA} memory
+     * @return	the pool to compute on, or null
+     */
+    public ForkJoinPool getForkJoinPool(CLA c) {
+        if(forkJoinPool == null && c.getSpParallelism() > 1) {
+            return ParallelRange.getSharedPool(c.getSpParallelism());
+        }
+        return forkJoinPool;
+    }
+    
+    /**
+     * Returns this pooler's {@link Workspace}, (re)creating it if it is not
+     * sized for the specified {@link CLA}.
+     * 
+     * @param c		the {@link CLA} memory
+     * @return	the scratch buffers to compute with
+     */
+    public Workspace getWorkspace(CLA c) {
+        if(workspace == null || !workspace.fits(c)) {
+            workspace = new Workspace(c.getNumColumns(), c.getNumInputs());
+        }
+        return workspace;
+    }
+    
     /**
      * Initializes the specified {@link CLA} object which contains
      * the memory and structural anatomy this spatial pooler uses to implement
@@ -147,7 +253,7 @@ public class SpatialPooler {
      * 
      * @param c
      */
-    protected void initMatrices(final CLA c) {
+    public void initMatrices(final CLA c) {
     	SparseObjectMatrix<Column> mem = c.getMemory();
     	c.setMemory(mem == null ? 
     		mem = new SparseObjectMatrix<>(c.getColumnDimensions()) : mem);
@@ -244,17 +350,162 @@ public class SpatialPooler {
     public void compute(CLA c, int[] inputVector, int[] activeArray, boolean learn, boolean stripNeverLearned) {
         
         ArrayUtils.ensureEqualArrayLength(inputVector.length, c.getNumInputs());
+        ensureCanLearn(c, learn);
         
         updateBookeepingVars(c, learn);
 
         
-        double[] overlaps;
-        if(learn) {
-        	overlaps = overlap(c, inputVector, c.getBoostFactors());
+        Workspace ws = getWorkspace(c);
+        ForkJoinPool pool = getForkJoinPool(c);
+        double[] boost = learn ? c.getBoostFactors() : null;
+        double[] overlaps = ws.overlaps;
+        Arrays.fill(overlaps, 0);
+        int numOnBits = ArrayUtils.where(inputVector, Condition.GreaterThanZero, ws.onBits);
+        if(pool != null && c.getConnectedCounts().isRowCompressed()) {
+        	overlapParallel(c, ws.onBits, numOnBits, boost, pool, overlaps);
         }else{
-        	overlaps = overlap(c, inputVector);
+	        overlapSparse(c, ws.onBits, numOnBits, boost, overlaps);
+        }
+        
+        computeFromOverlaps(c, inputVector, overlaps, activeArray, learn, stripNeverLearned);
+    }
+    
+    /**
+     * Batch version of {@link #compute(CLA, int[], int[], boolean, boolean)} 
+     * which doesn't strip never learned columns.
+     * 
+     * @param c             the {@link CLA} memory
+     * @param inputs        the input vectors, one per record
+     * @param activeOut     the arrays receiving the active columns of each record,
+     *                      as described for the activeArray of compute
+     * @param learn         whether learning should be performed
+     * @see #computeBatch(CLA, int[][], int[][], boolean, boolean)
+     */
+    public void computeBatch(CLA c, int[][] inputs, int[][] activeOut, boolean learn) {
+        computeBatch(c, inputs, activeOut, learn, false);
+    }
+    
+    /**
+     * Computes a block of records, leaving the same active columns in
+     * activeOut and the same state in the {@link CLA} as calling 
+     * {@link #compute(CLA, int[], int[], boolean, boolean)} for each record 
+     * in turn. All input vectors are checked before any is computed.
+     * 
+     * Without learning the records are independent of each other, so they are
+     * partitioned across this pooler's {@link ForkJoinPool}, each worker having
+     * its own {@link Workspace}. With learning each record depends on the
+     * previous one, so records are computed in order and only the decoding of
+     * the next record's input bits overlaps the learning of the current one;
+     * per column work is still partitioned across the pool as in compute.
+     * 
+     * @param c                 the {@link CLA} memory
+     * @param inputs            the input vectors, one per record
+     * @param activeOut         the arrays receiving the active columns of each record,
+     *                          as described for the activeArray of compute
+     * @param learn             whether learning should be performed
+     * @param stripNeverLearned whether to remove never active columns when not learning
+     */
+    public void computeBatch(final CLA c, final int[][] inputs, final int[][] activeOut, boolean learn, final boolean stripNeverLearned) {
+        ArrayUtils.ensureEqualArrayLength(inputs.length, activeOut.length);
+        for(int[] inputVector : inputs) {
+            ArrayUtils.ensureEqualArrayLength(inputVector.length, c.getNumInputs());
         }
+        ensureCanLearn(c, learn);
         
+        ForkJoinPool pool = getForkJoinPool(c);
+        if(learn) {
+            computeBatchLearning(c, inputs, activeOut, pool);
+            return;
+        }
+        
+        for(int i = 0;i < inputs.length;i++) {
+            updateBookeepingVars(c, false);
+        }
+        if(pool == null) {
+            inferBatch(c, inputs, activeOut, stripNeverLearned, getWorkspace(c), 0, inputs.length);
+            return;
+        }
+        
+        //Build the shared neighborhood table before the workers read it
+        if(!isGlobalInhibition(c)) {
+            getNeighborhoods(c, false);
+        }
+        final int numColumns = c.getNumColumns();
+        final int numInputs = c.getNumInputs();
+        ParallelRange.forEach(pool, inputs.length, 1, new ParallelRange.Body() {
+            @Override public void run(int from, int to) {
+                Workspace ws = new Workspace(numColumns, numInputs);
+                inferBatch(c, inputs, activeOut, stripNeverLearned, ws, from, to);
+            }
+        });
+    }
+    
+    /**
+     * Infers the active columns of the records from "from" (inclusive) to
+     * "to" (exclusive) without changing the {@link CLA}, using the specified
+     * {@link Workspace} as scratch space.
+     */
+    private void inferBatch(CLA c, int[][] inputs, int[][] activeOut, boolean stripNeverLearned, Workspace ws, int from, int to) {
+        double[] overlaps = ws.overlaps;
+        for(int i = from;i < to;i++) {
+            Arrays.fill(overlaps, 0);
+            int numOnBits = ArrayUtils.where(inputs[i], Condition.GreaterThanZero, ws.onBits);
+            overlapSparse(c, ws.onBits, numOnBits, null, overlaps);
+            int[] activeColumns = inhibitColumns(c, overlaps, ws);
+            if(stripNeverLearned) {
+                activeColumns = stripUnlearnedColumns(c, activeColumns).toArray();
+            }
+            setActiveArray(activeOut[i], activeColumns);
+        }
+    }
+    
+    /**
+     * Learns on the records in order, decoding the input bits of the next
+     * record on the pool while the current record is being learned.
+     */
+    private void computeBatchLearning(CLA c, final int[][] inputs, int[][] activeOut, ForkJoinPool pool) {
+        if(pool == null) {
+            for(int i = 0;i < inputs.length;i++) {
+                compute(c, inputs[i], activeOut[i], true, false);
+            }
+            return;
+        }
+        
+        Workspace ws = getWorkspace(c);
+        final int[][] onBits = { new int[c.getNumInputs()], new int[c.getNumInputs()] };
+        final int[] numOnBits = new int[2];
+        if(inputs.length > 0) {
+            numOnBits[0] = ArrayUtils.where(inputs[0], Condition.GreaterThanZero, onBits[0]);
+        }
+        for(int i = 0;i < inputs.length;i++) {
+            ForkJoinTask<?> decodeNext = null;
+            if(i + 1 < inputs.length) {
+                final int next = i + 1;
+                decodeNext = pool.submit(new Runnable() {
+                    @Override public void run() {
+                        numOnBits[next & 1] = ArrayUtils.where(inputs[next], Condition.GreaterThanZero, onBits[next & 1]);
+                    }
+                });
+            }
+            
+            updateBookeepingVars(c, true);
+            double[] overlaps = ws.overlaps;
+            Arrays.fill(overlaps, 0);
+            overlapSparse(c, onBits[i & 1], numOnBits[i & 1], c.getBoostFactors(), overlaps);
+            computeFromOverlaps(c, inputs[i], overlaps, activeOut[i], true, false);
+            
+            if(decodeNext != null) {
+                decodeNext.join();
+            }
+        }
+    }
+    
+    /**
+     * Inhibits the columns given their overlaps, learns if requested, and
+     * writes the active columns into the activeArray; the second half of
+     * {@link #compute(CLA, int[], int[], boolean, boolean)}.
+     */
+    private void computeFromOverlaps(CLA c, int[] inputVector, double[] overlaps, int[] activeArray, boolean learn, boolean stripNeverLearned) {
         int[] activeColumns = inhibitColumns(c, overlaps);
         
         if(learn) {
@@ -270,6 +521,23 @@ public class SpatialPooler {
         	activeColumns = stripUnlearnedColumns(c, activeColumns).toArray();
         }
         
+        setActiveArray(activeArray, activeColumns);
+    }
+    
+    /**
+     * Rejects learning on a memory without potential pools, such as one
+     * mapped from a snapshot, before a compute changes any state
+     */
+    private void ensureCanLearn(CLA c, boolean learn) {
+        if(learn && c.getPotentialPools() == null) {
+            throw new IllegalStateException("The pooler has no potential pools to learn on");
+        }
+    }
+    
+    /**
+     * Sets the activeArray to 1 at the active columns and to 0 elsewhere
+     */
+    private void setActiveArray(int[] activeArray, int[] activeColumns) {
         Arrays.fill(activeArray, 0);
         if(activeColumns.length > 0) {
         	ArrayUtils.setIndexesTo(activeArray, activeColumns, 1);
@@ -343,15 +611,21 @@ public class SpatialPooler {
      * @param c
      */
     public void updateMinDutyCyclesLocal(CLA c) {
+    	NeighborhoodTable table = getNeighborhoods(c, true);
+    	int[] offsets = table.getOffsets();
+    	int[] neighbors = table.getNeighbors();
+    	double[] overlapDutyCycles = c.getOverlapDutyCycles();
+    	double[] activeDutyCycles = c.getActiveDutyCycles();
     	int len = c.getNumColumns();
     	for(int i = 0;i < len;i++) {
-    		int[] maskNeighbors = getNeighborsND(c, i, c.getMemory(), c.getInhibitionRadius(), true).toArray();
-    		c.getMinOverlapDutyCycles()[i] = ArrayUtils.max(
-    			ArrayUtils.sub(c.getOverlapDutyCycles(), maskNeighbors)) *
-    				c.getMinPctOverlapDutyCycles();
-    		c.getMinActiveDutyCycles()[i] = ArrayUtils.max(
-    			ArrayUtils.sub(c.getActiveDutyCycles(), maskNeighbors)) *
-    				c.getMinPctActiveDutyCycles();
+    		double maxOverlap = Double.MIN_VALUE;
+    		double maxActive = Double.MIN_VALUE;
+    		for(int j = offsets[i];j < offsets[i + 1];j++) {
+    			maxOverlap = Math.max(maxOverlap, overlapDutyCycles[neighbors[j]]);
+    			maxActive = Math.max(maxActive, activeDutyCycles[neighbors[j]]);
+    		}
+    		c.getMinOverlapDutyCycles()[i] = maxOverlap * c.getMinPctOverlapDutyCycles();
+    		c.getMinActiveDutyCycles()[i] = maxActive * c.getMinPctActiveDutyCycles();
     	}
     }
     
@@ -370,8 +644,11 @@ public class SpatialPooler {
      *              			the sparse set of columns which survived inhibition
      */
     public void updateDutyCycles(CLA c, double[] overlaps, int[] activeColumns) {
-    	double[] overlapArray = new double[c.getNumColumns()];
-    	double[] activeArray = new double[c.getNumColumns()];
+    	Workspace ws = getWorkspace(c);
+    	double[] overlapArray = ws.overlapArray;
+    	double[] activeArray = ws.activeArray;
+    	Arrays.fill(overlapArray, 0);
+    	Arrays.fill(activeArray, 0);
     	ArrayUtils.greaterThanXThanSetToY(overlaps, 0, 1);
     	if(activeColumns.length > 0) {
     		ArrayUtils.setIndexesTo(activeArray, activeColumns, 1);
@@ -382,11 +659,48 @@ public class SpatialPooler {
     		period  = c.getIterationNum();
     	}
     	
-    	c.setOverlapDutyCycles(
-    		updateDutyCyclesHelper(c, c.getOverlapDutyCycles(), overlapArray, period));
+    	ForkJoinPool pool = getForkJoinPool(c);
+    	if(pool != null) {
+    		updateDutyCyclesParallel(c.getOverlapDutyCycles(), overlapArray, period, pool);
+    		updateDutyCyclesParallel(c.getActiveDutyCycles(), activeArray, period, pool);
+    		return;
+    	}
     	
-    	c.setActiveDutyCycles(
-        	updateDutyCyclesHelper(c, c.getActiveDutyCycles(), activeArray, period));
+    	updateDutyCyclesInPlace(c.getOverlapDutyCycles(), overlapArray, period);
+    	updateDutyCyclesInPlace(c.getActiveDutyCycles(), activeArray, period);
+    }
+    
+    /**
+     * In place version of {@link #updateDutyCyclesHelper(CLA, double[], double[], double)}
+     * which overwrites the specified duty cycles with their updated values.
+     * 
+     * @param dutyCycles	the duty cycles to update
+     * @param newInput		the new value of each duty cycle
+     * @param period		the period of the duty cycle
+     */
+    private void updateDutyCyclesInPlace(double[] dutyCycles, double[] newInput, double period) {
+    	ArrayUtils.divideBy(ArrayUtils.addTo(newInput, ArrayUtils.multiplyBy(dutyCycles, period - 1)), period);
+    }
+    
+    /**
+     * Parallel version of {@link #updateDutyCyclesInPlace(double[], double[], double)}
+     * which partitions the columns across the specified pool, evaluating the
+     * same expression for each column.
+     * 
+     * @param dutyCycles	the duty cycles to update
+     * @param newInput		the new value of each duty cycle
+     * @param period		the period of the duty cycle
+     * @param pool			the pool to compute on
+     */
+    private void updateDutyCyclesParallel(final double[] dutyCycles, final double[] newInput, final double period, ForkJoinPool pool) {
+    	ParallelRange.forEach(pool, dutyCycles.length, MIN_COLUMNS_PER_TASK, new ParallelRange.Body() {
+    		@Override public void run(int from, int to) {
+    			double denom = period == 0 ? 1 : period;
+    			for(int i = from;i < to;i++) {
+    				dutyCycles[i] = (dutyCycles[i] * (period - 1) + newInput[i]) / denom;
+    			}
+    		}
+    	});
     }
    
     /**
@@ -501,21 +815,68 @@ public class SpatialPooler {
      * @param activeColumns		an array containing the indices of the columns that
      *              			survived inhibition.
      */
-    public void adaptSynapses(CLA c, int[] inputVector, int[] activeColumns) {
-    	int[] inputIndices = ArrayUtils.where(inputVector, Condition.GreaterThanZero);
-    	double[] permChanges = new double[c.getNumInputs()];
-    	Arrays.fill(permChanges, -1 * c.getSynPermInactiveDec());
-    	ArrayUtils.setIndexesTo(permChanges, inputIndices, c.getSynPermActiveInc());
+    public void adaptSynapses(final CLA c, int[] inputVector, final int[] activeColumns) {
+    	Workspace ws = getWorkspace(c);
+    	final double[] permChanges = ws.permChanges;
+    	double inactiveDec = -1 * c.getSynPermInactiveDec();
+    	double activeInc = c.getSynPermActiveInc();
+    	for(int i = 0;i < permChanges.length;i++) {
+    		permChanges[i] = inputVector[i] > 0 ? activeInc : inactiveDec;
+    	}
+    	
+    	//Pools shared with a fork are copied up front, as copying one replaces it in the CLA
+    	for(int i = 0;i < activeColumns.length;i++) {
+    		c.getColumn(activeColumns[i]).getProximalDendrite().getWritablePool(c);
+    	}
+    	
+    	ForkJoinPool forkJoinPool = getForkJoinPool(c);
+    	if(forkJoinPool != null) {
+    		//Update each column's packed permanences in parallel, then store them in column order
+    		final double[][] perms = new double[activeColumns.length][];
+    		ParallelRange.forEach(forkJoinPool, activeColumns.length, 1, new ParallelRange.Body() {
+    			@Override public void run(int from, int to) {
+    				for(int i = from;i < to;i++) {
+    					perms[i] = adaptPermanencesPacked(c, c.getPotentialPools().getIndex(activeColumns[i]), permChanges);
+    				}
+    			}
+    		});
+    		for(int i = 0;i < activeColumns.length;i++) {
+    			c.getColumn(activeColumns[i]).setProximalPermanencesPacked(c, perms[i]);
+    		}
+    		return;
+    	}
+    	
     	for(int i = 0;i < activeColumns.length;i++) {
     		Pool pool = c.getPotentialPools().getIndex(activeColumns[i]);
-    		double[] perm = pool.getPermanencesDense(c);
-    		int[] indexes = pool.getSparseConnections();
-    		ArrayUtils.addTo(permChanges, perm);
-    		Column col = c.getColumn(activeColumns[i]);
-    		updatePermanencesForColumn(c, perm, col, indexes, true);
+    		double[] perm = adaptPermanencesPacked(c, pool, permChanges);
+    		c.getColumn(activeColumns[i]).setProximalPermanencesPacked(c, perm);
     	}
     }
     
+    /**
+     * Adds each synapse's permanence change to the specified {@link Pool}'s
+     * packed permanences (in place in double precision), then raises, trims and clips them exactly
+     * as {@link #updatePermanencesForColumn(CLA, double[], Column, int[], boolean)}
+     * does. Only the pool's own synapses are visited, so the cost is proportional
+     * to the potential pool size rather than to the number of inputs. The result
+     * still has to be stored with {@link Column#setProximalPermanencesPacked(CLA, double[])}.
+     * 
+     * @param c				the {@link CLA} memory
+     * @param pool			the pool whose permanences are adapted
+     * @param permChanges	the permanence change of each input bit
+     * @return	the pool's updated packed permanences
+     */
+    private double[] adaptPermanencesPacked(CLA c, Pool pool, double[] permChanges) {
+    	double[] perm = pool.getPackedPermanences();
+    	int[] inputs = pool.getPackedInputs();
+    	int size = pool.getPackedSize();
+    	for(int i = 0;i < size;i++) {
+    		perm[i] += permChanges[inputs[i]];
+    	}
+    	conditionPermanences(c, perm, pool.getPackedMask(), true);
+    	return perm;
+    }
+    
     /**
      * This method increases the permanence values of synapses of columns whose
      * activity level has been too low. Such columns are identified by having an
@@ -531,6 +892,30 @@ public class SpatialPooler {
     		}
     	});
     	
+    	ForkJoinPool forkJoinPool = getForkJoinPool(c);
+    	if(forkJoinPool != null) {
+    		//Compute each column's new permanences in parallel, then store them in column order
+    		final int[] weak = weakColumns;
+    		final double[][] perms = new double[weak.length][];
+    		final int[][] indexes = new int[weak.length][];
+    		ParallelRange.forEach(forkJoinPool, weak.length, 1, new ParallelRange.Body() {
+    			@Override public void run(int from, int to) {
+    				for(int i = from;i < to;i++) {
+    					Pool pool = c.getPotentialPools().getIndex(weak[i]);
+    					double[] perm = pool.getPermanencesSparse();
+    					ArrayUtils.addTo(c.getSynPermBelowStimulusInc(), perm);
+    					conditionPermanencesSparse(c, perm, true);
+    					perms[i] = perm;
+    					indexes[i] = pool.getSparseConnections();
+    				}
+    			}
+    		});
+    		for(int i = 0;i < weak.length;i++) {
+    			c.getColumn(weak[i]).setProximalPermanencesSparse(c, perms[i], indexes[i]);
+    		}
+    		return;
+    	}
+    	
     	for(int i = 0;i < weakColumns.length;i++) {
     		Pool pool = c.getPotentialPools().getIndex(weakColumns[i]);
     		double[] perm = pool.getPermanencesSparse();
@@ -610,13 +995,23 @@ public class SpatialPooler {
      * @param raisePerm         a boolean value indicating whether the permanence values
      */
     public void updatePermanencesForColumn(CLA c, double[] perm, Column column, int[] maskPotential, boolean raisePerm) {
+    	conditionPermanences(c, perm, maskPotential, raisePerm);
+        column.setProximalPermanences(c, perm);
+    }
+    
+    /**
+     * Raises (optionally), trims and clips the specified "dense" permanences 
+     * in place without storing them, as the first half of 
+     * {@link #updatePermanencesForColumn(CLA, double[], Column, int[], boolean)}.
+     * Only reads shared state, so distinct columns may be conditioned concurrently.
+     */
+    private void conditionPermanences(CLA c, double[] perm, int[] maskPotential, boolean raisePerm) {
     	if(raisePerm) {
             raisePermanenceToThreshold(c, perm, maskPotential);
         }
         
         ArrayUtils.lessThanOrEqualXThanSetToY(perm, c.getSynPermTrimThreshold(), 0);
         ArrayUtils.clip(perm, c.getSynPermMin(), c.getSynPermMax());
-        column.setProximalPermanences(c, perm);
     }
     
     /**
@@ -637,13 +1032,20 @@ public class SpatialPooler {
      * @param raisePerm         a boolean value indicating whether the permanence values
      */
     public void updatePermanencesForColumnSparse(CLA c, double[] perm, Column column, int[] maskPotential, boolean raisePerm) {
+    	conditionPermanencesSparse(c, perm, raisePerm);
+        column.setProximalPermanencesSparse(c, perm, maskPotential);
+    }
+    
+    /**
+     * "Sparse" counterpart of {@link #conditionPermanences(CLA, double[], int[], boolean)}
+     */
+    private void conditionPermanencesSparse(CLA c, double[] perm, boolean raisePerm) {
     	if(raisePerm) {
             raisePermanenceToThresholdSparse(c, perm);
         }
         
         ArrayUtils.lessThanOrEqualXThanSetToY(perm, c.getSynPermTrimThreshold(), 0);
         ArrayUtils.clip(perm, c.getSynPermMin(), c.getSynPermMax());
-        column.setProximalPermanencesSparse(c, perm, maskPotential);
     }
     
     /**
@@ -874,6 +1276,37 @@ public class SpatialPooler {
 
     
 
+    /**
+     * Returns the flat table of every column's neighborhood for the current
+     * inhibition radius, computing it with {@link #getNeighborsND(CLA, int, IndexedMatrix, double, boolean)}
+     * and caching it in the {@link CLA} the first time it is needed for that
+     * radius. Subsequent calls with an unchanged radius do no allocation, which
+     * keeps local inhibition from rebuilding coordinate lists for each column
+     * on every record.
+     * 
+     * @param c				the {@link CLA} memory
+     * @param wrapAround	whether the neighborhoods wrap around the borders
+     * @return	the cached or newly built {@link NeighborhoodTable}
+     */
+    public NeighborhoodTable getNeighborhoods(CLA c, boolean wrapAround) {
+    	NeighborhoodTable table = c.getNeighborhoods(wrapAround);
+    	int radius = c.getInhibitionRadius();
+    	if(table != null && table.getRadius() == radius) {
+    		return table;
+    	}
+    	
+    	int numColumns = c.getNumColumns();
+    	int[] offsets = new int[numColumns + 1];
+    	TIntArrayList neighbors = new TIntArrayList();
+    	for(int i = 0;i < numColumns;i++) {
+    		neighbors.addAll(getNeighborsND(c, i, c.getMemory(), radius, wrapAround));
+    		offsets[i + 1] = neighbors.size();
+    	}
+    	table = new NeighborhoodTable(radius, wrapAround, offsets, neighbors.toArray());
+    	c.setNeighborhoods(table);
+    	return table;
+    }
+
     /**
      * Returns true if enough rounds have passed to warrant updates of
      * duty cycles
@@ -920,19 +1353,134 @@ public class SpatialPooler {
         return overlaps;
     }
     
+    /**
+     * Computes the overlap of each column with the input vector by way of
+     * {@link #overlapSparse(CLA, int[])}, so that only the columns connected
+     * to the vector's "on" bits are visited.
+     * 
+     * @param c             the {@link CLA} memory encapsulation
+     * @param inputVector   an input array of 0's and 1's that comprises the input to
+     *                      the spatial pooler.
+     * @return  the overlap score of each column
+     */
     public static double[] overlap(CLA c, int[] inputVector) {
-        double[] overlaps = new double[c.getNumColumns()];
-        c.getConnectedCounts().rightVecSumAtNZ(inputVector, overlaps);
-        ArrayUtils.lessThanXThanSetToY(overlaps, c.getStimulusThreshold(), 0);
-        return overlaps;
+        return overlapSparse(c, ArrayUtils.where(inputVector, Condition.GreaterThanZero));
     }
     
+    /**
+     * Boosted version of {@link #overlap(CLA, int[])}: overlaps below the
+     * stimulus threshold are zeroed and the remaining ones are multiplied by
+     * their column's boost factor.
+     * 
+     * @param c             the {@link CLA} memory encapsulation
+     * @param inputVector   an input array of 0's and 1's that comprises the input to
+     *                      the spatial pooler.
+     * @param boost         the boost factor of each column
+     * @return  the boosted overlap score of each column
+     */
     public static double[] overlap(CLA c, int[] inputVector, double[] boost) {
-        double[] overlaps = new double[c.getNumColumns()];
-        c.getConnectedCounts().rightVecSumAtNZ(inputVector, overlaps, c.getStimulusThreshold(), boost);
-        return overlaps;
+        return overlapSparse(c, ArrayUtils.where(inputVector, Condition.GreaterThanZero), boost);
     }    
     
+    /**
+     * Event driven version of {@link #overlap(CLA, int[])} which takes the
+     * indexes of the "on" input bits and only visits the columns connected to
+     * them, using the input to column index maintained by the connected
+     * matrix (see {@link SparseBinaryMatrixTrueCount#getPostings(int)}). The
+     * cost therefore scales with input activity rather than with
+     * numColumns * numInputs.
+     * 
+     * @param c             the {@link CLA} memory encapsulation
+     * @param onBits        the indexes of the input bits which are turned on
+     * @return  the overlap score of each column
+     */
+    public static double[] overlapSparse(CLA c, int[] onBits) {
+        return overlapSparse(c, onBits, onBits.length, null, new double[c.getNumColumns()]);
+    }
+    
+    /**
+     * Boosted version of {@link #overlapSparse(CLA, int[])}
+     * 
+     * @param c             the {@link CLA} memory encapsulation
+     * @param onBits        the indexes of the input bits which are turned on
+     * @param boost         the boost factor of each column
+     * @return  the boosted overlap score of each column
+     */
+    public static double[] overlapSparse(CLA c, int[] onBits, double[] boost) {
+        return overlapSparse(c, onBits, onBits.length, boost, new double[c.getNumColumns()]);
+    }
+    
+    /**
+     * Version of {@link #overlapSparse(CLA, int[], double[])} which reads the
+     * first "numOnBits" entries of a reused index buffer and accumulates into
+     * the specified, zeroed, overlaps array instead of allocating one.
+     * 
+     * @param c             the {@link CLA} memory encapsulation
+     * @param onBits        buffer holding the indexes of the input bits which are turned on
+     * @param numOnBits     the number of valid entries in onBits
+     * @param boost         the boost factor of each column, or null for unboosted overlaps
+     * @param overlaps      the zeroed array receiving the overlap of each column
+     * @return  the overlaps array
+     */
+    public static double[] overlapSparse(CLA c, int[] onBits, int numOnBits, double[] boost, double[] overlaps) {
+        if(boost == null) {
+            c.getConnectedCounts().rightVecSumAtNZIndexes(onBits, numOnBits, overlaps);
+            ArrayUtils.lessThanXThanSetToY(overlaps, c.getStimulusThreshold(), 0);
+        }else{
+            c.getConnectedCounts().rightVecSumAtNZIndexes(onBits, numOnBits, overlaps, c.getStimulusThreshold(), boost);
+        }
+        return overlaps;
+    }
+    
+    /**
+     * Parallel version of {@link #overlapSparse(CLA, int[], double[])} which
+     * partitions the columns across the specified pool. Each task scatters
+     * the "on" bits into its own range of columns only (see 
+     * {@link SparseBinaryMatrixTrueCount#rightVecSumAtNZIndexes(int[], int, double[], int, int)}),
+     * so the results are identical to the serial version. The connected 
+     * matrix must be row compressed.
+     * 
+     * @param c             the {@link CLA} memory encapsulation
+     * @param onBits        the indexes of the input bits which are turned on
+     * @param boost         the boost factor of each column, or null for unboosted overlaps
+     * @param pool          the pool to compute on
+     * @return  the (boosted) overlap score of each column
+     */
+    public static double[] overlapParallel(CLA c, int[] onBits, double[] boost, ForkJoinPool pool) {
+        return overlapParallel(c, onBits, onBits.length, boost, pool, new double[c.getNumColumns()]);
+    }
+    
+    /**
+     * Version of {@link #overlapParallel(CLA, int[], double[], ForkJoinPool)}
+     * which reads the first "numOnBits" entries of a reused index buffer and
+     * accumulates into the specified, zeroed, overlaps array.
+     * 
+     * @param c             the {@link CLA} memory encapsulation
+     * @param onBits        buffer holding the indexes of the input bits which are turned on
+     * @param numOnBits     the number of valid entries in onBits
+     * @param boost         the boost factor of each column, or null for unboosted overlaps
+     * @param pool          the pool to compute on
+     * @param overlaps      the zeroed array receiving the overlap of each column
+     * @return  the overlaps array
+     */
+    public static double[] overlapParallel(CLA c, final int[] onBits, final int numOnBits, final double[] boost, ForkJoinPool pool, final double[] overlaps) {
+        final SparseBinaryMatrixTrueCount matrix = c.getConnectedCounts();
+        final double stimulusThreshold = c.getStimulusThreshold();
+        ParallelRange.forEach(pool, overlaps.length, MIN_OVERLAP_COLUMNS_PER_TASK, new ParallelRange.Body() {
+            @Override public void run(int from, int to) {
+                matrix.rightVecSumAtNZIndexes(onBits, numOnBits, overlaps, from, to);
+                for(int i = from;i < to;i++) {
+                    if(overlaps[i] < stimulusThreshold) {
+                        overlaps[i] = 0;
+                    }else if(boost != null) {
+                        overlaps[i] *= boost[i];
+                    }
+                }
+            }
+        });
+        return overlaps;
+    }
+    
     /**
      * Return the overlap to connected counts ratio for a given column
      * @param c
@@ -956,8 +1504,50 @@ public class SpatialPooler {
      * @return
      */
     public int[] inhibitColumns(CLA c, double[] overlaps) {
-    	overlaps = Arrays.copyOf(overlaps, overlaps.length);
+    	overlaps = scoreOverlaps(c, overlaps, getWorkspace(c));
+    	double density = inhibitionDensity(c);
+    	if(isGlobalInhibition(c)) {
+    		return inhibitColumnsGlobal(c, overlaps, density);
+    	}
+    	return inhibitColumnsLocal(c, overlaps, density);
+    }
+    
+    /**
+     * Version of {@link #inhibitColumns(CLA, double[])} which scores and
+     * collects the winners in the specified {@link Workspace}, so that it
+     * may run on several threads at once.
+     */
+    private int[] inhibitColumns(CLA c, double[] overlaps, Workspace ws) {
+    	overlaps = scoreOverlaps(c, overlaps, ws);
+    	double density = inhibitionDensity(c);
+    	if(isGlobalInhibition(c)) {
+    		return inhibitColumnsGlobal(c, overlaps, density, ws.winners);
+    	}
+    	return inhibitColumnsLocal(c, overlaps, density, ws.winners);
+    }
+    
+    /**
+     * Returns a copy of the overlaps, in the workspace if it fits, with
+     * the tie breaking noise added.
+     */
+    private double[] scoreOverlaps(CLA c, double[] overlaps, Workspace ws) {
+    	double[] scores = ws.inhibitionScores;
+    	if(scores.length == overlaps.length) {
+    		System.arraycopy(overlaps, 0, scores, 0, overlaps.length);
+    		overlaps = scores;
+    	}else{
+    		overlaps = Arrays.copyOf(overlaps, overlaps.length);
+    	}
     	
+    	//Add our fixed little bit of random noise to the scores to help break ties.
+    	ArrayUtils.addTo(c.getTieBreaker(), overlaps);
+    	return overlaps;
+    }
+    
+    /**
+     * Returns the fraction of columns to survive inhibition
+     */
+    private double inhibitionDensity(CLA c) {
     	double density;
     	double inhibitionArea = 0;
     	if((density = c.getLocalAreaDensity()) <= 0) {
@@ -966,14 +1556,15 @@ public class SpatialPooler {
     		density = c.getNumActiveColumnsPerInhArea() / inhibitionArea;
     		density = Math.min(density, 0.5);
     	}
-    	
-    	//Add our fixed little bit of random noise to the scores to help break ties.
-    	ArrayUtils.addTo(c.getTieBreaker(), overlaps);
-    	
-    	if(c.getGlobalInhibition() || c.getInhibitionRadius() > ArrayUtils.max(c.getColumnDimensions())) {
-    		return inhibitColumnsGlobal(c, overlaps, density);
-    	}
-    	return inhibitColumnsLocal(c, overlaps, density);
+    	return density;
+    }
+    
+    /**
+     * Returns true if inhibition currently spans all columns, either because
+     * it is configured global or because the inhibition radius covers them.
+     */
+    private boolean isGlobalInhibition(CLA c) {
+    	return c.getGlobalInhibition() || c.getInhibitionRadius() > ArrayUtils.max(c.getColumnDimensions());
     }
     
     /**
@@ -992,13 +1583,20 @@ public class SpatialPooler {
      * @return
      */
     public int[] inhibitColumnsGlobal(CLA c, double[] overlaps, double density) {
+    	return inhibitColumnsGlobal(c, overlaps, density, getWorkspace(c).winners);
+    }
+    
+    /**
+     * Version of {@link #inhibitColumnsGlobal(CLA, double[], double)} which
+     * selects the winners in the specified buffer of numColumns length, 
+     * sorting only the selected prefix.
+     */
+    private int[] inhibitColumnsGlobal(CLA c, double[] overlaps, double density, int[] activeColumns) {
     	int numCols = c.getNumColumns();
     	int numActive = (int)(density * numCols);
-    	int[] activeColumns = new int[numCols];
-    	Arrays.fill(activeColumns, 0);
-    	int[] winners = ArrayUtils.nGreatest(overlaps, numActive);
-    	Arrays.sort(winners);
-    	return winners;
+    	int numWinners = ArrayUtils.nGreatest(overlaps, numActive, activeColumns);
+    	Arrays.sort(activeColumns, 0, numWinners);
+    	return Arrays.copyOf(activeColumns, numWinners);
     }
     
     /**
@@ -1014,21 +1612,36 @@ public class SpatialPooler {
      * @return
      */
     public int[] inhibitColumnsLocal(CLA c, double[] overlaps, double density) {
+    	return inhibitColumnsLocal(c, overlaps, density, getWorkspace(c).winners);
+    }
+    
+    /**
+     * Version of {@link #inhibitColumnsLocal(CLA, double[], double)} which
+     * collects the winners in the specified buffer of numColumns length.
+     */
+    private int[] inhibitColumnsLocal(CLA c, double[] overlaps, double density, int[] activeColumns) {
+    	NeighborhoodTable table = getNeighborhoods(c, false);
+    	int[] offsets = table.getOffsets();
+    	int[] neighbors = table.getNeighbors();
     	int numCols = c.getNumColumns();
-    	int[] activeColumns = new int[numCols];
-    	Arrays.fill(activeColumns, 0);
+    	int numWinners = 0;
     	double addToWinners = ArrayUtils.max(overlaps) / 1000.0;
     	for(int i = 0;i < numCols;i++) {
-    		TIntArrayList maskNeighbors = getNeighborsND(c, i, c.getMemory(), c.getInhibitionRadius(), false);
-    		double[] overlapSlice = ArrayUtils.sub(overlaps, maskNeighbors.toArray());
-    		int numActive = (int)(0.5 + density * (maskNeighbors.size() + 1));
-    		int numBigger = ArrayUtils.valueGreaterCount(overlaps[i], overlapSlice);
+    		int start = offsets[i];
+    		int end = offsets[i + 1];
+    		int numActive = (int)(0.5 + density * (end - start + 1));
+    		//Only whether numActive neighbors are bigger matters, so stop counting there
+    		double overlap = overlaps[i];
+    		int numBigger = 0;
+    		for(int j = start;j < end && numBigger < numActive;j++) {
+    			if(overlaps[neighbors[j]] > overlap) numBigger++;
+    		}
     		if(numBigger < numActive) {
-    			activeColumns[i] = 1;
+    			activeColumns[numWinners++] = i;
     			overlaps[i] += addToWinners;
     		}
     	}
-    	return ArrayUtils.where(activeColumns, Condition.GreaterThanZero);
+    	return Arrays.copyOf(activeColumns, numWinners);
     }
     
     /**
@@ -1056,30 +1669,27 @@ public class SpatialPooler {
      *         minActiveDutyCycle
      */
     public void updateBoostFactors(CLA c) {
-    	//Indexes of values > 0
-    	int[] mask = ArrayUtils.where(c.getMinActiveDutyCycles(), new Condition.Adapter<Object>() {
-    		@Override public boolean eval(double d) { return d > 0; }
-    	});
- 
     	final double[] activeDutyCycles = c.getActiveDutyCycles();
     	final double[] minActiveDutyCycles = c.getMinActiveDutyCycles();
     	
-    	double[] boostInterim = null;
-    	if(mask.length < 1) {
-    		boostInterim = c.getBoostFactors();
-    	}else{
-	    	double[] numerator = new double[c.getNumColumns()];
-	    	Arrays.fill(numerator, 1 - c.getMaxBoost());
-	    	boostInterim = ArrayUtils.divide(numerator, minActiveDutyCycles, 0, 0);
-	    	boostInterim = ArrayUtils.multiply(boostInterim, activeDutyCycles, 0, 0);
-	    	boostInterim = ArrayUtils.addTo(c.getMaxBoost(), boostInterim);
+    	boolean anyMinActive = false;
+    	for(int i = 0;i < minActiveDutyCycles.length && !anyMinActive;i++) {
+    		anyMinActive = minActiveDutyCycles[i] > 0;
     	}
     	
-    	ArrayUtils.setIndexesTo(boostInterim, ArrayUtils.where(activeDutyCycles, new Condition.Adapter<Object>() {
-    		int i = 0;
-    		@Override public boolean eval(double d) { return d > minActiveDutyCycles[i++]; }
-    	}), 1.0d);
+    	//Boost factors are updated in place
+    	double[] boostInterim = c.getBoostFactors();
+    	if(anyMinActive) {
+	    	Arrays.fill(boostInterim, 1 - c.getMaxBoost());
+	    	ArrayUtils.divideBy(boostInterim, minActiveDutyCycles, 0, 0);
+	    	ArrayUtils.multiplyBy(boostInterim, activeDutyCycles, 0, 0);
+	    	ArrayUtils.addTo(c.getMaxBoost(), boostInterim);
+    	}
     	
-    	c.setBoostFactors(boostInterim);
+    	for(int i = 0;i < boostInterim.length;i++) {
+    		if(activeDutyCycles[i] > minActiveDutyCycles[i]) {
+    			boostInterim[i] = 1.0d;
+    		}
+    	}
     }
 }
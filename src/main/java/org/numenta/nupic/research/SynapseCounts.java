@@ -0,0 +1,194 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import java.util.Arrays;
+
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.util.Condition;
+import org.numenta.nupic.util.OrderedIndexSet;
+
+/**
+ * Per segment counts of the synapses activated during a {@link TemporalMemory}
+ * cycle, replacing the map of active synapse sets when the {@code TemporalMemory}
+ * runs in counting mode. Counters are int arrays indexed by a slot which a
+ * segment is given the first time one of its synapses is counted and which
+ * it gives back once destroyed (see {@link #release(DistalDendrite)}), so
+ * the arrays are bounded by the number of live segments rather than by the
+ * segment serial. Only the touched entries are reset between cycles, so a
+ * cycle allocates nothing once the arrays have grown.
+ *
+ * Whether an individual synapse was active is derived rather than stored: it
+ * was active if its source cell was among the cycle's active cells and it
+ * already existed when the counts were taken.
+ */
+public class SynapseCounts {
+    /** Active synapses per segment */
+    int[] active = new int[0];
+    /** Active synapses per segment with a non-zero permanence */
+    int[] matching = new int[0];
+    /** Active synapses per segment with at least the connected permanence */
+    int[] connected = new int[0];
+    /** Segments with at least one active synapse, in the order first touched */
+    DistalDendrite[] touched = new DistalDendrite[16];
+    int numTouched;
+    /** Indexes of the cells whose synapses were counted */
+    final OrderedIndexSet activeCells;
+    /** Synapse serial at the time of counting; later synapses were not counted */
+    int synapseWatermark;
+    /** One more than the highest slot handed out */
+    int slotCapacity;
+    /** Slots given back by destroyed segments, handed out before new ones */
+    private int[] freeSlots = new int[16];
+    private int numFreeSlots;
+    /** Segments destroyed since the counts were taken, keeping their slots until cleared */
+    private DistalDendrite[] released = new DistalDendrite[16];
+    private int numReleased;
+    /** {@link #isActive(Synapse)} as a {@link Condition}, for adapting segments */
+    private final Condition<Synapse> activeCondition = new Condition.Adapter<Synapse>() {
+        @Override public boolean eval(Synapse synapse) {
+            return isActive(synapse);
+        }
+    };
+
+    /**
+     * Constructs a new {@code SynapseCounts}
+     * 
+     * @param numCells  the total number of cells
+     */
+    public SynapseCounts(int numCells) {
+        activeCells = new OrderedIndexSet(numCells);
+    }
+
+    /**
+     * Forgets the counts of the touched segments and frees the slots of
+     * the released ones
+     */
+    void clear() {
+        for(int i = 0;i < numTouched;i++) {
+            int slot = touched[i].getCountSlot();
+            active[slot] = 0;
+            matching[slot] = 0;
+            connected[slot] = 0;
+            touched[i] = null;
+        }
+        numTouched = 0;
+        activeCells.clear();
+        
+        if(numFreeSlots + numReleased > freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(numFreeSlots + numReleased, freeSlots.length * 2));
+        }
+        for(int i = 0;i < numReleased;i++) {
+            freeSlots[numFreeSlots++] = released[i].getCountSlot();
+            released[i].setCountSlot(-1);
+            released[i] = null;
+        }
+        numReleased = 0;
+    }
+
+    /**
+     * Returns the segment's counter slot, first giving it one if it has none
+     * @param segment
+     * @return
+     */
+    int slotOf(DistalDendrite segment) {
+        int slot = segment.getCountSlot();
+        if(slot < 0) {
+            slot = numFreeSlots > 0 ? freeSlots[--numFreeSlots] : slotCapacity++;
+            if(active.length < slotCapacity) {
+                int length = Math.max(slotCapacity, active.length * 2);
+                active = Arrays.copyOf(active, length);
+                matching = Arrays.copyOf(matching, length);
+                connected = Arrays.copyOf(connected, length);
+            }
+            segment.setCountSlot(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Takes back the counter slot of a segment being destroyed so that a
+     * later segment may reuse it. The segment's counts remain readable until
+     * the counts are next cleared, as the cycle which destroyed it may still
+     * refer to it.
+     * @param segment
+     */
+    public void release(DistalDendrite segment) {
+        if(segment.getCountSlot() < 0) return;
+        if(numReleased == released.length) {
+            released = Arrays.copyOf(released, numReleased * 2);
+        }
+        released[numReleased++] = segment;
+    }
+
+    /**
+     * Returns the number of the segment's synapses which were active
+     * @param segment
+     * @return
+     */
+    public int getNumActiveSynapses(DistalDendrite segment) {
+        int slot = segment.getCountSlot();
+        return slot < 0 ? 0 : active[slot];
+    }
+
+    /**
+     * Returns the number of the segment's synapses which were active and
+     * had a non-zero permanence, which makes the segment a candidate for
+     * the best matching segment of its cell.
+     * @param segment
+     * @return
+     */
+    public int getNumMatchingSynapses(DistalDendrite segment) {
+        int slot = segment.getCountSlot();
+        return slot < 0 ? 0 : matching[slot];
+    }
+
+    /**
+     * Returns the number of the segment's synapses which were active
+     * and connected
+     * @param segment
+     * @return
+     */
+    public int getNumConnectedActiveSynapses(DistalDendrite segment) {
+        int slot = segment.getCountSlot();
+        return slot < 0 ? 0 : connected[slot];
+    }
+
+    /**
+     * Returns true if the synapse was counted as active
+     * @param synapse
+     * @return
+     */
+    public boolean isActive(Synapse synapse) {
+        return synapse.getIndex() < synapseWatermark && activeCells.contains(synapse.getSourceCell().getIndex());
+    }
+
+    /**
+     * Returns a {@link Condition} which holds for the synapses counted as active
+     * @return
+     */
+    public Condition<Synapse> activeSynapses() {
+        return activeCondition;
+    }
+}
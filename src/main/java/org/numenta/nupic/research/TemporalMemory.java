@@ -22,12 +22,16 @@
 package org.numenta.nupic.research;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
 import org.apache.commons.math3.analysis.UnivariateFunction;
 import org.numenta.nupic.Build;
 
@@ -35,8 +39,12 @@ import org.numenta.nupic.CLA;
 import org.numenta.nupic.KEY;
 import org.numenta.nupic.model.Cell;
 import org.numenta.nupic.model.Column;
+import org.numenta.nupic.model.ConnectionStore;
 import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.FlatConnectionStore;
 import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.util.OrderedIndexSet;
+import org.numenta.nupic.util.ParallelRange;
 import org.numenta.nupic.util.SparseObjectMatrix;
 
 /**
@@ -63,7 +71,12 @@ public class TemporalMemory {
             }
         });
     }
+    /** The smallest number of active cells worth handing to a task */
+    private static final int MIN_CELLS_PER_TASK = 8;
+    
     private CLA cla;
+    /** The pool the column partitioned algorithm runs on, or null to compute serially */
+    private ForkJoinPool forkJoinPool;
 
     /**
      * Constructs a new {@code TemporalMemory}
@@ -83,7 +96,7 @@ public class TemporalMemory {
      *
      * @param	c	{@link CLA} object
      */
-    protected void init(CLA c) {
+    public void init(CLA c) {
         this.cla = c;
         
         SparseObjectMatrix<Column> matrix = c.getMemory() == null
@@ -110,6 +123,45 @@ public class TemporalMemory {
         }
         //Only the TemporalMemory initializes cells so no need to test 
         c.setCells(cells);
+        
+        if (c.getCountActiveSynapses() && c.getSynapseCounts() == null) {
+            c.setSynapseCounts(new SynapseCounts(cells.length));
+        }
+        if (c.getFlatConnections() && c.getConnectionStore() == null) {
+            c.setConnectionStore(new FlatConnectionStore(cells.length, c.getSinglePrecisionPermanences()));
+        }
+        if (c.getConnectionStore() != null && c.getFlatCycle() == null) {
+            c.setFlatCycles(new FlatComputeCycle(cells.length, numColumns), new FlatComputeCycle(cells.length, numColumns));
+        }
+    }
+
+    /**
+     * Sets the {@link ForkJoinPool} across which this temporal memory
+     * partitions its columns, allowing several temporal memories to share
+     * one pool. Setting null reverts to the pool implied by
+     * {@link CLA#getTmParallelism()}.
+     * 
+     * @param pool	the pool to compute on
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.forkJoinPool = pool;
+    }
+    
+    /**
+     * Returns the {@link ForkJoinPool} columns are partitioned across: the
+     * pool set, if any, or else the pool of {@link CLA#getTmParallelism()}
+     * threads shared by all temporal memories and poolers (see
+     * {@link ParallelRange#getSharedPool(int)}) if the parallelism is greater
+     * than 1. Returns null when computing serially.
+     * 
+     * @param c		the {@link CLA} memory
+     * @return	the pool to compute on, or null
+     */
+    public ForkJoinPool getForkJoinPool(CLA c) {
+        if (forkJoinPool == null && c.getTmParallelism() > 1) {
+            return ParallelRange.getSharedPool(c.getTmParallelism());
+        }
+        return forkJoinPool;
     }
 
     /////////////////////////// CORE FUNCTIONS /////////////////////////////
@@ -119,13 +171,57 @@ public class TemporalMemory {
      * @param connections	the connection memory
      * @param activeColumns direct proximal dendrite input
      * @param learn learning mode flag
-     * @param recyclableCycle an existing ComputeCycle to re-use, or null to create a new
      * @return {@link ComputeCycle} container for one cycle of inference values.
      */
     public ComputeCycle compute(CLA connections, int[] activeColumns, boolean learn) {
-        ComputeCycle result = computeFn(connections, connections.getColumnSet(activeColumns), new LinkedHashSet<>(connections.getPredictiveCells()),
-                new LinkedHashSet<>(connections.getActiveSegments()), new LinkedHashMap<>(connections.getActiveSynapsesForSegment()),
-                new LinkedHashSet<>(connections.getWinnerCells()), learn, null);
+        return compute(connections, activeColumns, learn, null);
+    }
+    
+    /**
+     * Feeds input record through TM, performing inferencing and learning,
+     * writing the results into a recycled {@link ComputeCycle}.
+     * <p>
+     * The previous cycle's state is read in place from the {@link CLA}, which
+     * refers to the sets of the last returned cycle, so that cycle must not be
+     * recycled for the next step. Alternating between two cycles, passing the
+     * one returned two steps earlier, gives a double buffered TM whose steps
+     * copy and allocate no cell or column collections:
+     * <pre>
+     * ComputeCycle previous = null, spare = null;
+     * for(int[] activeColumns : input) {
+     *     ComputeCycle current = tm.compute(c, activeColumns, true, spare);
+     *     spare = previous;
+     *     previous = current;
+     * }
+     * </pre>
+     *
+     * @param connections	the connection memory
+     * @param activeColumns direct proximal dendrite input
+     * @param learn learning mode flag
+     * @param recyclableCycle an existing ComputeCycle to re-use, or null to create a new
+     * @return {@link ComputeCycle} container for one cycle of inference values.
+     * @throws IllegalArgumentException if recyclableCycle holds the previous cycle's state
+     */
+    public ComputeCycle compute(CLA connections, int[] activeColumns, boolean learn, ComputeCycle recyclableCycle) {
+        if (connections.getConnectionStore() != null) {
+            return toComputeCycle(connections, computeFlat(connections, activeColumns, learn));
+        }
+        
+        if (recyclableCycle != null && (recyclableCycle.activeCells == connections.getActiveCells()
+                || recyclableCycle.predictiveCells == connections.getPredictiveCells())) {
+            throw new IllegalArgumentException("The last ComputeCycle holds the previous state and cannot be recycled");
+        }
+        
+        connections.setTMIterationNum(connections.getTMIterationNum() + 1);
+        
+        ForkJoinPool pool = getForkJoinPool(connections);
+        ComputeCycle result = pool == null
+                ? computeFn(connections, connections.getColumnSet(activeColumns), connections.getPredictiveCells(),
+                        connections.getActiveSegments(), connections.getActiveSynapsesForSegment(),
+                        connections.getWinnerCells(), learn, recyclableCycle)
+                : computeParallelFn(connections, connections.getColumnSet(activeColumns), connections.getPredictiveCells(),
+                        connections.getActiveSegments(), connections.getActiveSynapsesForSegment(),
+                        connections.getWinnerCells(), learn, recyclableCycle, pool);
 
         connections.setActiveCells(result.activeCells());
         connections.setWinnerCells(result.winnerCells());
@@ -165,11 +261,20 @@ public class TemporalMemory {
 
         if (learn) {
             learnOnSegments(c, prevActiveSegments, cycle.learningSegments, prevActiveSynapsesForSegment, cycle.winnerCells, prevWinnerCells);
+            
+            destroyLeastRecentlyUsedSegments(c, cycle.learningSegments);
         }
 
-        computeActiveSynapses(c, cycle.activeCells, cycle.activeSynapsesForSegment);
-
-        computePredictiveCells(c, cycle, cycle.activeSynapsesForSegment);
+        SynapseCounts counts = c.getSynapseCounts();
+        if (counts != null) {
+            computeActiveSynapseCounts(c, cycle.activeCells, counts);
+            
+            computePredictiveCells(c, cycle, counts);
+        } else {
+            computeActiveSynapses(c, cycle.activeCells, cycle.activeSynapsesForSegment);
+            
+            computePredictiveCells(c, cycle, cycle.activeSynapsesForSegment);
+        }
 
         return cycle;
     }
@@ -218,23 +323,22 @@ public class TemporalMemory {
     public void burstColumns(ComputeCycle cycle, CLA c, Set<Column> activeColumns, Set<Column> predictedColumns,
             Map<DistalDendrite, Set<Synapse>> prevActiveSynapsesForSegment) {
 
-        Set<Column> unpred = new LinkedHashSet<>(activeColumns);
-
-        unpred.removeAll(predictedColumns);
-        for (Column column : unpred) {
+        for (Column column : activeColumns) {
+            if (predictedColumns.contains(column)) {
+                continue;
+            }
+            
             List<Cell> cells = column.getCells();
             cycle.activeCells.addAll(cells);
 
-            Object[] bestSegmentAndCell = getBestMatchingCell(c, column, prevActiveSynapsesForSegment);
-            DistalDendrite bestSegment = (DistalDendrite) bestSegmentAndCell[0];
-            Cell bestCell = (Cell) bestSegmentAndCell[1];
-            if (bestCell != null) {
-                cycle.winnerCells.add(bestCell);
-            }
+            DistalDendrite bestSegment = getBestMatchingSegmentInColumn(c, column, prevActiveSynapsesForSegment);
+            Cell bestCell = getBestCell(c, column, bestSegment, c.getRandom());
+            cycle.winnerCells.add(bestCell);
 
             int segmentCounter = c.getSegmentCount();
             if (bestSegment == null) {
                 bestSegment = bestCell.createSegment(c, segmentCounter);
+                bestSegment.setLastUsedIteration(c.getTMIterationNum());
                 c.setSegmentCount(segmentCounter + 1);
             }
 
@@ -254,6 +358,9 @@ public class TemporalMemory {
      *   - if learning segment
      *   - add some synapses to the segment
      *     - subsample from prev winner cells
+     * - for each adapted segment
+     *   - destroy synapses whose permanence reached zero
+     *   - destroy the weakest synapses beyond maxSynapsesPerSegment
      * </pre>
      *
      * @param c the CLA state of the temporal memory
@@ -273,6 +380,7 @@ public class TemporalMemory {
 
         double permanenceIncrement = c.getPermanenceIncrement();
         double permanenceDecrement = c.getPermanenceDecrement();
+        SynapseCounts counts = c.getSynapseCounts();
 
         List<DistalDendrite> prevAndLearning = new ArrayList<>(prevActiveSegments);
         prevAndLearning.addAll(learningSegments);
@@ -280,16 +388,27 @@ public class TemporalMemory {
         for (DistalDendrite dd : prevAndLearning) {
             boolean isLearningSegment = learningSegments.contains(dd);
             boolean isFromWinnerCell = winnerCells.contains(dd.getParentCell());
-
-            Set<Synapse> activeSynapses = new LinkedHashSet<>(dd.getConnectedActiveSynapses(prevActiveSynapseSegments, 0));
-
             if (isLearningSegment || isFromWinnerCell) {
-                dd.adaptSegment(c, activeSynapses, permanenceIncrement, permanenceDecrement);
+                dd.setLastUsedIteration(c.getTMIterationNum());
+            }
+            int numActiveSynapses;
+
+            if (counts != null) {
+                numActiveSynapses = counts.getNumActiveSynapses(dd);
+                if (isLearningSegment || isFromWinnerCell) {
+                    dd.adaptSegment(c, counts.activeSynapses(), permanenceIncrement, permanenceDecrement);
+                }
+            } else {
+                Set<Synapse> activeSynapses = new LinkedHashSet<>(dd.getConnectedActiveSynapses(prevActiveSynapseSegments, 0));
+                numActiveSynapses = activeSynapses.size();
+                if (isLearningSegment || isFromWinnerCell) {
+                    dd.adaptSegment(c, activeSynapses, permanenceIncrement, permanenceDecrement);
+                }
             }
 
             int synapseCounter = c.getSynapseCount();
             if (isLearningSegment) {
-                int n = c.getMaxNewSynapseCount() - activeSynapses.size();
+                int n = c.getMaxNewSynapseCount() - numActiveSynapses;
                 Set<Cell> learnCells = dd.pickCellsToLearnOn(c, n, prevWinnerCells, c.getRandom());
                 for (Cell sourceCell : learnCells) {
                     dd.createSynapse(c, sourceCell, c.getInitialPermanence(), synapseCounter);
@@ -298,6 +417,80 @@ public class TemporalMemory {
                 c.setSynapseCount(synapseCounter);
             }
         }
+        
+        for (DistalDendrite dd : prevAndLearning) {
+            if (learningSegments.contains(dd) || winnerCells.contains(dd.getParentCell())) {
+                destroyWeakSynapses(c, dd);
+            }
+        }
+    }
+    
+    /**
+     * Destroys the segment's synapses whose permanence has decayed to zero,
+     * then its weakest synapses until it holds no more than maxSynapsesPerSegment.
+     * Of equally weak synapses the older is destroyed first.
+     * 
+     * @param c     the connections state of the temporal memory
+     * @param dd    the adapted segment
+     */
+    private void destroyWeakSynapses(CLA c, DistalDendrite dd) {
+        List<Synapse> synapses = c.getSynapses(dd);
+        if (dd.getPool() != null && dd.getPool().mayHoldZeroPermanences()) {
+            for (int i = synapses.size() - 1; i >= 0; i--) {
+                Synapse synapse = synapses.get(i);
+                if (synapse.getPermanence() <= 0) {
+                    dd.destroySynapse(c, synapse);
+                }
+            }
+        }
+        
+        for (int excess = synapses.size() - c.getMaxSynapsesPerSegment(); excess > 0; excess--) {
+            Synapse weakest = null;
+            for (Synapse synapse : synapses) {
+                if (weakest == null || synapse.getPermanence() < weakest.getPermanence()) {
+                    weakest = synapse;
+                }
+            }
+            dd.destroySynapse(c, weakest);
+        }
+    }
+    
+    /**
+     * Destroys the least recently active segments of the cells owning the
+     * learning segments until none holds more than maxSegmentsPerCell.
+     * Only cells which were given a segment during this cycle can exceed the
+     * limit. Of equally recent segments the older is destroyed first, so a
+     * segment created during this cycle is kept. A destroyed segment which
+     * was itself learning is removed from the learning segments.
+     * 
+     * @param c                 the connections state of the temporal memory
+     * @param learningSegments  the segments marked as learning during this cycle
+     */
+    private void destroyLeastRecentlyUsedSegments(CLA c, Set<DistalDendrite> learningSegments) {
+        int maxSegments = c.getMaxSegmentsPerCell();
+        List<DistalDendrite> destroyed = null;
+        for (DistalDendrite learningSegment : learningSegments) {
+            Cell cell = learningSegment.getParentCell();
+            List<DistalDendrite> segments = cell.getSegments(c);
+            while (segments.size() > maxSegments) {
+                DistalDendrite leastRecentlyUsed = null;
+                for (DistalDendrite dd : segments) {
+                    if (leastRecentlyUsed == null || dd.getLastUsedIteration() < leastRecentlyUsed.getLastUsedIteration()) {
+                        leastRecentlyUsed = dd;
+                    }
+                }
+                cell.destroySegment(c, leastRecentlyUsed);
+                if (learningSegments.contains(leastRecentlyUsed)) {
+                    if (destroyed == null) {
+                        destroyed = new ArrayList<>();
+                    }
+                    destroyed.add(leastRecentlyUsed);
+                }
+            }
+        }
+        if (destroyed != null) {
+            learningSegments.removeAll(destroyed);
+        }
     }
 
     /**
@@ -317,12 +510,82 @@ public class TemporalMemory {
         for (DistalDendrite dd : activeDendrites.keySet()) {
             Set<Synapse> connectedActive = dd.getConnectedActiveSynapses(activeDendrites, c.getConnectedPermanence());
             if (connectedActive.size() >= c.getActivationThreshold()) {
+                dd.setLastUsedIteration(c.getTMIterationNum());
                 cycle.activeSegments.add(dd);
                 cycle.predictiveCells.add(dd.getParentCell());
             }
         }
     }
 
+    /**
+     * Phase 4 in counting mode: marks the segments whose count of active
+     * connected synapses reaches the activation threshold as active and
+     * their cells as predictive.
+     *
+     * @param c the Connections state of the temporal memory
+     * @param cycle	the state during the current compute cycle
+     * @param counts    the active synapse counts of the current cycle
+     */
+    public void computePredictiveCells(CLA c, ComputeCycle cycle, SynapseCounts counts) {
+        double activationThreshold = c.getActivationThreshold();
+        for (int i = 0; i < counts.numTouched; i++) {
+            DistalDendrite dd = counts.touched[i];
+            if (counts.getNumConnectedActiveSynapses(dd) >= activationThreshold) {
+                dd.setLastUsedIteration(c.getTMIterationNum());
+                cycle.activeSegments.add(dd);
+                cycle.predictiveCells.add(dd.getParentCell());
+            }
+        }
+    }
+    
+    /**
+     * Counting mode counterpart of {@link #computeActiveSynapses(CLA, Set, Map)}:
+     * tallies, per segment, the synapses activated by the active cells, those
+     * of them with a non-zero permanence and those of them which are connected,
+     * without collecting the synapses.
+     *
+     * @param c the connections state of the temporal memory
+     * @param cellsActive   the active cells
+     * @param counts        the counts to overwrite
+     */
+    public void computeActiveSynapseCounts(CLA c, Set<Cell> cellsActive, SynapseCounts counts) {
+        counts.clear();
+        counts.synapseWatermark = c.getSynapseCount();
+        double connectedPermanence = c.getConnectedPermanence();
+        
+        for (Cell cell : cellsActive) {
+            counts.activeCells.add(cell.getIndex());
+            for (Synapse s : c.getReceptorSynapses(cell, false)) {
+                countActiveSynapse(counts, s, s.getPermanence(), connectedPermanence);
+            }
+        }
+    }
+    
+    /**
+     * Adds an active synapse to the counts of its segment
+     * 
+     * @param counts        the counts being computed
+     * @param s             the active synapse
+     * @param permanence    the synapse's permanence
+     * @param connectedPermanence   the permanence at which synapses are connected
+     */
+    private void countActiveSynapse(SynapseCounts counts, Synapse s, double permanence, double connectedPermanence) {
+        DistalDendrite dd = (DistalDendrite) s.getSegment();
+        int index = counts.slotOf(dd);
+        if (counts.active[index]++ == 0) {
+            if (counts.numTouched == counts.touched.length) {
+                counts.touched = Arrays.copyOf(counts.touched, counts.numTouched * 2);
+            }
+            counts.touched[counts.numTouched++] = dd;
+        }
+        if (permanence > 0) {
+            counts.matching[index]++;
+        }
+        if (permanence >= connectedPermanence) {
+            counts.connected[index]++;
+        }
+    }
+    
     /**
      * Forward propagates activity from active cells to the synapses that touch
      * them, to determine which synapses are active.
@@ -341,10 +604,10 @@ public class TemporalMemory {
         }
         
         for (Cell cell : cellsActive) {
-            for (Synapse s : cell.getReceptorSynapses(c)) {
+            for (Synapse s : c.getReceptorSynapses(cell, false)) {
                 Set<Synapse> set = null;
                 if ((set = activesSynapses.get(s.getSegment())) == null) {
-                    activesSynapses.put((DistalDendrite) s.getSegment(), set = new LinkedHashSet<>());
+                    activesSynapses.put((DistalDendrite) s.getSegment(), set = new ActiveSynapseSet());
                 }
                 set.add(s);
             }
@@ -375,10 +638,770 @@ public class TemporalMemory {
         cla.getActiveSegments().clear();
         cla.getActiveSynapsesForSegment().clear();
         cla.getWinnerCells().clear();
+        if (cla.getSynapseCounts() != null) {
+            cla.getSynapseCounts().clear();
+        }
+        if (cla.getFlatCycle() != null) {
+            cla.getFlatCycle().clear();
+        }
         
         init(cla); //TODO find if this isnt necessary sometimes
     }
 
+    /**
+     * Restores the state of the last cycle from its active cells, winner
+     * cells and predicted columns, as saved after a compute, recomputing the
+     * active segments and predictive cells from the current connections,
+     * whether objects or a {@link ConnectionStore}, exactly as that compute did. The connections and the cycle number must
+     * already be those following the saved compute.
+     *
+     * @param c                 the connections state of the temporal memory
+     * @param activeCells       the indexes of the active cells, in the order they were activated
+     * @param winnerCells       the indexes of the winner cells, in the order they were chosen
+     * @param predictedColumns  the indexes of the predicted columns
+     * @return  the restored cycle, which holds the previous state for the next compute
+     */
+    public ComputeCycle restoreCycle(CLA c, int[] activeCells, int[] winnerCells, int[] predictedColumns) {
+        ConnectionStore store = c.getConnectionStore();
+        if (store != null) {
+            FlatComputeCycle flat = c.getFlatCycle();
+            flat.clear();
+            for (int cell : activeCells) flat.activeCells.add(cell);
+            for (int cell : winnerCells) flat.winnerCells.add(cell);
+            for (int column : predictedColumns) flat.predictedColumns.add(column);
+            computeActiveSynapsesFlat(store, flat);
+            computePredictiveCellsFlat(c, store, flat);
+            return toComputeCycle(c, flat);
+        }
+        
+        ComputeCycle cycle = new ComputeCycle();
+        cycle.activeCells.addAll(c.getCellSet(activeCells));
+        cycle.winnerCells.addAll(c.getCellSet(winnerCells));
+        cycle.predictedColumns.addAll(c.getColumnSet(predictedColumns));
+
+        SynapseCounts counts = c.getSynapseCounts();
+        if (counts != null) {
+            computeActiveSynapseCounts(c, cycle.activeCells, counts);
+            computePredictiveCells(c, cycle, counts);
+        } else {
+            computeActiveSynapses(c, cycle.activeCells, cycle.activeSynapsesForSegment);
+            computePredictiveCells(c, cycle, cycle.activeSynapsesForSegment);
+        }
+
+        c.setActiveCells(cycle.activeCells());
+        c.setWinnerCells(cycle.winnerCells());
+        c.setPredictiveCells(cycle.predictiveCells());
+        c.setPredictedColumns(cycle.predictedColumns());
+        c.setActiveSegments(cycle.activeSegments());
+        c.setLearningSegments(cycle.learningSegments());
+        c.setActiveSynapsesForSegment(cycle.activeSynapsesForSegment());
+
+        return cycle;
+    }
+
+    /////////////////////////// PARALLEL COMPUTE ///////////////////////////
+    /**
+     * Column partitioned version of {@link #computeFn(CLA, Set, Set, Set, Map, Set, boolean, ComputeCycle)}
+     * which spreads the work of each phase across the specified pool:
+     * <ul>
+     *  <li>phase 1 activates the correctly predicted cells as in the serial
+     *  algorithm; phase 2 finds each bursting column's best matching segment
+     *  in parallel, then picks the winner cells and records them in column
+     *  order;</li>
+     *  <li>phase 3 adapts the previously active and learning segments in
+     *  parallel, then picks the cells each learning segment learns on and
+     *  grows the synapses in order;</li>
+     *  <li>phase 4 gathers the synapses of the active cells, and in counting
+     *  mode their permanences, in parallel, then merges them per segment in
+     *  active cell order.</li>
+     * </ul>
+     * Every structural change (new segments and synapses, destroyed ones) is
+     * made on the calling thread, and so is every draw from the {@link CLA}'s
+     * generator, in the order of the serial algorithm. A segment which is both
+     * previously active and learning is adapted and grown twice, as in
+     * {@link #learnOnSegments(CLA, Set, Set, Map, Set, Set)}: its second 
+     * adaptation is made on the calling thread after its first growth. The
+     * results are therefore those of the serial algorithm, whatever the
+     * number of threads.
+     *
+     * @param c {@link CLA} object containing state of memory members
+     * @param activeColumns proximal dendrite input
+     * @param prevPredictiveCells cells predicting in t-1
+     * @param prevActiveSegments active segments in t-1
+     * @param prevActiveSynapsesForSegment {@link Synapse}s active in t-1
+     * @param prevWinnerCells ` previous winners
+     * @param learn whether mode is "learning" mode
+     * @param cycle an existing ComputeCycle to re-use, or null to create a new
+     * @param pool the pool to compute on, or null to run the same algorithm on the calling thread
+     * @return
+     */
+    public ComputeCycle computeParallelFn(final CLA c, Set<Column> activeColumns, Set<Cell> prevPredictiveCells, Set<DistalDendrite> prevActiveSegments,
+            final Map<DistalDendrite, Set<Synapse>> prevActiveSynapsesForSegment, final Set<Cell> prevWinnerCells, boolean learn, ComputeCycle cycle, ForkJoinPool pool) {
+
+        if (cycle == null)
+            cycle = new ComputeCycle();
+        else
+            cycle.clear();
+        
+        //Phase 1 visits only the previously predictive cells, so it stays serial
+        activateCorrectlyPredictiveCells(cycle, prevPredictiveCells, activeColumns);
+        
+        //Phase 2: match the bursting columns in parallel, pick the winners in order
+        final Set<Column> predictedColumns = cycle.predictedColumns;
+        final Column[] columns = activeColumns.toArray(new Column[activeColumns.size()]);
+        final DistalDendrite[] bestSegments = new DistalDendrite[columns.length];
+        ParallelRange.forEach(pool, columns.length, 1, new ParallelRange.Body() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    if (!predictedColumns.contains(columns[i])) {
+                        bestSegments[i] = getBestMatchingSegmentInColumn(c, columns[i], prevActiveSynapsesForSegment);
+                    }
+                }
+            }
+        });
+        
+        for (int i = 0; i < columns.length; i++) {
+            if (predictedColumns.contains(columns[i])) {
+                continue;
+            }
+            
+            cycle.activeCells.addAll(columns[i].getCells());
+            DistalDendrite bestSegment = bestSegments[i];
+            Cell bestCell = getBestCell(c, columns[i], bestSegment, c.getRandom());
+            cycle.winnerCells.add(bestCell);
+            
+            if (bestSegment == null) {
+                int segmentCounter = c.getSegmentCount();
+                bestSegment = bestCell.createSegment(c, segmentCounter);
+                bestSegment.setLastUsedIteration(c.getTMIterationNum());
+                c.setSegmentCount(segmentCounter + 1);
+            }
+            
+            cycle.learningSegments.add(bestSegment);
+        }
+        
+        //Phase 3: adapt in parallel, pick and grow in order
+        if (learn) {
+            final List<DistalDendrite> prevAndLearning = new ArrayList<>(prevActiveSegments);
+            prevAndLearning.addAll(cycle.learningSegments);
+            final int numPrevActive = prevActiveSegments.size();
+            final Set<DistalDendrite> prevActive = prevActiveSegments;
+            final boolean[] adapted = new boolean[prevAndLearning.size()];
+            final int[] numActiveSynapses = new int[prevAndLearning.size()];
+            final Set<DistalDendrite> learningSegments = cycle.learningSegments;
+            final Set<Cell> winnerCells = cycle.winnerCells;
+            ParallelRange.forEach(pool, prevAndLearning.size(), 1, new ParallelRange.Body() {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        DistalDendrite dd = prevAndLearning.get(i);
+                        //A second visit must follow the segment's first growth
+                        if (i >= numPrevActive && prevActive.contains(dd)) continue;
+                        adapted[i] = learningSegments.contains(dd) || winnerCells.contains(dd.getParentCell());
+                        numActiveSynapses[i] = adaptSegmentIfLearning(c, dd, adapted[i], prevActiveSynapsesForSegment);
+                    }
+                }
+            });
+            
+            int synapseCounter = c.getSynapseCount();
+            for (int i = 0; i < prevAndLearning.size(); i++) {
+                DistalDendrite dd = prevAndLearning.get(i);
+                if (i >= numPrevActive && prevActive.contains(dd)) {
+                    adapted[i] = true;
+                    numActiveSynapses[i] = adaptSegmentIfLearning(c, dd, true, prevActiveSynapsesForSegment);
+                }
+                if (learningSegments.contains(dd)) {
+                    Set<Cell> learnCells = dd.pickCellsToLearnOn(c, c.getMaxNewSynapseCount() - numActiveSynapses[i],
+                            prevWinnerCells, c.getRandom());
+                    for (Cell sourceCell : learnCells) {
+                        dd.createSynapse(c, sourceCell, c.getInitialPermanence(), synapseCounter++);
+                    }
+                }
+            }
+            c.setSynapseCount(synapseCounter);
+            
+            for (int i = 0; i < prevAndLearning.size(); i++) {
+                if (adapted[i]) {
+                    destroyWeakSynapses(c, prevAndLearning.get(i));
+                }
+            }
+            
+            destroyLeastRecentlyUsedSegments(c, cycle.learningSegments);
+        }
+        
+        //Phase 4: gather in parallel, merge in order
+        SynapseCounts counts = c.getSynapseCounts();
+        computeActiveSynapsesParallel(c, cycle.activeCells, counts, cycle.activeSynapsesForSegment, pool);
+        if (counts != null) {
+            computePredictiveCells(c, cycle, counts);
+        } else {
+            computePredictiveCells(c, cycle, cycle.activeSynapsesForSegment);
+        }
+
+        return cycle;
+    }
+    
+    /**
+     * Returns the number of the segment's previously active synapses and, if
+     * the segment is learning, adapts it. Touches only the segment's own
+     * synapses, so distinct segments may be processed concurrently.
+     * 
+     * @param c                 the connections state of the temporal memory
+     * @param dd                the segment
+     * @param adapt             whether to adapt the segment
+     * @param prevActiveSynapseSegments the synapses active in t-1, unless in counting mode
+     * @return  the number of previously active synapses
+     */
+    private int adaptSegmentIfLearning(CLA c, DistalDendrite dd, boolean adapt, Map<DistalDendrite, Set<Synapse>> prevActiveSynapseSegments) {
+        SynapseCounts counts = c.getSynapseCounts();
+        if (adapt) {
+            dd.setLastUsedIteration(c.getTMIterationNum());
+        }
+        if (counts != null) {
+            if (adapt) {
+                dd.adaptSegment(c, counts.activeSynapses(), c.getPermanenceIncrement(), c.getPermanenceDecrement());
+            }
+            return counts.getNumActiveSynapses(dd);
+        }
+        
+        Set<Synapse> activeSynapses = dd.getConnectedActiveSynapses(prevActiveSynapseSegments, 0);
+        if (adapt) {
+            dd.adaptSegment(c, activeSynapses, c.getPermanenceIncrement(), c.getPermanenceDecrement());
+        }
+        return activeSynapses.size();
+    }
+    
+    /**
+     * Parallel counterpart of {@link #computeActiveSynapseCounts(CLA, Set, SynapseCounts)}
+     * and {@link #computeActiveSynapses(CLA, Set, Map)}: the synapses of the
+     * active cells, with their permanences when counting, are copied into
+     * one array in parallel, each cell writing its own slice, then merged into
+     * the counts or map in active cell order, giving the same result as the
+     * serial methods.
+     *
+     * @param c             the connections state of the temporal memory
+     * @param cellsActive   the active cells
+     * @param counts        the counts to overwrite, or null when collecting sets
+     * @param activeSynapses    the map to overwrite when counts is null
+     * @param pool          the pool to gather on, or null
+     */
+    private void computeActiveSynapsesParallel(final CLA c, Set<Cell> cellsActive, SynapseCounts counts,
+            Map<DistalDendrite, Set<Synapse>> activeSynapses, ForkJoinPool pool) {
+        
+        final Cell[] cells = cellsActive.toArray(new Cell[cellsActive.size()]);
+        final int[] offsets = new int[cells.length + 1];
+        for (int i = 0; i < cells.length; i++) {
+            offsets[i + 1] = offsets[i] + c.getReceptorSynapses(cells[i], false).size();
+        }
+        
+        final Synapse[] synapses = new Synapse[offsets[cells.length]];
+        final double[] permanences = counts != null ? new double[synapses.length] : null;
+        ParallelRange.forEach(pool, cells.length, MIN_CELLS_PER_TASK, new ParallelRange.Body() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int j = offsets[i];
+                    for (Synapse s : c.getReceptorSynapses(cells[i], false)) {
+                        if (permanences != null) {
+                            permanences[j] = s.getPermanence();
+                        }
+                        synapses[j++] = s;
+                    }
+                }
+            }
+        });
+        
+        if (counts != null) {
+            counts.clear();
+            counts.synapseWatermark = c.getSynapseCount();
+            for (Cell cell : cells) {
+                counts.activeCells.add(cell.getIndex());
+            }
+            double connectedPermanence = c.getConnectedPermanence();
+            for (int i = 0; i < synapses.length; i++) {
+                countActiveSynapse(counts, synapses[i], permanences[i], connectedPermanence);
+            }
+        } else {
+            activeSynapses.clear();
+            for (Synapse s : synapses) {
+                Set<Synapse> set = null;
+                if ((set = activeSynapses.get(s.getSegment())) == null) {
+                    activeSynapses.put((DistalDendrite) s.getSegment(), set = new ActiveSynapseSet());
+                }
+                set.add(s);
+            }
+        }
+    }
+    
+    /////////////////////////// FLAT CONNECTIONS ///////////////////////////
+    /**
+     * Feeds input record through a TM whose distal connections are held in
+     * the {@link CLA}'s {@link ConnectionStore}. Runs the same four phases as
+     * {@link #computeFn(CLA, Set, Set, Set, Map, Set, boolean, ComputeCycle)},
+     * in the same order and with the same random draws, but over int indexes:
+     * the previous and current cycle state are two {@link FlatComputeCycle}s
+     * which are swapped rather than copied.
+     *
+     * @param c             the {@link CLA} memory, initialized with flat connections
+     * @param activeColumns direct proximal dendrite input
+     * @param learn         learning mode flag
+     * @return  the {@link FlatComputeCycle} holding this step's state; it is
+     *          reused two steps later
+     */
+    public FlatComputeCycle computeFlat(CLA c, int[] activeColumns, boolean learn) {
+        ConnectionStore store = c.getConnectionStore();
+        if (learn && store.isReadOnly()) {
+            throw new IllegalStateException("The connection store is read-only and cannot learn");
+        }
+        FlatComputeCycle prev = c.getFlatCycle();
+        FlatComputeCycle cycle = c.getSpareFlatCycle();
+        cycle.clear();
+        c.setTMIterationNum(c.getTMIterationNum() + 1);
+        
+        for (int column : activeColumns) {
+            cycle.activeColumns.add(column);
+        }
+        
+        int cellsPerColumn = c.getCellsPerColumn();
+        OrderedIndexSet prevPredictiveCells = prev.predictiveCells;
+        for (int i = 0; i < prevPredictiveCells.size(); i++) {
+            int cell = prevPredictiveCells.get(i);
+            int column = cell / cellsPerColumn;
+            if (cycle.activeColumns.contains(column)) {
+                cycle.activeCells.add(cell);
+                cycle.winnerCells.add(cell);
+                cycle.predictedColumns.add(column);
+            }
+        }
+        
+        burstColumnsFlat(c, store, cycle, prev);
+        
+        if (learn) {
+            learnOnSegmentsFlat(c, store, cycle, prev);
+            
+            destroyLeastRecentlyUsedSegmentsFlat(c, store, cycle);
+        }
+        
+        computeActiveSynapsesFlat(store, cycle);
+        
+        computePredictiveCellsFlat(c, store, cycle);
+        
+        c.setFlatCycles(cycle, prev);
+        
+        return cycle;
+    }
+    
+    /**
+     * Phase 2 over flat connections: activates every cell of each unpredicted
+     * active column, picks the winner cell and marks its best matching (or
+     * new) segment as learning.
+     * 
+     * @param c         the {@link CLA} memory
+     * @param store     the distal connections
+     * @param cycle     the state being computed
+     * @param prev      the state of the previous cycle
+     */
+    private void burstColumnsFlat(CLA c, ConnectionStore store, FlatComputeCycle cycle, FlatComputeCycle prev) {
+        int cellsPerColumn = c.getCellsPerColumn();
+        for (int i = 0; i < cycle.activeColumns.size(); i++) {
+            int column = cycle.activeColumns.get(i);
+            if (cycle.predictedColumns.contains(column)) {
+                continue;
+            }
+            
+            int firstCell = column * cellsPerColumn;
+            int bestCell = -1;
+            int bestSegment = -1;
+            int maxSynapses = 0;
+            for (int cell = firstCell; cell < firstCell + cellsPerColumn; cell++) {
+                cycle.activeCells.add(cell);
+                
+                int segment = getBestMatchingSegmentFlat(c, store, cell, prev);
+                if (segment != -1 && prev.getNumActiveSynapses(segment) > maxSynapses) {
+                    maxSynapses = prev.getNumActiveSynapses(segment);
+                    bestCell = cell;
+                    bestSegment = segment;
+                }
+            }
+            
+            if (bestCell == -1) {
+                bestCell = getLeastUsedCellFlat(store, firstCell, cellsPerColumn, c.getRandom());
+            }
+            cycle.winnerCells.add(bestCell);
+            
+            //A read-only store infers without the new segment, which would hold no synapses
+            if (store.isReadOnly() && bestSegment == -1) {
+                continue;
+            }
+            if (bestSegment == -1) {
+                bestSegment = store.createSegment(bestCell);
+                store.setLastUsedIteration(bestSegment, c.getTMIterationNum());
+            }
+            cycle.learningSegments.add(bestSegment);
+        }
+    }
+    
+    /**
+     * Returns the segment on the cell with the most previously active synapses
+     * of non-zero permanence, as long as there are at least minThreshold of
+     * them; ties go to the later segment. Returns -1 if no segment qualifies.
+     * 
+     * @param c         the {@link CLA} memory
+     * @param store     the distal connections
+     * @param cell      the cell index
+     * @param prev      the state of the previous cycle
+     * @return  the best matching segment id or -1
+     */
+    private int getBestMatchingSegmentFlat(CLA c, ConnectionStore store, int cell, FlatComputeCycle prev) {
+        double maxSynapses = c.getMinThreshold();
+        int bestSegment = -1;
+        int[] segments = store.getSegments(cell);
+        for (int i = 0, n = store.getNumSegments(cell); i < n; i++) {
+            int segment = segments[i];
+            int slot = segment < prev.segmentSlots.length ? prev.segmentSlots[segment] : -1;
+            int activation = 0;
+            if (slot != -1) {
+                for (int j = prev.touchedOffsets[slot]; j < prev.touchedOffsets[slot + 1]; j++) {
+                    if (store.getPermanence(prev.activeSynapses[j]) > 0) {
+                        activation++;
+                    }
+                }
+            }
+            if (activation >= maxSynapses) {
+                maxSynapses = activation;
+                bestSegment = segment;
+            }
+        }
+        return bestSegment;
+    }
+    
+    /**
+     * Returns one of the column's cells with the fewest segments, drawn at random
+     * 
+     * @param store             the distal connections
+     * @param firstCell         the index of the column's first cell
+     * @param cellsPerColumn    the number of cells in the column
+     * @param random            the random number generator
+     * @return  the chosen cell's index
+     * @see Column#getLeastUsedCell(CLA, java.util.Random)
+     */
+    private int getLeastUsedCellFlat(ConnectionStore store, int firstCell, int cellsPerColumn, Random random) {
+        int minNumSegments = Integer.MAX_VALUE;
+        int numLeastUsed = 0;
+        for (int cell = firstCell; cell < firstCell + cellsPerColumn; cell++) {
+            int numSegments = store.getNumSegments(cell);
+            if (numSegments < minNumSegments) {
+                minNumSegments = numSegments;
+                numLeastUsed = 0;
+            }
+            if (numSegments == minNumSegments) {
+                numLeastUsed++;
+            }
+        }
+        
+        int index = random.nextInt(numLeastUsed);
+        for (int cell = firstCell; cell < firstCell + cellsPerColumn; cell++) {
+            if (store.getNumSegments(cell) == minNumSegments && index-- == 0) {
+                return cell;
+            }
+        }
+        throw new IllegalStateException("No least used cell in column starting at " + firstCell);
+    }
+    
+    /**
+     * Phase 3 over flat connections: adapts the previously active and the
+     * learning segments, grows synapses to previous winner cells on the
+     * learning segments, then trims the adapted segments' weak synapses.
+     * 
+     * @param c         the {@link CLA} memory
+     * @param store     the distal connections
+     * @param cycle     the state being computed
+     * @param prev      the state of the previous cycle
+     */
+    private void learnOnSegmentsFlat(CLA c, ConnectionStore store, FlatComputeCycle cycle, FlatComputeCycle prev) {
+        int numPrevActive = prev.activeSegments.size();
+        for (int i = 0; i < numPrevActive + cycle.learningSegments.size(); i++) {
+            int segment = i < numPrevActive ? prev.activeSegments.get(i) : cycle.learningSegments.get(i - numPrevActive);
+            boolean isLearningSegment = cycle.learningSegments.contains(segment);
+            boolean isFromWinnerCell = cycle.winnerCells.contains(store.getCellForSegment(segment));
+            
+            int stamp = cycle.nextMarkStamp(store.getSynapseCapacity());
+            int numActiveSynapses = 0;
+            int slot = segment < prev.segmentSlots.length ? prev.segmentSlots[segment] : -1;
+            if (slot != -1) {
+                for (int j = prev.touchedOffsets[slot]; j < prev.touchedOffsets[slot + 1]; j++) {
+                    cycle.synapseMarks[prev.activeSynapses[j]] = stamp;
+                    numActiveSynapses++;
+                }
+            }
+            
+            if (isLearningSegment || isFromWinnerCell) {
+                store.setLastUsedIteration(segment, c.getTMIterationNum());
+                adaptSegmentFlat(c, store, cycle, segment, stamp);
+            }
+            
+            if (isLearningSegment) {
+                int n = c.getMaxNewSynapseCount() - numActiveSynapses;
+                growSynapsesFlat(c, store, cycle, prev, segment, n);
+            }
+        }
+        
+        for (int i = 0; i < numPrevActive + cycle.learningSegments.size(); i++) {
+            int segment = i < numPrevActive ? prev.activeSegments.get(i) : cycle.learningSegments.get(i - numPrevActive);
+            if (cycle.learningSegments.contains(segment) || cycle.winnerCells.contains(store.getCellForSegment(segment))) {
+                destroyWeakSynapsesFlat(c, store, segment);
+            }
+        }
+    }
+    
+    /**
+     * Destroys the segment's synapses whose permanence has decayed to zero,
+     * then its weakest synapses until it holds no more than maxSynapsesPerSegment.
+     * 
+     * @param c         the {@link CLA} memory
+     * @param store     the distal connections
+     * @param segment   the adapted segment id
+     * @see #destroyWeakSynapses(CLA, DistalDendrite)
+     */
+    private void destroyWeakSynapsesFlat(CLA c, ConnectionStore store, int segment) {
+        int[] synapses = store.getSynapses(segment);
+        for (int i = store.getNumSynapses(segment) - 1; i >= 0; i--) {
+            if (store.getPermanence(synapses[i]) <= 0) {
+                store.destroySynapse(synapses[i]);
+            }
+        }
+        
+        for (int excess = store.getNumSynapses(segment) - c.getMaxSynapsesPerSegment(); excess > 0; excess--) {
+            int weakest = synapses[0];
+            for (int i = 1, n = store.getNumSynapses(segment); i < n; i++) {
+                if (store.getPermanence(synapses[i]) < store.getPermanence(weakest)) {
+                    weakest = synapses[i];
+                }
+            }
+            store.destroySynapse(weakest);
+        }
+    }
+    
+    /**
+     * Destroys the least recently active segments of the cells owning the
+     * learning segments until none holds more than maxSegmentsPerCell,
+     * removing destroyed segments from the learning segments.
+     * 
+     * @param c         the {@link CLA} memory
+     * @param store     the distal connections
+     * @param cycle     the state being computed
+     * @see #destroyLeastRecentlyUsedSegments(CLA, Set)
+     */
+    private void destroyLeastRecentlyUsedSegmentsFlat(CLA c, ConnectionStore store, FlatComputeCycle cycle) {
+        int maxSegments = c.getMaxSegmentsPerCell();
+        for (int i = 0; i < cycle.learningSegments.size(); i++) {
+            int cell = store.getCellForSegment(cycle.learningSegments.get(i));
+            boolean removed = false;
+            while (store.getNumSegments(cell) > maxSegments) {
+                int[] segments = store.getSegments(cell);
+                int leastRecentlyUsed = segments[0];
+                for (int j = 1, n = store.getNumSegments(cell); j < n; j++) {
+                    if (store.getLastUsedIteration(segments[j]) < store.getLastUsedIteration(leastRecentlyUsed)) {
+                        leastRecentlyUsed = segments[j];
+                    }
+                }
+                store.destroySegment(leastRecentlyUsed);
+                removed |= cycle.learningSegments.remove(leastRecentlyUsed);
+            }
+            if (removed) {
+                //Positions have shifted; the cells already seen are within the limit
+                i = -1;
+            }
+        }
+    }
+    
+    /**
+     * Increments the permanences of the segment's synapses marked with the
+     * stamp, decrements all others, and clips them to [0, 1].
+     * 
+     * @param c         the {@link CLA} memory
+     * @param store     the distal connections
+     * @param cycle     the cycle holding the synapse marks
+     * @param segment   the segment id
+     * @param stamp     the mark of the previously active synapses
+     */
+    private void adaptSegmentFlat(CLA c, ConnectionStore store, FlatComputeCycle cycle, int segment, int stamp) {
+        double permanenceIncrement = c.getPermanenceIncrement();
+        double permanenceDecrement = c.getPermanenceDecrement();
+        int[] synapses = store.getSynapses(segment);
+        for (int i = 0, n = store.getNumSynapses(segment); i < n; i++) {
+            int synapse = synapses[i];
+            double permanence = store.getPermanence(synapse);
+            if (cycle.synapseMarks[synapse] == stamp) {
+                permanence += permanenceIncrement;
+            } else {
+                permanence -= permanenceDecrement;
+            }
+            store.setPermanence(synapse, Math.max(0, Math.min(1.0, permanence)));
+        }
+    }
+    
+    /**
+     * Grows synapses on the segment to up to n previous winner cells which it
+     * is not yet connected to, picked at random by a partial Fisher-Yates shuffle.
+     * 
+     * @param c         the {@link CLA} memory
+     * @param store     the distal connections
+     * @param cycle     the cycle holding the scratch buffers
+     * @param prev      the state of the previous cycle
+     * @param segment   the segment id
+     * @param n         the maximum number of synapses to grow
+     * @see DistalDendrite#pickCellsToLearnOn(CLA, int, Set, Random)
+     */
+    private void growSynapsesFlat(CLA c, ConnectionStore store, FlatComputeCycle cycle, FlatComputeCycle prev, int segment, int n) {
+        int stamp = cycle.nextMarkStamp(store.getSynapseCapacity());
+        int[] synapses = store.getSynapses(segment);
+        for (int i = 0, num = store.getNumSynapses(segment); i < num; i++) {
+            cycle.cellMarks[store.getPresynapticCell(synapses[i])] = stamp;
+        }
+        
+        OrderedIndexSet prevWinnerCells = prev.winnerCells;
+        if (cycle.candidates.length < prevWinnerCells.size()) {
+            cycle.candidates = new int[prevWinnerCells.size()];
+        }
+        int[] candidates = cycle.candidates;
+        int numCandidates = 0;
+        for (int i = 0; i < prevWinnerCells.size(); i++) {
+            int cell = prevWinnerCells.get(i);
+            if (cycle.cellMarks[cell] != stamp) {
+                candidates[numCandidates++] = cell;
+            }
+        }
+        
+        Random random = c.getRandom();
+        double initialPermanence = c.getInitialPermanence();
+        n = Math.min(n, numCandidates);
+        for (int x = 0; x < n; x++) {
+            int i = x + random.nextInt(numCandidates - x);
+            int picked = candidates[i];
+            candidates[i] = candidates[x];
+            candidates[x] = picked;
+            store.createSynapse(segment, picked, initialPermanence);
+        }
+    }
+    
+    /**
+     * Groups the synapses activated by the cycle's active cells by segment,
+     * keeping segments in the order they are first touched.
+     * 
+     * @param store     the distal connections
+     * @param cycle     the state being computed
+     */
+    private void computeActiveSynapsesFlat(ConnectionStore store, FlatComputeCycle cycle) {
+        cycle.ensureSegmentCapacity(store.getSegmentCapacity());
+        int[] slots = cycle.segmentSlots;
+        
+        //Count the active synapses of each touched segment
+        int numActiveSynapses = 0;
+        for (int i = 0; i < cycle.activeCells.size(); i++) {
+            int cell = cycle.activeCells.get(i);
+            int[] receptors = store.getReceptorSynapses(cell);
+            for (int j = 0, n = store.getNumReceptorSynapses(cell); j < n; j++) {
+                int segment = store.getSegmentForSynapse(receptors[j]);
+                int slot = slots[segment];
+                if (slot == -1) {
+                    slot = slots[segment] = cycle.numTouchedSegments++;
+                    if (slot == cycle.touchedSegments.length) {
+                        cycle.touchedSegments = Arrays.copyOf(cycle.touchedSegments, slot * 2);
+                        cycle.touchedOffsets = Arrays.copyOf(cycle.touchedOffsets, slot * 2 + 1);
+                    }
+                    cycle.touchedSegments[slot] = segment;
+                    cycle.touchedOffsets[slot + 1] = 0;
+                }
+                cycle.touchedOffsets[slot + 1]++;
+                numActiveSynapses++;
+            }
+        }
+        
+        //Turn the counts into offsets, then place each synapse
+        int[] offsets = cycle.touchedOffsets;
+        offsets[0] = 0;
+        for (int i = 0; i < cycle.numTouchedSegments; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        if (cycle.activeSynapses.length < numActiveSynapses) {
+            cycle.activeSynapses = new int[Math.max(numActiveSynapses, cycle.activeSynapses.length * 2)];
+        }
+        for (int i = cycle.activeCells.size() - 1; i >= 0; i--) {
+            int cell = cycle.activeCells.get(i);
+            int[] receptors = store.getReceptorSynapses(cell);
+            for (int j = store.getNumReceptorSynapses(cell) - 1; j >= 0; j--) {
+                int slot = slots[store.getSegmentForSynapse(receptors[j])];
+                cycle.activeSynapses[--offsets[slot + 1]] = receptors[j];
+            }
+        }
+        //Each offsets[i + 1] now holds the start of segment i
+        System.arraycopy(offsets, 1, offsets, 0, cycle.numTouchedSegments);
+        offsets[cycle.numTouchedSegments] = numActiveSynapses;
+    }
+    
+    /**
+     * Phase 4 over flat connections: marks the segments with at least
+     * activationThreshold active connected synapses as active and their
+     * cells as predictive.
+     * 
+     * @param c         the {@link CLA} memory
+     * @param store     the distal connections
+     * @param cycle     the state being computed
+     */
+    private void computePredictiveCellsFlat(CLA c, ConnectionStore store, FlatComputeCycle cycle) {
+        double connectedPermanence = c.getConnectedPermanence();
+        double activationThreshold = c.getActivationThreshold();
+        for (int i = 0; i < cycle.numTouchedSegments; i++) {
+            int numConnected = 0;
+            for (int j = cycle.touchedOffsets[i]; j < cycle.touchedOffsets[i + 1]; j++) {
+                if (store.getPermanence(cycle.activeSynapses[j]) >= connectedPermanence) {
+                    numConnected++;
+                }
+            }
+            if (numConnected >= activationThreshold) {
+                int segment = cycle.touchedSegments[i];
+                store.setLastUsedIteration(segment, c.getTMIterationNum());
+                cycle.activeSegments.add(segment);
+                cycle.predictiveCells.add(store.getCellForSegment(segment));
+            }
+        }
+    }
+    
+    /**
+     * Converts the cell and column state of a flat cycle into a {@link ComputeCycle}
+     * and stores it as the {@link CLA}'s current state. Segment state has no
+     * {@link DistalDendrite} counterpart and is left empty.
+     * 
+     * @param c         the {@link CLA} memory
+     * @param cycle     the flat cycle
+     * @return  the equivalent {@link ComputeCycle}
+     */
+    private ComputeCycle toComputeCycle(CLA c, FlatComputeCycle cycle) {
+        ComputeCycle result = new ComputeCycle();
+        Cell[] cells = c.getCells();
+        for (int i = 0; i < cycle.activeCells.size(); i++) {
+            result.activeCells.add(cells[cycle.activeCells.get(i)]);
+        }
+        for (int i = 0; i < cycle.winnerCells.size(); i++) {
+            result.winnerCells.add(cells[cycle.winnerCells.get(i)]);
+        }
+        for (int i = 0; i < cycle.predictiveCells.size(); i++) {
+            result.predictiveCells.add(cells[cycle.predictiveCells.get(i)]);
+        }
+        for (int i = 0; i < cycle.predictedColumns.size(); i++) {
+            result.predictedColumns.add(c.getColumn(cycle.predictedColumns.get(i)));
+        }
+        
+        c.setActiveCells(result.activeCells());
+        c.setWinnerCells(result.winnerCells());
+        c.setPredictiveCells(result.predictiveCells());
+        c.setPredictedColumns(result.predictedColumns());
+        
+        return result;
+    }
+
     /////////////////////////// HELPER FUNCTIONS ///////////////////////////
     /**
      * Gets the cell with the best matching segment (see
@@ -393,29 +1416,84 @@ public class TemporalMemory {
      * second contains a cell
      */
     public Object[] getBestMatchingCell(CLA c, Column column, Map<DistalDendrite, Set<Synapse>> prevActiveSynapsesForSegment) {
-        Object[] retVal = new Object[2];
-        Cell bestCell = null;
+        return getBestMatchingCell(c, column, prevActiveSynapsesForSegment, c.getRandom());
+    }
+    
+    /**
+     * Gets the cell with the best matching segment, drawing the least used
+     * cell from the specified random number generator when no segment matches.
+     *
+     * @param c	encapsulated memory and state
+     * @param column	{@link Column} within which to search for best cell
+     * @param prevActiveSynapsesForSegment	a {@link DistalDendrite}'s previously
+     * active {@link Synapse}s
+     * @param random    the random number generator
+     * @return	an object array whose first index contains a segment, and the
+     * second contains a cell
+     * @see #getBestMatchingCell(CLA, Column, Map)
+     */
+    public Object[] getBestMatchingCell(CLA c, Column column, Map<DistalDendrite, Set<Synapse>> prevActiveSynapsesForSegment, Random random) {
+        DistalDendrite bestSegment = getBestMatchingSegmentInColumn(c, column, prevActiveSynapsesForSegment);
+        return new Object[] { bestSegment, getBestCell(c, column, bestSegment, random) };
+    }
+    
+    /**
+     * Returns the best matching segment (see {@link #getBestMatchingSegment(CLA, Cell, Map)})
+     * among the column's cells with the most active synapses, or null if
+     * none of the cells has a best matching segment with an active synapse.
+     * The winner cell is the returned segment's cell, or else the column's
+     * least used cell (see {@link #getBestCell(CLA, Column, DistalDendrite, Random)}).
+     * 
+     * @param c	encapsulated memory and state
+     * @param column	{@link Column} within which to search for the best segment
+     * @param prevActiveSynapsesForSegment	a {@link DistalDendrite}'s previously
+     * active {@link Synapse}s
+     * @return  the best segment or null
+     */
+    public DistalDendrite getBestMatchingSegmentInColumn(CLA c, Column column, Map<DistalDendrite, Set<Synapse>> prevActiveSynapsesForSegment) {
+        SynapseCounts counts = c.getSynapseCounts();
         DistalDendrite bestSegment = null;
         int maxSynapses = 0;
         for (Cell cell : column.getCells()) {
             DistalDendrite dd = getBestMatchingSegment(c, cell, prevActiveSynapsesForSegment);
             if (dd != null) {
-                Set<Synapse> connectedActiveSynapses = dd.getConnectedActiveSynapses(prevActiveSynapsesForSegment, 0);
-                if (connectedActiveSynapses.size() > maxSynapses) {
-                    maxSynapses = connectedActiveSynapses.size();
-                    bestCell = cell;
+                int numActiveSynapses = counts != null
+                        ? counts.getNumActiveSynapses(dd)
+                        : getNumActiveSynapses(dd, prevActiveSynapsesForSegment);
+                if (numActiveSynapses > maxSynapses) {
+                    maxSynapses = numActiveSynapses;
                     bestSegment = dd;
                 }
             }
         }
-
-        if (bestCell == null) {
-            bestCell = column.getLeastUsedCell(c, c.getRandom());
-        }
-
-        retVal[0] = bestSegment;
-        retVal[1] = bestCell;
-        return retVal;
+        return bestSegment;
+    }
+    
+    /**
+     * Returns the winner cell of a bursting column: the cell of its best
+     * matching segment, or a least used cell drawn from the specified random
+     * number generator if there is none.
+     * 
+     * @param c             encapsulated memory and state
+     * @param column        the bursting column
+     * @param bestSegment   the column's best matching segment or null
+     * @param random        the random number generator
+     * @return  the winner cell
+     */
+    private Cell getBestCell(CLA c, Column column, DistalDendrite bestSegment, Random random) {
+        return bestSegment != null ? bestSegment.getParentCell() : column.getLeastUsedCell(c, random);
+    }
+    
+    /**
+     * Returns the number of the segment's synapses in the map of active synapses
+     * 
+     * @param dd                the segment
+     * @param activeSynapses    the active synapses per segment
+     * @return  the number of active synapses
+     */
+    private int getNumActiveSynapses(DistalDendrite dd, Map<DistalDendrite, Set<Synapse>> activeSynapses) {
+        Set<Synapse> synapses = activeSynapses.get(dd);
+        return synapses == null ? 0 : synapses.size();
     }
 
     public static final UnivariateFunction GreaterThanZero = new UnivariateFunction() {
@@ -430,7 +1508,11 @@ public class TemporalMemory {
 
     /**
      * Gets the segment on a cell with the largest number of activate synapses,
-     * including all synapses with non-zero permanences.
+     * including all synapses with non-zero permanences. The numbers are looked
+     * up in the counts taken at the end of the previous cycle, by the
+     * {@link SynapseCounts} in counting mode or else by each segment's active
+     * synapse set; a set not collected by {@link #computeActiveSynapses(CLA, Set, Map)}
+     * is scanned.
      *
      * @param c	encapsulated memory and state
      * @param column	{@link Column} within which to search for best cell
@@ -443,9 +1525,11 @@ public class TemporalMemory {
         double maxSynapses = c.getMinThreshold();
 
         DistalDendrite bestSegment = null;
-        for (DistalDendrite dd : cell.getSegments(c)) {
-            //Set<Synapse> activeSyns = dd.getConnectedActiveSynapses(activeSynapseSegments, 0);
-            double synActivation = dd.getConnectedSynapseActivation(activeSynapseSegments, GreaterThanZero);
+        SynapseCounts counts = c.getSynapseCounts();
+        for (DistalDendrite dd : c.getSegments(cell, false)) {
+            int synActivation = counts != null 
+                    ? counts.getNumMatchingSynapses(dd) 
+                    : getNumMatchingSynapses(dd, activeSynapseSegments);
 
             if (synActivation >= maxSynapses) {
                 maxSynapses = synActivation;
@@ -456,6 +1540,33 @@ public class TemporalMemory {
         return bestSegment;
     }
 
+    /**
+     * Returns the number of the segment's active synapses with a non-zero
+     * permanence, the same as {@link DistalDendrite#getConnectedSynapseActivation(Map, UnivariateFunction)}
+     * with the {@link #GreaterThanZero} activation.
+     * 
+     * @param dd                the segment
+     * @param activeSynapses    the active synapses per segment
+     * @return  the segment's activation
+     */
+    private int getNumMatchingSynapses(DistalDendrite dd, Map<DistalDendrite, Set<Synapse>> activeSynapses) {
+        Set<Synapse> synapses = activeSynapses.get(dd);
+        if (synapses == null) {
+            return 0;
+        }
+        if (synapses instanceof ActiveSynapseSet) {
+            return ((ActiveSynapseSet) synapses).getNumMatching();
+        }
+        
+        int activation = 0;
+        for (Synapse s : synapses) {
+            if (s.getPermanence() > 0) {
+                activation++;
+            }
+        }
+        return activation;
+    }
+
     /**
      * Returns the column index given the cells per column and the cell index
      * passed in.
@@ -25,7 +25,6 @@ package org.numenta.nupic.util;
 import gnu.trove.list.TDoubleList;
 import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.list.array.TIntArrayList;
-import gnu.trove.map.hash.TDoubleIntHashMap;
 import gnu.trove.set.hash.TIntHashSet;
 
 import java.lang.reflect.Array;
@@ -456,6 +455,23 @@ public class ArrayUtils {
         }
         return dividend;
     }    
+    
+    /** 
+     * In place version of {@link #divide(double[], double[], double, double)};
+     * modifies the dividend array 
+     */
+    public static double[] divideBy(double[] dividend, double[] divisor,
+                                    double dividendAdjustment, double divisorAdjustment) {
+
+        ensureEqualArrayLength(dividend.length, divisor.length);
+        
+        double denom = 1;
+        for (int i = 0; i < dividend.length; i++) {
+            dividend[i] = (dividend[i] + dividendAdjustment) /
+                          ((denom = divisor[i] + divisorAdjustment) == 0 ? 1 : denom); //Protect against division by 0
+        }
+        return dividend;
+    }
 
     /**
      * Returns an array whose members are the quotient of the dividend array
@@ -562,6 +578,31 @@ public class ArrayUtils {
         }
         return product;
     }
+    
+    /** 
+     * In place version of {@link #multiply(double[], double)}; modifies the array 
+     */
+    public static double[] multiplyBy(double[] array, double d) {
+        for (int i = 0; i < array.length; i++) {
+            array[i] *= d;
+        }
+        return array;
+    }
+    
+    /** 
+     * In place version of {@link #multiply(double[], double[], double, double)};
+     * modifies the multiplicand array 
+     */
+    public static double[] multiplyBy(double[] multiplicand, double[] factor,
+                                      double multiplicandAdjustment, double factorAdjustment) {
+
+        ensureEqualArrayLength(multiplicand.length, factor.length);
+        
+        for (int i = 0; i < multiplicand.length; i++) {
+            multiplicand[i] = (multiplicand[i] + multiplicandAdjustment) * (factor[i] + factorAdjustment);
+        }
+        return multiplicand;
+    }
 
     /**
      * Returns an integer array containing the result of subtraction
@@ -1063,29 +1104,89 @@ public class ArrayUtils {
     }
 
     /**
-     * Returns an array containing the n greatest values.
-     * @param array
-     * @param n
-     * @return
+     * Returns an array containing the indexes of the n greatest values,
+     * ordered from greatest to least. The specified array is not modified;
+     * ties are broken in favor of the lower index.
+     * 
+     * @param array     the values to select from
+     * @param n         the number of indexes to return
+     * @return  the indexes of the n greatest values
+     * @see #nGreatest(double[], int, int[])
      */
     public static int[] nGreatest(double[] array, int n) {
-        TDoubleIntHashMap places = new TDoubleIntHashMap();
-        int i;
-        double key;
-        for (int j = 1; j < array.length; j++) {
-            key = array[j];
-            for (i = j - 1; i >= 0 && array[i] < key; i--) {
-                array[i + 1] = array[i];
+        int[] retVal = new int[Math.min(n, array.length)];
+        nGreatest(array, n, retVal);
+        return retVal;
+    }
+    
+    /**
+     * Selects the indexes of the n greatest values of the specified array into
+     * the specified buffer, ordered from greatest to least, without modifying
+     * the array or allocating. A bounded min-heap holding the current
+     * candidates is kept in the buffer, so the cost is O(length * log(n)) rather
+     * than that of sorting all the values. Ties are broken deterministically in
+     * favor of the lower index.
+     * 
+     * @param array     the values to select from
+     * @param n         the number of indexes to select
+     * @param out       buffer of at least min(n, array.length) entries to receive
+     *                  the selected indexes
+     * @return  the number of indexes selected, i.e. min(n, array.length)
+     */
+    public static int nGreatest(double[] array, int n, int[] out) {
+        int k = Math.min(n, array.length);
+        if (k <= 0) return 0;
+        
+        int size = 0;
+        for (int i = 0; i < array.length; i++) {
+            if (size < k) {
+                //Sift the new candidate up
+                int child = size++;
+                while (child > 0) {
+                    int parent = (child - 1) >> 1;
+                    if (!isLesser(array, i, out[parent])) break;
+                    out[child] = out[parent];
+                    child = parent;
+                }
+                out[child] = i;
+            } else if (isLesser(array, out[0], i)) {
+                siftDown(array, out, i, size);
             }
-            array[i + 1] = key;
-            places.put(key, j);
         }
-
-        int[] retVal = new int[n];
-        for (i = 0; i < n; i++) {
-            retVal[i] = places.get(array[i]);
+        
+        //Heap sort in place: repeatedly move the least candidate to the end
+        for (int end = k - 1; end > 0; end--) {
+            int least = out[0];
+            siftDown(array, out, out[end], end);
+            out[end] = least;
         }
-        return retVal;
+        return k;
+    }
+    
+    /**
+     * Replaces the root of the min-heap held in the first "size" entries of
+     * the heap array with the specified index and restores the heap order.
+     */
+    private static void siftDown(double[] array, int[] heap, int index, int size) {
+        int parent = 0;
+        int child;
+        while ((child = 2 * parent + 1) < size) {
+            if (child + 1 < size && isLesser(array, heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!isLesser(array, heap[child], index)) break;
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        heap[parent] = index;
+    }
+    
+    /**
+     * Returns true if the value at index "a" ranks below the value at index
+     * "b": it is smaller, or it is equal and has the higher index.
+     */
+    private static boolean isLesser(double[] array, int a, int b) {
+        return array[a] < array[b] || (array[a] == array[b] && a > b);
     }
 
     /**
@@ -1176,6 +1277,27 @@ public class ArrayUtils {
         }
         return retVal.toArray();
     }
+    
+    /**
+     * Version of {@link #where(int[], Condition)} which writes the indexes
+     * into the specified array, which must be at least as long as the values,
+     * rather than allocating one.
+     *
+     * @param d      the values to test
+     * @param c      the condition used to test each value
+     * @param out    the array receiving the indexes
+     * @return  the number of indexes written to "out"
+     */
+    public static <T> int where(int[] d, Condition<T> c, int[] out) {
+        int count = 0;
+        int len = d.length;
+        for (int i = 0; i < len; i++) {
+            if (c.eval(d[i])) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
 
     /**
      * Scans the specified values and applies the {@link Condition} to each
@@ -0,0 +1,231 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+package org.numenta.nupic.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Buffered reader of the binary format written by a {@link BinaryWriter},
+ * from a {@link ReadableByteChannel} or straight from a {@link ByteBuffer}
+ * such as a memory mapped file.
+ */
+public class BinaryReader {
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer;
+	
+	/**
+	 * Constructs a new {@code BinaryReader} with the default buffer size
+	 * 
+	 * @param channel	the channel to read from
+	 */
+	public BinaryReader(ReadableByteChannel channel) {
+		this(channel, BinaryWriter.DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Constructs a new {@code BinaryReader}
+	 * 
+	 * @param channel		the channel to read from
+	 * @param bufferSize	the size of the buffer in bytes, at least 16
+	 */
+	public BinaryReader(ReadableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(16, bufferSize));
+		buffer.limit(0);
+	}
+	
+	/**
+	 * Constructs a new {@code BinaryReader} of the remaining bytes of a
+	 * buffer, which are read in place. The buffer itself is left untouched.
+	 * 
+	 * @param buffer	the bytes to read
+	 */
+	public BinaryReader(ByteBuffer buffer) {
+		this.channel = null;
+		this.buffer = buffer.slice();
+	}
+	
+	/**
+	 * Reads a single byte
+	 * @return	the byte, from 0 to 255
+	 * @throws IOException
+	 */
+	public int readByte() throws IOException {
+		ensure(1);
+		return buffer.get() & 0xFF;
+	}
+	
+	/**
+	 * Reads a boolean written as one byte
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+	
+	/**
+	 * Reads a variable length int
+	 * @return
+	 * @throws IOException
+	 */
+	public int readVarInt() throws IOException {
+		int value = 0;
+		for(int shift = 0;shift < 35;shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("Variable length int longer than 5 bytes");
+	}
+	
+	/**
+	 * Reads a zig-zag mapped variable length int
+	 * @return
+	 * @throws IOException
+	 */
+	public int readSignedVarInt() throws IOException {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * Reads an int written in four bytes
+	 * @return
+	 * @throws IOException
+	 */
+	public int readInt() throws IOException {
+		ensure(4);
+		return buffer.getInt();
+	}
+	
+	/**
+	 * Reads a float written in four bytes
+	 * @return
+	 * @throws IOException
+	 */
+	public float readFloat() throws IOException {
+		ensure(4);
+		return buffer.getFloat();
+	}
+	
+	/**
+	 * Reads a double written in eight bytes
+	 * @return
+	 * @throws IOException
+	 */
+	public double readDouble() throws IOException {
+		ensure(8);
+		return buffer.getDouble();
+	}
+	
+	/**
+	 * Reads a string written as a length and UTF-8 bytes
+	 * @return
+	 * @throws IOException
+	 */
+	public String readString() throws IOException {
+		return new String(readBytes(), BinaryWriter.UTF8);
+	}
+	
+	/**
+	 * Reads a byte array preceded by its length
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] readBytes() throws IOException {
+		byte[] bytes = new byte[readLength()];
+		for(int offset = 0;offset < bytes.length;) {
+			ensure(1);
+			int n = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.get(bytes, offset, n);
+			offset += n;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Reads a double array preceded by its length
+	 * @return
+	 * @throws IOException
+	 */
+	public double[] readDoubles() throws IOException {
+		double[] values = new double[readLength()];
+		for(int i = 0;i < values.length;i++) {
+			values[i] = readDouble();
+		}
+		return values;
+	}
+	
+	/**
+	 * Reads delta encoded indexes
+	 * @return
+	 * @throws IOException
+	 * @see BinaryWriter#writeIndexes(int[], int)
+	 */
+	public int[] readIndexes() throws IOException {
+		int[] indexes = new int[readLength()];
+		int previous = 0;
+		for(int i = 0;i < indexes.length;i++) {
+			indexes[i] = previous += readSignedVarInt();
+		}
+		return indexes;
+	}
+	
+	/**
+	 * Reads a count or length, which must not be negative
+	 * @return
+	 * @throws IOException
+	 */
+	public int readLength() throws IOException {
+		int length = readVarInt();
+		if(length < 0) {
+			throw new StreamCorruptedException("Negative length " + length);
+		}
+		return length;
+	}
+	
+	/**
+	 * Refills the buffer until it holds the specified number of bytes
+	 */
+	private void ensure(int bytes) throws IOException {
+		if(buffer.remaining() >= bytes) return;
+		if(channel == null) {
+			throw new EOFException("Unexpected end of input");
+		}
+		
+		buffer.compact();
+		while(buffer.position() < bytes) {
+			if(channel.read(buffer) < 0) {
+				buffer.flip();
+				throw new EOFException("Unexpected end of input");
+			}
+		}
+		buffer.flip();
+	}
+}
@@ -0,0 +1,258 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+package org.numenta.nupic.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Buffered writer of a compact binary format to a {@link WritableByteChannel}.
+ * Non-negative ints such as counts and ids are written as variable length
+ * quantities of 7 bits per byte, least significant group first, so small
+ * values take a single byte; signed ints are zig-zag mapped first so that
+ * small negative values stay small too. Floating point values are written
+ * in their fixed width IEEE form, big endian.
+ * 
+ * Nothing reaches the channel before the buffer fills or {@link #flush()}
+ * is called. Read back with a {@link BinaryReader}.
+ */
+public class BinaryWriter {
+	/** Default buffer size in bytes */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private long bytesWritten;
+	
+	/**
+	 * Constructs a new {@code BinaryWriter} with the default buffer size
+	 * 
+	 * @param channel	the channel to write to
+	 */
+	public BinaryWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Constructs a new {@code BinaryWriter}
+	 * 
+	 * @param channel		the channel to write to
+	 * @param bufferSize	the size of the buffer in bytes, at least 16
+	 */
+	public BinaryWriter(WritableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(16, bufferSize));
+	}
+	
+	/**
+	 * Returns the number of bytes written so far, including those still buffered
+	 * @return
+	 */
+	public long getBytesWritten() {
+		return bytesWritten + buffer.position();
+	}
+	
+	/**
+	 * Writes a single byte
+	 * @param b
+	 * @throws IOException
+	 */
+	public void writeByte(int b) throws IOException {
+		ensure(1);
+		buffer.put((byte)b);
+	}
+	
+	/**
+	 * Writes a boolean as one byte
+	 * @param b
+	 * @throws IOException
+	 */
+	public void writeBoolean(boolean b) throws IOException {
+		writeByte(b ? 1 : 0);
+	}
+	
+	/**
+	 * Writes an int as a variable length quantity; negative values are
+	 * treated as unsigned and take five bytes.
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeVarInt(int value) throws IOException {
+		ensure(5);
+		while((value & ~0x7F) != 0) {
+			buffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+	
+	/**
+	 * Writes a zig-zag mapped variable length int, which is compact for
+	 * values of small magnitude whatever their sign.
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeSignedVarInt(int value) throws IOException {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+	
+	/**
+	 * Writes an int in four bytes
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeInt(int value) throws IOException {
+		ensure(4);
+		buffer.putInt(value);
+	}
+	
+	/**
+	 * Writes zero bytes until the number of bytes written is a multiple
+	 * of the specified alignment
+	 * @param alignment	a power of two
+	 * @throws IOException
+	 */
+	public void align(int alignment) throws IOException {
+		while((getBytesWritten() & (alignment - 1)) != 0) {
+			writeByte(0);
+		}
+	}
+	
+	/**
+	 * Writes a float in four bytes
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeFloat(float value) throws IOException {
+		ensure(4);
+		buffer.putFloat(value);
+	}
+	
+	/**
+	 * Writes a double in eight bytes
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeDouble(double value) throws IOException {
+		ensure(8);
+		buffer.putDouble(value);
+	}
+	
+	/**
+	 * Writes a string as its length in bytes followed by its UTF-8 encoding
+	 * @param s
+	 * @throws IOException
+	 */
+	public void writeString(String s) throws IOException {
+		writeBytes(s.getBytes(UTF8));
+	}
+	
+	/**
+	 * Writes a byte array preceded by its length
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public void writeBytes(byte[] bytes) throws IOException {
+		writeVarInt(bytes.length);
+		write(bytes);
+	}
+	
+	/**
+	 * Writes a byte array as it is, without its length
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public void write(byte[] bytes) throws IOException {
+		for(int offset = 0;offset < bytes.length;) {
+			ensure(1);
+			int n = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, n);
+			offset += n;
+		}
+	}
+	
+	/**
+	 * Writes a double array preceded by its length
+	 * @param values
+	 * @throws IOException
+	 */
+	public void writeDoubles(double[] values) throws IOException {
+		writeVarInt(values.length);
+		for(double value : values) {
+			writeDouble(value);
+		}
+	}
+	
+	/**
+	 * Writes the first "length" entries of an int array preceded by their
+	 * number, each as its difference from the previous entry (the first
+	 * from zero), zig-zag mapped. Sorted indexes thereby take about a byte
+	 * each, while any order remains representable.
+	 * 
+	 * @param indexes	the indexes to write
+	 * @param length	the number of leading entries to write
+	 * @throws IOException
+	 */
+	public void writeIndexes(int[] indexes, int length) throws IOException {
+		writeVarInt(length);
+		int previous = 0;
+		for(int i = 0;i < length;i++) {
+			writeSignedVarInt(indexes[i] - previous);
+			previous = indexes[i];
+		}
+	}
+	
+	/**
+	 * Writes all of an int array as delta encoded indexes
+	 * @param indexes
+	 * @throws IOException
+	 * @see #writeIndexes(int[], int)
+	 */
+	public void writeIndexes(int[] indexes) throws IOException {
+		writeIndexes(indexes, indexes.length);
+	}
+	
+	/**
+	 * Writes the buffered bytes to the channel
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			bytesWritten += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	/**
+	 * Makes room for the specified number of bytes in the buffer
+	 */
+	private void ensure(int bytes) throws IOException {
+		if(buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+}
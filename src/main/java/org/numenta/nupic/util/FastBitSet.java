@@ -315,19 +315,16 @@ public class FastBitSet {
      */
     public int nextSetBit(int fromIndex) {
         int offset = fromIndex >> 6;
-        long mask = 1L << fromIndex;
-        while (offset < _length) {
-            long h = bits[offset];
-            do {
-                if ((h & mask) != 0) 
-                    return fromIndex;
-                mask <<= 1;
-                fromIndex++;
-            } while (mask != 0);
-            mask = 1;
-            offset++;
-        }
-        return -1;
+        if (offset >= _length) 
+            return -1;
+        //Mask off the bits below fromIndex, then skip over empty words whole
+        long h = bits[offset] & (-1L << fromIndex);
+        while (h == 0) {
+            if (++offset >= _length) 
+                return -1;
+            h = bits[offset];
+        }
+        return (offset << 6) + Long.numberOfTrailingZeros(h);
     }
 
     /**
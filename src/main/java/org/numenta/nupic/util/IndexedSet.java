@@ -0,0 +1,205 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Insertion ordered {@link java.util.Set} of objects which each carry a unique,
+ * non-negative int index, such as cells and columns. Membership is a bit per
+ * index in a {@link FastBitSet} and the members are kept in an array, so unlike
+ * a {@link java.util.LinkedHashSet} adding allocates no entry objects, and
+ * {@link #clear()} keeps the storage for reuse.
+ *
+ * Subclasses supply the index of an element through {@link #indexOf(Object)}.
+ * Elements sharing an index are treated as equal.
+ *
+ * @param <T>   the element type
+ */
+public abstract class IndexedSet<T> extends AbstractSet<T> {
+    private final Class<T> type;
+    private final FastBitSet members = new FastBitSet();
+    private Object[] elements = new Object[16];
+    private int size;
+    private int modCount;
+
+    /**
+     * Constructs a new {@code IndexedSet}
+     *
+     * @param type  the element type, used to reject foreign objects in queries
+     */
+    public IndexedSet(Class<T> type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the index identifying the specified element
+     * @param element
+     * @return
+     */
+    protected abstract int indexOf(T element);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add(T element) {
+        int index = indexOf(element);
+        if(members.get(index)) {
+            return false;
+        }
+        members.set(index);
+        if(size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = element;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(Object o) {
+        return type.isInstance(o) && members.get(indexOf(type.cast(o)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove(Object o) {
+        if(!contains(o)) {
+            return false;
+        }
+        int index = indexOf(type.cast(o));
+        for(int i = 0;i < size;i++) {
+            if(indexOf(element(i)) == index) {
+                removeAt(i);
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        for(int i = 0;i < size;i++) {
+            members.clear(indexOf(element(i)));
+            elements[i] = null;
+        }
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int next;
+            private int expectedModCount = modCount;
+            private boolean canRemove;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public T next() {
+                if(modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if(next >= size) {
+                    throw new NoSuchElementException();
+                }
+                canRemove = true;
+                return element(next++);
+            }
+
+            @Override
+            public void remove() {
+                if(!canRemove) {
+                    throw new IllegalStateException();
+                }
+                removeAt(--next);
+                expectedModCount = modCount;
+                canRemove = false;
+            }
+        };
+    }
+
+    /**
+     * Returns the indexes of the members in insertion order
+     * @return
+     */
+    public int[] indexes() {
+        int[] indexes = new int[size];
+        for(int i = 0;i < size;i++) {
+            indexes[i] = indexOf(element(i));
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the indexes of the members in ascending order
+     * @return
+     */
+    public int[] sortedIndexes() {
+        int[] indexes = new int[size];
+        for(int i = 0, index = members.nextSetBit(0);i < size;i++, index = members.nextSetBit(index + 1)) {
+            indexes[i] = index;
+        }
+        return indexes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T element(int position) {
+        return (T)elements[position];
+    }
+
+    private void removeAt(int position) {
+        members.clear(indexOf(element(position)));
+        System.arraycopy(elements, position + 1, elements, position, size - position - 1);
+        elements[--size] = null;
+        modCount++;
+    }
+}
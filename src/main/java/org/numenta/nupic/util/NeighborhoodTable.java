@@ -0,0 +1,110 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.util;
+
+/**
+ * Flat, precomputed table of the neighborhood of every column, laid out in
+ * compressed row form: the neighbors of column {@code i} are the entries of
+ * {@link #getNeighbors()} from {@code getOffsets()[i]} (inclusive) to 
+ * {@code getOffsets()[i + 1]} (exclusive), in the order produced by the
+ * neighborhood computation.
+ * 
+ * A table is only valid for the radius and wrap setting it was built for;
+ * callers compare {@link #getRadius()} against the current inhibition radius 
+ * to decide whether it must be rebuilt.
+ */
+public class NeighborhoodTable {
+	private final int radius;
+	private final boolean wrapAround;
+	private final int[] offsets;
+	private final int[] neighbors;
+	
+	/**
+	 * Constructs a new {@code NeighborhoodTable}
+	 * 
+	 * @param radius		the radius the neighborhoods were computed for
+	 * @param wrapAround	whether the neighborhoods wrap around the borders
+	 * @param offsets		numColumns + 1 offsets into the neighbors array
+	 * @param neighbors		the concatenated neighbor indexes of all columns
+	 */
+	public NeighborhoodTable(int radius, boolean wrapAround, int[] offsets, int[] neighbors) {
+		this.radius = radius;
+		this.wrapAround = wrapAround;
+		this.offsets = offsets;
+		this.neighbors = neighbors;
+	}
+	
+	/**
+	 * Returns the radius this table was computed for
+	 * @return
+	 */
+	public int getRadius() {
+		return radius;
+	}
+	
+	/**
+	 * Returns true if the neighborhoods wrap around the topology's borders
+	 * @return
+	 */
+	public boolean isWrapAround() {
+		return wrapAround;
+	}
+	
+	/**
+	 * Returns the offsets of each column's neighbors within {@link #getNeighbors()}.
+	 * The array holds one more entry than there are columns.
+	 * @return
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+	
+	/**
+	 * Returns the concatenated neighbor indexes of all columns
+	 * @return
+	 */
+	public int[] getNeighbors() {
+		return neighbors;
+	}
+	
+	/**
+	 * Returns the number of neighbors of the specified column
+	 * @param column	the column index
+	 * @return
+	 */
+	public int size(int column) {
+		return offsets[column + 1] - offsets[column];
+	}
+	
+	/**
+	 * Returns a copy of the neighbor indexes of the specified column
+	 * @param column	the column index
+	 * @return
+	 */
+	public int[] getNeighbors(int column) {
+		int[] retVal = new int[size(column)];
+		System.arraycopy(neighbors, offsets[column], retVal, 0, retVal.length);
+		return retVal;
+	}
+}
@@ -0,0 +1,137 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.util;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-negative ints which remembers insertion order, the primitive
+ * counterpart of a {@code LinkedHashSet<Integer>}. Membership is tracked in a
+ * {@link FastBitSet} and the members are kept in an int array, so adding,
+ * testing and clearing never allocate once the set has reached its working size.
+ */
+public class OrderedIndexSet {
+    private final FastBitSet members;
+    private int[] indexes;
+    private int size;
+
+    /**
+     * Constructs a new {@code OrderedIndexSet} sized for
+     * indexes below the specified capacity; larger indexes are
+     * accepted and grow the set.
+     *
+     * @param capacity  the expected index range
+     */
+    public OrderedIndexSet(int capacity) {
+        members = new FastBitSet(Math.max(1, capacity));
+        indexes = new int[Math.max(4, Math.min(capacity, 1024))];
+    }
+
+    /**
+     * Adds the index if it is not already a member.
+     *
+     * @param index the index to add
+     * @return      true if the index was added
+     */
+    public boolean add(int index) {
+        if(members.get(index)) {
+            return false;
+        }
+        members.set(index);
+        if(size == indexes.length) {
+            indexes = Arrays.copyOf(indexes, size * 2);
+        }
+        indexes[size++] = index;
+        return true;
+    }
+
+    /**
+     * Returns true if the index is a member
+     * @param index
+     * @return
+     */
+    public boolean contains(int index) {
+        return members.get(index);
+    }
+
+    /**
+     * Returns the member at the specified insertion position
+     * @param position
+     * @return
+     */
+    public int get(int position) {
+        return indexes[position];
+    }
+
+    /**
+     * Returns the number of members
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes the index if it is a member, keeping the order of the others.
+     *
+     * @param index the index to remove
+     * @return      true if the index was removed
+     */
+    public boolean remove(int index) {
+        if(!members.get(index)) {
+            return false;
+        }
+        members.clear(index);
+        int position = 0;
+        while(indexes[position] != index) {
+            position++;
+        }
+        System.arraycopy(indexes, position + 1, indexes, position, --size - position);
+        return true;
+    }
+
+    /**
+     * Removes all members.
+     */
+    public void clear() {
+        for(int i = 0;i < size;i++) {
+            members.clear(indexes[i]);
+        }
+        size = 0;
+    }
+
+    /**
+     * Returns the members in insertion order
+     * @return
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(indexes, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
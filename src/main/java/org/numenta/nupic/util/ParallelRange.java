@@ -0,0 +1,132 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Partitions a range of indexes (typically column indexes) into contiguous
+ * chunks which are processed on a {@link ForkJoinPool}. Each index is visited
+ * by exactly one chunk, so work which only writes to the slots of its own
+ * indexes produces the same results as a serial loop, regardless of how the
+ * chunks are scheduled.
+ */
+public class ParallelRange {
+	/**
+	 * The work applied to each chunk of the range.
+	 */
+	public interface Body {
+		/**
+		 * Processes the indexes from "from" (inclusive) to "to" (exclusive)
+		 * 
+		 * @param from	the first index of the chunk
+		 * @param to	one past the last index of the chunk
+		 */
+		public void run(int from, int to);
+	}
+	
+	/** Number of chunks each worker thread is given, to even out imbalanced work */
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	/** The pools handed out by {@link #getSharedPool(int)}, by parallelism */
+	private static final ConcurrentMap<Integer, ForkJoinPool> SHARED_POOLS = new ConcurrentHashMap<>();
+	
+	private ParallelRange() {}
+	
+	/**
+	 * Returns the pool of the specified parallelism shared by every caller
+	 * asking for that parallelism, creating it on first use. Its workers are
+	 * daemon threads which exit when idle, so components computing on it
+	 * need no shutdown, and creating many of them adds no threads.
+	 * 
+	 * @param parallelism	the number of worker threads
+	 * @return	the shared pool
+	 */
+	public static ForkJoinPool getSharedPool(int parallelism) {
+		ForkJoinPool pool = SHARED_POOLS.get(parallelism);
+		if(pool == null) {
+			ForkJoinPool created = new ForkJoinPool(parallelism);
+			pool = SHARED_POOLS.putIfAbsent(parallelism, created);
+			if(pool == null) {
+				pool = created;
+			}else{
+				created.shutdown();
+			}
+		}
+		return pool;
+	}
+	
+	/**
+	 * Applies the specified {@link Body} to the range [0, length) on the specified
+	 * pool, splitting it into chunks of no less than "minChunk" indexes. If the 
+	 * pool is null or the range is too small to be split, the body is run on
+	 * the calling thread.
+	 * 
+	 * @param pool		the {@link ForkJoinPool} to run on, or null
+	 * @param length	the number of indexes in the range
+	 * @param minChunk	the smallest number of indexes worth handing to a task
+	 * @param body		the work to do on each chunk
+	 */
+	public static void forEach(ForkJoinPool pool, int length, int minChunk, Body body) {
+		int chunk = pool == null ? length : 
+			Math.max(Math.max(1, minChunk), length / (pool.getParallelism() * CHUNKS_PER_THREAD));
+		if(length <= chunk) {
+			if(length > 0) body.run(0, length);
+			return;
+		}
+		pool.invoke(new Chunk(body, 0, length, chunk));
+	}
+	
+	/**
+	 * Recursively halves its range until it holds at most "chunk" indexes.
+	 */
+	private static class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final Body body;
+		private final int from;
+		private final int to;
+		private final int chunk;
+		
+		Chunk(Body body, int from, int to, int chunk) {
+			this.body = body;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from <= chunk) {
+				body.run(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Chunk(body, from, mid, chunk), new Chunk(body, mid, to, chunk));
+		}
+	}
+}
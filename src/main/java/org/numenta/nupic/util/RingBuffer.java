@@ -0,0 +1,182 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+package org.numenta.nupic.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock free queue for exactly one producer thread and one consumer
+ * thread. The producer only writes the tail and the consumer only writes the
+ * head, so neither needs a lock or a compare and set; publishing a slot is an
+ * ordered write of the tail, which makes the element visible to the consumer.
+ *
+ * {@link #put(Object)} and {@link #take()} apply backpressure: they spin
+ * briefly, then yield, then park until there is room or an element.
+ *
+ * @param <T>	the type of the elements
+ */
+public class RingBuffer<T> {
+	/** Number of busy polls before a waiting thread starts yielding */
+	private static final int SPINS = 100;
+	/** Number of yields before a waiting thread starts parking */
+	private static final int YIELDS = 100;
+	/** Nanoseconds a waiting thread parks for between polls */
+	private static final long PARK_NANOS = 50000;
+
+	private final Object[] elements;
+	private final int mask;
+	/** Index of the next element to take; written by the consumer */
+	private final AtomicLong head = new AtomicLong();
+	/** Index of the next slot to fill; written by the producer */
+	private final AtomicLong tail = new AtomicLong();
+	/** The producer's last read of the head */
+	private long headCache;
+	/** The consumer's last read of the tail */
+	private long tailCache;
+
+	/**
+	 * Constructs a new {@code RingBuffer} holding at least the specified
+	 * number of elements; the capacity is rounded up to a power of two.
+	 *
+	 * @param capacity	the minimum capacity
+	 * @throws IllegalArgumentException if the capacity is less than 1
+	 */
+	public RingBuffer(int capacity) {
+		if(capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be from 1 to 2^30: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity) size <<= 1;
+		elements = new Object[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Returns the number of elements this buffer can hold
+	 * @return
+	 */
+	public int capacity() {
+		return elements.length;
+	}
+
+	/**
+	 * Returns the number of elements in this buffer, which is only
+	 * a snapshot when read by a thread other than the consumer
+	 * @return
+	 */
+	public int size() {
+		return (int)(tail.get() - head.get());
+	}
+
+	/**
+	 * Returns true if this buffer holds no elements
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Adds an element if there is room; called only by the producer.
+	 *
+	 * @param element	the element to add, not null
+	 * @return	true if added, false if the buffer is full
+	 */
+	public boolean offer(T element) {
+		if(element == null) {
+			throw new NullPointerException();
+		}
+		long t = tail.get();
+		if(t - headCache == elements.length) {
+			headCache = head.get();
+			if(t - headCache == elements.length) {
+				return false;
+			}
+		}
+		elements[(int)t & mask] = element;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Removes the oldest element if there is one; called only by the consumer.
+	 *
+	 * @return	the oldest element, or null if the buffer is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		long h = head.get();
+		if(h == tailCache) {
+			tailCache = tail.get();
+			if(h == tailCache) {
+				return null;
+			}
+		}
+		int slot = (int)h & mask;
+		T element = (T)elements[slot];
+		elements[slot] = null;
+		head.lazySet(h + 1);
+		return element;
+	}
+
+	/**
+	 * Adds an element, waiting for room if the buffer is full;
+	 * called only by the producer.
+	 *
+	 * @param element	the element to add, not null
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	public void put(T element) throws InterruptedException {
+		for(int attempt = 0;!offer(element);attempt++) {
+			backOff(attempt);
+		}
+	}
+
+	/**
+	 * Removes the oldest element, waiting for one if the buffer is
+	 * empty; called only by the consumer.
+	 *
+	 * @return	the oldest element
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	public T take() throws InterruptedException {
+		T element;
+		for(int attempt = 0;(element = poll()) == null;attempt++) {
+			backOff(attempt);
+		}
+		return element;
+	}
+
+	private static void backOff(int attempt) throws InterruptedException {
+		if(Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		if(attempt < SPINS) {
+			return;
+		}else if(attempt < SPINS + YIELDS) {
+			Thread.yield();
+		}else{
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+}
@@ -35,6 +35,15 @@ public class SparseBinaryMatrix extends SparseMatrix<Byte> {
     FastBitSet sparseMap;
     //private TIntByteMap sparseMap = new TIntByteHashMap();
     Object backingArray;
+    
+    /**
+     * Compressed row form of a 2D matrix: for each row (outer index), the
+     * packed and ascending inner indexes of its "on" bits. Rows are rebuilt
+     * lazily from the bit map only after they have been marked dirty.
+     */
+    int[][] rowIndexes;
+    /** Flags marking rows whose packed indexes are stale */
+    boolean[] rowDirty;
 
     public SparseBinaryMatrix(int[] dimensions) {
         this(dimensions, false);
@@ -44,7 +53,12 @@ public class SparseBinaryMatrix extends SparseMatrix<Byte> {
         super(dimensions, useColumnMajorOrdering);
         sparseMap = new FastBitSet(size());
         this.backingArray = Array.newInstance(int.class, dimensions);
-
+        
+        if(dimensions.length == 2 && !useColumnMajorOrdering) {
+            rowIndexes = new int[dimensions[0]][];
+            rowDirty = new boolean[dimensions[0]];
+            Arrays.fill(rowDirty, true);
+        }
     }
 
     /**
@@ -56,6 +70,50 @@ public class SparseBinaryMatrix extends SparseMatrix<Byte> {
      */
     protected void back(boolean val, int delta, int... coordinates) {
         ArrayUtils.setValue(this.backingArray, val ? (byte)1: (byte)0, coordinates);
+        if(delta != 0 && rowDirty != null) {
+            rowDirty[coordinates[0]] = true;
+        }
+    }
+    
+    /**
+     * Returns a flag indicating whether this matrix maintains the compressed
+     * row form returned by {@link #getRowIndexes(int)}. Only row major, 
+     * 2 dimensional matrices do so.
+     * 
+     * @return
+     */
+    public boolean isRowCompressed() {
+        return rowIndexes != null;
+    }
+    
+    /**
+     * Returns the ascending inner indexes of the "on" bits in the specified
+     * row, rebuilding the packed array from the bit map if the row has changed
+     * since it was last requested. The returned array must not be modified.
+     * 
+     * @param row   the outer index of the row
+     * @return  the packed indexes of the row's "on" bits
+     */
+    public int[] getRowIndexes(int row) {
+        if(!rowDirty[row]) {
+            return rowIndexes[row];
+        }
+        
+        int start = computeIndex(row, 0);
+        int end = start + dimensions[1];
+        int count = 0;
+        for(int i = sparseMap.nextSetBit(start);i >= 0 && i < end;i = sparseMap.nextSetBit(i + 1)) {
+            count++;
+        }
+        int[] packed = new int[count];
+        count = 0;
+        for(int i = sparseMap.nextSetBit(start);i >= 0 && i < end;i = sparseMap.nextSetBit(i + 1)) {
+            packed[count++] = i - start;
+        }
+        
+        rowIndexes[row] = packed;
+        rowDirty[row] = false;
+        return packed;
     }
 
     /**
@@ -193,6 +251,9 @@ public class SparseBinaryMatrix extends SparseMatrix<Byte> {
      */
     public SparseBinaryMatrix setForTest(int index, byte value) {
         sparseMap.set(index, value > 0 ? true : false);
+        if(rowDirty != null) {
+            rowDirty[computeCoordinates(index)[0]] = true;
+        }
         return this;
     }
 
@@ -217,19 +278,22 @@ public class SparseBinaryMatrix extends SparseMatrix<Byte> {
 
     /**
      * Clears the true counts prior to a cycle where they're being set
-     * for 2D only
+     * for 2D only. Only the row's "on" bits are visited.
      */
     public void clearStatistics(int row) {
         assert(getNumDimensions() == 2);
         
-        //int[] slice = (int[])Array.get(backingArray, row);
         int[] slice = ((int[][]) backingArray)[row];
-        Arrays.fill(slice, 0);
-        
         int start = computeIndex(row, 0);
         int end = start + getDimensions()[1];
-        for (int i = start; i < end; i++)
-            sparseMap.set(i, false);
+        for (int i = sparseMap.nextSetBit(start); i >= 0 && i < end; i = sparseMap.nextSetBit(i + 1)) {
+            sparseMap.clear(i);
+            slice[i - start] = 0;
+        }
+        
+        if(rowDirty != null) {
+            rowDirty[row] = true;
+        }
     }
 
 
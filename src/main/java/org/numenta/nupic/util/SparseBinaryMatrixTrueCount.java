@@ -5,6 +5,8 @@
  */
 package org.numenta.nupic.util;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.OpenMapRealVector;
 import org.apache.commons.math3.linear.RealVector;
@@ -16,6 +18,14 @@ public class SparseBinaryMatrixTrueCount extends SparseBinaryMatrix {
     
     /** counts how many 'true' exist in each row */
     private final RealVector rowCounts;
+    
+    /**
+     * Inverted index of a 2D matrix: for each inner index (i.e. input bit), the
+     * rows (i.e. columns) in which it is 'true', in ascending order. Kept
+     * current as bits flip so that products with a sparse vector only visit
+     * the rows it touches.
+     */
+    private TIntArrayList[] postings;
 
     public static RealVector getDefaultRowCounter(int rows) {
         //TODO tune this threshold
@@ -40,6 +50,9 @@ public class SparseBinaryMatrixTrueCount extends SparseBinaryMatrix {
         
         this.rowCounts = rowCount;
         
+        if(isRowCompressed()) {
+            postings = new TIntArrayList[dimensions[1]];
+        }
     }
     
     @Override
@@ -57,6 +70,10 @@ public class SparseBinaryMatrixTrueCount extends SparseBinaryMatrix {
             if (Double.isNaN(v)) v = 0d;
             v += delta;
             rowCounts.setEntry(e, v);
+            
+            if (postings != null) {
+                post(e, coordinates[1], delta > 0);
+            }
         }
                 
         /*
@@ -68,10 +85,181 @@ public class SparseBinaryMatrixTrueCount extends SparseBinaryMatrix {
 
     @Override
     public void clearStatistics(int row) {
+        if (postings != null) {
+            int start = computeIndex(row, 0);
+            int end = start + dimensions[1];
+            for (int i = sparseMap.nextSetBit(start); i >= 0 && i < end; i = sparseMap.nextSetBit(i + 1)) {
+                post(row, i - start, false);
+            }
+        }
         super.clearStatistics(row);
         rowCounts.setEntry(row, 0);        
     }
     
+    @Override
+    public SparseBinaryMatrix setForTest(int index, byte value) {
+        boolean was = sparseMap.get(index);
+        super.setForTest(index, value);
+        if (postings != null && was != (value > 0)) {
+            int[] coordinates = computeCoordinates(index);
+            post(coordinates[0], coordinates[1], value > 0);
+        }
+        return this;
+    }
+    
+    /**
+     * Adds or removes the specified row from the posting list of the
+     * specified inner index, locating it by binary search so that the
+     * list stays sorted.
+     * 
+     * @param row       the outer index
+     * @param inner     the inner index whose posting list is updated
+     * @param add       true to add the row, false to remove it
+     */
+    private void post(int row, int inner, boolean add) {
+        TIntArrayList list = postings[inner];
+        if (add) {
+            if (list == null) {
+                postings[inner] = list = new TIntArrayList(4);
+            }
+            int slot = list.binarySearch(row);
+            if (slot < 0) {
+                list.insert(-(slot + 1), row);
+            }
+        } else if (list != null) {
+            int slot = list.binarySearch(row);
+            if (slot >= 0) {
+                list.removeAt(slot);
+            }
+        }
+    }
+    
+    /**
+     * Returns the rows in which the specified inner index is 'true', in
+     * ascending order, or null if the matrix keeps no inverted index (see
+     * {@link #isRowCompressed()}). The returned list must not be modified.
+     * 
+     * @param inner     the inner index (i.e. input bit)
+     * @return  the rows having the specified inner index set
+     */
+    public TIntArrayList getPostings(int inner) {
+        if (postings == null) {
+            return null;
+        }
+        return postings[inner] == null ? EMPTY : postings[inner];
+    }
+    
+    private static final TIntArrayList EMPTY = new TIntArrayList(0);
+    
+    /**
+     * Fills the specified results array with the product of this matrix and
+     * a binary vector given by the indexes of its "on" bits. Only the rows
+     * listed in the posting lists of those indexes are visited, so the cost
+     * scales with the activity of the vector rather than the size of the
+     * matrix. For binary vectors the results are identical to
+     * {@link #rightVecSumAtNZ(int[], double[])}.
+     * 
+     * @param onIndexes     the indexes of the "on" bits of the right side vector
+     * @param results       the results array
+     */
+    public void rightVecSumAtNZIndexes(int[] onIndexes, double[] results) {
+        rightVecSumAtNZIndexes(onIndexes, onIndexes.length, results);
+    }
+    
+    /**
+     * Version of {@link #rightVecSumAtNZIndexes(int[], double[])} which only
+     * reads the first "numIndexes" entries of the index array, so that it may 
+     * be a reused buffer.
+     * 
+     * @param onIndexes     the indexes of the "on" bits of the right side vector
+     * @param numIndexes    the number of valid entries in onIndexes
+     * @param results       the results array
+     */
+    public void rightVecSumAtNZIndexes(int[] onIndexes, int numIndexes, double[] results) {
+        if (postings == null) {
+            int[] inputVector = new int[dimensions[dimensions.length - 1]];
+            for (int i = 0; i < numIndexes; i++) {
+                inputVector[onIndexes[i]] = 1;
+            }
+            rightVecSumAtNZ(inputVector, results);
+            return;
+        }
+        
+        for (int i = 0; i < numIndexes; i++) {
+            TIntArrayList list = postings[onIndexes[i]];
+            if (list == null) continue;
+            for (int j = list.size() - 1; j >= 0; j--) {
+                results[list.getQuick(j)] += 1;
+            }
+        }
+    }
+    
+    /**
+     * Row range version of {@link #rightVecSumAtNZIndexes(int[], int, double[])},
+     * adding only into the rows from "fromRow" (inclusive) to "toRow" 
+     * (exclusive). Since the posting lists are sorted, each one is entered by
+     * binary search at "fromRow", so the cost stays proportional to the 
+     * postings within the range. Distinct row ranges may be summed 
+     * concurrently as long as the matrix is not being modified. The matrix 
+     * must be {@link #isRowCompressed() row compressed}.
+     * 
+     * @param onIndexes     the indexes of the "on" bits of the right side vector
+     * @param numIndexes    the number of valid entries in onIndexes
+     * @param results       the results array
+     * @param fromRow       the first row to sum
+     * @param toRow         one past the last row to sum
+     */
+    public void rightVecSumAtNZIndexes(int[] onIndexes, int numIndexes, double[] results, int fromRow, int toRow) {
+        for (int i = 0; i < numIndexes; i++) {
+            TIntArrayList list = postings[onIndexes[i]];
+            if (list == null) continue;
+            int j = list.binarySearch(fromRow);
+            if (j < 0) {
+                j = -(j + 1);
+            }
+            int size = list.size();
+            for (int row; j < size && (row = list.getQuick(j)) < toRow; j++) {
+                results[row] += 1;
+            }
+        }
+    }
+    
+    /**
+     * Version of {@link #rightVecSumAtNZIndexes(int[], double[])} which zeroes
+     * results below the stimulus threshold and multiplies the rest by their
+     * corresponding factor.
+     * 
+     * @param onIndexes             the indexes of the "on" bits of the right side vector
+     * @param results               the results array
+     * @param stimulusThreshold     results less than this value are set to zero
+     * @param factor                multiplied by each result at or above the threshold
+     */
+    public void rightVecSumAtNZIndexes(int[] onIndexes, double[] results, double stimulusThreshold, double[] factor) {
+        rightVecSumAtNZIndexes(onIndexes, onIndexes.length, results, stimulusThreshold, factor);
+    }
+    
+    /**
+     * Version of {@link #rightVecSumAtNZIndexes(int[], double[], double, double[])}
+     * which only reads the first "numIndexes" entries of the index array.
+     * 
+     * @param onIndexes             the indexes of the "on" bits of the right side vector
+     * @param numIndexes            the number of valid entries in onIndexes
+     * @param results               the results array
+     * @param stimulusThreshold     results less than this value are set to zero
+     * @param factor                multiplied by each result at or above the threshold
+     */
+    public void rightVecSumAtNZIndexes(int[] onIndexes, int numIndexes, double[] results, double stimulusThreshold, double[] factor) {
+        rightVecSumAtNZIndexes(onIndexes, numIndexes, results);
+        
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] < stimulusThreshold) {
+                results[i] = 0;
+            } else {
+                results[i] *= factor[i];
+            }
+        }
+    }
+    
     /**
      * Returns the count of 1's set on the specified row.
      * @param index
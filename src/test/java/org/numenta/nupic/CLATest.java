@@ -0,0 +1,161 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.numenta.nupic.NetworkFixtures.createEncoder;
+import static org.numenta.nupic.NetworkFixtures.createParameters;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.numenta.nupic.encoders.ScalarEncoder;
+import org.numenta.nupic.model.Column;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+
+public class CLATest {
+
+    @SuppressWarnings("unchecked")
+    private CLA createCLA(int numInputs, boolean flatConnections) {
+        Build param = createParameters(numInputs);
+        param.set(KEY.FLAT_CONNECTIONS, flatConnections);
+        return NetworkFixtures.createCLA(param);
+    }
+
+    private double value(int i) {
+        return (i % 8) + (i % 13 == 0 ? 0.5 : 0);
+    }
+
+    private Network<Double> network(ScalarEncoder encoder, CLA cla) {
+        return new Network<>(encoder, cla, new SpatialPooler(), new TemporalMemory(), null);
+    }
+
+    private void assertInferenceEquals(Network.Inference expected, Network.Inference actual) {
+        assertTrue(Arrays.equals(expected.getActiveColumns(), actual.getActiveColumns()));
+        assertTrue(Arrays.equals(
+            expected.getComputeCycle().activeCellIndexes(), actual.getComputeCycle().activeCellIndexes()));
+        assertTrue(Arrays.equals(
+            expected.getComputeCycle().predictiveCellIndexes(), actual.getComputeCycle().predictiveCellIndexes()));
+        assertEquals(expected.getAnomalyScore(), actual.getAnomalyScore(), 0);
+    }
+
+    /**
+     * Trains two identical models, forks one of them twice, and has one fork
+     * learn something else. The other fork and its parent then learn
+     * alongside the untouched model, and must keep matching it.
+     */
+    @Test
+    public void testForkLearnsIndependently() {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth(), true);
+        CLA reference = createCLA(encoder.getWidth(), true);
+        Network<Double> network = network(encoder, cla);
+        Network<Double> referenceNetwork = network(encoder, reference);
+        for(int i = 0;i < 150;i++) {
+            network.push(value(i));
+            referenceNetwork.push(value(i));
+        }
+
+        CLA speculative = cla.fork();
+        CLA sibling = cla.fork();
+        Network<Double> speculativeNetwork = network(encoder, speculative);
+        for(int i = 0;i < 100;i++) {
+            speculativeNetwork.push(10 - value(i * 3));
+        }
+
+        Network<Double> siblingNetwork = network(encoder, sibling);
+        for(int i = 150;i < 300;i++) {
+            Network.Inference expected = referenceNetwork.push(value(i));
+            assertInferenceEquals(expected, network.push(value(i)));
+            assertInferenceEquals(expected, siblingNetwork.push(value(i)));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testForkWithObjectConnectionsIsRejected() {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth(), false);
+        network(encoder, cla).push(value(0));
+        cla.fork();
+    }
+
+    @Test
+    public void testForkSharesConnectionsUntilWritten() {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth(), true);
+        Network<Double> network = network(encoder, cla);
+        for(int i = 0;i < 50;i++) {
+            network.push(value(i));
+        }
+
+        CLA fork = cla.fork();
+        assertTrue(fork.getConnectionStore() != cla.getConnectionStore());
+        assertEquals(cla.getConnectionStore().getSynapseCount(), fork.getConnectionStore().getSynapseCount());
+        for(int i = 0;i < cla.getNumColumns();i++) {
+            assertTrue(cla.getPotentialPools().getIndex(i) == fork.getPotentialPools().getIndex(i));
+        }
+
+        //Only the columns the fork learns on get their own pools
+        Network.Inference inference = network(encoder, fork).push(value(50));
+        int numCopied = 0;
+        for(int i = 0;i < cla.getNumColumns();i++) {
+            if(cla.getPotentialPools().getIndex(i) != fork.getPotentialPools().getIndex(i)) {
+                numCopied++;
+                assertTrue(Arrays.binarySearch(inference.getActiveColumns(), i) >= 0);
+            }
+        }
+        assertEquals(inference.getActiveColumns().length, numCopied);
+    }
+
+    @Test
+    public void testParentWritesDoNotReachFork() {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth(), true);
+        Network<Double> network = network(encoder, cla);
+        for(int i = 0;i < 50;i++) {
+            network.push(value(i));
+        }
+
+        CLA fork = cla.fork();
+        Column column = cla.getColumn(0);
+        int numSynapses = cla.getSynapses(column.getProximalDendrite()).size();
+        int synapseCount = cla.getSynapseCount();
+        double[] forkPermanences = fork.getPotentialPools().getIndex(0).getPermanencesDense(fork);
+
+        //The parent copies the pool and must not write through its old synapses
+        double[] permanences = new double[cla.getNumInputs()];
+        Arrays.fill(permanences, 0.9);
+        column.setProximalPermanences(cla, permanences);
+        column.setProximalPermanences(cla, permanences);
+
+        assertTrue(Arrays.equals(forkPermanences, fork.getPotentialPools().getIndex(0).getPermanencesDense(fork)));
+        assertEquals(numSynapses, cla.getSynapses(column.getProximalDendrite()).size());
+        assertEquals(synapseCount, cla.getSynapseCount());
+        for(Synapse s : cla.getSynapses(column.getProximalDendrite())) {
+            assertEquals(0.9, s.getPermanence(), 1e-6);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.numenta.nupic.NetworkFixtures.createEncoder;
+import static org.numenta.nupic.NetworkFixtures.createParameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.numenta.nupic.encoders.ScalarEncoder;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+
+public class CheckpointerTest {
+
+    @SuppressWarnings("unchecked")
+    private CLA createCLA(int numInputs, boolean countActiveSynapses) {
+        Build param = createParameters(numInputs);
+        param.set(KEY.MAX_SEGMENTS_PER_CELL, 3);
+        param.set(KEY.COUNT_ACTIVE_SYNAPSES, countActiveSynapses);
+        return NetworkFixtures.createCLA(param);
+    }
+
+    private double value(int i) {
+        return (i % 8) + (i % 13 == 0 ? 0.5 : 0);
+    }
+
+    private void push(Network<Double> network, int from, int count) {
+        for(int i = from;i < from + count;i++) {
+            network.push(value(i));
+        }
+    }
+
+    private byte[] snapshot(CLA cla) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Snapshot.write(cla, Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+
+    private List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for(Path path : stream) {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+
+    private void assertSameFuture(Network<Double> expected, Network<Double> actual, int from, int count) {
+        for(int i = from;i < from + count;i++) {
+            Network.Inference e = expected.push(value(i));
+            int[] activeColumns = e.getActiveColumns();
+            int[] activeCells = e.getComputeCycle().activeCellIndexes();
+            int[] predictiveCells = e.getComputeCycle().predictiveCellIndexes();
+            double anomaly = e.getAnomalyScore();
+
+            Network.Inference a = actual.push(value(i));
+            assertTrue(Arrays.equals(activeColumns, a.getActiveColumns()));
+            assertTrue(Arrays.equals(activeCells, a.getComputeCycle().activeCellIndexes()));
+            assertTrue(Arrays.equals(predictiveCells, a.getComputeCycle().predictiveCellIndexes()));
+            assertEquals(anomaly, a.getAnomalyScore(), 0);
+        }
+    }
+
+    private void testRecoveredModelContinuesAlike(boolean countActiveSynapses) throws IOException {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth(), countActiveSynapses);
+        Network<Double> network = new Network<>(encoder, cla, new SpatialPooler(), new TemporalMemory(), null);
+        push(network, 0, 100);
+
+        Path directory = Files.createTempDirectory("checkpoints");
+        try(Checkpointer checkpointer = new Checkpointer(cla, directory)) {
+            long base = Files.size(directory.resolve("checkpoint.base"));
+            for(int i = 0;i < 5;i++) {
+                push(network, 100 + 20 * i, 20);
+                assertEquals(i + 2, checkpointer.checkpoint());
+            }
+            assertTrue(Files.size(directory.resolve("checkpoint-0.deltas")) < 5 * base);
+        }
+
+        CLA recovered = Checkpointer.recover(directory);
+        assertTrue(Arrays.equals(snapshot(cla), snapshot(recovered)));
+        Network<Double> copy = new Network<>(encoder, recovered, new SpatialPooler(), new TemporalMemory(), null);
+        assertSameFuture(network, copy, 200, 150);
+    }
+
+    @Test
+    public void testRecoveredModelContinuesAlike() throws IOException {
+        testRecoveredModelContinuesAlike(false);
+    }
+
+    @Test
+    public void testRecoveredCountingModelContinuesAlike() throws IOException {
+        testRecoveredModelContinuesAlike(true);
+    }
+
+    @Test
+    public void testCheckpointClearsDirtyFlags() throws IOException {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth(), false);
+        Network<Double> network = new Network<>(encoder, cla, new SpatialPooler(), new TemporalMemory(), null);
+        push(network, 0, 50);
+
+        try(Checkpointer checkpointer = new Checkpointer(cla, Files.createTempDirectory("checkpoints"))) {
+            push(network, 50, 1);
+            int dirty = 0;
+            for(int i = 0;i < cla.getNumColumns();i++) {
+                if(cla.getColumn(i).getProximalDendrite().isDirty()) dirty++;
+            }
+            assertTrue(dirty > 0 && dirty < cla.getNumColumns());
+
+            checkpointer.checkpoint();
+            for(int i = 0;i < cla.getNumColumns();i++) {
+                assertFalse(cla.getColumn(i).getProximalDendrite().isDirty());
+            }
+            for(Cell cell : cla.getCells()) {
+                assertFalse(cell.isDirty());
+                for(DistalDendrite dd : cla.getSegments(cell, false)) {
+                    assertFalse(dd.isDirty());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompactionInBackground() throws Exception {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth(), false);
+        Network<Double> network = new Network<>(encoder, cla, new SpatialPooler(), new TemporalMemory(), null);
+        push(network, 0, 100);
+
+        Path directory = Files.createTempDirectory("checkpoints");
+        try(final Checkpointer checkpointer = new Checkpointer(cla, directory)) {
+            for(int i = 0;i < 3;i++) {
+                push(network, 100 + 10 * i, 10);
+                checkpointer.checkpoint();
+            }
+
+            final Exception[] failure = new Exception[1];
+            Thread compaction = new Thread(new Runnable() {
+                @Override public void run() {
+                    try {
+                        checkpointer.compact();
+                    }catch(Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            compaction.start();
+            for(int i = 3;i < 6;i++) {
+                push(network, 100 + 10 * i, 10);
+                checkpointer.checkpoint();
+            }
+            compaction.join();
+            assertEquals(null, failure[0]);
+            assertFalse(Files.exists(directory.resolve("checkpoint-0.deltas")));
+            assertEquals(7, checkpointer.getSequence());
+        }
+
+        CLA recovered = Checkpointer.recover(directory);
+        assertTrue(Arrays.equals(snapshot(cla), snapshot(recovered)));
+    }
+
+    @Test
+    public void testTornDeltaIsIgnored() throws IOException {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth(), false);
+        Network<Double> network = new Network<>(encoder, cla, new SpatialPooler(), new TemporalMemory(), null);
+        push(network, 0, 100);
+
+        Path directory = Files.createTempDirectory("checkpoints");
+        try(Checkpointer checkpointer = new Checkpointer(cla, directory)) {
+            push(network, 100, 10);
+            checkpointer.checkpoint();
+        }
+        byte[] expected = snapshot(cla);
+
+        //A crash while appending the next delta
+        Path log = directory.resolve("checkpoint-0.deltas");
+        byte[] bytes = Files.readAllBytes(log);
+        Files.write(log, Arrays.copyOf(bytes, bytes.length / 2), StandardOpenOption.APPEND);
+
+        CLA recovered = Checkpointer.recover(directory);
+        assertTrue(Arrays.equals(expected, snapshot(recovered)));
+
+        //Checkpointing the recovered model supersedes the old chain
+        try(Checkpointer checkpointer = new Checkpointer(recovered, directory)) {
+            assertEquals(3, checkpointer.getSequence());
+        }
+        assertEquals(2, list(directory).size());
+        assertTrue(Arrays.equals(expected, snapshot(Checkpointer.recover(directory))));
+    }
+}
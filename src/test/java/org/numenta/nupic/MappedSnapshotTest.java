@@ -0,0 +1,216 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.numenta.nupic.NetworkFixtures.createEncoder;
+import static org.numenta.nupic.NetworkFixtures.createParameters;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.numenta.nupic.encoders.ScalarEncoder;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.MappedConnectionStore;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+
+public class MappedSnapshotTest {
+
+    private CLA createCLA(int numInputs) {
+        return NetworkFixtures.createCLA(createParameters(numInputs));
+    }
+
+    private double value(int i) {
+        return (i % 8) + (i % 13 == 0 ? 0.5 : 0);
+    }
+
+    private Network<Double> train(ScalarEncoder encoder, CLA cla) {
+        Network<Double> network = new Network<>(encoder, cla, new SpatialPooler(), new TemporalMemory(), null);
+        for(int i = 0;i < 150;i++) {
+            network.push(value(i));
+        }
+        return network;
+    }
+
+    private File write(CLA cla, boolean floatPermanences) throws IOException {
+        File file = File.createTempFile("mapped", ".htm");
+        file.deleteOnExit();
+        try(FileOutputStream out = new FileOutputStream(file)) {
+            MappedSnapshot.write(cla, out.getChannel(), floatPermanences);
+        }
+        return file;
+    }
+
+    private void testMappedModelInfersAlike(boolean floatPermanences) throws IOException {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth());
+        Network<Double> network = train(encoder, cla);
+        assertTrue(cla.getSegmentCount() > 0);
+
+        CLA mapped = MappedSnapshot.open(write(cla, floatPermanences).toPath());
+        assertTrue(mapped.getConnectionStore() instanceof MappedConnectionStore);
+        int numSegments = 0;
+        int numSynapses = 0;
+        for(Cell cell : cla.getCells()) {
+            for(DistalDendrite dd : cla.getSegments(cell, false)) {
+                numSegments++;
+                numSynapses += cla.getSynapses(dd, false).size();
+            }
+        }
+        assertEquals(numSegments, mapped.getConnectionStore().getSegmentCount());
+        assertEquals(numSynapses, mapped.getConnectionStore().getSynapseCount());
+        assertTrue(Arrays.equals(cla.getBoostFactors(), mapped.getBoostFactors()));
+
+        Network<Double> copy = new Network<>(encoder, mapped, new SpatialPooler(), new TemporalMemory(), null);
+        network.setLearn(false);
+        copy.setLearn(false);
+        for(int i = 150;i < 300;i++) {
+            Network.Inference e = network.push(value(i));
+            int[] activeColumns = e.getActiveColumns();
+            int[] activeCells = e.getComputeCycle().activeCellIndexes();
+            int[] predictiveCells = e.getComputeCycle().predictiveCellIndexes();
+            double anomaly = e.getAnomalyScore();
+
+            Network.Inference a = copy.push(value(i));
+            assertTrue(Arrays.equals(activeColumns, a.getActiveColumns()));
+            assertTrue(Arrays.equals(activeCells, a.getComputeCycle().activeCellIndexes()));
+            assertTrue(Arrays.equals(predictiveCells, a.getComputeCycle().predictiveCellIndexes()));
+            assertEquals(anomaly, a.getAnomalyScore(), 0);
+        }
+    }
+
+    @Test
+    public void testMappedModelInfersAlike() throws IOException {
+        testMappedModelInfersAlike(false);
+    }
+
+    @Test
+    public void testMappedModelWithFloatPermanencesInfersAlike() throws IOException {
+        testMappedModelInfersAlike(true);
+    }
+
+    @Test
+    public void testMappedModelRefusesToLearn() throws IOException {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth());
+        train(encoder, cla);
+
+        CLA mapped = MappedSnapshot.open(write(cla, false).toPath());
+        Network<Double> copy = new Network<>(encoder, mapped, new SpatialPooler(), new TemporalMemory(), null);
+        int iterationNum = mapped.getIterationNum();
+        int iterationLearnNum = mapped.iterationLearnNum;
+        try {
+            copy.push(1.0);
+            fail();
+        }catch(IllegalStateException e) {
+            assertTrue(e.getMessage().contains("learn"));
+        }
+        try {
+            new SpatialPooler().computeBatch(mapped, new int[][] { encoder.encode(1.0) },
+                new int[1][mapped.getNumColumns()], true);
+            fail();
+        }catch(IllegalStateException e) {
+            assertTrue(e.getMessage().contains("learn"));
+        }
+        //The refused records leave the pooler's state untouched
+        assertEquals(iterationNum, mapped.getIterationNum());
+        assertEquals(iterationLearnNum, mapped.iterationLearnNum);
+        try {
+            mapped.getConnectionStore().createSegment(0);
+            fail();
+        }catch(UnsupportedOperationException e) {
+            assertTrue(mapped.getConnectionStore().isReadOnly());
+        }
+    }
+
+    @Test
+    public void testForkInfersConcurrentlyWithMappedModel() throws Exception {
+        final ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth());
+        Network<Double> network = train(encoder, cla);
+        CLA mapped = MappedSnapshot.open(write(cla, false).toPath());
+        CLA fork = mapped.fork();
+        assertTrue(fork.getConnectionStore() != mapped.getConnectionStore());
+
+        network.setLearn(false);
+        final List<int[]> expected = new ArrayList<>();
+        for(int i = 150;i < 300;i++) {
+            Network.Inference inference = network.push(value(i));
+            expected.add(inference.getComputeCycle().activeCellIndexes());
+            expected.add(inference.getComputeCycle().predictiveCellIndexes());
+        }
+
+        //Each thread infers on its own memory over the one mapped buffer
+        final CLA[] memories = { mapped, fork };
+        final List<List<int[]>> actual = new ArrayList<>();
+        Thread[] threads = new Thread[memories.length];
+        for(int t = 0;t < threads.length;t++) {
+            final List<int[]> results = new ArrayList<>();
+            actual.add(results);
+            final CLA memory = memories[t];
+            threads[t] = new Thread(new Runnable() {
+                @Override public void run() {
+                    Network<Double> copy = new Network<>(encoder, memory, new SpatialPooler(), new TemporalMemory(), null);
+                    copy.setLearn(false);
+                    for(int i = 150;i < 300;i++) {
+                        Network.Inference inference = copy.push(value(i));
+                        results.add(inference.getComputeCycle().activeCellIndexes());
+                        results.add(inference.getComputeCycle().predictiveCellIndexes());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        for(List<int[]> results : actual) {
+            assertEquals(expected.size(), results.size());
+            for(int i = 0;i < expected.size();i++) {
+                assertTrue(Arrays.equals(expected.get(i), results.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsOtherData() throws IOException {
+        try {
+            MappedSnapshot.open(ByteBuffer.wrap("not a mapped snapshot".getBytes("UTF-8")));
+            fail();
+        }catch(StreamCorruptedException e) {
+            assertTrue(e.getMessage().contains("magic"));
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.numenta.nupic.NetworkFixtures.createEncoder;
+import static org.numenta.nupic.NetworkFixtures.createParameters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.numenta.nupic.Network.Inference;
+import org.numenta.nupic.encoders.ScalarEncoder;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+
+public class ModelHostTest {
+
+    /**
+     * Returns parameters for a smaller model than the shared ones, as the host runs many
+     */
+    @SuppressWarnings("unchecked")
+    private Build createSmallParameters(int numInputs) {
+        Build param = createParameters(numInputs);
+        param.set(KEY.COLUMN_DIMENSIONS, new int[] { 100 });
+        param.set(KEY.NUM_ACTIVE_COLUMNS_PER_INH_AREA, 5.0);
+        param.set(KEY.ACTIVATION_THRESHOLD, 3);
+        param.set(KEY.MIN_THRESHOLD, 2);
+        param.set(KEY.MAX_NEW_SYNAPSE_COUNT, 5);
+        return param;
+    }
+
+    private double value(int model, int record) {
+        return (record * (model % 5 + 1)) % 8;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testMatchesIndependentNetworks() throws InterruptedException {
+        final int numModels = 24;
+        final int numRecords = 60;
+        final ScalarEncoder encoder = createEncoder();
+
+        //Each model's cells are only recorded by the turn handling it
+        final List<List<int[]>> activeCells = new ArrayList<>();
+        for(int m = 0;m < numModels;m++) {
+            activeCells.add(new ArrayList<int[]>());
+        }
+        final ModelHost<Double> host = new ModelHost<>(4, 3, numRecords, new ModelHost.Observer<Double>() {
+            @Override public void onInference(ModelHost.Model<Double> model, Inference inference) {
+                int m = Integer.parseInt(model.getId());
+                assertEquals(activeCells.get(m).size(), inference.getRecordNum());
+                activeCells.get(m).add(inference.getComputeCycle().activeCellIndexes());
+            }
+        });
+
+        Build shared = createSmallParameters(encoder.getWidth());
+        for(int m = 0;m < numModels;m++) {
+            host.addModel(String.valueOf(m), encoder, shared, null);
+        }
+        assertEquals(numModels, host.getModelCount());
+
+        //Two producers, each posting to half of the models
+        Thread[] producers = new Thread[2];
+        for(int p = 0;p < producers.length;p++) {
+            final int first = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override public void run() {
+                    for(int r = 0;r < numRecords;r++) {
+                        for(int m = first;m < numModels;m += 2) {
+                            assertTrue(host.offer(String.valueOf(m), value(m, r)));
+                        }
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for(Thread producer : producers) {
+            producer.join();
+        }
+        host.drain();
+
+        for(int m = 0;m < numModels;m++) {
+            ModelHost.Model<Double> model = host.getModel(String.valueOf(m));
+            assertNull(model.getFailure());
+            assertEquals(0, model.getPendingCount());
+            assertEquals(numRecords, model.getNetwork().getRecordCount());
+
+            Build param = createSmallParameters(encoder.getWidth());
+            CLA cla = new CLA(param);
+            Network<Double> network = new Network<>(encoder, cla, new SpatialPooler(cla, param),
+                new TemporalMemory(cla, param), null);
+            for(int r = 0;r < numRecords;r++) {
+                int[] expected = network.push(value(m, r)).getComputeCycle().activeCellIndexes();
+                assertTrue(Arrays.equals(expected, activeCells.get(m).get(r)));
+            }
+        }
+        host.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMailboxCapacity() throws InterruptedException {
+        ScalarEncoder encoder = createEncoder();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ModelHost<Double> host = new ModelHost<>(2, 1, 3, new ModelHost.Observer<Double>() {
+            @Override public void onInference(ModelHost.Model<Double> model, Inference inference) {
+                if(inference.getRecordNum() == 0) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    }catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        host.addModel("a", encoder, createSmallParameters(encoder.getWidth()), null);
+
+        //The first record holds the model busy while the mailbox fills up
+        assertTrue(host.offer("a", 1.0));
+        started.await();
+        assertTrue(host.offer("a", 2.0));
+        assertTrue(host.offer("a", 3.0));
+        assertFalse(host.offer("a", 4.0));
+        assertEquals(3, host.getModel("a").getPendingCount());
+
+        release.countDown();
+        host.drain();
+        assertEquals(3, host.getModel("a").getNetwork().getRecordCount());
+        host.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBackloggedModelDoesNotStarveOthers() throws InterruptedException {
+        ScalarEncoder encoder = createEncoder();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        ModelHost<Double> host = new ModelHost<>(1, 1, 50, new ModelHost.Observer<Double>() {
+            @Override public void onInference(ModelHost.Model<Double> model, Inference inference) {
+                order.add(model.getId());
+                if(order.size() == 1) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    }catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        Build param = createSmallParameters(encoder.getWidth());
+        host.addModel("a", encoder, param, null);
+        host.addModel("b", encoder, param, null);
+
+        //The only worker holds "a" while its backlog and then "b" are posted
+        assertTrue(host.offer("a", 0.0));
+        started.await();
+        for(int r = 1;r < 20;r++) {
+            assertTrue(host.offer("a", (double)(r % 8)));
+        }
+        assertTrue(host.offer("b", 0.0));
+        release.countDown();
+        host.drain();
+
+        //"a" requeues behind "b" after each record
+        assertEquals(21, order.size());
+        assertEquals(Arrays.asList("a", "b", "a"), order.subList(0, 3));
+        host.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFailureIsIsolated() throws InterruptedException {
+        ScalarEncoder encoder = createEncoder();
+        ModelHost<Double> host = new ModelHost<>(2, 2, 100, new ModelHost.Observer<Double>() {
+            @Override public void onInference(ModelHost.Model<Double> model, Inference inference) {
+                if(model.getId().equals("bad") && inference.getRecordNum() == 2) {
+                    throw new UnsupportedOperationException();
+                }
+            }
+        });
+        Build param = createSmallParameters(encoder.getWidth());
+        host.addModel("good", encoder, param, null);
+        host.addModel("bad", encoder, param, null);
+        try {
+            host.addModel("good", encoder, param, null);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("good"));
+        }
+
+        for(int r = 0;r < 10;r++) {
+            host.offer("good", (double)(r % 8));
+            try {
+                host.offer("bad", (double)(r % 8));
+            }catch(IllegalStateException e) {
+                //The bad model may fail before all its records are posted
+            }
+        }
+        host.drain();
+
+        assertNull(host.getModel("good").getFailure());
+        assertEquals(10, host.getModel("good").getNetwork().getRecordCount());
+        assertTrue(host.getModel("bad").getFailure() instanceof UnsupportedOperationException);
+        assertEquals(3, host.getModel("bad").getNetwork().getRecordCount());
+        try {
+            host.offer("bad", 0.0);
+            fail();
+        }catch(IllegalStateException e) {
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+        host.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic;
+
+import org.numenta.nupic.encoders.ScalarEncoder;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+
+/**
+ * The encoder and the pooler and temporal memory parameters which the
+ * tests of {@link Network} and of the classes built around it share
+ */
+final class NetworkFixtures {
+
+    private NetworkFixtures() {}
+
+    /**
+     * Returns an encoder of the values from 0 to 10
+     * @return
+     */
+    static ScalarEncoder createEncoder() {
+        return ScalarEncoder.builder()
+            .n(50)
+            .w(5)
+            .minVal(0)
+            .maxVal(10)
+            .resolution(0.25)
+            .periodic(false)
+            .forced(true)
+            .build();
+    }
+
+    /**
+     * Returns the parameters of a pooler of 200 columns over the specified
+     * number of inputs and of a temporal memory of 4 cells per column
+     * @param numInputs
+     * @return
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static Build createParameters(int numInputs) {
+        Build param = CLA.Default().add(SpatialPooler.Default()).add(TemporalMemory.Default());
+        param.set(KEY.INPUT_DIMENSIONS, new int[] { numInputs });
+        param.set(KEY.COLUMN_DIMENSIONS, new int[] { 200 });
+        param.set(KEY.CELLS_PER_COLUMN, 4);
+        param.set(KEY.POTENTIAL_RADIUS, numInputs);
+        param.set(KEY.POTENTIAL_PCT, 0.8);
+        param.set(KEY.GLOBAL_INHIBITIONS, true);
+        param.set(KEY.NUM_ACTIVE_COLUMNS_PER_INH_AREA, 10.0);
+        param.set(KEY.STIMULUS_THRESHOLD, 1.0);
+        param.set(KEY.SYN_PERM_TRIM_THRESHOLD, 0.05);
+        param.set(KEY.ACTIVATION_THRESHOLD, 4);
+        param.set(KEY.MIN_THRESHOLD, 3);
+        param.set(KEY.MAX_NEW_SYNAPSE_COUNT, 10);
+        return param;
+    }
+
+    /**
+     * Returns a memory initialized by a pooler and a temporal memory
+     * configured with the specified parameters
+     * @param param
+     * @return
+     */
+    @SuppressWarnings("rawtypes")
+    static CLA createCLA(Build param) {
+        CLA cla = new CLA(param);
+        new SpatialPooler(cla, param);
+        new TemporalMemory(cla, param);
+        return cla;
+    }
+}
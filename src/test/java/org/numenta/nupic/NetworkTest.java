@@ -0,0 +1,122 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.numenta.nupic.NetworkFixtures.createEncoder;
+import static org.numenta.nupic.NetworkFixtures.createParameters;
+
+import java.util.Arrays;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import org.junit.Test;
+import org.numenta.nupic.algorithms.CLAClassifier;
+import org.numenta.nupic.algorithms.Classification;
+import org.numenta.nupic.algorithms.Classify;
+import org.numenta.nupic.encoders.ScalarEncoder;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.Condition;
+
+public class NetworkTest {
+
+    @SuppressWarnings("unchecked")
+    private Network<Double> createNetwork(ScalarEncoder encoder, int numInputs) {
+        Build param = createParameters(numInputs);
+        CLA cla = new CLA(param);
+        SpatialPooler sp = new SpatialPooler(cla, param);
+        TemporalMemory tm = new TemporalMemory(cla, param);
+        return new Network<>(encoder, cla, sp, tm, new CLAClassifier(new TIntArrayList(new int[] { 1 }), 0.1, 0.1, 0));
+    }
+
+    @Test
+    public void testLearnsSequence() {
+        ScalarEncoder encoder = createEncoder();
+        Network<Double> network = createNetwork(encoder, encoder.getWidth());
+
+        Network.Inference inference = null;
+        double lastAnomaly = 1;
+        for(int i = 0;i < 400;i++) {
+            double value = i % 8;
+            int bucket = encoder.getBucketIndices(value)[0];
+            inference = network.push(value, new Classify<Double>(bucket, value));
+            lastAnomaly = inference.getAnomalyScore();
+
+            assertEquals(i, inference.getRecordNum());
+            assertTrue(Arrays.equals(encoder.encode(value), inference.getEncoding()));
+            assertTrue(Arrays.equals(ArrayUtils.where(inference.getActiveArray(), Condition.GreaterThanZero),
+                inference.getActiveColumns()));
+        }
+        assertEquals(400, network.getRecordCount());
+        assertEquals(0, lastAnomaly, 0);
+
+        //The classifier predicts the next value of the sequence
+        Classification<Double> classification = inference.getClassification();
+        double[] votes = classification.getStats(1);
+        int best = 0;
+        for(int i = 1;i < votes.length;i++) {
+            if(votes[i] > votes[best]) best = i;
+        }
+        assertEquals(encoder.getBucketIndices(0.0)[0], best);
+
+        for(Network.Stage stage : Network.Stage.values()) {
+            assertTrue(network.getStageNanos(stage) > 0);
+        }
+        network.resetTimings();
+        assertEquals(0, network.getStageNanos(Network.Stage.ENCODER));
+    }
+
+    @Test
+    public void testInferenceIsReused() {
+        ScalarEncoder encoder = createEncoder();
+        Network<Double> network = createNetwork(encoder, encoder.getWidth());
+        network.setLearn(false);
+
+        Network.Inference first = network.push(1.0);
+        assertNull(first.getClassification());
+        int[] firstColumns = first.getActiveColumns();
+        Network.Inference second = network.push(2.0);
+        assertSame(first, second);
+        assertTrue(Arrays.equals(encoder.encode(2.0), second.getEncoding()));
+        //As many columns are active, so their array is reused too
+        assertSame(firstColumns, second.getActiveColumns());
+        assertEquals(0, network.getStageNanos(Network.Stage.CLASSIFIER));
+    }
+
+    @Test
+    public void testEncoderWidthMustMatchInputs() {
+        ScalarEncoder encoder = createEncoder();
+        try {
+            createNetwork(encoder, encoder.getWidth() + 1);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("encoder width"));
+        }
+    }
+}
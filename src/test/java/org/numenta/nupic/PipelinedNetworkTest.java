@@ -0,0 +1,167 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.numenta.nupic.NetworkFixtures.createEncoder;
+import static org.numenta.nupic.NetworkFixtures.createParameters;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.numenta.nupic.Network.Inference;
+import org.numenta.nupic.algorithms.CLAClassifier;
+import org.numenta.nupic.algorithms.Classification;
+import org.numenta.nupic.algorithms.Classify;
+import org.numenta.nupic.encoders.ScalarEncoder;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+
+public class PipelinedNetworkTest {
+
+    private CLAClassifier createClassifier() {
+        return new CLAClassifier(new TIntArrayList(new int[] { 1 }), 0.1, 0.1, 0);
+    }
+
+    private double[] values(int count) {
+        double[] values = new double[count];
+        for(int i = 0;i < count;i++) {
+            values[i] = (i * 3) % 11 % 8;
+        }
+        return values;
+    }
+
+    /**
+     * Copies what a {@link PipelinedNetwork} reports, since its inferences are reused
+     */
+    private static class Recorder implements PipelinedNetwork.Observer {
+        List<Integer> recordNums = new ArrayList<>();
+        List<int[]> activeColumns = new ArrayList<>();
+        List<int[]> activeCells = new ArrayList<>();
+        List<Double> anomalyScores = new ArrayList<>();
+        List<double[]> stats = new ArrayList<>();
+
+        @Override public void onInference(Inference inference) {
+            recordNums.add(inference.getRecordNum());
+            activeColumns.add(inference.getActiveColumns().clone());
+            activeCells.add(inference.getComputeCycle().activeCellIndexes());
+            anomalyScores.add(inference.getAnomalyScore());
+            Classification<Double> classification = inference.getClassification();
+            stats.add(classification.getStats(1).clone());
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testMatchesNetwork() throws InterruptedException {
+        ScalarEncoder encoder = createEncoder();
+        double[] values = values(300);
+
+        Build serialParams = createParameters(encoder.getWidth());
+        CLA serialCLA = new CLA(serialParams);
+        Network<Double> serial = new Network<>(encoder, serialCLA, new SpatialPooler(serialCLA, serialParams),
+            new TemporalMemory(serialCLA, serialParams), createClassifier());
+
+        Build params = createParameters(encoder.getWidth());
+        CLA cla = new CLA(params);
+        Recorder recorder = new Recorder();
+        PipelinedNetwork<Double> pipelined = new PipelinedNetwork<>(encoder, cla, new SpatialPooler(cla, params),
+            new TemporalMemory(cla, params), createClassifier(), recorder, 3);
+
+        for(int i = 0;i < values.length;i++) {
+            if(i == 200) {
+                pipelined.setLearn(false);
+            }
+            pipelined.push(values[i], new Classify<Double>(encoder.getBucketIndices(values[i])[0], values[i]));
+        }
+        pipelined.drain();
+        assertEquals(values.length, recorder.recordNums.size());
+
+        for(int i = 0;i < values.length;i++) {
+            if(i == 200) {
+                serial.setLearn(false);
+            }
+            Inference inference = serial.push(values[i], new Classify<Double>(encoder.getBucketIndices(values[i])[0], values[i]));
+            assertEquals(i, (int)recorder.recordNums.get(i));
+            assertTrue(Arrays.equals(inference.getActiveColumns(), recorder.activeColumns.get(i)));
+            assertTrue(Arrays.equals(inference.getComputeCycle().activeCellIndexes(), recorder.activeCells.get(i)));
+            assertEquals(inference.getAnomalyScore(), recorder.anomalyScores.get(i), 0);
+            Classification<Double> classification = inference.getClassification();
+            assertTrue(Arrays.equals(classification.getStats(1), recorder.stats.get(i)));
+        }
+
+        pipelined.close();
+        assertEquals(values.length, pipelined.getRecordCount());
+        for(Network.Stage stage : Network.Stage.values()) {
+            assertTrue(pipelined.getStageNanos(stage) > 0);
+        }
+        try {
+            pipelined.push(0.0);
+            fail();
+        }catch(IllegalStateException e) {
+            assertTrue(e.getMessage().contains("closed"));
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testStageFailureIsReported() throws InterruptedException {
+        ScalarEncoder encoder = createEncoder();
+        Build params = createParameters(encoder.getWidth());
+        CLA cla = new CLA(params);
+        PipelinedNetwork<Double> pipelined = new PipelinedNetwork<>(encoder, cla, new SpatialPooler(cla, params),
+            new TemporalMemory(cla, params), null, new PipelinedNetwork.Observer() {
+                @Override public void onInference(Inference inference) {
+                    if(inference.getRecordNum() == 5) {
+                        throw new UnsupportedOperationException("record 5");
+                    }
+                }
+            }, 2);
+
+        try {
+            for(int i = 0;i < 100;i++) {
+                pipelined.push((double)(i % 8));
+            }
+            pipelined.drain();
+            fail();
+        }catch(IllegalStateException e) {
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBeAtLeastTwo() {
+        ScalarEncoder encoder = createEncoder();
+        Build params = createParameters(encoder.getWidth());
+        CLA cla = new CLA(params);
+        new PipelinedNetwork<>(encoder, cla, new SpatialPooler(cla, params), new TemporalMemory(cla, params), null, null, 1);
+    }
+}
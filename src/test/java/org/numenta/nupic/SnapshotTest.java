@@ -0,0 +1,146 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.numenta.nupic.NetworkFixtures.createEncoder;
+import static org.numenta.nupic.NetworkFixtures.createParameters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.numenta.nupic.encoders.ScalarEncoder;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+
+public class SnapshotTest {
+
+    @SuppressWarnings("unchecked")
+    private CLA createCLA(int numInputs, boolean countActiveSynapses) {
+        Build param = createParameters(numInputs);
+        param.set(KEY.COUNT_ACTIVE_SYNAPSES, countActiveSynapses);
+        return NetworkFixtures.createCLA(param);
+    }
+
+    private byte[] write(CLA cla, boolean floatPermanences) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Snapshot.write(cla, Channels.newChannel(bytes), floatPermanences);
+        return bytes.toByteArray();
+    }
+
+    private CLA read(byte[] bytes) throws IOException {
+        return Snapshot.read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * Feeds a noisy sequence, in which the generator is drawn on
+     * for bursting columns, to two networks and compares them
+     */
+    private void assertSameFuture(Network<Double> expected, Network<Double> actual, int from, int count) {
+        for(int i = from;i < from + count;i++) {
+            double value = (i % 8) + (i % 13 == 0 ? 0.5 : 0);
+            Network.Inference e = expected.push(value);
+            int[] activeColumns = e.getActiveColumns();
+            int[] activeCells = e.getComputeCycle().activeCellIndexes();
+            int[] predictiveCells = e.getComputeCycle().predictiveCellIndexes();
+            double anomaly = e.getAnomalyScore();
+
+            Network.Inference a = actual.push(value);
+            assertTrue(Arrays.equals(activeColumns, a.getActiveColumns()));
+            assertTrue(Arrays.equals(activeCells, a.getComputeCycle().activeCellIndexes()));
+            assertTrue(Arrays.equals(predictiveCells, a.getComputeCycle().predictiveCellIndexes()));
+            assertEquals(anomaly, a.getAnomalyScore(), 0);
+        }
+    }
+
+    private void testRestoredModelContinuesAlike(boolean countActiveSynapses) throws IOException {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth(), countActiveSynapses);
+        Network<Double> network = new Network<>(encoder, cla, new SpatialPooler(), new TemporalMemory(), null);
+        for(int i = 0;i < 150;i++) {
+            network.push((i % 8) + (i % 13 == 0 ? 0.5 : 0));
+        }
+
+        byte[] bytes = write(cla, false);
+        CLA restored = read(bytes);
+        assertTrue(Arrays.equals(bytes, write(restored, false)));
+        assertEquals(cla.getSynapseCount(), restored.getSynapseCount());
+        assertEquals(cla.getSegmentCount(), restored.getSegmentCount());
+        assertTrue(Arrays.equals(cla.getBoostFactors(), restored.getBoostFactors()));
+        assertEquals(cla.getPotentialRadius(), restored.getPotentialRadius(), 0);
+        assertTrue(cla.getSegmentCount() > 0);
+
+        Network<Double> copy = new Network<>(encoder, restored, new SpatialPooler(), new TemporalMemory(), null);
+        assertSameFuture(network, copy, 150, 150);
+    }
+
+    @Test
+    public void testRestoredModelContinuesAlike() throws IOException {
+        testRestoredModelContinuesAlike(false);
+    }
+
+    @Test
+    public void testRestoredCountingModelContinuesAlike() throws IOException {
+        testRestoredModelContinuesAlike(true);
+    }
+
+    @Test
+    public void testFloatPermanences() throws IOException {
+        ScalarEncoder encoder = createEncoder();
+        CLA cla = createCLA(encoder.getWidth(), false);
+        Network<Double> network = new Network<>(encoder, cla, new SpatialPooler(), new TemporalMemory(), null);
+        for(int i = 0;i < 50;i++) {
+            network.push((double)(i % 8));
+        }
+
+        byte[] doubles = write(cla, false);
+        byte[] floats = write(cla, true);
+        assertTrue(floats.length < doubles.length);
+
+        CLA restored = read(floats);
+        assertEquals(cla.getSynapseCount(), restored.getSynapseCount());
+        double[] expected = cla.getPotentialPools().getIndex(7).getPackedPermanences();
+        double[] actual = restored.getPotentialPools().getIndex(7).getPackedPermanences();
+        for(int i = 0;i < cla.getPotentialPools().getIndex(7).getPackedSize();i++) {
+            assertEquals((float)expected[i], actual[i], 0);
+        }
+    }
+
+    @Test
+    public void testRejectsOtherData() throws IOException {
+        try {
+            read("not a snapshot".getBytes("UTF-8"));
+            fail();
+        }catch(StreamCorruptedException e) {
+            assertTrue(e.getMessage().contains("magic"));
+        }
+    }
+}
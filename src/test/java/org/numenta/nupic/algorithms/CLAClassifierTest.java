@@ -26,6 +26,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import gnu.trove.list.array.TIntArrayList;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -244,6 +248,32 @@ public class CLAClassifierTest {
 		assertEquals(0.87699877, result.getStat(1, 5), 0.00001);
 	}
 	
+	@Test
+	public void testBinarySerialization() throws IOException {
+		classifier = new CLAClassifier(new TIntArrayList(new int[] { 1, 2 }), 0.1, 0.1, 0);
+		int[][] patterns = { { 1, 5, 9 }, { 0, 6, 9, 11 }, { 6, 9 }, { 2, 3, 40 } };
+		for(int recordNum = 0;recordNum < 20;recordNum++) {
+			compute(classifier, recordNum, patterns[recordNum % 4], recordNum % 4, 30.0 + recordNum % 4 + recordNum * 0.1);
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CLAClassifierBinarySerializer.write(classifier, Channels.newChannel(bytes));
+		CLAClassifier c = CLAClassifierBinarySerializer.read(
+			Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(classifier.getActiveBitHistory().size(), c.getActiveBitHistory().size());
+		
+		//Both continue exactly alike
+		for(int recordNum = 20;recordNum < 30;recordNum++) {
+			Classification<Double> expected = compute(classifier, recordNum, patterns[recordNum % 4], recordNum % 4, 30.0 + recordNum);
+			Classification<Double> actual = compute(c, recordNum, patterns[recordNum % 4], recordNum % 4, 30.0 + recordNum);
+			assertTrue(Arrays.equals(expected.stepSet(), actual.stepSet()));
+			assertTrue(Arrays.equals(expected.getActualValues(), actual.getActualValues()));
+			for(int step : expected.stepSet()) {
+				assertTrue(Arrays.equals(expected.getStats(step), actual.getStats(step)));
+			}
+		}
+	}
+	
 	@Test
 	public void testOverlapPattern() {
 		setUp();
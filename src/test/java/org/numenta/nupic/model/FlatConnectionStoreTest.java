@@ -0,0 +1,160 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class FlatConnectionStoreTest {
+
+    @Test
+    public void testCreateSegmentsAndSynapses() {
+        FlatConnectionStore store = new FlatConnectionStore(10);
+
+        int s0 = store.createSegment(3);
+        int s1 = store.createSegment(3);
+        int s2 = store.createSegment(7);
+        assertEquals(2, store.getNumSegments(3));
+        assertTrue(Arrays.equals(new int[] { s0, s1 }, Arrays.copyOf(store.getSegments(3), 2)));
+        assertEquals(7, store.getCellForSegment(s2));
+
+        int a = store.createSynapse(s0, 5, 0.3);
+        int b = store.createSynapse(s0, 6, 0.4);
+        int c = store.createSynapse(s2, 5, 0.5);
+        assertEquals(2, store.getNumSynapses(s0));
+        assertEquals(s0, store.getSegmentForSynapse(b));
+        assertEquals(6, store.getPresynapticCell(b));
+        assertEquals(0.4, store.getPermanence(b), 0);
+        assertEquals(2, store.getNumReceptorSynapses(5));
+        assertTrue(Arrays.equals(new int[] { a, c }, Arrays.copyOf(store.getReceptorSynapses(5), 2)));
+
+        store.setPermanence(a, 0.9);
+        assertEquals(0.9, store.getPermanence(a), 0);
+        assertEquals(3, store.getSegmentCount());
+        assertEquals(3, store.getSynapseCount());
+    }
+
+    @Test
+    public void testDestroyReusesIds() {
+        FlatConnectionStore store = new FlatConnectionStore(10);
+
+        int s0 = store.createSegment(1);
+        int s1 = store.createSegment(1);
+        int a = store.createSynapse(s0, 2, 0.3);
+        int b = store.createSynapse(s1, 2, 0.3);
+        int c = store.createSynapse(s1, 4, 0.3);
+
+        store.destroySynapse(b);
+        assertEquals(1, store.getNumSynapses(s1));
+        assertEquals(c, store.getSynapses(s1)[0]);
+        assertEquals(1, store.getNumReceptorSynapses(2));
+        assertEquals(a, store.getReceptorSynapses(2)[0]);
+
+        store.destroySegment(s0);
+        assertEquals(1, store.getNumSegments(1));
+        assertEquals(s1, store.getSegments(1)[0]);
+        assertEquals(0, store.getNumReceptorSynapses(2));
+        assertEquals(1, store.getSegmentCount());
+        assertEquals(1, store.getSynapseCount());
+
+        //Freed ids are handed out again before the store grows
+        int s2 = store.createSegment(9);
+        assertEquals(s0, s2);
+        int d = store.createSynapse(s2, 3, 0.2);
+        assertTrue(d == a || d == b);
+        assertEquals(2, store.getSegmentCapacity());
+        assertEquals(3, store.getSynapseCapacity());
+    }
+
+    @Test
+    public void testGrowth() {
+        FlatConnectionStore store = new FlatConnectionStore(4);
+        for(int i = 0;i < 100;i++) {
+            int segment = store.createSegment(i % 4);
+            for(int j = 0;j < 10;j++) {
+                store.createSynapse(segment, j % 4, j / 10.0);
+            }
+        }
+        assertEquals(100, store.getSegmentCount());
+        assertEquals(1000, store.getSynapseCount());
+        assertEquals(25, store.getNumSegments(0));
+        assertEquals(200, store.getNumReceptorSynapses(3));
+        assertEquals(0.9, store.getPermanence(store.getSynapses(99)[9]), 0);
+    }
+
+    @Test
+    public void testSinglePrecision() {
+        FlatConnectionStore store = new FlatConnectionStore(4, true);
+        assertTrue(store.isSinglePrecision());
+        int synapse = store.createSynapse(store.createSegment(0), 1, 0.1);
+        assertEquals((float)0.1, store.getPermanence(synapse), 0);
+    }
+
+    @Test
+    public void testForkCopiesOnWrite() {
+        FlatConnectionStore store = new FlatConnectionStore(4);
+        int s0 = store.createSegment(0);
+        int s1 = store.createSegment(1);
+        //Spans two pages of synapses
+        for(int i = 0;i < FlatConnectionStore.PAGE_SIZE + 10;i++) {
+            store.createSynapse(i % 2 == 0 ? s0 : s1, i % 4, 0.5);
+        }
+        int a = store.getSynapses(s0)[0];
+        int b = store.getSynapses(s1)[store.getNumSynapses(s1) - 1];
+        int bCell = store.getPresynapticCell(b);
+
+        FlatConnectionStore fork = store.fork();
+        assertEquals(store.getSynapseCount(), fork.getSynapseCount());
+        assertTrue(store.getSynapses(s0) == fork.getSynapses(s0));
+
+        store.setPermanence(a, 0.9);
+        fork.setPermanence(b, 0.1);
+        assertEquals(0.9, store.getPermanence(a), 0);
+        assertEquals(0.5, fork.getPermanence(a), 0);
+        assertEquals(0.5, store.getPermanence(b), 0);
+        assertEquals(0.1, fork.getPermanence(b), 0);
+
+        int numSynapses = store.getNumSynapses(s1);
+        fork.destroySynapse(b);
+        int s2 = fork.createSegment(1);
+        int c = fork.createSynapse(s2, 3, 0.7);
+        //The fork reuses the freed id, which the store still uses
+        assertEquals(b, c);
+        assertEquals(3, fork.getPresynapticCell(c));
+        assertEquals(s2, fork.getSegmentForSynapse(c));
+        assertEquals(bCell, store.getPresynapticCell(b));
+        assertEquals(s1, store.getSegmentForSynapse(b));
+        assertEquals(b, store.getSynapses(s1)[numSynapses - 1]);
+        assertEquals(numSynapses, store.getNumSynapses(s1));
+        assertEquals(numSynapses - 1, fork.getNumSynapses(s1));
+        assertEquals(1, store.getNumSegments(1));
+        assertEquals(2, fork.getNumSegments(1));
+        assertEquals(2, store.getSegmentCount());
+        assertEquals(3, fork.getSegmentCount());
+        assertEquals(store.getSynapseCount(), fork.getSynapseCount());
+    }
+}
@@ -0,0 +1,106 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.numenta.nupic.CLA;
+
+public class SegmentPoolTest {
+
+    private Synapse[] createSynapses(CLA c, SegmentPool pool, double... permanences) {
+        Synapse[] synapses = new Synapse[permanences.length];
+        for(int i = 0;i < permanences.length;i++) {
+            synapses[i] = new Synapse(c, null, null, pool, i, i);
+            pool.setPermanence(c, synapses[i], permanences[i]);
+        }
+        return synapses;
+    }
+
+    @Test
+    public void testAdaptAndRemove() {
+        CLA c = new CLA(CLA.Default());
+        SegmentPool pool = new SegmentPool(false);
+        Synapse[] s = createSynapses(c, pool, 0.2, 0.5, 0.95, 0.05, 0.3);
+        assertEquals(5, pool.getNumSynapses());
+
+        pool.adapt(new LinkedHashSet<>(Arrays.asList(s[1], s[2])), 0.1, 0.1);
+        assertEquals(0.1, s[0].getPermanence(), 1e-9);
+        assertEquals(0.6, s[1].getPermanence(), 1e-9);
+        assertEquals(1.0, s[2].getPermanence(), 0);
+        assertEquals(0.0, s[3].getPermanence(), 0);
+        assertTrue(pool.mayHoldZeroPermanences());
+
+        pool.remove(s[3]);
+        pool.remove(s[0]);
+        assertEquals(3, pool.getNumSynapses());
+        assertEquals(0, s[0].getPermanence(), 0);
+        assertEquals(0.6, s[1].getPermanence(), 1e-9);
+        assertEquals(0.2, s[4].getPermanence(), 1e-9);
+        assertFalse(pool.mayHoldZeroPermanences());
+    }
+
+    @Test
+    public void testAdaptLazily() {
+        CLA c = new CLA(CLA.Default());
+        SegmentPool eager = new SegmentPool(false);
+        SegmentPool lazy = new SegmentPool(false);
+        Synapse[] e = createSynapses(c, eager, 0.25, 0.5, 0.75, 0.125);
+        Synapse[] l = createSynapses(c, lazy, 0.25, 0.5, 0.75, 0.125);
+
+        for(int i = 0;i < 40;i++) {
+            int active = i % 3;
+            eager.adapt(new LinkedHashSet<>(Arrays.asList(e[active])), 0.125, 0.0625);
+            Set<Synapse> lazyActive = new LinkedHashSet<>(Arrays.asList(l[active], e[3]));
+            lazy.adaptLazily(lazyActive, 0.125, 0.0625);
+            assertTrue(lazy.getDecrementOffset() < 1.0);
+            for(int j = 0;j < e.length;j++) {
+                assertEquals(e[j].getPermanence(), l[j].getPermanence(), 0);
+            }
+            assertEquals(eager.mayHoldZeroPermanences(), lazy.mayHoldZeroPermanences());
+        }
+
+        lazy.setPermanence(c, l[3], 0.5);
+        assertEquals(0.5, l[3].getPermanence(), 0);
+        lazy.flush();
+        assertEquals(0, lazy.getDecrementOffset(), 0);
+        assertEquals(0.5, l[3].getPermanence(), 0);
+        assertEquals(e[0].getPermanence(), l[0].getPermanence(), 0);
+    }
+
+    @Test
+    public void testSinglePrecision() {
+        CLA c = new CLA(CLA.Default());
+        SegmentPool pool = new SegmentPool(true);
+        assertTrue(pool.isSinglePrecision());
+        Synapse[] s = createSynapses(c, pool, 0.1);
+        assertEquals((float)0.1, s[0].getPermanence(), 0);
+    }
+}
@@ -23,11 +23,16 @@ package org.numenta.nupic.research;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.set.hash.TIntHashSet;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
 import org.numenta.nupic.CLA;
@@ -38,6 +43,7 @@ import org.numenta.nupic.util.ArrayUtils;
 import org.numenta.nupic.util.Condition;
 import org.numenta.nupic.util.IndexedMatrix;
 import org.numenta.nupic.util.MersenneTwister;
+import org.numenta.nupic.util.NeighborhoodTable;
 import org.numenta.nupic.util.SparseBinaryMatrix;
 import org.numenta.nupic.util.SparseBinaryMatrixTrueCount;
 import org.numenta.nupic.util.SparseObjectMatrix;
@@ -641,6 +647,35 @@ public class SpatialPoolerTest {
     	assertTrue(Arrays.equals(trueActive, active));
     }
     
+    @Test
+    public void testGetNeighborhoods() {
+    	setupParameters();
+    	param.setInputDimensions(new int[] { 6, 12 });
+    	param.setColumnDimensions(new int[] { 6, 12 });
+    	initSP();
+    	
+    	cla.setInhibitionRadius(2);
+    	NeighborhoodTable table = sp.getNeighborhoods(cla, false);
+    	for(int i = 0;i < cla.getNumColumns();i++) {
+    		int[] expected = sp.getNeighborsND(cla, i, cla.getMemory(), 2, false).toArray();
+    		assertTrue(Arrays.equals(expected, table.getNeighbors(i)));
+    	}
+    	
+    	//Cached while the radius is unchanged, and kept apart from the wrapped table
+    	assertSame(table, sp.getNeighborhoods(cla, false));
+    	NeighborhoodTable wrapped = sp.getNeighborhoods(cla, true);
+    	assertNotSame(table, wrapped);
+    	assertEquals(24, wrapped.size(0));
+    	assertSame(table, sp.getNeighborhoods(cla, false));
+    	
+    	//Rebuilt when the radius changes
+    	cla.setInhibitionRadius(1);
+    	table = sp.getNeighborhoods(cla, false);
+    	assertEquals(1, table.getRadius());
+    	assertEquals(3, table.size(0));
+    	assertEquals(8, table.size(13));
+    }
+    
     @Test
     public void testUpdateBoostFactors() {
     	setupParameters();
@@ -1729,6 +1764,312 @@ public class SpatialPoolerTest {
 		assertTrue(Arrays.equals(trueOverlapsPct, overlapsPct));
     }
     
+    /**
+     * The event driven overlap computed from the input to column index must
+     * match the overlap computed from the connected matrix, also after
+     * learning has changed which synapses are connected.
+     */
+    @Test
+    public void testOverlapSparse() {
+        setupParameters();
+        param.setInputDimensions(new int[] { 100 });
+        param.setColumnDimensions(new int[] { 50 });
+        param.setPotentialRadius(20);
+        param.setGlobalInhibition(true);
+        param.setNumActiveColumnsPerInhArea(5);
+        initSP();
+        
+        Random random = new MersenneTwister(7);
+        int[] activeArray = new int[50];
+        for(int i = 0;i < 30;i++) {
+            int[] inputVector = new int[100];
+            for(int j = 0;j < inputVector.length;j++) {
+                inputVector[j] = random.nextDouble() < 0.1 ? 1 : 0;
+            }
+            int[] onBits = ArrayUtils.where(inputVector, Condition.GreaterThanZero);
+            
+            assertTrue(Arrays.equals(SpatialPooler.overlap(cla, inputVector), 
+                SpatialPooler.overlapSparse(cla, onBits)));
+            assertTrue(Arrays.equals(SpatialPooler.overlap(cla, inputVector, cla.getBoostFactors()), 
+                SpatialPooler.overlapSparse(cla, onBits, cla.getBoostFactors())));
+            
+            sp.compute(cla, inputVector, activeArray, true, false);
+        }
+    }
+    
+    @Test
+    public void testParallelComputeMatchesSerial() {
+        CLA[] clas = new CLA[2];
+        SpatialPooler[] sps = new SpatialPooler[2];
+        for(int i = 0;i < 2;i++) {
+            setupParameters();
+            param.setInputDimensions(new int[] { 200 });
+            param.setColumnDimensions(new int[] { 2048 });
+            param.setPotentialRadius(50);
+            param.setGlobalInhibition(true);
+            param.setNumActiveColumnsPerInhArea(40);
+            param.setSpParallelism(i == 0 ? 1 : 4);
+            initSP();
+            clas[i] = cla;
+            sps[i] = sp;
+        }
+        assertNull(sps[0].getForkJoinPool(clas[0]));
+        assertEquals(4, sps[1].getForkJoinPool(clas[1]).getParallelism());
+        //Poolers of the same parallelism share one pool rather than each starting threads
+        assertTrue(sps[1].getForkJoinPool(clas[1]) == new SpatialPooler().getForkJoinPool(clas[1]));
+        
+        Random random = new MersenneTwister(7);
+        int[] serialActive = new int[2048];
+        int[] parallelActive = new int[2048];
+        for(int i = 0;i < 40;i++) {
+            int[] inputVector = new int[200];
+            for(int j = 0;j < inputVector.length;j++) {
+                inputVector[j] = random.nextDouble() < 0.1 ? 1 : 0;
+            }
+            boolean learn = i % 10 != 9;
+            sps[0].compute(clas[0], inputVector, serialActive, learn, false);
+            sps[1].compute(clas[1], inputVector, parallelActive, learn, false);
+            assertTrue(Arrays.equals(serialActive, parallelActive));
+        }
+        
+        assertTrue(Arrays.equals(clas[0].getOverlapDutyCycles(), clas[1].getOverlapDutyCycles()));
+        assertTrue(Arrays.equals(clas[0].getActiveDutyCycles(), clas[1].getActiveDutyCycles()));
+        assertTrue(Arrays.equals(clas[0].getBoostFactors(), clas[1].getBoostFactors()));
+        for(int i = 0;i < 2048;i++) {
+            assertTrue(Arrays.equals(
+                clas[0].getPotentialPools().getIndex(i).getPermanencesSparse(),
+                clas[1].getPotentialPools().getIndex(i).getPermanencesSparse()));
+            assertTrue(Arrays.equals(
+                clas[0].getConnectedCounts().getRowIndexes(i),
+                clas[1].getConnectedCounts().getRowIndexes(i)));
+        }
+    }
+    
+    @Test
+    public void testComputeBatchMatchesCompute() {
+        CLA[] clas = new CLA[2];
+        SpatialPooler[] sps = new SpatialPooler[2];
+        for(int i = 0;i < 2;i++) {
+            setupParameters();
+            param.setInputDimensions(new int[] { 200 });
+            param.setColumnDimensions(new int[] { 512 });
+            param.setPotentialRadius(50);
+            param.setGlobalInhibition(i == 0);
+            param.setNumActiveColumnsPerInhArea(20);
+            param.setSpParallelism(4);
+            initSP();
+            clas[i] = cla;
+            sps[i] = sp;
+        }
+        
+        //Serial reference poolers with the same initial state
+        CLA[] serialClas = new CLA[2];
+        SpatialPooler[] serialSps = new SpatialPooler[2];
+        for(int i = 0;i < 2;i++) {
+            setupParameters();
+            param.setInputDimensions(new int[] { 200 });
+            param.setColumnDimensions(new int[] { 512 });
+            param.setPotentialRadius(50);
+            param.setGlobalInhibition(i == 0);
+            param.setNumActiveColumnsPerInhArea(20);
+            initSP();
+            serialClas[i] = cla;
+            serialSps[i] = sp;
+        }
+        
+        Random random = new MersenneTwister(7);
+        int[][] inputs = new int[30][200];
+        for(int[] inputVector : inputs) {
+            for(int j = 0;j < inputVector.length;j++) {
+                inputVector[j] = random.nextDouble() < 0.1 ? 1 : 0;
+            }
+        }
+        
+        for(int i = 0;i < 2;i++) {
+            for(boolean learn : new boolean[] { true, false }) {
+                int[][] batchActive = new int[inputs.length][512];
+                sps[i].computeBatch(clas[i], inputs, batchActive, learn, !learn);
+                int[] serialActive = new int[512];
+                for(int j = 0;j < inputs.length;j++) {
+                    serialSps[i].compute(serialClas[i], inputs[j], serialActive, learn, !learn);
+                    assertTrue(Arrays.equals(serialActive, batchActive[j]));
+                }
+                assertEquals(serialClas[i].getIterationNum(), clas[i].getIterationNum());
+                assertTrue(Arrays.equals(serialClas[i].getActiveDutyCycles(), clas[i].getActiveDutyCycles()));
+                assertTrue(Arrays.equals(serialClas[i].getBoostFactors(), clas[i].getBoostFactors()));
+            }
+        }
+        
+        try {
+            sps[0].computeBatch(clas[0], new int[][] { new int[200], new int[199] }, new int[2][512], true);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals(60, clas[0].getIterationNum());
+        }
+    }
+    
+    @Test
+    public void testWorkspaceReuse() {
+        setupParameters();
+        param.setInputDimensions(new int[] { 100 });
+        param.setColumnDimensions(new int[] { 50 });
+        initSP();
+        
+        SpatialPooler.Workspace ws = sp.getWorkspace(cla);
+        assertTrue(ws.fits(cla));
+        int[] activeArray = new int[50];
+        int[] inputVector = new int[100];
+        for(int i = 0;i < 10;i++) {
+            inputVector[i * 7] = 1;
+            sp.compute(cla, inputVector, activeArray, true, false);
+            assertSame(ws, sp.getWorkspace(cla));
+        }
+        
+        //A CLA of different dimensions gets its own workspace
+        setupParameters();
+        param.setInputDimensions(new int[] { 20 });
+        param.setColumnDimensions(new int[] { 10 });
+        CLA other = new CLA(param);
+        new SpatialPooler(other, param);
+        SpatialPooler.Workspace otherWs = sp.getWorkspace(other);
+        assertNotSame(ws, otherWs);
+        assertTrue(otherWs.fits(other));
+        assertFalse(otherWs.fits(cla));
+    }
+    
+    @Test
+    public void testPackedPermanences() {
+        setupParameters();
+        param.setInputDimensions(new int[] { 100 });
+        param.setColumnDimensions(new int[] { 50 });
+        param.setPotentialRadius(20);
+        param.setGlobalInhibition(true);
+        param.setNumActiveColumnsPerInhArea(5);
+        initSP();
+        
+        Random random = new MersenneTwister(7);
+        int[] activeArray = new int[50];
+        for(int i = 0;i < 20;i++) {
+            int[] inputVector = new int[100];
+            for(int j = 0;j < inputVector.length;j++) {
+                inputVector[j] = random.nextDouble() < 0.1 ? 1 : 0;
+            }
+            sp.compute(cla, inputVector, activeArray, true, false);
+        }
+        
+        //The packed store mirrors the pool's synapses and the connected matrix
+        for(int i = 0;i < 50;i++) {
+            Pool pool = cla.getPotentialPools().getIndex(i);
+            double[] dense = pool.getPermanencesDense(cla);
+            int[] inputs = pool.getPackedInputs();
+            double[] packed = pool.getPackedPermanences();
+            int[] connected = cla.getConnectedCounts().getRowIndexes(i);
+            int numConnected = 0;
+            assertEquals(pool.getSparseConnections().length, pool.getPackedSize());
+            for(int j = 0;j < pool.getPackedSize();j++) {
+                assertEquals(dense[inputs[j]], packed[j], 0);
+                if(packed[j] >= cla.getSynPermConnected()) {
+                    numConnected++;
+                    assertTrue(Arrays.binarySearch(connected, inputs[j]) >= 0);
+                }
+            }
+            assertEquals(numConnected, connected.length);
+            assertEquals(numConnected, cla.getConnectedCounts().getTrueCount(i));
+            for(int input : connected) {
+                assertTrue(cla.getConnectedCounts().getPostings(input).contains(i));
+            }
+        }
+    }
+
+    @Test
+    public void testSinglePrecisionPermanences() {
+        setupParameters();
+        param.setInputDimensions(new int[] { 100 });
+        param.setColumnDimensions(new int[] { 50 });
+        param.setPotentialRadius(20);
+        param.setGlobalInhibition(true);
+        param.setNumActiveColumnsPerInhArea(5);
+        param.setSinglePrecisionPermanences(true);
+        initSP();
+        assertTrue(cla.getSinglePrecisionPermanences());
+
+        Random random = new MersenneTwister(7);
+        int[] activeArray = new int[50];
+        for(int i = 0;i < 20;i++) {
+            int[] inputVector = new int[100];
+            for(int j = 0;j < inputVector.length;j++) {
+                inputVector[j] = random.nextDouble() < 0.1 ? 1 : 0;
+            }
+            sp.compute(cla, inputVector, activeArray, true, false);
+        }
+        assertEquals(5, ArrayUtils.where(activeArray, ArrayUtils.WHERE_1).length);
+
+        //Stored permanences are exactly representable as floats and the
+        //packed working copy stays in step with them
+        for(int i = 0;i < 50;i++) {
+            Pool pool = cla.getPotentialPools().getIndex(i);
+            assertTrue(pool.isSinglePrecision());
+            double[] dense = pool.getPermanencesDense(cla);
+            int[] inputs = pool.getPackedInputs();
+            double[] packed = pool.getPackedPermanences();
+            for(int j = 0;j < pool.getPackedSize();j++) {
+                assertEquals((float)dense[inputs[j]], dense[inputs[j]], 0);
+                assertEquals(dense[inputs[j]], packed[j], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSinglePrecisionLearnsLikeDoublePrecision() {
+        CLA[] clas = new CLA[2];
+        SpatialPooler[] sps = new SpatialPooler[2];
+        for(int i = 0;i < 2;i++) {
+            setupParameters();
+            param.setInputDimensions(new int[] { 200 });
+            param.setColumnDimensions(new int[] { 512 });
+            param.setPotentialRadius(50);
+            param.setGlobalInhibition(true);
+            param.setNumActiveColumnsPerInhArea(20);
+            param.setSinglePrecisionPermanences(i == 1);
+            initSP();
+            clas[i] = cla;
+            sps[i] = sp;
+        }
+        
+        //A few recurring patterns with noise, learned in both precisions
+        Random random = new MersenneTwister(7);
+        int[][] patterns = new int[5][200];
+        for(int[] pattern : patterns) {
+            for(int j = 0;j < pattern.length;j++) {
+                pattern[j] = random.nextDouble() < 0.1 ? 1 : 0;
+            }
+        }
+        int[] doubleActive = new int[512];
+        int[] floatActive = new int[512];
+        int numActive = 0;
+        int numShared = 0;
+        for(int i = 0;i < 300;i++) {
+            int[] inputVector = patterns[i % patterns.length].clone();
+            inputVector[random.nextInt(200)] ^= 1;
+            sps[0].compute(clas[0], inputVector, doubleActive, true, false);
+            sps[1].compute(clas[1], inputVector, floatActive, true, false);
+            for(int j = 0;j < 512;j++) {
+                numActive += doubleActive[j];
+                numShared += doubleActive[j] & floatActive[j];
+            }
+        }
+        assertTrue(numShared >= 0.95 * numActive);
+        
+        //The permanences only differ by accumulated rounding
+        for(int i = 0;i < 512;i++) {
+            double[] expected = clas[0].getPotentialPools().getIndex(i).getPermanencesDense(clas[0]);
+            double[] actual = clas[1].getPotentialPools().getIndex(i).getPermanencesDense(clas[1]);
+            for(int j = 0;j < expected.length;j++) {
+                assertEquals(expected[j], actual[j], 1e-4);
+            }
+        }
+    }
+
     /**
      * test initial permanence generation. ensure that
      * a correct amount of synapses are initialized in 
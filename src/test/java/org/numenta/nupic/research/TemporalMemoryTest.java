@@ -24,6 +24,7 @@ package org.numenta.nupic.research;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -33,16 +34,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Before;
 
 import org.junit.Test;
 import org.numenta.nupic.Build;
 import org.numenta.nupic.CLA;
 import static org.numenta.nupic.CLA.Default;
+import org.numenta.nupic.KEY;
 import org.numenta.nupic.model.Cell;
 import org.numenta.nupic.model.Column;
+import org.numenta.nupic.model.ConnectionStore;
 import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.SegmentPool;
 import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.util.MersenneTwister;
 
 
 /**
@@ -415,6 +421,38 @@ public class TemporalMemoryTest {
         
     }
     
+    @Test
+    public void testGetBestMatchingSegmentInColumnFromCounts() {
+        cla.setConnectedPermanence(0.50);
+        cla.setMinThreshold(2);
+        SynapseCounts counts = new SynapseCounts(cla.getCells().length);
+        cla.setSynapseCounts(counts);
+        
+        DistalDendrite dd = cla.getCell(0).createSegment(cla, 0);
+        dd.createSynapse(cla, cla.getCell(23), 0.6, 0);
+        dd.createSynapse(cla, cla.getCell(37), 0.0, 1);
+        dd.createSynapse(cla, cla.getCell(477), 0.2, 2);
+        
+        DistalDendrite dd1 = cla.getCell(1).createSegment(cla, 1);
+        dd1.createSynapse(cla, cla.getCell(23), 0.9, 3);
+        dd1.createSynapse(cla, cla.getCell(37), 0.8, 4);
+        dd1.createSynapse(cla, cla.getCell(733), 0.8, 5);
+        cla.setSynapseCount(6);
+        
+        tm.computeActiveSynapseCounts(cla, tm.getCells(cla, new int[] { 23, 37, 477 }), counts);
+        assertEquals(3, counts.getNumActiveSynapses(dd));
+        assertEquals(2, counts.getNumMatchingSynapses(dd));
+        assertEquals(1, counts.getNumConnectedActiveSynapses(dd));
+        assertEquals(2, counts.getNumMatchingSynapses(dd1));
+        
+        //Both segments match; the one with more active synapses wins
+        Map<DistalDendrite, Set<Synapse>> noSets = new LinkedHashMap<>();
+        assertEquals(dd, tm.getBestMatchingSegmentInColumn(cla, cla.getColumn(0), noSets));
+        
+        cla.setMinThreshold(3);
+        assertNull(tm.getBestMatchingSegmentInColumn(cla, cla.getColumn(0), noSets));
+    }
+    
     @SuppressWarnings("unused")
     @Test
     public void testGetBestMatchingCellFewestSegments() {
@@ -487,9 +525,41 @@ public class TemporalMemoryTest {
         
         result = tm.getBestMatchingSegment(cla, cla.getCell(100), activeSegments);
         assertEquals(null, result);
-        
+
     }
-    
+
+    @Test
+    public void testGetBestMatchingSegmentFromCollectedSets() {
+        cla.setMinThreshold(2);
+        tm.clear();
+
+        DistalDendrite dd = cla.getCell(0).createSegment(cla, 0);
+        dd.createSynapse(cla, cla.getCell(23), 0.6, 0);
+        dd.createSynapse(cla, cla.getCell(37), 0.0, 1);
+        dd.createSynapse(cla, cla.getCell(477), 0.9, 2);
+        DistalDendrite dd1 = cla.getCell(1).createSegment(cla, 1);
+        dd1.createSynapse(cla, cla.getCell(23), 0.4, 3);
+        dd1.createSynapse(cla, cla.getCell(37), 0.0, 4);
+
+        Map<DistalDendrite, Set<Synapse>> activeSegments = tm.computeActiveSynapses(
+            cla, cla.getCellSet(new int[] { 23, 37, 477 }), null);
+        assertTrue(activeSegments.get(dd) instanceof ActiveSynapseSet);
+        assertEquals(2, ((ActiveSynapseSet)activeSegments.get(dd)).getNumMatching());
+        assertEquals(1, ((ActiveSynapseSet)activeSegments.get(dd1)).getNumMatching());
+
+        //Zero permanence synapses are active but not matching
+        assertEquals(dd, tm.getBestMatchingSegment(cla, cla.getCell(0), activeSegments));
+        assertNull(tm.getBestMatchingSegment(cla, cla.getCell(1), activeSegments));
+
+        //Sets not collected by the memory are scanned
+        Map<DistalDendrite, Set<Synapse>> copied = new LinkedHashMap<>();
+        for(Map.Entry<DistalDendrite, Set<Synapse>> entry : activeSegments.entrySet()) {
+            copied.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+        }
+        assertEquals(dd, tm.getBestMatchingSegment(cla, cla.getCell(0), copied));
+        assertNull(tm.getBestMatchingSegment(cla, cla.getCell(1), copied));
+    }
+
     @SuppressWarnings("unused")
     @Test
     public void testGetLeastUsedCell() {
@@ -636,9 +706,9 @@ public class TemporalMemoryTest {
         learnCells = new ArrayList<>(dd.pickCellsToLearnOn(cla, 100, winnerCells, cla.getRandom()));
         assertEquals(4, learnCells.size());
         assertEquals(93, learnCells.get(0).getIndex());
-        assertEquals(58, learnCells.get(1).getIndex());
+        assertEquals(4, learnCells.get(1).getIndex());
         assertEquals(47, learnCells.get(2).getIndex());
-        assertEquals(4, learnCells.get(3).getIndex());
+        assertEquals(58, learnCells.get(3).getIndex());
         
         learnCells = new ArrayList<>(dd.pickCellsToLearnOn(cla, 0, winnerCells, cla.getRandom()));
         assertEquals(0, learnCells.size());
@@ -656,4 +726,570 @@ public class TemporalMemoryTest {
         List<Cell> learnCells = new ArrayList<>(dd.pickCellsToLearnOn(cla, 2, winnerCells, cla.getRandom()));
         assertTrue(learnCells.isEmpty());
     }
+    
+    @Test
+    public void testHasPresynapticCell() {
+        DistalDendrite dd = cla.getCell(0).createSegment(cla, 0);
+        dd.createSynapse(cla, cla.getCell(23), 0.6, 0);
+        dd.createSynapse(cla, cla.getCell(7), 0.6, 1);
+        dd.createSynapse(cla, cla.getCell(1000), 0.6, 2);
+        
+        assertTrue(dd.hasPresynapticCell(7));
+        assertTrue(dd.hasPresynapticCell(23));
+        assertTrue(dd.hasPresynapticCell(1000));
+        assertTrue(!dd.hasPresynapticCell(8));
+        
+        Set<Cell> winnerCells = new LinkedHashSet<>();
+        winnerCells.add(cla.getCell(1000));
+        winnerCells.add(cla.getCell(5));
+        winnerCells.add(cla.getCell(7));
+        List<Cell> learnCells = new ArrayList<>(dd.pickCellsToLearnOn(cla, 3, winnerCells, cla.getRandom()));
+        assertEquals(1, learnCells.size());
+        assertEquals(5, learnCells.get(0).getIndex());
+    }
+    
+    @Test
+    public void testFlatConnectionsMatchObjectModel() {
+        CLA objectCla = new CLA(sequenceParams());
+        TemporalMemory objectTm = new TemporalMemory(objectCla, sequenceParams());
+        Build flatParams = sequenceParams();
+        flatParams.setFlatConnections(true);
+        CLA flatCla = new CLA(flatParams);
+        TemporalMemory flatTm = new TemporalMemory(flatCla, flatParams);
+        assertNull(objectCla.getConnectionStore());
+        assertTrue(flatCla.getConnectionStore() != null);
+        
+        //A repeating sequence of random patterns with some noise patterns in between
+        Random random = new MersenneTwister(11);
+        int[][] patterns = new int[8][];
+        for(int i = 0;i < patterns.length;i++) {
+            patterns[i] = randomPattern(random, 64, 6);
+        }
+        for(int step = 0;step < 300;step++) {
+            int[] activeColumns = step % 10 < 8 ? patterns[step % 10] : randomPattern(random, 64, 6);
+            boolean learn = step < 250;
+            
+            ComputeCycle expected = objectTm.compute(objectCla, activeColumns, learn);
+            FlatComputeCycle actual = flatTm.computeFlat(flatCla, activeColumns, learn);
+            
+            assertTrue(Arrays.equals(indexes(expected.activeCells()), actual.activeCells()));
+            assertTrue(Arrays.equals(indexes(expected.winnerCells()), actual.winnerCells()));
+            assertTrue(Arrays.equals(indexes(expected.predictiveCells()), actual.predictiveCells()));
+            assertEquals(expected.activeSegments().size(), actual.activeSegments().length);
+            assertEquals(expected.learningSegments().size(), actual.learningSegments().length);
+        }
+        assertEquals(numSegments(objectCla), flatCla.getConnectionStore().getSegmentCount());
+        assertEquals(numSynapses(objectCla), flatCla.getConnectionStore().getSynapseCount());
+        
+        //The learned sequence is predicted through compute() as well
+        flatTm.compute(flatCla, patterns[0], false);
+        ComputeCycle cycle = flatTm.compute(flatCla, patterns[1], false);
+        assertEquals(patterns[1].length, cycle.predictedColumns().size());
+        assertTrue(!flatCla.getPredictiveCells().isEmpty());
+    }
+    
+    /**
+     * Learns the same noisy sequence in double and single precision and
+     * checks that the precisions agree on nearly every step.
+     */
+    private void testSinglePrecisionLearnsLikeDoublePrecision(boolean flatConnections) {
+        Build doubleParams = sequenceParams();
+        doubleParams.setFlatConnections(flatConnections);
+        CLA doubleCla = new CLA(doubleParams);
+        TemporalMemory doubleTm = new TemporalMemory(doubleCla, doubleParams);
+        Build floatParams = sequenceParams();
+        floatParams.setFlatConnections(flatConnections);
+        floatParams.setSinglePrecisionPermanences(true);
+        CLA floatCla = new CLA(floatParams);
+        TemporalMemory floatTm = new TemporalMemory(floatCla, floatParams);
+        
+        Random random = new MersenneTwister(11);
+        int[][] patterns = new int[8][];
+        for(int i = 0;i < patterns.length;i++) {
+            patterns[i] = randomPattern(random, 64, 6);
+        }
+        int numSteps = 300;
+        int numAlike = 0;
+        for(int step = 0;step < numSteps;step++) {
+            int[] activeColumns = step % 10 < 8 ? patterns[step % 10] : randomPattern(random, 64, 6);
+            ComputeCycle expected = doubleTm.compute(doubleCla, activeColumns, true);
+            ComputeCycle actual = floatTm.compute(floatCla, activeColumns, true);
+            if(Arrays.equals(indexes(expected.activeCells()), indexes(actual.activeCells())) &&
+                Arrays.equals(indexes(expected.predictiveCells()), indexes(actual.predictiveCells()))) {
+                numAlike++;
+            }
+        }
+        assertTrue(numAlike >= 0.95 * numSteps);
+        
+        //The learned sequence is predicted in both precisions
+        doubleTm.compute(doubleCla, patterns[0], false);
+        floatTm.compute(floatCla, patterns[0], false);
+        assertEquals(patterns[1].length, doubleTm.compute(doubleCla, patterns[1], false).predictedColumns().size());
+        assertEquals(patterns[1].length, floatTm.compute(floatCla, patterns[1], false).predictedColumns().size());
+    }
+    
+    @Test
+    public void testSinglePrecisionLearnsLikeDoublePrecision() {
+        testSinglePrecisionLearnsLikeDoublePrecision(false);
+    }
+    
+    @Test
+    public void testFlatSinglePrecisionLearnsLikeDoublePrecision() {
+        testSinglePrecisionLearnsLikeDoublePrecision(true);
+    }
+    
+    @Test
+    public void testRecycledComputeCycles() {
+        CLA freshCla = new CLA(sequenceParams());
+        TemporalMemory freshTm = new TemporalMemory(freshCla, sequenceParams());
+        CLA recycledCla = new CLA(sequenceParams());
+        TemporalMemory recycledTm = new TemporalMemory(recycledCla, sequenceParams());
+        
+        Random random = new MersenneTwister(11);
+        int[][] patterns = new int[8][];
+        for(int i = 0;i < patterns.length;i++) {
+            patterns[i] = randomPattern(random, 64, 6);
+        }
+        ComputeCycle previous = null, spare = null;
+        for(int step = 0;step < 200;step++) {
+            int[] activeColumns = patterns[step % patterns.length];
+            ComputeCycle expected = freshTm.compute(freshCla, activeColumns, true);
+            ComputeCycle actual = recycledTm.compute(recycledCla, activeColumns, true, spare);
+            if(step > 1) {
+                assertTrue(actual == spare);
+            }
+            spare = previous;
+            previous = actual;
+            
+            assertEquals(expected.activeCells(), actual.activeCells());
+            assertEquals(expected.winnerCells(), actual.winnerCells());
+            assertEquals(expected.predictiveCells(), actual.predictiveCells());
+            assertEquals(expected.predictedColumns(), actual.predictedColumns());
+            assertTrue(Arrays.equals(expected.activeCellIndexes(), actual.activeCellIndexes()));
+            assertTrue(Arrays.equals(expected.predictiveCellIndexes(), actual.predictiveCellIndexes()));
+        }
+        assertEquals(patterns[0].length, previous.predictedColumnIndexes().length);
+        
+        int[] indexes = previous.activeCellIndexes();
+        for(int i = 1;i < indexes.length;i++) {
+            assertTrue(indexes[i - 1] < indexes[i]);
+        }
+        
+        try {
+            recycledTm.compute(recycledCla, patterns[0], true, previous);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals("The last ComputeCycle holds the previous state and cannot be recycled", e.getMessage());
+        }
+    }
+    
+    private Build sequenceParams() {
+        Build params = TemporalMemory.Default();
+        params.setColumnDimensions(new int[] { 64 });
+        params.setCellsPerColumn(4);
+        params.setActivationThreshold(3);
+        params.setMinThreshold(2);
+        params.setMaxNewSynapseCount(6);
+        params.setInitialPermanence(0.4);
+        params.setPermanenceDecrement(0.02);
+        params.set(KEY.RANDOM, new MersenneTwister(42));
+        return params;
+    }
+    
+    @Test
+    public void testCountActiveSynapsesMatchesSets() {
+        CLA setCla = new CLA(sequenceParams());
+        TemporalMemory setTm = new TemporalMemory(setCla, sequenceParams());
+        Build countParams = sequenceParams();
+        countParams.setCountActiveSynapses(true);
+        CLA countCla = new CLA(countParams);
+        TemporalMemory countTm = new TemporalMemory(countCla, countParams);
+        assertNull(setCla.getSynapseCounts());
+        assertTrue(countCla.getSynapseCounts() != null);
+        
+        Random random = new MersenneTwister(11);
+        int[][] patterns = new int[8][];
+        for(int i = 0;i < patterns.length;i++) {
+            patterns[i] = randomPattern(random, 64, 6);
+        }
+        int numPredicted = 0;
+        for(int step = 0;step < 300;step++) {
+            int[] activeColumns = step % 10 < 8 ? patterns[step % 10] : randomPattern(random, 64, 6);
+            boolean learn = step < 250;
+            
+            ComputeCycle expected = setTm.compute(setCla, activeColumns, learn);
+            ComputeCycle actual = countTm.compute(countCla, activeColumns, learn);
+            
+            assertTrue(Arrays.equals(indexes(expected.activeCells()), indexes(actual.activeCells())));
+            assertTrue(Arrays.equals(indexes(expected.winnerCells()), indexes(actual.winnerCells())));
+            assertTrue(Arrays.equals(indexes(expected.predictiveCells()), indexes(actual.predictiveCells())));
+            assertEquals(expected.activeSegments().toString(), actual.activeSegments().toString());
+            assertEquals(expected.learningSegments().toString(), actual.learningSegments().toString());
+            assertTrue(actual.activeSynapsesForSegment().isEmpty());
+            
+            for(DistalDendrite dd : expected.activeSynapsesForSegment().keySet()) {
+                Cell cell = dd.getParentCell();
+                DistalDendrite counted = countCla.getCell(cell.getIndex()).getSegments(countCla)
+                    .get(cell.getSegments(setCla).indexOf(dd));
+                assertEquals(dd.getIndex(), counted.getIndex());
+                assertEquals(expected.activeSynapsesForSegment().get(dd).size(), 
+                    countCla.getSynapseCounts().getNumActiveSynapses(counted));
+            }
+            numPredicted += actual.predictedColumns().size();
+        }
+        assertTrue(numPredicted > 0);
+        assertEquals(setCla.getSynapseCount(), countCla.getSynapseCount());
+    }
+    
+    @Test
+    public void testSegmentAndSynapseCapacity() {
+        Build objectParams = sequenceParams();
+        objectParams.setMaxSegmentsPerCell(2);
+        objectParams.setMaxSynapsesPerSegment(8);
+        objectParams.setPermanenceDecrement(0.1);
+        CLA objectCla = new CLA(objectParams);
+        TemporalMemory objectTm = new TemporalMemory(objectCla, objectParams);
+        Build flatParams = sequenceParams();
+        flatParams.setMaxSegmentsPerCell(2);
+        flatParams.setMaxSynapsesPerSegment(8);
+        flatParams.setPermanenceDecrement(0.1);
+        flatParams.setFlatConnections(true);
+        CLA flatCla = new CLA(flatParams);
+        TemporalMemory flatTm = new TemporalMemory(flatCla, flatParams);
+        
+        //Random input keeps creating segments and synapses
+        Random random = new MersenneTwister(7);
+        for(int step = 0;step < 400;step++) {
+            int[] activeColumns = randomPattern(random, 64, 6);
+            ComputeCycle expected = objectTm.compute(objectCla, activeColumns, true);
+            FlatComputeCycle actual = flatTm.computeFlat(flatCla, activeColumns, true);
+            assertTrue(Arrays.equals(indexes(expected.winnerCells()), actual.winnerCells()));
+            assertTrue(Arrays.equals(indexes(expected.predictiveCells()), actual.predictiveCells()));
+        }
+        assertTrue(objectCla.getSegmentCount() > numSegments(objectCla));
+        assertTrue(objectCla.getSynapseCount() > numSynapses(objectCla));
+        assertEquals(numSegments(objectCla), flatCla.getConnectionStore().getSegmentCount());
+        assertEquals(numSynapses(objectCla), flatCla.getConnectionStore().getSynapseCount());
+        
+        int numReceptorSynapses = 0;
+        for(Cell cell : objectCla.getCells()) {
+            assertTrue(cell.getSegments(objectCla).size() <= 2);
+            for(DistalDendrite dd : cell.getSegments(objectCla)) {
+                assertTrue(dd.getAllSynapses(objectCla).size() <= 8);
+            }
+            for(Synapse s : cell.getReceptorSynapses(objectCla)) {
+                assertTrue(s.getPermanence() > 0);
+                assertTrue(((DistalDendrite)s.getSegment()).getAllSynapses(objectCla).contains(s));
+                numReceptorSynapses++;
+            }
+        }
+        assertEquals(numSynapses(objectCla), numReceptorSynapses);
+    }
+
+    @Test
+    public void testDestroyedSegmentsLeaveLearningSegments() {
+        Build params = sequenceParams();
+        CLA objectCla = new CLA(params);
+        TemporalMemory objectTm = new TemporalMemory(objectCla, params);
+        
+        //Cell 0's first segment matches column 1's cells, its second is as recently used
+        DistalDendrite matching = objectCla.getCell(0).createSegment(objectCla, 0);
+        for(int cell = 4;cell < 8;cell++) {
+            matching.createSynapse(objectCla, objectCla.getCell(cell), 0.3, cell - 4);
+        }
+        DistalDendrite recent = objectCla.getCell(0).createSegment(objectCla, 1);
+        recent.setLastUsedIteration(objectCla.getTMIterationNum() + 2);
+        objectCla.setSegmentCount(2);
+        objectCla.setSynapseCount(4);
+        
+        objectTm.compute(objectCla, new int[] { 1 }, true);
+        objectCla.setMaxSegmentsPerCell(1);
+        ComputeCycle cycle = objectTm.compute(objectCla, new int[] { 0 }, true);
+        assertEquals(Arrays.asList(recent), objectCla.getCell(0).getSegments(objectCla));
+        assertTrue(cycle.learningSegments().isEmpty());
+        
+        Build flatParams = sequenceParams();
+        flatParams.setFlatConnections(true);
+        CLA flatCla = new CLA(flatParams);
+        TemporalMemory flatTm = new TemporalMemory(flatCla, flatParams);
+        ConnectionStore store = flatCla.getConnectionStore();
+        int matchingSegment = store.createSegment(0);
+        for(int cell = 4;cell < 8;cell++) {
+            store.createSynapse(matchingSegment, cell, 0.3);
+        }
+        int recentSegment = store.createSegment(0);
+        store.setLastUsedIteration(recentSegment, flatCla.getTMIterationNum() + 2);
+        
+        flatTm.computeFlat(flatCla, new int[] { 1 }, true);
+        flatCla.setMaxSegmentsPerCell(1);
+        FlatComputeCycle flatCycle = flatTm.computeFlat(flatCla, new int[] { 0 }, true);
+        assertEquals(1, store.getNumSegments(0));
+        assertEquals(recentSegment, store.getSegments(0)[0]);
+        assertEquals(0, flatCycle.learningSegments().length);
+    }
+
+    @Test
+    public void testInferenceDestroysNoSegments() {
+        Build params = sequenceParams();
+        CLA objectCla = new CLA(params);
+        TemporalMemory objectTm = new TemporalMemory(objectCla, params);
+        assertEquals(Integer.MAX_VALUE, objectCla.getMaxSegmentsPerCell());
+        assertEquals(Integer.MAX_VALUE, objectCla.getMaxSynapsesPerSegment());
+        
+        //Cell 0 holds more segments than allowed, but nothing learns
+        DistalDendrite matching = objectCla.getCell(0).createSegment(objectCla, 0);
+        for(int cell = 4;cell < 8;cell++) {
+            matching.createSynapse(objectCla, objectCla.getCell(cell), 0.3, cell - 4);
+        }
+        DistalDendrite recent = objectCla.getCell(0).createSegment(objectCla, 1);
+        objectCla.setSegmentCount(2);
+        objectCla.setSynapseCount(4);
+        objectCla.setMaxSegmentsPerCell(1);
+        
+        objectTm.compute(objectCla, new int[] { 1 }, false);
+        objectTm.compute(objectCla, new int[] { 0 }, false);
+        assertEquals(Arrays.asList(matching, recent), objectCla.getCell(0).getSegments(objectCla));
+        
+        Build flatParams = sequenceParams();
+        flatParams.setFlatConnections(true);
+        CLA flatCla = new CLA(flatParams);
+        TemporalMemory flatTm = new TemporalMemory(flatCla, flatParams);
+        ConnectionStore store = flatCla.getConnectionStore();
+        int matchingSegment = store.createSegment(0);
+        for(int cell = 4;cell < 8;cell++) {
+            store.createSynapse(matchingSegment, cell, 0.3);
+        }
+        store.createSegment(0);
+        flatCla.setMaxSegmentsPerCell(1);
+        
+        flatTm.computeFlat(flatCla, new int[] { 1 }, false);
+        flatTm.computeFlat(flatCla, new int[] { 0 }, false);
+        assertEquals(2, store.getNumSegments(0));
+    }
+
+    @Test
+    public void testSynapseCountsReuseSlotsOfDestroyedSegments() {
+        Build params = sequenceParams();
+        params.setMaxSegmentsPerCell(2);
+        params.setMaxSynapsesPerSegment(8);
+        params.setPermanenceDecrement(0.1);
+        params.setCountActiveSynapses(true);
+        CLA cla = new CLA(params);
+        TemporalMemory tm = new TemporalMemory(cla, params);
+
+        //Random input keeps destroying segments to make room for new ones
+        Random random = new MersenneTwister(7);
+        int maxSegments = 0;
+        for(int step = 0;step < 400;step++) {
+            tm.compute(cla, randomPattern(random, 64, 6), true);
+            maxSegments = Math.max(maxSegments, numSegments(cla));
+        }
+        SynapseCounts counts = cla.getSynapseCounts();
+        assertTrue(cla.getSegmentCount() > numSegments(cla));
+        assertTrue(counts.slotCapacity <= maxSegments);
+        assertTrue(counts.active.length < cla.getSegmentCount());
+        for(Cell cell : cla.getCells()) {
+            for(DistalDendrite dd : cell.getSegments(cla)) {
+                assertTrue(dd.getCountSlot() < counts.slotCapacity);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelComputeIsReproducible() {
+        Build singleParams = sequenceParams();
+        CLA singleCla = new CLA(singleParams);
+        TemporalMemory singleTm = new TemporalMemory(singleCla, singleParams);
+        singleTm.setForkJoinPool(new ForkJoinPool(1));
+        Build multiParams = sequenceParams();
+        multiParams.setTmParallelism(4);
+        CLA multiCla = new CLA(multiParams);
+        TemporalMemory multiTm = new TemporalMemory(multiCla, multiParams);
+        assertEquals(4, multiTm.getForkJoinPool(multiCla).getParallelism());
+        assertTrue(multiTm.getForkJoinPool(multiCla) == new TemporalMemory().getForkJoinPool(multiCla));
+        Build countParams = sequenceParams();
+        countParams.setTmParallelism(3);
+        countParams.setCountActiveSynapses(true);
+        CLA countCla = new CLA(countParams);
+        TemporalMemory countTm = new TemporalMemory(countCla, countParams);
+        
+        Random random = new MersenneTwister(11);
+        int[][] patterns = new int[8][];
+        for(int i = 0;i < patterns.length;i++) {
+            patterns[i] = randomPattern(random, 64, 6);
+        }
+        for(int step = 0;step < 300;step++) {
+            int[] activeColumns = step % 10 < 8 ? patterns[step % 10] : randomPattern(random, 64, 6);
+            boolean learn = step < 250;
+            
+            ComputeCycle expected = singleTm.compute(singleCla, activeColumns, learn);
+            ComputeCycle actual = multiTm.compute(multiCla, activeColumns, learn);
+            ComputeCycle counted = countTm.compute(countCla, activeColumns, learn);
+            
+            for(ComputeCycle cycle : new ComputeCycle[] { actual, counted }) {
+                assertTrue(Arrays.equals(indexes(expected.activeCells()), indexes(cycle.activeCells())));
+                assertTrue(Arrays.equals(indexes(expected.winnerCells()), indexes(cycle.winnerCells())));
+                assertTrue(Arrays.equals(indexes(expected.predictiveCells()), indexes(cycle.predictiveCells())));
+                assertEquals(expected.activeSegments().size(), cycle.activeSegments().size());
+            }
+        }
+        assertEquals(numSynapses(singleCla), numSynapses(multiCla));
+        assertEquals(numSynapses(singleCla), numSynapses(countCla));
+        
+        //The learned sequence is predicted
+        singleTm.compute(singleCla, patterns[0], false);
+        ComputeCycle cycle = singleTm.compute(singleCla, patterns[1], false);
+        assertEquals(patterns[1].length, cycle.predictedColumns().size());
+    }
+    
+    @Test
+    public void testParallelComputeMatchesSerial() {
+        Build serialParams = sequenceParams();
+        CLA serialCla = new CLA(serialParams);
+        TemporalMemory serialTm = new TemporalMemory(serialCla, serialParams);
+        assertNull(serialTm.getForkJoinPool(serialCla));
+        Build parallelParams = sequenceParams();
+        parallelParams.setTmParallelism(4);
+        CLA parallelCla = new CLA(parallelParams);
+        TemporalMemory parallelTm = new TemporalMemory(parallelCla, parallelParams);
+        
+        Random random = new MersenneTwister(5);
+        int[][] patterns = new int[6][];
+        for(int i = 0;i < patterns.length;i++) {
+            patterns[i] = randomPattern(random, 64, 6);
+        }
+        for(int step = 0;step < 200;step++) {
+            int[] activeColumns = step % 8 < 6 ? patterns[step % 8] : randomPattern(random, 64, 6);
+            boolean learn = step < 160;
+            
+            ComputeCycle expected = serialTm.compute(serialCla, activeColumns, learn);
+            ComputeCycle actual = parallelTm.compute(parallelCla, activeColumns, learn);
+            
+            assertTrue(Arrays.equals(indexes(expected.activeCells()), indexes(actual.activeCells())));
+            assertTrue(Arrays.equals(indexes(expected.winnerCells()), indexes(actual.winnerCells())));
+            assertTrue(Arrays.equals(indexes(expected.predictiveCells()), indexes(actual.predictiveCells())));
+            assertEquals(expected.activeSegments().toString(), actual.activeSegments().toString());
+            assertEquals(expected.learningSegments().toString(), actual.learningSegments().toString());
+        }
+        assertEquals(serialCla.getSynapseCount(), parallelCla.getSynapseCount());
+        assertEquals(permanences(serialCla), permanences(parallelCla));
+    }
+    
+    @Test
+    public void testLazyPermanenceDecrementMatchesEager() {
+        //Dyadic increments keep the arithmetic exact, so lazy and eager decrements agree bit for bit
+        Build eagerParams = dyadicParams();
+        CLA eagerCla = new CLA(eagerParams);
+        TemporalMemory eagerTm = new TemporalMemory(eagerCla, eagerParams);
+        Build lazyParams = dyadicParams();
+        lazyParams.setLazyPermanenceDecrement(true);
+        CLA lazyCla = new CLA(lazyParams);
+        TemporalMemory lazyTm = new TemporalMemory(lazyCla, lazyParams);
+        Build countParams = dyadicParams();
+        countParams.setLazyPermanenceDecrement(true);
+        countParams.setCountActiveSynapses(true);
+        CLA countCla = new CLA(countParams);
+        TemporalMemory countTm = new TemporalMemory(countCla, countParams);
+        assertTrue(lazyCla.getLazyPermanenceDecrement());
+        
+        Random random = new MersenneTwister(11);
+        int[][] patterns = new int[8][];
+        for(int i = 0;i < patterns.length;i++) {
+            patterns[i] = randomPattern(random, 64, 6);
+        }
+        for(int step = 0;step < 300;step++) {
+            int[] activeColumns = step % 10 < 8 ? patterns[step % 10] : randomPattern(random, 64, 6);
+            boolean learn = step < 250;
+            
+            ComputeCycle expected = eagerTm.compute(eagerCla, activeColumns, learn);
+            ComputeCycle lazy = lazyTm.compute(lazyCla, activeColumns, learn);
+            ComputeCycle counted = countTm.compute(countCla, activeColumns, learn);
+            
+            for(ComputeCycle cycle : new ComputeCycle[] { lazy, counted }) {
+                assertTrue(Arrays.equals(indexes(expected.activeCells()), indexes(cycle.activeCells())));
+                assertTrue(Arrays.equals(indexes(expected.winnerCells()), indexes(cycle.winnerCells())));
+                assertTrue(Arrays.equals(indexes(expected.predictiveCells()), indexes(cycle.predictiveCells())));
+            }
+        }
+        assertEquals(numSynapses(eagerCla), numSynapses(lazyCla));
+        assertEquals(numSynapses(eagerCla), numSynapses(countCla));
+        
+        boolean deferred = false;
+        for(int i = 0;i < eagerCla.getCells().length;i++) {
+            List<DistalDendrite> eagerSegments = eagerCla.getCells()[i].getSegments(eagerCla);
+            List<DistalDendrite> lazySegments = lazyCla.getCells()[i].getSegments(lazyCla);
+            assertEquals(eagerSegments.size(), lazySegments.size());
+            for(int j = 0;j < eagerSegments.size();j++) {
+                List<Synapse> eagerSynapses = eagerSegments.get(j).getAllSynapses(eagerCla);
+                List<Synapse> lazySynapses = lazySegments.get(j).getAllSynapses(lazyCla);
+                for(int k = 0;k < eagerSynapses.size();k++) {
+                    assertEquals(eagerSynapses.get(k).getPermanence(), lazySynapses.get(k).getPermanence(), 0);
+                }
+                SegmentPool pool = lazySegments.get(j).getPool();
+                deferred |= pool != null && pool.getDecrementOffset() > 0;
+            }
+        }
+        assertTrue(deferred);
+    }
+    
+    private Build dyadicParams() {
+        Build params = sequenceParams();
+        params.setInitialPermanence(0.375);
+        params.setConnectedPermanence(0.5);
+        params.setPermanenceIncrement(0.125);
+        params.setPermanenceDecrement(0.03125);
+        return params;
+    }
+    
+    private int numSegments(CLA c) {
+        int numSegments = 0;
+        for(Cell cell : c.getCells()) {
+            numSegments += cell.getSegments(c).size();
+        }
+        return numSegments;
+    }
+    
+    private int numSynapses(CLA c) {
+        int numSynapses = 0;
+        for(Cell cell : c.getCells()) {
+            for(DistalDendrite dd : cell.getSegments(c)) {
+                numSynapses += dd.getAllSynapses(c).size();
+            }
+        }
+        return numSynapses;
+    }
+    
+    private List<Double> permanences(CLA c) {
+        List<Double> permanences = new ArrayList<>();
+        for(Cell cell : c.getCells()) {
+            for(DistalDendrite dd : cell.getSegments(c)) {
+                for(Synapse s : dd.getAllSynapses(c)) {
+                    permanences.add(s.getPermanence());
+                }
+            }
+        }
+        return permanences;
+    }
+    
+    private int[] randomPattern(Random random, int numColumns, int numActive) {
+        Set<Integer> columns = new LinkedHashSet<>();
+        while(columns.size() < numActive) {
+            columns.add(random.nextInt(numColumns));
+        }
+        int[] pattern = new int[numActive];
+        int i = 0;
+        for(int column : columns) {
+            pattern[i++] = column;
+        }
+        return pattern;
+    }
+    
+    private int[] indexes(Set<Cell> cells) {
+        int[] indexes = new int[cells.size()];
+        int i = 0;
+        for(Cell cell : cells) {
+            indexes[i++] = cell.getIndex();
+        }
+        return indexes;
+    }
 }
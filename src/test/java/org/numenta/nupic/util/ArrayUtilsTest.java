@@ -139,6 +139,46 @@ public class ArrayUtilsTest {
 		assertEquals(-5, ArrayUtils.sum(result), 0);
 	}
 
+	@Test
+	public void testNGreatest() {
+		double[] values = new double[] { 1, 2, 1, 4, 8, 3, 12, 5, 4, 1 };
+		double[] copy = Arrays.copyOf(values, values.length);
+		assertTrue(Arrays.equals(new int[] { 6, 4, 7 }, ArrayUtils.nGreatest(values, 3)));
+		assertTrue(Arrays.equals(copy, values));
+		
+		// Ties are broken in favor of the lower index
+		assertTrue(Arrays.equals(new int[] { 6, 4, 7, 3, 8 }, ArrayUtils.nGreatest(values, 5)));
+		assertTrue(Arrays.equals(new int[] { 1, 0, 2 }, ArrayUtils.nGreatest(new double[] { 1, 2, 1, 1 }, 3)));
+		
+		// Buffer variant; n larger than the array selects everything
+		int[] out = new int[4];
+		assertEquals(4, ArrayUtils.nGreatest(new double[] { 3, 1, 4, 1 }, 10, out));
+		assertTrue(Arrays.equals(new int[] { 2, 0, 1, 3 }, out));
+		assertEquals(0, ArrayUtils.nGreatest(values, 0).length);
+	}
+	
+	@Test
+	public void testInPlaceOperations() {
+		double[] values = new double[] { 1, 2, 4 };
+		assertTrue(values == ArrayUtils.multiplyBy(values, 2));
+		assertTrue(Arrays.equals(new double[] { 2, 4, 8 }, values));
+		
+		double[] factor = new double[] { 0.5, 2, 1 };
+		assertTrue(Arrays.equals(ArrayUtils.multiply(values, factor, 1, 0), 
+			ArrayUtils.multiplyBy(values, factor, 1, 0)));
+		assertTrue(Arrays.equals(new double[] { 1.5, 10, 9 }, values));
+		
+		double[] divisor = new double[] { 0.5, 0, 3 };
+		assertTrue(Arrays.equals(ArrayUtils.divide(values, divisor, 0, 0), 
+			ArrayUtils.divideBy(values, divisor, 0, 0)));
+		assertTrue(Arrays.equals(new double[] { 3, 10, 3 }, values));
+		
+		int[] out = new int[5];
+		assertEquals(2, ArrayUtils.where(new int[] { 0, 1, 0, 0, 1 }, ArrayUtils.WHERE_1, out));
+		assertEquals(1, out[0]);
+		assertEquals(4, out[1]);
+	}
+	
     @Test
    	public void testMultiDimensionArrayOperation() {
         int[] dimensions = {5, 5 ,5};
@@ -0,0 +1,102 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BinaryWriterTest {
+
+	private BinaryReader reader(ByteArrayOutputStream bytes) {
+		return new BinaryReader(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), 16);
+	}
+
+	@Test
+	public void testVarInts() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryWriter out = new BinaryWriter(Channels.newChannel(bytes), 16);
+		int[] values = { 0, 1, 127, 128, 300, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE };
+		for(int value : values) {
+			out.writeVarInt(value);
+			out.writeSignedVarInt(value);
+		}
+		out.flush();
+		
+		BinaryReader in = reader(bytes);
+		for(int value : values) {
+			assertEquals(value, in.readVarInt());
+			assertEquals(value, in.readSignedVarInt());
+		}
+		
+		//A small value takes one byte whatever its sign
+		bytes.reset();
+		out.writeVarInt(127);
+		out.writeSignedVarInt(-64);
+		out.flush();
+		assertEquals(2, bytes.size());
+	}
+	
+	@Test
+	public void testMixedValues() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryWriter out = new BinaryWriter(Channels.newChannel(bytes), 16);
+		int[] sorted = { 3, 7, 8, 200, 201, 5000 };
+		double[] doubles = { 0.25, -1, Math.PI };
+		byte[] blob = new byte[100];
+		for(int i = 0;i < blob.length;i++) blob[i] = (byte)i;
+		
+		out.writeIndexes(sorted, 4);
+		out.writeString("h\u00e9llo");
+		out.writeFloat(0.1f);
+		out.writeDoubles(doubles);
+		out.writeBytes(blob);
+		out.writeBoolean(true);
+		out.flush();
+		assertEquals(bytes.size(), out.getBytesWritten());
+		
+		BinaryReader in = reader(bytes);
+		assertTrue(Arrays.equals(Arrays.copyOf(sorted, 4), in.readIndexes()));
+		assertEquals("h\u00e9llo", in.readString());
+		assertEquals(0.1f, in.readFloat(), 0);
+		assertTrue(Arrays.equals(doubles, in.readDoubles()));
+		assertTrue(Arrays.equals(blob, in.readBytes()));
+		assertTrue(in.readBoolean());
+		try {
+			in.readByte();
+			fail();
+		}catch(EOFException e) {
+			assertTrue(e.getMessage().contains("end of input"));
+		}
+	}
+}
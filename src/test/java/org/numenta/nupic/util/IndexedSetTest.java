@@ -0,0 +1,87 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import org.junit.Test;
+
+public class IndexedSetTest {
+    private IndexedSet<Integer> newSet() {
+        return new IndexedSet<Integer>(Integer.class) {
+            @Override
+            protected int indexOf(Integer element) {
+                return element;
+            }
+        };
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        IndexedSet<Integer> set = newSet();
+        LinkedHashSet<Integer> expected = new LinkedHashSet<>();
+        for(int i : new int[] { 70, 3, 500, 3, 12, 70, 0 }) {
+            assertEquals(expected.add(i), set.add(i));
+        }
+        assertEquals(expected, set);
+        assertEquals(expected.hashCode(), set.hashCode());
+        assertTrue(Arrays.equals(new int[] { 70, 3, 500, 12, 0 }, set.indexes()));
+        assertTrue(Arrays.equals(new int[] { 0, 3, 12, 70, 500 }, set.sortedIndexes()));
+        assertTrue(set.contains(500));
+        assertFalse(set.contains(501));
+        assertFalse(set.contains("500"));
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        IndexedSet<Integer> set = newSet();
+        for(int i = 0;i < 100;i++) {
+            set.add(i * 3);
+        }
+        assertTrue(set.remove(30));
+        assertFalse(set.remove(30));
+        assertFalse(set.contains(30));
+        assertEquals(99, set.size());
+
+        Iterator<Integer> it = set.iterator();
+        while(it.hasNext()) {
+            if(it.next() % 2 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(50, set.size());
+        assertEquals(3, (int)set.iterator().next());
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(3));
+        set.add(3);
+        assertTrue(Arrays.equals(new int[] { 3 }, set.sortedIndexes()));
+    }
+}
@@ -0,0 +1,83 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+
+	@Test
+	public void testOfferAndPoll() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(3);
+		assertEquals(4, buffer.capacity());
+		assertTrue(buffer.isEmpty());
+		assertNull(buffer.poll());
+		
+		for(int round = 0;round < 3;round++) {
+			for(int i = 0;i < 4;i++) {
+				assertTrue(buffer.offer(i));
+			}
+			assertFalse(buffer.offer(4));
+			assertEquals(4, buffer.size());
+			for(int i = 0;i < 4;i++) {
+				assertEquals(i, (int)buffer.poll());
+			}
+			assertNull(buffer.poll());
+		}
+	}
+	
+	@Test
+	public void testTransferBetweenThreads() throws InterruptedException {
+		final int count = 100000;
+		final RingBuffer<Integer> buffer = new RingBuffer<>(8);
+		Thread producer = new Thread(new Runnable() {
+			@Override public void run() {
+				try {
+					for(int i = 0;i < count;i++) {
+						buffer.put(i);
+					}
+				}catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		producer.start();
+		
+		for(int i = 0;i < count;i++) {
+			assertEquals(i, (int)buffer.take());
+		}
+		producer.join();
+		assertTrue(buffer.isEmpty());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapacityMustBePositive() {
+		new RingBuffer<Integer>(0);
+	}
+}
@@ -28,6 +28,7 @@ import java.util.Arrays;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class SparseBinaryMatrixTest {
@@ -133,6 +134,95 @@ public class SparseBinaryMatrixTest {
         }
     }
 
+    @Test
+    public void testRightVecSumAtNZIndexesRowRange() {
+        int[] dimensions = new int[]{20, 150};
+        Random r = new Random(42);
+        SparseBinaryMatrixTrueCount sm = new SparseBinaryMatrixTrueCount(dimensions);
+        for (int i = 0; i < dimensions[0]; i++) {
+            for (int j = 0; j < dimensions[1]; j++) {
+                sm.set(r.nextDouble() < 0.2, i, j);
+            }
+        }
+        assertEquals(true, sm.isRowCompressed());
+
+        int[] inputVector = new int[dimensions[1]];
+        for (int j = 0; j < inputVector.length; j++) {
+            inputVector[j] = r.nextDouble() < 0.1 ? 1 : 0;
+        }
+        int[] onIndexes = ArrayUtils.where(inputVector, ArrayUtils.WHERE_1);
+
+        //Summing disjoint row ranges must give the full product
+        double[] dense = new double[dimensions[0]];
+        double[] ranges = new double[dimensions[0]];
+        sm.rightVecSumAtNZ(inputVector, dense);
+        sm.rightVecSumAtNZIndexes(onIndexes, onIndexes.length, ranges, 0, 7);
+        sm.rightVecSumAtNZIndexes(onIndexes, onIndexes.length, ranges, 7, 13);
+        sm.rightVecSumAtNZIndexes(onIndexes, onIndexes.length, ranges, 13, dimensions[0]);
+        assertTrue(Arrays.equals(dense, ranges));
+
+        //Rows must reflect changes made after they were first compressed
+        sm.clearStatistics(3);
+        sm.set(true, 3, 7);
+        sm.set(false, 5, sm.getRowIndexes(5)[0]);
+        assertTrue(Arrays.equals(new int[] { 7 }, sm.getRowIndexes(3)));
+
+        inputVector[7] = 1;
+        onIndexes = ArrayUtils.where(inputVector, ArrayUtils.WHERE_1);
+        dense = new double[dimensions[0]];
+        double[] range = new double[dimensions[0]];
+        sm.rightVecSumAtNZ(inputVector, dense);
+        sm.rightVecSumAtNZIndexes(onIndexes, onIndexes.length, range, 3, 6);
+        for (int i = 0; i < dimensions[0]; i++) {
+            assertEquals(i >= 3 && i < 6 ? dense[i] : 0, range[i], 0);
+        }
+        assertEquals(1, range[3], 0);
+    }
+
+    @Test
+    public void testRightVecSumAtNZIndexes() {
+        int[] dimensions = new int[]{20, 150};
+        Random r = new Random(42);
+        SparseBinaryMatrixTrueCount sm = new SparseBinaryMatrixTrueCount(dimensions);
+        for (int i = 0; i < dimensions[0]; i++) {
+            for (int j = 0; j < dimensions[1]; j++) {
+                sm.set(r.nextDouble() < 0.2, i, j);
+            }
+        }
+        //Flip bits back and forth so the postings are maintained incrementally
+        for (int n = 0; n < 200; n++) {
+            int row = r.nextInt(dimensions[0]);
+            if (n % 10 == 0) {
+                sm.clearStatistics(row);
+            }
+            sm.set(r.nextBoolean(), row, r.nextInt(dimensions[1]));
+        }
+
+        for (int j = 0; j < dimensions[1]; j++) {
+            //Postings are kept in ascending order
+            int[] rows = sm.getPostings(j).toArray();
+            int count = 0;
+            for (int i = 0; i < dimensions[0]; i++) {
+                if (sm.getIntValue(i, j) == 1) {
+                    assertEquals(i, rows[count++]);
+                }
+            }
+            assertEquals(rows.length, count);
+        }
+
+        int[] inputVector = new int[dimensions[1]];
+        for (int j = 0; j < inputVector.length; j++) {
+            inputVector[j] = r.nextDouble() < 0.1 ? 1 : 0;
+        }
+        int[] onIndexes = ArrayUtils.where(inputVector, ArrayUtils.WHERE_1);
+
+        double[] dense = new double[dimensions[0]];
+        double[] sparse = new double[dimensions[0]];
+        sm.rightVecSumAtNZ(inputVector, dense);
+        sm.rightVecSumAtNZIndexes(onIndexes, sparse);
+        assertTrue(Arrays.equals(dense, sparse));
+    }
+
     @Test
     public void testSetTrueCount() {
         int[] dimensions = new int[]{5, 10};